@@ -204,13 +204,13 @@ STRING_LITERAL
     : '"' ('\\"' | ~["])* '"'
     ;
 
-// Fixed comment rule with skip at the very end of each alternative
+// Comments are kept on the hidden channel so the formatter can see them
 LINE_COMMENT
-    : '//' ~[\r\n]* -> skip
+    : '//' ~[\r\n]* -> channel(HIDDEN)
     ;
 
 BLOCK_COMMENT
-    : '/*' .*? '*/' -> skip
+    : '/*' .*? '*/' -> channel(HIDDEN)
     ;
 
 WS
@@ -2,10 +2,22 @@ package org.modelphy;
 
 import org.modelphy.model.ModelPhyModel;
 import org.modelphy.parser.ModelPhyParserWrapper;
+import org.modelphy.converter.BatchConverter;
+import org.modelphy.converter.CodePhyBinaryReader;
 import org.modelphy.converter.CodePhyConverter;
+import org.modelphy.converter.CodePhyReader;
+import org.modelphy.converter.ModelPhyWriter;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -30,10 +42,17 @@ public class Main {
         // Extract flags and commands
         List<String> filteredArgs = new ArrayList<>();
         boolean debug = false;
+        boolean binary = false;
+        boolean embedData = false;
         
-        for (String arg : args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
             if (arg.equals("--debug") || arg.equals("-d")) {
                 debug = true;
+            } else if (arg.equals("--embed-data")) {
+                embedData = true;
+            } else if (arg.equals("--format") && i + 1 < args.length) {
+                binary = parseFormat(args[++i]);
             } else {
                 filteredArgs.add(arg);
             }
@@ -64,7 +83,36 @@ public class Main {
                         printUsage();
                         System.exit(1);
                     }
-                    convertToCodaPhy(filteredArgs.get(1), filteredArgs.get(2), debug);
+                    convertToCodaPhy(filteredArgs.get(1), filteredArgs.get(2), binary, embedData, debug);
+                    break;
+                    
+                case "convert-batch":
+                    if (filteredArgs.size() < 3) {
+                        System.err.println("Error: Missing output directory or inputs");
+                        printUsage();
+                        System.exit(1);
+                    }
+                    if (!convertBatch(filteredArgs.subList(1, filteredArgs.size()), binary, embedData, debug)) {
+                        System.exit(1);
+                    }
+                    break;
+                    
+                case "decode":
+                    if (filteredArgs.size() < 3) {
+                        System.err.println("Error: Missing input or output file");
+                        printUsage();
+                        System.exit(1);
+                    }
+                    decodeBinary(filteredArgs.get(1), filteredArgs.get(2));
+                    break;
+                    
+                case "import":
+                    if (filteredArgs.size() < 3) {
+                        System.err.println("Error: Missing input or output file");
+                        printUsage();
+                        System.exit(1);
+                    }
+                    importCodePhy(filteredArgs.get(1), filteredArgs.get(2));
                     break;
                     
                 case "help":
@@ -106,15 +154,34 @@ public class Main {
         System.out.println("\nModel is " + (model.isValid() ? "valid" : "invalid"));
     }
     
+    /**
+     * Parse the value of the --format option.
+     * 
+     * @param format Either "json" or "binary"
+     * @return true if the binary CodePhy encoding was selected
+     */
+    private static boolean parseFormat(String format) {
+        switch (format) {
+            case "json":
+                return false;
+            case "binary":
+                return true;
+            default:
+                throw new IllegalArgumentException("Unknown output format: " + format);
+        }
+    }
+    
     /**
      * Convert a ModelPhy file to CodePhy JSON format.
      * 
      * @param inputFile The input ModelPhy file
-     * @param outputFile The output CodePhy JSON file
+     * @param outputFile The output CodePhy file
+     * @param binary Whether to write the compact binary encoding instead of JSON
+     * @param embedData Whether to embed the contents of observation files
      * @param debug Whether to print debug information
      * @throws Exception If an error occurs
      */
-    private static void convertToCodaPhy(String inputFile, String outputFile, boolean debug) throws Exception {
+    private static void convertToCodaPhy(String inputFile, String outputFile, boolean binary, boolean embedData, boolean debug) throws Exception {
         Path inputPath = Paths.get(inputFile);
         File outputFileObj = new File(outputFile);
         
@@ -124,15 +191,134 @@ public class Main {
         ModelPhyModel model = parser.parse(inputPath);
         
         CodePhyConverter converter = new CodePhyConverter(model);
-        String json = converter.convert();
-        
-        try (FileWriter writer = new FileWriter(outputFileObj)) {
-            writer.write(json);
+        if (embedData) {
+            converter.setEmbedData(inputPath.toAbsolutePath().getParent());
         }
         
+        converter.convert(outputFileObj.toPath(), binary);
+        
         System.out.println("Conversion completed successfully.");
     }
     
+    /**
+     * Decode a binary CodePhy file back to CodePhy JSON.
+     * 
+     * @param inputFile The binary CodePhy file
+     * @param outputFile The output CodePhy JSON file
+     * @throws Exception If an error occurs
+     */
+    private static void decodeBinary(String inputFile, String outputFile) throws Exception {
+        JsonNode root;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(inputFile))) {
+            root = new CodePhyBinaryReader().read(in);
+        }
+        
+        new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(outputFile), root);
+        
+        System.out.println("Decoded " + inputFile + " to " + outputFile + ".");
+    }
+    
+    /**
+     * Convert a CodePhy JSON file back to ModelPhy source.
+     * 
+     * @param inputFile The CodePhy JSON file
+     * @param outputFile The output ModelPhy file
+     * @throws Exception If an error occurs
+     */
+    private static void importCodePhy(String inputFile, String outputFile) throws Exception {
+        System.out.println("Importing " + Paths.get(inputFile).toAbsolutePath() + " to " + Paths.get(outputFile).toAbsolutePath() + "...");
+        
+        ModelPhyModel model;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(inputFile))) {
+            model = new CodePhyReader().read(in);
+        }
+        
+        // Written only once the whole model could be, so a rejected model leaves no file behind
+        String source = new ModelPhyWriter(model).write();
+        try (FileWriter writer = new FileWriter(outputFile)) {
+            writer.write(source);
+        }
+        
+        System.out.println("Import completed successfully.");
+    }
+    
+    /**
+     * Convert many ModelPhy files to CodePhy JSON in one process.
+     * 
+     * @param args The output directory, followed by inputs and batch options
+     * @param binary Whether to write the compact binary encoding instead of JSON
+     * @param embedData Whether to embed the contents of observation files
+     * @param debug Whether to print debug information
+     * @return true if every file converted successfully
+     * @throws Exception If the inputs cannot be expanded or the report cannot be written
+     */
+    private static boolean convertBatch(List<String> args, boolean binary, boolean embedData, boolean debug) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        String reportFile = null;
+        List<String> positional = new ArrayList<>();
+        
+        for (int i = 0; i < args.size(); i++) {
+            String arg = args.get(i);
+            if ((arg.equals("--threads") || arg.equals("-j")) && i + 1 < args.size()) {
+                String value = args.get(++i);
+                threads = parseThreads(value);
+                if (threads < 1) {
+                    System.err.println("Error: Invalid thread count: " + value);
+                    printUsage();
+                    return false;
+                }
+            } else if (arg.equals("--report") && i + 1 < args.size()) {
+                reportFile = args.get(++i);
+            } else {
+                positional.add(arg);
+            }
+        }
+        
+        if (positional.size() < 2) {
+            throw new IllegalArgumentException("convert-batch needs an output directory and at least one input");
+        }
+        
+        Path outputDir = Paths.get(positional.get(0));
+        BatchConverter converter = new BatchConverter(outputDir, threads, binary, debug);
+        converter.setEmbedData(embedData);
+        List<BatchConverter.Job> jobs = converter.collectJobs(positional.subList(1, positional.size()));
+        
+        System.err.println("Converting " + jobs.size() + " files to " + outputDir.toAbsolutePath()
+            + " using " + threads + " threads...");
+        
+        long start = System.nanoTime();
+        List<BatchConverter.Result> results = converter.convertAll(jobs);
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        
+        if (reportFile != null) {
+            try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(Paths.get(reportFile)))) {
+                BatchConverter.writeReport(results, writer);
+            }
+        } else {
+            BatchConverter.writeReport(results, new PrintWriter(System.out));
+        }
+        
+        long failed = results.stream().filter(r -> !r.isSuccess()).count();
+        System.err.println("Converted " + (results.size() - failed) + " of " + results.size()
+            + " files in " + elapsed + " ms (" + failed + " failed).");
+        
+        return failed == 0;
+    }
+    
+    /**
+     * Parse the value of the --threads option.
+     * 
+     * @param value The option value
+     * @return The thread count, or 0 if the value is not a number
+     */
+    private static int parseThreads(String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+    
     /**
      * Print usage information.
      */
@@ -141,15 +327,26 @@ public class Main {
         System.out.println();
         System.out.println("Usage:");
         System.out.println("  java -jar modelphy.jar [--debug|-d] parse <input-file>");
-        System.out.println("  java -jar modelphy.jar [--debug|-d] convert <input-file> <output-file>");
+        System.out.println("  java -jar modelphy.jar [--debug|-d] [--format json|binary] [--embed-data] convert <input-file> <output-file>");
+        System.out.println("  java -jar modelphy.jar [--debug|-d] [--format json|binary] [--embed-data] convert-batch <output-dir> <input>... [--threads N] [--report <file>]");
+        System.out.println("  java -jar modelphy.jar decode <binary-file> <output-file>");
+        System.out.println("  java -jar modelphy.jar import <codephy-file> <output-file>");
         System.out.println("  java -jar modelphy.jar help");
         System.out.println();
         System.out.println("Commands:");
         System.out.println("  parse     Parse a ModelPhy file and print the model");
         System.out.println("  convert   Convert a ModelPhy file to CodePhy JSON format");
+        System.out.println("  convert-batch  Convert many ModelPhy files in one process. Inputs may be");
+        System.out.println("                 directories, glob patterns or @list files");
+        System.out.println("  decode    Convert a binary CodePhy file back to CodePhy JSON");
+        System.out.println("  import    Convert a CodePhy JSON file back to a ModelPhy file");
         System.out.println("  help      Print this help message");
         System.out.println();
         System.out.println("Options:");
         System.out.println("  --debug, -d    Print debug information during parsing");
+        System.out.println("  --format       Output encoding for convert: json (default) or binary");
+        System.out.println("  --embed-data   Copy the sequences of 'observe from' files into the output");
+        System.out.println("  --threads, -j  Number of worker threads for convert-batch (default: CPU count)");
+        System.out.println("  --report       Write the convert-batch status/timing report to a file");
     }
 }
\ No newline at end of file
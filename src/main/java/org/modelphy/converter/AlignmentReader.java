@@ -0,0 +1,303 @@
+package org.modelphy.converter;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Reads an alignment file one sequence at a time.
+ *
+ * FASTA, sequential PHYLIP and non-interleaved NEXUS matrices are supported.
+ * Only the current record is held in memory, so arbitrarily large alignments
+ * can be copied into a CodePhy document without materialising them. Interleaved
+ * PHYLIP and NEXUS cannot be read this way because each taxon is spread across
+ * the whole file.
+ */
+public class AlignmentReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Supported alignment file formats.
+     */
+    public enum Format {
+        FASTA, PHYLIP, NEXUS
+    }
+
+    /**
+     * A single taxon and its sequence.
+     */
+    public static class Record {
+        private final String name;
+        private final String sequence;
+
+        public Record(String name, String sequence) {
+            this.name = name;
+            this.sequence = sequence;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getSequence() {
+            return sequence;
+        }
+    }
+
+    /** The longest PHYLIP sequence accepted; one sequence is held in memory as a single string. */
+    static final int MAX_PHYLIP_LENGTH = 1 << 30;
+    // Sequences are buffered in steps rather than all at once, in case the header overstates them
+    private static final int MAX_PRESIZE = 1 << 20;
+
+    private final BufferedReader reader;
+    private final Format format;
+    private String pendingLine;
+    private int phylipLength = -1;
+    private boolean inMatrix;
+    private boolean finished;
+
+    /**
+     * Open an alignment file, detecting its format from the extension or content.
+     *
+     * @param path The alignment file
+     * @throws IOException If the file cannot be opened or its format is not recognised
+     */
+    public AlignmentReader(Path path) throws IOException {
+        this.reader = new BufferedReader(Files.newBufferedReader(path, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            this.format = detectFormat(path);
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get the detected file format.
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    private Format detectFormat(Path path) throws IOException {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".fasta") || name.endsWith(".fa") || name.endsWith(".fas")
+                || name.endsWith(".fna") || name.endsWith(".faa")) {
+            return Format.FASTA;
+        } else if (name.endsWith(".phy") || name.endsWith(".phylip")) {
+            return Format.PHYLIP;
+        } else if (name.endsWith(".nex") || name.endsWith(".nexus") || name.endsWith(".nxs")) {
+            return Format.NEXUS;
+        }
+
+        // Fall back to the first non-blank line
+        String line = nextNonBlankLine();
+        pendingLine = line;
+        if (line == null || line.startsWith(">")) {
+            return Format.FASTA;
+        } else if (line.toUpperCase(Locale.ROOT).startsWith("#NEXUS")) {
+            return Format.NEXUS;
+        } else if (Character.isDigit(line.charAt(0))) {
+            return Format.PHYLIP;
+        }
+        throw new IOException("Unrecognised alignment format: " + path);
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return The next taxon and sequence, or null at the end of the alignment
+     * @throws IOException If the file cannot be read or is malformed
+     */
+    public Record next() throws IOException {
+        if (finished) {
+            return null;
+        }
+
+        Record record;
+        switch (format) {
+            case PHYLIP:
+                record = nextPhylip();
+                break;
+            case NEXUS:
+                record = nextNexus();
+                break;
+            case FASTA:
+            default:
+                record = nextFasta();
+                break;
+        }
+
+        if (record == null) {
+            finished = true;
+        }
+        return record;
+    }
+
+    private Record nextFasta() throws IOException {
+        String header = nextNonBlankLine();
+        if (header == null) {
+            return null;
+        }
+        if (!header.startsWith(">")) {
+            throw new IOException("Expected FASTA header but found: " + abbreviate(header));
+        }
+
+        String name = firstToken(header.substring(1));
+        StringBuilder sequence = new StringBuilder();
+        String line;
+        while ((line = nextLine()) != null) {
+            if (line.startsWith(">")) {
+                pendingLine = line;
+                break;
+            }
+            appendResidues(sequence, line);
+        }
+        return new Record(name, sequence.toString());
+    }
+
+    private Record nextPhylip() throws IOException {
+        if (phylipLength < 0) {
+            String header = nextNonBlankLine();
+            if (header == null) {
+                return null;
+            }
+            String[] dims = header.split("\\s+");
+            if (dims.length < 2) {
+                throw new IOException("Malformed PHYLIP header: " + abbreviate(header));
+            }
+            int taxa;
+            int length;
+            try {
+                taxa = Integer.parseInt(dims[0]);
+                length = Integer.parseInt(dims[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed PHYLIP header: " + abbreviate(header), e);
+            }
+            if (taxa < 0 || length < 0 || length > MAX_PHYLIP_LENGTH) {
+                throw new IOException("Invalid PHYLIP dimensions: " + abbreviate(header));
+            }
+            phylipLength = length;
+        }
+
+        String line = nextNonBlankLine();
+        if (line == null) {
+            return null;
+        }
+
+        String name = firstToken(line);
+        StringBuilder sequence = new StringBuilder(Math.min(phylipLength, MAX_PRESIZE));
+        appendResidues(sequence, line.substring(line.indexOf(name) + name.length()));
+
+        // Sequential PHYLIP may wrap a sequence over several lines
+        while (sequence.length() < phylipLength) {
+            String more = nextLine();
+            if (more == null) {
+                throw new IOException("Unexpected end of PHYLIP file in sequence " + name);
+            }
+            appendResidues(sequence, more);
+        }
+        return new Record(name, sequence.toString());
+    }
+
+    private Record nextNexus() throws IOException {
+        String line;
+        while (!inMatrix) {
+            line = nextNonBlankLine();
+            if (line == null) {
+                return null;
+            }
+            String upper = line.toUpperCase(Locale.ROOT);
+            if (upper.startsWith("FORMAT") && upper.contains("INTERLEAVE") && !upper.contains("INTERLEAVE=NO")) {
+                throw new IOException("Interleaved NEXUS matrices cannot be streamed");
+            }
+            if (upper.startsWith("MATRIX")) {
+                inMatrix = true;
+                String rest = line.substring("MATRIX".length()).trim();
+                if (!rest.isEmpty()) {
+                    pendingLine = rest;
+                }
+            }
+        }
+
+        line = nextNonBlankLine();
+        if (line == null || line.startsWith(";")) {
+            return null;
+        }
+
+        boolean last = line.endsWith(";");
+        if (last) {
+            line = line.substring(0, line.length() - 1);
+            pendingLine = ";";
+        }
+
+        String name;
+        String rest;
+        if (line.startsWith("'")) {
+            int end = line.indexOf('\'', 1);
+            if (end < 0) {
+                throw new IOException("Unterminated taxon name: " + abbreviate(line));
+            }
+            name = line.substring(1, end);
+            rest = line.substring(end + 1);
+        } else {
+            name = firstToken(line);
+            rest = line.substring(name.length());
+        }
+
+        StringBuilder sequence = new StringBuilder();
+        appendResidues(sequence, rest);
+        return new Record(name, sequence.toString());
+    }
+
+    private String nextLine() throws IOException {
+        if (pendingLine != null) {
+            String line = pendingLine;
+            pendingLine = null;
+            return line;
+        }
+        String line = reader.readLine();
+        return line != null ? line.trim() : null;
+    }
+
+    private String nextNonBlankLine() throws IOException {
+        String line;
+        while ((line = nextLine()) != null) {
+            if (!line.isEmpty() && !(format == Format.NEXUS && line.startsWith("["))) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    private static void appendResidues(StringBuilder sequence, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                sequence.append(c);
+            }
+        }
+    }
+
+    private static String firstToken(String text) {
+        String trimmed = text.trim();
+        int end = 0;
+        while (end < trimmed.length() && !Character.isWhitespace(trimmed.charAt(end))) {
+            end++;
+        }
+        return trimmed.substring(0, end);
+    }
+
+    private static String abbreviate(String line) {
+        return line.length() > 40 ? line.substring(0, 40) + "..." : line;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,340 @@
+package org.modelphy.converter;
+
+import org.modelphy.model.ModelPhyModel;
+import org.modelphy.parser.ModelPhyParserWrapper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Converts many ModelPhy files to CodePhy JSON in a single JVM.
+ *
+ * Inputs are expanded from directories (searched recursively for .mphy files),
+ * glob patterns and list files, then converted on a fixed pool of worker threads.
+ * The ObjectMapper is shared by all workers; each worker keeps its own
+ * ModelPhyParserWrapper, while the ANTLR ATN and DFA caches behind it are
+ * static and therefore warmed up once for the whole batch.
+ */
+public class BatchConverter {
+    private static final String MODELPHY_EXTENSION = ".mphy";
+    private static final String CODEPHY_EXTENSION = ".json";
+    private static final String CODEPHY_BINARY_EXTENSION = ".cphb";
+
+    private final Path outputDir;
+    private final int threads;
+    private final boolean binary;
+    private final boolean debug;
+    private boolean embedData;
+    private final ObjectMapper mapper;
+    private final ThreadLocal<ModelPhyParserWrapper> parsers;
+
+    /**
+     * Create a new batch converter.
+     *
+     * @param outputDir The directory that receives the converted files
+     * @param threads The number of worker threads
+     * @param binary Whether to write the compact binary encoding instead of JSON
+     * @param debug Whether to print debug information while parsing
+     */
+    public BatchConverter(Path outputDir, int threads, boolean binary, boolean debug) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+        }
+        this.outputDir = outputDir;
+        this.threads = threads;
+        this.binary = binary;
+        this.debug = debug;
+        this.mapper = new ObjectMapper();
+        this.parsers = ThreadLocal.withInitial(() -> new ModelPhyParserWrapper(this.debug));
+    }
+
+    /**
+     * Embed the contents of observation files, resolved relative to each input file.
+     *
+     * @param embedData Whether to embed observation data
+     */
+    public void setEmbedData(boolean embedData) {
+        this.embedData = embedData;
+    }
+
+    /**
+     * Expand the given input specifications into conversion jobs.
+     *
+     * An input is either a directory, a glob pattern such as "models/**&#47;*.mphy",
+     * a list file prefixed with '@' containing one input per line, or a plain file.
+     * Output paths mirror the input layout below the directory or glob base;
+     * a plain file is written directly to the output directory.
+     *
+     * @param inputs The input specifications
+     * @return The jobs in a stable order, without duplicates
+     * @throws IOException If a directory or list file cannot be read
+     * @throws IllegalArgumentException If two different inputs would be written to the same output file
+     */
+    public List<Job> collectJobs(List<String> inputs) throws IOException {
+        Map<Path, Job> jobs = new LinkedHashMap<>();
+        Map<Path, Job> outputs = new HashMap<>();
+        for (String input : inputs) {
+            collectJobs(input, jobs, outputs);
+        }
+        return new ArrayList<>(jobs.values());
+    }
+
+    private void collectJobs(String input, Map<Path, Job> jobs, Map<Path, Job> outputs) throws IOException {
+        if (input.startsWith("@")) {
+            for (String line : Files.readAllLines(Paths.get(input.substring(1)))) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    collectJobs(line, jobs, outputs);
+                }
+            }
+        } else if (isGlob(input)) {
+            Path base = globBase(input);
+            String pattern = base.toString().isEmpty() ? input : input.substring(base.toString().length() + 1);
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + optionalDirectories(pattern));
+            Path root = base.toString().isEmpty() ? Paths.get(".") : base;
+            for (Path file : listFiles(root)) {
+                if (matcher.matches(root.relativize(file))) {
+                    addJob(jobs, outputs, file, root.relativize(file));
+                }
+            }
+        } else {
+            Path path = Paths.get(input);
+            if (Files.isDirectory(path)) {
+                for (Path file : listFiles(path)) {
+                    if (file.getFileName().toString().endsWith(MODELPHY_EXTENSION)) {
+                        addJob(jobs, outputs, file, path.relativize(file));
+                    }
+                }
+            } else {
+                addJob(jobs, outputs, path, path.getFileName());
+            }
+        }
+    }
+
+    private void addJob(Map<Path, Job> jobs, Map<Path, Job> outputs, Path input, Path relative) {
+        Path key = input.toAbsolutePath().normalize();
+        if (jobs.containsKey(key)) {
+            return;
+        }
+        Job job = new Job(input, outputDir.resolve(toOutputName(relative)));
+        // Converting both would leave only the output of whichever finished last
+        Job existing = outputs.putIfAbsent(job.getOutput().toAbsolutePath().normalize(), job);
+        if (existing != null) {
+            throw new IllegalArgumentException("Inputs " + existing.getInput() + " and " + input
+                + " would both be written to " + job.getOutput());
+        }
+        jobs.put(key, job);
+    }
+
+    private Path toOutputName(Path relative) {
+        String name = relative.getFileName().toString();
+        if (name.endsWith(MODELPHY_EXTENSION)) {
+            name = name.substring(0, name.length() - MODELPHY_EXTENSION.length());
+        }
+        name += binary ? CODEPHY_BINARY_EXTENSION : CODEPHY_EXTENSION;
+        Path parent = relative.getParent();
+        return parent != null ? parent.resolve(name) : Paths.get(name);
+    }
+
+    private static List<Path> listFiles(Path root) throws IOException {
+        try (Stream<Path> stream = Files.walk(root)) {
+            return stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isGlob(String input) {
+        return input.indexOf('*') >= 0 || input.indexOf('?') >= 0
+            || input.indexOf('[') >= 0 || input.indexOf('{') >= 0;
+    }
+
+    /**
+     * Let each "**&#47;" in a glob also match no directories, so that "dir/**&#47;*.mphy" includes
+     * the files directly in "dir" as shells do. Groups cannot nest, so "**&#47;" inside braces is left alone.
+     */
+    private static String optionalDirectories(String pattern) {
+        StringBuilder rewritten = new StringBuilder();
+        boolean inGroup = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '{') {
+                inGroup = true;
+            } else if (c == '}') {
+                inGroup = false;
+            } else if (c == '\\' && i + 1 < pattern.length()) {
+                rewritten.append(c).append(pattern.charAt(++i));
+                continue;
+            }
+            if (!inGroup && pattern.startsWith("**/", i)) {
+                rewritten.append("{,**/}");
+                i += 2;
+            } else {
+                rewritten.append(c);
+            }
+        }
+        return rewritten.toString();
+    }
+
+    /**
+     * Get the leading directories of a glob pattern that contain no wildcards.
+     */
+    private static Path globBase(String pattern) {
+        String[] segments = pattern.split("[/\\\\]");
+        StringBuilder base = new StringBuilder();
+        for (int i = 0; i < segments.length - 1 && !isGlob(segments[i]); i++) {
+            if (i > 0) {
+                base.append('/');
+            }
+            base.append(segments[i]);
+        }
+        return Paths.get(base.toString());
+    }
+
+    /**
+     * Convert all jobs on the worker pool.
+     *
+     * @param jobs The jobs to run
+     * @return One result per job, in job order
+     * @throws InterruptedException If the calling thread is interrupted while waiting
+     */
+    public List<Result> convertAll(List<Job> jobs) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Job job : jobs) {
+                futures.add(executor.submit(() -> convert(job)));
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    results.add(new Result(jobs.get(i), false, 0, e.getCause().toString()));
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Convert a single job, capturing any failure in the result.
+     */
+    private Result convert(Job job) {
+        long start = System.nanoTime();
+        try {
+            ModelPhyModel model = parsers.get().parse(job.getInput());
+            CodePhyConverter converter = new CodePhyConverter(model, mapper);
+            if (embedData) {
+                converter.setEmbedData(job.getInput().toAbsolutePath().getParent());
+            }
+
+            Path parent = job.getOutput().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            converter.convert(job.getOutput(), binary);
+
+            return new Result(job, true, elapsedMillis(start), null);
+        } catch (Exception e) {
+            String message = e.getMessage() != null ? e.getMessage() : e.toString();
+            return new Result(job, false, elapsedMillis(start), message);
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    /**
+     * Write a tab-separated status and timing report, one line per file.
+     *
+     * @param results The conversion results
+     * @param writer The report destination
+     */
+    public static void writeReport(List<Result> results, PrintWriter writer) {
+        writer.println("status\tmillis\tinput\toutput\tmessage");
+        for (Result result : results) {
+            writer.println((result.isSuccess() ? "OK" : "FAILED") + "\t"
+                + result.getMillis() + "\t"
+                + result.getJob().getInput() + "\t"
+                + result.getJob().getOutput() + "\t"
+                + (result.getMessage() != null ? result.getMessage().replaceAll("\\s+", " ") : ""));
+        }
+        writer.flush();
+    }
+
+    /**
+     * A single input file and the output file it converts to.
+     */
+    public static class Job {
+        private final Path input;
+        private final Path output;
+
+        public Job(Path input, Path output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        public Path getInput() {
+            return input;
+        }
+
+        public Path getOutput() {
+            return output;
+        }
+    }
+
+    /**
+     * The outcome of converting one job.
+     */
+    public static class Result {
+        private final Job job;
+        private final boolean success;
+        private final long millis;
+        private final String message;
+
+        public Result(Job job, boolean success, long millis, String message) {
+            this.job = job;
+            this.success = success;
+            this.millis = millis;
+            this.message = message;
+        }
+
+        public Job getJob() {
+            return job;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Get the failure message.
+         *
+         * @return The error message, or null if the conversion succeeded
+         */
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.modelphy.converter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.*;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.modelphy.converter.CodePhyBinaryWriter.*;
+
+/**
+ * Reads the compact binary CodePhy encoding written by {@link CodePhyBinaryWriter}
+ * back into a Jackson JSON tree.
+ */
+public class CodePhyBinaryReader {
+    private final JsonNodeFactory factory = JsonNodeFactory.instance;
+    private String[] strings;
+
+    /**
+     * Decode a binary CodePhy document.
+     *
+     * @param in The source stream, positioned at the magic bytes
+     * @return The decoded JSON tree
+     * @throws IOException If the stream is truncated or not in the binary CodePhy format
+     */
+    public JsonNode read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary CodePhy document");
+        }
+        int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary CodePhy version: " + version);
+        }
+
+        int count = readVarint(data);
+        strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[readVarint(data)];
+            data.readFully(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        return readValue(data);
+    }
+
+    private JsonNode readValue(DataInputStream data) throws IOException {
+        int tag = data.readUnsignedByte();
+        switch (tag) {
+            case TAG_NULL:
+                return factory.nullNode();
+            case TAG_FALSE:
+                return factory.booleanNode(false);
+            case TAG_TRUE:
+                return factory.booleanNode(true);
+            case TAG_INT:
+                return factory.numberNode((int) unzigzag(readVarlong(data)));
+            case TAG_LONG:
+                return factory.numberNode(unzigzag(readVarlong(data)));
+            case TAG_DOUBLE:
+                return factory.numberNode(data.readDouble());
+            case TAG_FLOAT:
+                return factory.numberNode(data.readFloat());
+            case TAG_BIG_INTEGER:
+                return factory.numberNode(new BigInteger(string(data)));
+            case TAG_BIG_DECIMAL:
+                return factory.numberNode(new BigDecimal(string(data)));
+            case TAG_STRING:
+                return factory.textNode(string(data));
+            case TAG_ARRAY: {
+                int size = readVarint(data);
+                ArrayNode array = factory.arrayNode(size);
+                for (int i = 0; i < size; i++) {
+                    array.add(readValue(data));
+                }
+                return array;
+            }
+            case TAG_OBJECT: {
+                int size = readVarint(data);
+                ObjectNode object = factory.objectNode();
+                for (int i = 0; i < size; i++) {
+                    String key = string(data);
+                    object.set(key, readValue(data));
+                }
+                return object;
+            }
+            case TAG_INT_ARRAY: {
+                int size = readVarint(data);
+                ArrayNode array = factory.arrayNode(size);
+                for (int i = 0; i < size; i++) {
+                    array.add((int) unzigzag(readVarlong(data)));
+                }
+                return array;
+            }
+            case TAG_DOUBLE_ARRAY: {
+                int size = readVarint(data);
+                ArrayNode array = factory.arrayNode(size);
+                for (int i = 0; i < size; i++) {
+                    array.add(data.readDouble());
+                }
+                return array;
+            }
+            default:
+                throw new IOException("Unknown value tag in binary CodePhy document: " + tag);
+        }
+    }
+
+    private String string(DataInputStream data) throws IOException {
+        int index = readVarint(data);
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("String index out of range: " + index);
+        }
+        return strings[index];
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int readVarint(DataInputStream data) throws IOException {
+        long value = readVarlong(data);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Length out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private static long readVarlong(DataInputStream data) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = data.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
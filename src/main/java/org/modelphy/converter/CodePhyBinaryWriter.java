@@ -0,0 +1,186 @@
+package org.modelphy.converter;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes a CodePhy JSON tree in the compact binary CodePhy encoding.
+ *
+ * Layout:
+ * <pre>
+ *   magic "CPHB", format version byte
+ *   string table: varint count, then (varint byte length, UTF-8 bytes) per string
+ *   root value
+ * </pre>
+ * Every object key and string value is stored once in the string table and
+ * referenced by index, so repeated keys, variable names and taxon labels cost a
+ * varint per use. Containers are prefixed with their element count, and arrays
+ * whose elements are all ints or all doubles are packed without per-element tags.
+ * {@link CodePhyBinaryReader} restores an identical JsonNode tree.
+ */
+public class CodePhyBinaryWriter {
+    static final byte[] MAGIC = { 'C', 'P', 'H', 'B' };
+    static final int VERSION = 1;
+
+    static final int TAG_NULL = 0;
+    static final int TAG_FALSE = 1;
+    static final int TAG_TRUE = 2;
+    static final int TAG_INT = 3;
+    static final int TAG_LONG = 4;
+    static final int TAG_DOUBLE = 5;
+    static final int TAG_FLOAT = 6;
+    static final int TAG_BIG_INTEGER = 7;
+    static final int TAG_BIG_DECIMAL = 8;
+    static final int TAG_STRING = 9;
+    static final int TAG_ARRAY = 10;
+    static final int TAG_OBJECT = 11;
+    static final int TAG_INT_ARRAY = 12;
+    static final int TAG_DOUBLE_ARRAY = 13;
+
+    private final Map<String, Integer> stringIndex = new LinkedHashMap<>();
+
+    /**
+     * Encode a JSON tree to the binary format.
+     *
+     * @param root The CodePhy JSON tree
+     * @param out The destination stream; it is flushed but not closed
+     * @throws IOException If writing fails
+     */
+    public void write(JsonNode root, OutputStream out) throws IOException {
+        stringIndex.clear();
+        collectStrings(root);
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+
+        writeVarint(data, stringIndex.size());
+        for (String s : stringIndex.keySet()) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarint(data, bytes.length);
+            data.write(bytes);
+        }
+
+        writeValue(data, root);
+        data.flush();
+    }
+
+    /**
+     * Walk the tree once to build the string table in first-use order.
+     */
+    private void collectStrings(JsonNode node) {
+        if (node.isTextual()) {
+            intern(node.textValue());
+        } else if (node.isBigInteger() || node.isBigDecimal()) {
+            intern(node.asText());
+        } else if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                intern(field.getKey());
+                collectStrings(field.getValue());
+            }
+        } else if (node.isArray()) {
+            for (JsonNode element : node) {
+                collectStrings(element);
+            }
+        }
+    }
+
+    private void intern(String s) {
+        stringIndex.putIfAbsent(s, stringIndex.size());
+    }
+
+    private void writeValue(DataOutputStream data, JsonNode node) throws IOException {
+        if (node == null || node.isNull() || node.isMissingNode()) {
+            data.writeByte(TAG_NULL);
+        } else if (node.isBoolean()) {
+            data.writeByte(node.booleanValue() ? TAG_TRUE : TAG_FALSE);
+        } else if (node.isInt() || node.isShort()) {
+            data.writeByte(TAG_INT);
+            writeVarlong(data, zigzag(node.intValue()));
+        } else if (node.isLong()) {
+            data.writeByte(TAG_LONG);
+            writeVarlong(data, zigzag(node.longValue()));
+        } else if (node.isDouble()) {
+            data.writeByte(TAG_DOUBLE);
+            data.writeDouble(node.doubleValue());
+        } else if (node.isFloat()) {
+            data.writeByte(TAG_FLOAT);
+            data.writeFloat(node.floatValue());
+        } else if (node.isBigInteger()) {
+            data.writeByte(TAG_BIG_INTEGER);
+            writeVarint(data, stringIndex.get(node.asText()));
+        } else if (node.isBigDecimal()) {
+            data.writeByte(TAG_BIG_DECIMAL);
+            writeVarint(data, stringIndex.get(node.asText()));
+        } else if (node.isTextual()) {
+            data.writeByte(TAG_STRING);
+            writeVarint(data, stringIndex.get(node.textValue()));
+        } else if (node.isArray()) {
+            writeArray(data, node);
+        } else if (node.isObject()) {
+            data.writeByte(TAG_OBJECT);
+            writeVarint(data, node.size());
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                writeVarint(data, stringIndex.get(field.getKey()));
+                writeValue(data, field.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported JSON node type: " + node.getNodeType());
+        }
+    }
+
+    private void writeArray(DataOutputStream data, JsonNode array) throws IOException {
+        int size = array.size();
+        boolean allInts = size > 0;
+        boolean allDoubles = size > 0;
+        for (JsonNode element : array) {
+            allInts &= element.isInt();
+            allDoubles &= element.isDouble();
+        }
+
+        if (allInts) {
+            data.writeByte(TAG_INT_ARRAY);
+            writeVarint(data, size);
+            for (JsonNode element : array) {
+                writeVarlong(data, zigzag(element.intValue()));
+            }
+        } else if (allDoubles) {
+            data.writeByte(TAG_DOUBLE_ARRAY);
+            writeVarint(data, size);
+            for (JsonNode element : array) {
+                data.writeDouble(element.doubleValue());
+            }
+        } else {
+            data.writeByte(TAG_ARRAY);
+            writeVarint(data, size);
+            for (JsonNode element : array) {
+                writeValue(data, element);
+            }
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarint(DataOutputStream data, int value) throws IOException {
+        writeVarlong(data, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarlong(DataOutputStream data, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            data.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        data.writeByte((int) value);
+    }
+}
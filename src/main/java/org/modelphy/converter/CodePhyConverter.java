@@ -1,20 +1,42 @@
 package org.modelphy.converter;
 
-import org.modelphy.model.*;
+import org.modelphy.ir.*;
+import org.modelphy.model.ModelPhyModel;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.*;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
 /**
  * Converts a ModelPhy model to CodePhy JSON format.
+ * 
+ * The converter emits from the model's lowered {@link ModelIR}, so references,
+ * distribution kinds and value types are resolved once rather than on every lookup.
  */
 public class CodePhyConverter {
-    private final ModelPhyModel model;
+    private static final int EMBED_QUEUE_CAPACITY = 64;
+    private static final AlignmentReader.Record END_OF_ALIGNMENT = new AlignmentReader.Record(null, null);
+    
+    private final ModelIR model;
     private final ObjectMapper mapper;
+    private Path dataDirectory;
+    private final List<EmbeddedObservation> embeddedObservations = new ArrayList<>();
     
     /**
      * Create a new CodePhy converter for the given model.
@@ -22,8 +44,42 @@ public class CodePhyConverter {
      * @param model The ModelPhy model to convert
      */
     public CodePhyConverter(ModelPhyModel model) {
+        this(model, new ObjectMapper());
+    }
+
+    /**
+     * Create a new CodePhy converter that builds its JSON with a shared mapper.
+     * ObjectMapper is thread-safe once configured, so batch conversions can
+     * reuse a single instance across worker threads.
+     *
+     * @param model The ModelPhy model to convert
+     * @param mapper The Jackson mapper used to build and write the JSON tree
+     */
+    public CodePhyConverter(ModelPhyModel model, ObjectMapper mapper) {
+        this(ModelIR.lower(model), mapper);
+    }
+    
+    /**
+     * Create a new CodePhy converter for an already lowered model, so that
+     * several emitters can share one lowering.
+     * 
+     * @param model The lowered model to convert
+     * @param mapper The Jackson mapper used to build and write the JSON tree
+     */
+    public CodePhyConverter(ModelIR model, ObjectMapper mapper) {
         this.model = model;
-        this.mapper = new ObjectMapper();
+        this.mapper = mapper;
+    }
+    
+    /**
+     * Embed the data of file observations into the output instead of only
+     * referencing the file. Relative filenames are resolved against the given
+     * directory, normally the one containing the .mphy file.
+     * 
+     * @param dataDirectory The directory to resolve observation files against, or null to disable embedding
+     */
+    public void setEmbedData(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
     }
     
     /**
@@ -32,7 +88,214 @@ public class CodePhyConverter {
      * @return A string containing the CodePhy JSON representation
      */
     public String convert() {
+        if (dataDirectory != null) {
+            try {
+                StringWriter writer = new StringWriter();
+                convert(writer);
+                return writer.toString();
+            } catch (IOException e) {
+                throw new RuntimeException("Error converting to CodePhy format", e);
+            }
+        }
+        
+        try {
+            // Convert to formatted JSON
+            return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(toJsonTree());
+        } catch (Exception e) {
+            throw new RuntimeException("Error converting to CodePhy format", e);
+        }
+    }
+    
+    /**
+     * Convert the ModelPhy model to the compact binary CodePhy encoding.
+     * 
+     * @param out The stream to write the encoded document to
+     * @throws IOException If writing to the stream fails
+     */
+    public void convertToBinary(OutputStream out) throws IOException {
+        ObjectNode root = toJsonTree();
+        
+        // The binary string table needs every string up front, so embedded data is read into the tree
+        for (EmbeddedObservation embedded : embeddedObservations) {
+            ObjectNode sequences = embedded.observedValue.putObject("sequences");
+            try (AlignmentReader reader = new AlignmentReader(embedded.file)) {
+                AlignmentReader.Record record;
+                while ((record = reader.next()) != null) {
+                    sequences.put(record.getName(), record.getSequence());
+                }
+            }
+        }
+        
+        new CodePhyBinaryWriter().write(root, out);
+    }
+    
+    /**
+     * Write the model to a file as formatted CodePhy JSON or in the binary encoding.
+     * 
+     * The document is written to a temporary file next to the output and moved
+     * into place only once it is complete, so a failed conversion neither leaves
+     * a partial document behind nor replaces an earlier one.
+     * 
+     * @param output The file to write
+     * @param binary Whether to write the binary encoding instead of JSON
+     * @throws IOException If writing fails or an observation file cannot be read
+     */
+    public void convert(Path output, boolean binary) throws IOException {
+        Path target = output.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            if (binary) {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp))) {
+                    convertToBinary(out);
+                }
+            } else {
+                try (Writer writer = Files.newBufferedWriter(temp)) {
+                    convert(writer);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    /**
+     * Write the model as formatted CodePhy JSON.
+     * 
+     * When data embedding is enabled, the observation files are read concurrently
+     * on background threads and copied record by record into
+     * observedValue.sequences as the document is written. Each reader is bounded
+     * by a small queue, so no alignment is held in memory as a whole.
+     * 
+     * @param out The destination; it is flushed but not closed, and if writing
+     *            fails it holds an unterminated document rather than one that looks complete
+     * @throws IOException If writing fails or an observation file cannot be read
+     */
+    public void convert(Writer out) throws IOException {
+        ObjectNode root = toJsonTree();
+        
+        Map<ObjectNode, BlockingQueue<AlignmentReader.Record>> streams = new IdentityHashMap<>();
+        Map<ObjectNode, Throwable[]> errors = new IdentityHashMap<>();
+        ExecutorService executor = null;
+        
+        if (!embeddedObservations.isEmpty()) {
+            int threads = Math.min(embeddedObservations.size(), Runtime.getRuntime().availableProcessors());
+            executor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "modelphy-embed-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            
+            // Readers are submitted in document order, which is also the order they are drained in
+            for (EmbeddedObservation embedded : embeddedObservations) {
+                BlockingQueue<AlignmentReader.Record> queue = new ArrayBlockingQueue<>(EMBED_QUEUE_CAPACITY);
+                Throwable[] error = new Throwable[1];
+                streams.put(embedded.observedValue, queue);
+                errors.put(embedded.observedValue, error);
+                executor.execute(() -> readAlignment(embedded.file, queue, error));
+            }
+        }
+        
+        try (JsonGenerator gen = mapper.getFactory().createGenerator(out)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // Closing after a failure must not balance the open objects into valid JSON
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            gen.useDefaultPrettyPrinter();
+            writeNode(gen, root, streams, errors);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+    
+    /**
+     * Copy an alignment file into a queue, ending with END_OF_ALIGNMENT.
+     *
+     * The end marker is queued however reading stops, so the writer never
+     * waits forever; what stopped it is left in the error slot.
+     */
+    private static void readAlignment(Path file, BlockingQueue<AlignmentReader.Record> queue, Throwable[] error) {
+        try {
+            try (AlignmentReader reader = new AlignmentReader(file)) {
+                AlignmentReader.Record record;
+                while ((record = reader.next()) != null) {
+                    queue.put(record);
+                }
+            } catch (InterruptedException e) {
+                // The writer gave up on this document
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable e) {
+                error[0] = e;
+            } finally {
+                if (!Thread.currentThread().isInterrupted()) {
+                    queue.put(END_OF_ALIGNMENT);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Write a JSON tree, streaming embedded alignments into their observedValue objects.
+     */
+    private void writeNode(JsonGenerator gen, JsonNode node,
+                           Map<ObjectNode, BlockingQueue<AlignmentReader.Record>> streams,
+                           Map<ObjectNode, Throwable[]> errors) throws IOException {
+        if (node.isObject()) {
+            gen.writeStartObject();
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                gen.writeFieldName(field.getKey());
+                writeNode(gen, field.getValue(), streams, errors);
+            }
+            
+            BlockingQueue<AlignmentReader.Record> queue = streams.get(node);
+            if (queue != null) {
+                gen.writeFieldName("sequences");
+                gen.writeStartObject();
+                try {
+                    AlignmentReader.Record record;
+                    while ((record = queue.take()) != END_OF_ALIGNMENT) {
+                        gen.writeStringField(record.getName(), record.getSequence());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while embedding observation data", e);
+                }
+                Throwable error = errors.get(node)[0];
+                if (error instanceof Error) {
+                    throw (Error) error;
+                }
+                if (error != null) {
+                    throw new IOException("Error embedding observation data: " + error.getMessage(), error);
+                }
+                gen.writeEndObject();
+            }
+            
+            gen.writeEndObject();
+        } else if (node.isArray()) {
+            gen.writeStartArray();
+            for (JsonNode element : node) {
+                writeNode(gen, element, streams, errors);
+            }
+            gen.writeEndArray();
+        } else {
+            mapper.writeTree(gen, node);
+        }
+    }
+    
+    /**
+     * Build the CodePhy document as a JSON tree.
+     * 
+     * @return The root CodePhy object
+     */
+    public ObjectNode toJsonTree() {
         try {
+            embeddedObservations.clear();
             ObjectNode root = mapper.createObjectNode();
             
             // Add CodePhy version
@@ -59,8 +322,7 @@ public class CodePhyConverter {
                 addConstraints(constraints);
             }
             
-            // Convert to formatted JSON
-            return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(root);
+            return root;
         } catch (Exception e) {
             throw new RuntimeException("Error converting to CodePhy format", e);
         }
@@ -71,13 +333,13 @@ public class CodePhyConverter {
      */
     private String getModelName() {
         // Try to use the name of the first alignment or tree variable
-        for (Variable var : model.getVariables()) {
+        for (IRVariable var : model.getVariables()) {
             if (var.getType().equals("alignment")) {
                 return var.getName() + "_model";
             }
         }
         
-        for (Variable var : model.getVariables()) {
+        for (IRVariable var : model.getVariables()) {
             if (var.getType().equals("tree") || var.getType().equals("timetree")) {
                 return var.getName() + "_model";
             }
@@ -116,13 +378,9 @@ public class CodePhyConverter {
         tags.add("converted");
         
         // Add model-specific tags based on variables
-        for (Variable var : model.getVariables()) {
-            if (var instanceof DeterministicVariable && var.getType().equals("substmodel")) {
-                DeterministicVariable detVar = (DeterministicVariable) var;
-                if (detVar.getExpression() instanceof FunctionCall) {
-                    FunctionCall func = (FunctionCall) detVar.getExpression();
-                    tags.add(func.getName().toLowerCase());
-                }
+        for (IRVariable var : model.getDeterministicVariables()) {
+            if (var.getType().equals("substmodel") && var.getExpression().getKind() == IRValue.Kind.CALL) {
+                tags.add(var.getExpression().getFunction().toLowerCase());
             }
         }
     }
@@ -131,7 +389,7 @@ public class CodePhyConverter {
      * Add random variables to the CodePhy JSON.
      */
     private void addRandomVariables(ObjectNode randomVariables) {
-        for (StochasticVariable var : model.getStochasticVariables()) {
+        for (IRVariable var : model.getStochasticVariables()) {
             ObjectNode varNode = randomVariables.putObject(var.getName());
             
             // Add distribution
@@ -140,36 +398,38 @@ public class CodePhyConverter {
             
             // Add observed value if present
             if (var.isObserved()) {
-                Observation obs = var.getObservation();
+                IRObservation obs = var.getObservation();
                 
-                if (obs.getType() == ObservationType.FILE) {
+                if (obs.isFile()) {
                     ObjectNode observedValue = varNode.putObject("observedValue");
                     observedValue.put("file", obs.getFilename());
-                } else if (obs.getType() == ObservationType.INLINE) {
-                    Map<String, Object> keyValues = obs.getKeyValues();
+                    
+                    if (dataDirectory != null) {
+                        embeddedObservations.add(new EmbeddedObservation(observedValue, dataDirectory.resolve(obs.getFilename())));
+                    }
+                } else {
+                    Map<String, IRValue> keyValues = obs.getKeyValues();
                     
                     if (var.getType().equals("alignment")) {
                         // Handle alignment observations
                         ObjectNode observedValue = varNode.putObject("observedValue");
                         ObjectNode sequences = observedValue.putObject("sequences");
                         
-                        for (Map.Entry<String, Object> entry : keyValues.entrySet()) {
-                            if (entry.getValue() instanceof FunctionCall) {
-                                FunctionCall func = (FunctionCall) entry.getValue();
-                                if (func.getName().equals("sequence")) {
-                                    Argument strArg = func.getArgument("str");
-                                    if (strArg != null && strArg.getValue() instanceof String) {
-                                        sequences.put(entry.getKey(), (String) strArg.getValue());
-                                    }
+                        for (Map.Entry<String, IRValue> entry : keyValues.entrySet()) {
+                            IRValue value = entry.getValue();
+                            if (value.getKind() == IRValue.Kind.CALL && value.getFunction().equals("sequence")) {
+                                IRArgument strArg = value.getArgument("str");
+                                if (strArg != null && strArg.getValue().getKind() == IRValue.Kind.STRING) {
+                                    sequences.put(entry.getKey(), strArg.getValue().asString());
                                 }
                             }
                         }
                     } else {
                         // Handle other types of observations
                         // This would need custom handling based on the variable type
-                        JsonNode valueNode = convertToJsonValue(keyValues);
-                        if (valueNode != null) {
-                            varNode.set("observedValue", valueNode);
+                        ObjectNode observedValue = varNode.putObject("observedValue");
+                        for (Map.Entry<String, IRValue> entry : keyValues.entrySet()) {
+                            observedValue.set(entry.getKey(), convertToJsonValue(entry.getValue()));
                         }
                     }
                 }
@@ -181,28 +441,22 @@ public class CodePhyConverter {
      * Add deterministic functions to the CodePhy JSON.
      */
     private void addDeterministicFunctions(ObjectNode deterministicFunctions) {
-        for (DeterministicVariable var : model.getDeterministicVariables()) {
+        for (IRVariable var : model.getDeterministicVariables()) {
             ObjectNode varNode = deterministicFunctions.putObject(var.getName());
+            IRValue expression = var.getExpression();
             
-            if (var.getExpression() instanceof FunctionCall) {
-                FunctionCall func = (FunctionCall) var.getExpression();
-                varNode.put("function", func.getName());
+            if (expression.getKind() == IRValue.Kind.CALL) {
+                varNode.put("function", expression.getFunction());
                 
                 ObjectNode argsNode = varNode.putObject("arguments");
-                for (Argument arg : func.getArguments()) {
-                    if (arg.getName() != null) {
-                        JsonNode valueNode = convertArgumentToJsonValue(arg);
-                        argsNode.set(arg.getName(), valueNode);
-                    }
-                }
-            } else if (var.getExpression() instanceof VariableReference) {
+                addNamedArguments(argsNode, expression.getArguments());
+            } else if (expression.getKind() == IRValue.Kind.REFERENCE) {
                 // Simple reference to another variable
-                VariableReference ref = (VariableReference) var.getExpression();
                 varNode.put("function", "reference");
                 
                 ObjectNode argsNode = varNode.putObject("arguments");
                 ObjectNode varRefNode = argsNode.putObject("source");
-                varRefNode.put("variable", ref.getName());
+                varRefNode.put("variable", expression.getReferenceName());
             }
         }
     }
@@ -211,11 +465,11 @@ public class CodePhyConverter {
      * Add constraints to the CodePhy JSON.
      */
     private void addConstraints(ArrayNode constraints) {
-        for (Constraint constraint : model.getConstraints()) {
+        for (IRConstraint constraint : model.getConstraints()) {
             ObjectNode constraintNode = mapper.createObjectNode();
             
-            FunctionCall func = constraint.getFunction();
-            String funcName = func.getName();
+            IRValue func = constraint.getFunction();
+            String funcName = func.getFunction();
             
             if (funcName.equals("mrca")) {
                 // Handle MRCA constraint
@@ -223,9 +477,8 @@ public class CodePhyConverter {
                 constraintNode.put("left", constraint.getName() != null ? constraint.getName() : "mrca_node");
                 
                 // Get taxa from the function call
-                Argument taxaArg = func.getArgument("taxa");
-                if (taxaArg != null && taxaArg.getValue() instanceof ArrayValue) {
-                    ArrayValue taxa = (ArrayValue) taxaArg.getValue();
+                IRArgument taxaArg = func.getArgument("taxa");
+                if (taxaArg != null && taxaArg.getValue().getKind() == IRValue.Kind.ARRAY) {
                     if (constraint.hasDistribution()) {
                         // Age constraint
                         ObjectNode rightNode = constraintNode.putObject("right");
@@ -248,12 +501,7 @@ public class CodePhyConverter {
                 
                 // Add arguments
                 ObjectNode argsNode = constraintNode.putObject("arguments");
-                for (Argument arg : func.getArguments()) {
-                    if (arg.getName() != null) {
-                        JsonNode valueNode = convertArgumentToJsonValue(arg);
-                        argsNode.set(arg.getName(), valueNode);
-                    }
-                }
+                addNamedArguments(argsNode, func.getArguments());
             }
             
             constraints.add(constraintNode);
@@ -263,327 +511,124 @@ public class CodePhyConverter {
     /**
      * Add a distribution to the CodePhy JSON.
      */
-    private void addDistribution(ObjectNode distNode, Distribution dist, String varType) {
+    private void addDistribution(ObjectNode distNode, IRDistribution dist, String varType) {
         // Map ModelPhy distribution to CodePhy type
-        String codephyType = dist.toCodePhyType();
-        distNode.put("type", codephyType);
+        distNode.put("type", dist.getCodePhyType());
         
         // Determine what this distribution generates
-        String generates = mapModelPhyTypeToCodePhyGenerates(varType, dist);
-        distNode.put("generates", generates);
+        distNode.put("generates", dist.getKind().generates(varType));
         
-        // Add parameters
+        // Add parameters under their CodePhy names
         ObjectNode params = distNode.putObject("parameters");
-        
-        switch (codephyType.toLowerCase()) {
-            case "lognormal":
-                addLognormalParameters(params, dist);
-                break;
-            case "normal":
-                addNormalParameters(params, dist);
-                break;
-            case "exponential":
-                addExponentialParameters(params, dist);
-                break;
-            case "uniform":
-                addUniformParameters(params, dist);
-                break;
-            case "gamma":
-                addGammaParameters(params, dist);
-                break;
-            case "dirichlet":
-                addDirichletParameters(params, dist);
-                break;
-            case "yule":
-                addYuleParameters(params, dist);
-                break;
-            case "birthdeath":
-                addBirthDeathParameters(params, dist);
-                break;
-            case "phyloctmc":
-                addPhyloCTMCParameters(params, dist);
-                break;
-            default:
-                // For other distributions, add all parameters as-is
-                for (Argument arg : dist.getArguments()) {
-                    if (arg.getName() != null) {
-                        JsonNode valueNode = convertArgumentToJsonValue(arg);
-                        params.set(arg.getName(), valueNode);
-                    }
-                }
-                break;
-        }
-    }
-    
-    /**
-     * Map ModelPhy type to CodePhy "generates" value.
-     */
-    private String mapModelPhyTypeToCodePhyGenerates(String modelphyType, Distribution dist) {
-        switch (modelphyType.toLowerCase()) {
-            case "real":
-                return "REAL";
-            case "integer":
-                return "INTEGER";
-            case "boolean":
-                return "BOOLEAN";
-            case "simplex":
-                return "REAL_VECTOR";
-            case "vector":
-                return "REAL_VECTOR";
-            case "matrix":
-                return "REAL_MATRIX";
-            case "tree":
-            case "timetree":
-                return "TREE";
-            case "alignment":
-                return "ALIGNMENT";
-            default:
-                // Use the distribution's default generates type
-                return dist.getGeneratesType();
-        }
-    }
-    
-    /**
-     * Add parameters for a LogNormal distribution.
-     */
-    private void addLognormalParameters(ObjectNode params, Distribution dist) {
-        for (Argument arg : dist.getArguments()) {
-            if (arg.getName() != null) {
-                String paramName = arg.getName();
-                
-                // Map ModelPhy parameter names to CodePhy names
-                if (paramName.equals("mean")) {
-                    params.set("meanlog", convertArgumentToJsonValue(arg));
-                } else if (paramName.equals("sigma")) {
-                    params.set("sdlog", convertArgumentToJsonValue(arg));
-                } else {
-                    params.set(paramName, convertArgumentToJsonValue(arg));
-                }
+        DistributionKind kind = dist.getKind();
+        for (IRArgument arg : dist.getArguments()) {
+            if (arg.getName() == null) {
+                continue;
             }
-        }
-    }
-    
-    /**
-     * Add parameters for a Normal distribution.
-     */
-    private void addNormalParameters(ObjectNode params, Distribution dist) {
-        for (Argument arg : dist.getArguments()) {
-            if (arg.getName() != null) {
-                String paramName = arg.getName();
-                
-                // Map ModelPhy parameter names to CodePhy names
-                if (paramName.equals("sigma")) {
-                    params.set("sd", convertArgumentToJsonValue(arg));
-                } else {
-                    params.set(paramName, convertArgumentToJsonValue(arg));
-                }
+            String paramName = kind.toCodePhyParameter(arg.getName());
+            if (paramName == null) {
+                // Not a CodePhy parameter, e.g. the number of taxa of a tree prior
+                continue;
             }
-        }
-    }
-    
-    /**
-     * Add parameters for an Exponential distribution.
-     */
-    private void addExponentialParameters(ObjectNode params, Distribution dist) {
-        for (Argument arg : dist.getArguments()) {
-            if (arg.getName() != null) {
-                String paramName = arg.getName();
-                
-                // Map ModelPhy parameter names to CodePhy names
-                if (paramName.equals("mean")) {
-                    // Convert mean to rate (rate = 1/mean)
-                    Object value = arg.getValue();
-                    if (value instanceof Number) {
-                        double mean = ((Number) value).doubleValue();
-                        params.put("rate", 1.0 / mean);
-                    } else {
-                        // If not a simple number, add an expression
-                        ObjectNode exprNode = params.putObject("rate");
-                        exprNode.put("expression", "1.0 / " + value);
-                    }
-                } else {
-                    params.set(paramName, convertArgumentToJsonValue(arg));
-                }
+            
+            if (kind == DistributionKind.EXPONENTIAL && arg.getName().equals("mean")) {
+                addExponentialRate(params, arg.getValue());
+            } else {
+                params.set(paramName, convertArgumentToJsonValue(arg));
             }
         }
     }
     
     /**
-     * Add parameters for a Uniform distribution.
+     * Add the rate of an Exponential distribution given by its mean (rate = 1/mean).
      */
-    private void addUniformParameters(ObjectNode params, Distribution dist) {
-        for (Argument arg : dist.getArguments()) {
-            if (arg.getName() != null) {
-                String paramName = arg.getName();
-                
-                // Map ModelPhy parameter names to CodePhy names
-                if (paramName.equals("min")) {
-                    params.set("lower", convertArgumentToJsonValue(arg));
-                } else if (paramName.equals("max")) {
-                    params.set("upper", convertArgumentToJsonValue(arg));
-                } else {
-                    params.set(paramName, convertArgumentToJsonValue(arg));
-                }
-            }
+    private void addExponentialRate(ObjectNode params, IRValue value) {
+        if (value.isNumber()) {
+            double mean = value.getKind() == IRValue.Kind.INTEGER ? value.asInteger() : value.asReal();
+            params.put("rate", 1.0 / mean);
+        } else {
+            // If not a simple number, add an expression
+            ObjectNode exprNode = params.putObject("rate");
+            exprNode.put("expression", "1.0 / " + value);
         }
     }
     
     /**
-     * Add parameters for a Gamma distribution.
+     * Add all named arguments to a JSON object under their own names.
      */
-    private void addGammaParameters(ObjectNode params, Distribution dist) {
-        // CodePhy uses shape and rate
-        for (Argument arg : dist.getArguments()) {
+    private void addNamedArguments(ObjectNode node, List<IRArgument> arguments) {
+        for (IRArgument arg : arguments) {
             if (arg.getName() != null) {
-                params.set(arg.getName(), convertArgumentToJsonValue(arg));
+                node.set(arg.getName(), convertArgumentToJsonValue(arg));
             }
         }
     }
     
     /**
-     * Add parameters for a Dirichlet distribution.
+     * Convert an argument to a JSON value.
      */
-    private void addDirichletParameters(ObjectNode params, Distribution dist) {
-        for (Argument arg : dist.getArguments()) {
-            if (arg.getName() != null && arg.getName().equals("alpha")) {
-                JsonNode alphaNode = convertArgumentToJsonValue(arg);
-                params.set("alpha", alphaNode);
-            }
-        }
+    private JsonNode convertArgumentToJsonValue(IRArgument arg) {
+        return convertToJsonValue(arg.getValue());
     }
     
     /**
-     * Add parameters for a Yule distribution.
+     * Convert a value to a JSON value.
      */
-    private void addYuleParameters(ObjectNode params, Distribution dist) {
-        for (Argument arg : dist.getArguments()) {
-            if (arg.getName() != null) {
-                String paramName = arg.getName();
-                
-                // Map ModelPhy parameter names to CodePhy names
-                if (paramName.equals("birthrate")) {
-                    params.set("birthRate", convertArgumentToJsonValue(arg));
-                } else {
-                    // Skip 'n' parameter as it's not needed in CodePhy
-                    if (!paramName.equals("n")) {
-                        params.set(paramName, convertArgumentToJsonValue(arg));
-                    }
-                }
+    private JsonNode convertToJsonValue(IRValue value) {
+        switch (value.getKind()) {
+            case NULL:
+                return NullNode.getInstance();
+            case INTEGER: {
+                long num = value.asInteger();
+                return num == (int) num ? IntNode.valueOf((int) num) : LongNode.valueOf(num);
             }
-        }
-    }
-    
-    /**
-     * Add parameters for a BirthDeath distribution.
-     */
-    private void addBirthDeathParameters(ObjectNode params, Distribution dist) {
-        for (Argument arg : dist.getArguments()) {
-            if (arg.getName() != null) {
-                String paramName = arg.getName();
-                
-                // Map ModelPhy parameter names to CodePhy names
-                if (paramName.equals("birthrate")) {
-                    params.set("birthRate", convertArgumentToJsonValue(arg));
-                } else if (paramName.equals("deathrate")) {
-                    params.set("deathRate", convertArgumentToJsonValue(arg));
-                } else {
-                    // Skip 'n' parameter as it's not needed in CodePhy
-                    if (!paramName.equals("n")) {
-                        params.set(paramName, convertArgumentToJsonValue(arg));
-                    }
+            case REAL:
+                return DoubleNode.valueOf(value.asReal());
+            case BOOLEAN:
+                return BooleanNode.valueOf(value.asBoolean());
+            case STRING:
+                return TextNode.valueOf(value.asString());
+            case REFERENCE: {
+                ObjectNode node = mapper.createObjectNode();
+                node.put("variable", value.getReferenceName());
+                return node;
+            }
+            case ARRAY: {
+                ArrayNode node = mapper.createArrayNode();
+                for (IRValue element : value.getElements()) {
+                    node.add(convertToJsonValue(element));
                 }
+                return node;
             }
-        }
-    }
-    
-    /**
-     * Add parameters for a PhyloCTMC distribution.
-     */
-    private void addPhyloCTMCParameters(ObjectNode params, Distribution dist) {
-        for (Argument arg : dist.getArguments()) {
-            if (arg.getName() != null) {
-                String paramName = arg.getName();
+            case CALL: {
+                ObjectNode node = mapper.createObjectNode();
+                node.put("function", value.getFunction());
                 
-                // Map ModelPhy parameter names to CodePhy names
-                if (paramName.equals("tree")) {
-                    params.set("tree", convertArgumentToJsonValue(arg));
-                } else if (paramName.equals("substmodel")) {
-                    params.set("Q", convertArgumentToJsonValue(arg));
-                } else if (paramName.equals("siterates")) {
-                    params.set("siteRates", convertArgumentToJsonValue(arg));
-                } else if (paramName.equals("branchrates")) {
-                    params.set("branchRates", convertArgumentToJsonValue(arg));
-                } else {
-                    params.set(paramName, convertArgumentToJsonValue(arg));
+                ObjectNode argsNode = node.putObject("arguments");
+                addNamedArguments(argsNode, value.getArguments());
+                return node;
+            }
+            case MAP:
+            default: {
+                ObjectNode node = mapper.createObjectNode();
+                for (Map.Entry<String, IRValue> entry : value.getEntries().entrySet()) {
+                    node.set(entry.getKey(), convertToJsonValue(entry.getValue()));
                 }
+                return node;
             }
         }
     }
     
     /**
-     * Convert an argument to a JSON value.
-     */
-    private JsonNode convertArgumentToJsonValue(Argument arg) {
-        return convertToJsonValue(arg.getValue());
-    }
-    
-    /**
-     * Convert a value to a JSON value.
+     * A file observation whose data is copied into its observedValue node.
      */
-    private JsonNode convertToJsonValue(Object value) {
-        if (value == null) {
-            return NullNode.getInstance();
-        } else if (value instanceof Number) {
-            Number num = (Number) value;
-            if (num instanceof Integer || num instanceof Long || num instanceof Short || num instanceof Byte) {
-                return IntNode.valueOf(num.intValue());
-            } else {
-                return DoubleNode.valueOf(num.doubleValue());
-            }
-        } else if (value instanceof Boolean) {
-            return BooleanNode.valueOf((Boolean) value);
-        } else if (value instanceof String) {
-            return TextNode.valueOf((String) value);
-        } else if (value instanceof VariableReference) {
-            ObjectNode node = mapper.createObjectNode();
-            node.put("variable", ((VariableReference) value).getName());
-            return node;
-        } else if (value instanceof ArrayValue) {
-            ArrayValue array = (ArrayValue) value;
-            ArrayNode node = mapper.createArrayNode();
-            
-            for (Object element : array.getElements()) {
-                node.add(convertToJsonValue(element));
-            }
-            
-            return node;
-        } else if (value instanceof FunctionCall) {
-            FunctionCall func = (FunctionCall) value;
-            ObjectNode node = mapper.createObjectNode();
-            node.put("function", func.getName());
-            
-            ObjectNode argsNode = node.putObject("arguments");
-            for (Argument funcArg : func.getArguments()) {
-                if (funcArg.getName() != null) {
-                    argsNode.set(funcArg.getName(), convertToJsonValue(funcArg.getValue()));
-                }
-            }
-            
-            return node;
-        } else if (value instanceof Map) {
-            Map<?, ?> map = (Map<?, ?>) value;
-            ObjectNode node = mapper.createObjectNode();
-            
-            for (Map.Entry<?, ?> entry : map.entrySet()) {
-                if (entry.getKey() instanceof String) {
-                    node.set((String) entry.getKey(), convertToJsonValue(entry.getValue()));
-                }
-            }
-            
-            return node;
-        }
+    private static class EmbeddedObservation {
+        private final ObjectNode observedValue;
+        private final Path file;
         
-        // Default to string representation
-        return TextNode.valueOf(value.toString());
+        EmbeddedObservation(ObjectNode observedValue, Path file) {
+            this.observedValue = observedValue;
+            this.file = file;
+        }
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,450 @@
+package org.modelphy.converter;
+
+import org.modelphy.model.*;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Converts a CodePhy JSON document back into a ModelPhy model.
+ *
+ * The document is read with Jackson's streaming JsonParser, and variables are
+ * added to the model as soon as their JSON object has been consumed, so no
+ * JSON tree of the whole document is ever held in memory. Parameter renames
+ * applied by {@link CodePhyConverter} (e.g. meanlog, Q, birthRate) are inverted.
+ *
+ * CodePhy does not carry everything ModelPhy does: declared types are inferred
+ * from the "generates" kind or function name, and MRCA taxa and the names of
+ * custom constraints are not present in the JSON, so those come back generic.
+ */
+public class CodePhyReader {
+    private static final Map<String, Map<String, String>> PARAMETER_NAMES = new HashMap<>();
+    // The ModelPhy IDENTIFIER and plain number tokens, for reading back "1.0 / mean" rates
+    private static final Pattern IDENTIFIER = Pattern.compile("[a-zA-Z][a-zA-Z0-9_]*");
+    private static final Pattern DECIMAL = Pattern.compile("[0-9]+(\\.[0-9]*)?|\\.[0-9]+");
+    private static final Set<String> SUBSTITUTION_MODELS = Set.of(
+        "JC69", "K80", "F81", "HKY", "TN93", "GTR", "WAG", "JTT", "LG", "DiscreteTrait");
+
+    static {
+        // CodePhy parameter name -> ModelPhy parameter name, per CodePhy distribution type
+        PARAMETER_NAMES.put("lognormal", Map.of("meanlog", "mean", "sdlog", "sigma"));
+        PARAMETER_NAMES.put("normal", Map.of("sd", "sigma"));
+        PARAMETER_NAMES.put("uniform", Map.of("lower", "min", "upper", "max"));
+        PARAMETER_NAMES.put("yule", Map.of("birthRate", "birthrate"));
+        PARAMETER_NAMES.put("birthdeath", Map.of("birthRate", "birthrate", "deathRate", "deathrate"));
+        PARAMETER_NAMES.put("phyloctmc", Map.of(
+            "Q", "substmodel", "siteRates", "siterates", "branchRates", "branchrates"));
+    }
+
+    private final JsonFactory factory;
+    private ModelPhyModel model;
+    private int anonymousConstraints;
+
+    /**
+     * Create a new CodePhy reader.
+     */
+    public CodePhyReader() {
+        this(new JsonFactory());
+    }
+
+    /**
+     * Create a new CodePhy reader using the given JSON factory.
+     *
+     * @param factory The Jackson factory used to create streaming parsers
+     */
+    public CodePhyReader(JsonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Read a CodePhy JSON document.
+     *
+     * @param in The CodePhy JSON input
+     * @return The reconstructed model
+     * @throws IOException If the input cannot be read or is not a CodePhy document
+     */
+    public ModelPhyModel read(InputStream in) throws IOException {
+        try (JsonParser parser = factory.createParser(in)) {
+            return read(parser);
+        }
+    }
+
+    /**
+     * Read a CodePhy JSON document from a string.
+     *
+     * @param json The CodePhy JSON content
+     * @return The reconstructed model
+     * @throws IOException If the content is not a CodePhy document
+     */
+    public ModelPhyModel read(String json) throws IOException {
+        try (JsonParser parser = factory.createParser(json)) {
+            return read(parser);
+        }
+    }
+
+    private ModelPhyModel read(JsonParser parser) throws IOException {
+        model = new ModelPhyModel();
+        anonymousConstraints = 0;
+
+        expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+
+            switch (field) {
+                case "randomVariables":
+                    readRandomVariables(parser);
+                    break;
+                case "deterministicFunctions":
+                    readDeterministicFunctions(parser);
+                    break;
+                case "constraints":
+                    readConstraints(parser);
+                    break;
+                default:
+                    // codephyVersion, model, metadata and unknown fields are not part of the model
+                    parser.skipChildren();
+                    break;
+            }
+        }
+
+        return model;
+    }
+
+    private void readRandomVariables(JsonParser parser) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+            Distribution distribution = null;
+            String type = null;
+            Observation observation = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+
+                if (field.equals("distribution")) {
+                    DistributionSpec spec = readDistribution(parser);
+                    distribution = spec.distribution;
+                    type = spec.type;
+                } else if (field.equals("observedValue")) {
+                    observation = readObservation(parser, name);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (distribution == null) {
+                throw new JsonParseException(parser, "Random variable without distribution: " + name);
+            }
+
+            StochasticVariable var = new StochasticVariable(name, type, distribution);
+            if (observation != null) {
+                var.setObservation(observation);
+            }
+            model.addStochasticVariable(var);
+        }
+    }
+
+    /**
+     * A distribution together with the ModelPhy type inferred for the variable it generates.
+     */
+    private static class DistributionSpec {
+        private final Distribution distribution;
+        private final String type;
+
+        DistributionSpec(Distribution distribution, String type) {
+            this.distribution = distribution;
+            this.type = type;
+        }
+    }
+
+    private DistributionSpec readDistribution(JsonParser parser) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+
+        String codephyType = null;
+        String generates = null;
+        List<Argument> parameters = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+
+            if (field.equals("type")) {
+                codephyType = parser.getText();
+            } else if (field.equals("generates")) {
+                generates = parser.getText();
+            } else if (field.equals("parameters")) {
+                expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String paramName = parser.getCurrentName();
+                    parser.nextToken();
+                    parameters.add(new Argument(paramName, readValue(parser)));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (codephyType == null) {
+            throw new JsonParseException(parser, "Distribution without type");
+        }
+
+        // Parameters may precede the type in the JSON, so they are renamed once both are known
+        String name = toModelPhyDistribution(codephyType);
+        List<Argument> arguments = new ArrayList<>();
+        for (Argument param : parameters) {
+            arguments.add(toModelPhyParameter(codephyType, param));
+        }
+
+        return new DistributionSpec(new Distribution(name, arguments), toModelPhyType(generates, name));
+    }
+
+    /**
+     * Invert {@link org.modelphy.ir.DistributionKind#toCodePhyType} where the names differ.
+     */
+    private static String toModelPhyDistribution(String codephyType) {
+        if (codephyType.equals("ConstrainedYule")) {
+            return "calibrated_birthdeath";
+        }
+        return codephyType;
+    }
+
+    /**
+     * Invert the parameter renames of {@link org.modelphy.ir.DistributionKind#toCodePhyParameter}.
+     */
+    private static Argument toModelPhyParameter(String codephyType, Argument param) {
+        String type = codephyType.toLowerCase();
+
+        // Exponential(mean=x) is written as rate = 1.0 / x; other rate expressions are kept as they are
+        if (type.equals("exponential") && param.getName().equals("rate") && param.getValue() instanceof Map) {
+            Object expression = ((Map<?, ?>) param.getValue()).get("expression");
+            if (expression instanceof String && ((String) expression).startsWith("1.0 / ")) {
+                String mean = ((String) expression).substring("1.0 / ".length()).trim();
+                if (IDENTIFIER.matcher(mean).matches()) {
+                    return new Argument("mean", new VariableReference(mean));
+                }
+                if (DECIMAL.matcher(mean).matches()) {
+                    return new Argument("mean", Double.valueOf(mean));
+                }
+            }
+        }
+
+        Map<String, String> names = PARAMETER_NAMES.getOrDefault(type, Collections.emptyMap());
+        String name = names.getOrDefault(param.getName(), param.getName());
+        return new Argument(name, param.getValue());
+    }
+
+    /**
+     * Infer a ModelPhy type from the CodePhy "generates" kind.
+     */
+    private static String toModelPhyType(String generates, String distribution) {
+        if (generates == null) {
+            return "Real";
+        }
+        switch (generates) {
+            case "INTEGER":
+                return "Integer";
+            case "BOOLEAN":
+                return "Boolean";
+            case "REAL_VECTOR":
+                return distribution.equalsIgnoreCase("dirichlet") ? "Simplex" : "Vector";
+            case "REAL_MATRIX":
+                return "Matrix";
+            case "TREE":
+                return "Tree";
+            case "ALIGNMENT":
+                return "Alignment";
+            case "REAL":
+            default:
+                return "Real";
+        }
+    }
+
+    private Observation readObservation(JsonParser parser, String variableName) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+
+        Observation observation = null;
+        Map<String, Object> keyValues = new LinkedHashMap<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+
+            if (field.equals("file") && parser.currentToken() == JsonToken.VALUE_STRING) {
+                observation = new Observation(variableName, ObservationType.FILE, parser.getText());
+            } else if (field.equals("sequences") && parser.currentToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String taxon = parser.getCurrentName();
+                    parser.nextToken();
+                    List<Argument> args = new ArrayList<>();
+                    args.add(new Argument("str", parser.getText()));
+                    keyValues.put(taxon, new FunctionCall("sequence", args));
+                }
+            } else {
+                keyValues.put(field, readValue(parser));
+            }
+        }
+
+        if (observation == null) {
+            observation = new Observation(variableName, ObservationType.INLINE);
+            for (Map.Entry<String, Object> entry : keyValues.entrySet()) {
+                observation.addKeyValue(entry.getKey(), entry.getValue());
+            }
+        }
+        return observation;
+    }
+
+    private void readDeterministicFunctions(JsonParser parser) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+
+            Object value = readValue(parser);
+            if (!(value instanceof FunctionCall)) {
+                throw new JsonParseException(parser, "Deterministic function without function name: " + name);
+            }
+
+            FunctionCall func = (FunctionCall) value;
+            DeterministicVariable var;
+            if (func.getName().equals("reference") && func.getArgument("source") != null
+                    && func.getArgument("source").getValue() instanceof VariableReference) {
+                var = new DeterministicVariable(name, "Real", func.getArgument("source").getValue());
+            } else {
+                var = new DeterministicVariable(name, inferFunctionType(func.getName()), func);
+            }
+            model.addDeterministicVariable(var);
+        }
+    }
+
+    /**
+     * Infer the declared type of a deterministic variable from its function name.
+     */
+    private static String inferFunctionType(String function) {
+        if (SUBSTITUTION_MODELS.contains(function)) {
+            return "QMatrix";
+        } else if (function.equals("DiscreteGamma")) {
+            return "Vector";
+        }
+        return "Real";
+    }
+
+    private void readConstraints(JsonParser parser) throws IOException {
+        expect(parser, parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            Map<String, Object> fields = new LinkedHashMap<>();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                fields.put(field, readValue(parser));
+            }
+            model.addConstraint(toConstraint(fields));
+        }
+    }
+
+    private Constraint toConstraint(Map<String, Object> fields) {
+        Object type = fields.get("type");
+
+        if ("custom".equals(type)) {
+            List<Argument> args = new ArrayList<>();
+            Object arguments = fields.get("arguments");
+            if (arguments instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) arguments).entrySet()) {
+                    args.add(new Argument((String) entry.getKey(), entry.getValue()));
+                }
+            }
+            String name = "constraint" + (++anonymousConstraints);
+            return new Constraint(name, new FunctionCall(String.valueOf(fields.get("function")), args));
+        }
+
+        // "equals" constraints come from mrca(...) and root(...) calibrations
+        String left = String.valueOf(fields.get("left"));
+        String function = left.equals("root_age") ? "root" : "mrca";
+        FunctionCall func = new FunctionCall(function, new ArrayList<>());
+
+        Object right = fields.get("right");
+        if (right instanceof Map && ((Map<?, ?>) right).get("distribution") instanceof String) {
+            String distribution = (String) ((Map<?, ?>) right).get("distribution");
+            return new Constraint(func, new Distribution(toModelPhyDistribution(distribution), new ArrayList<>()));
+        }
+        return new Constraint(left, func);
+    }
+
+    /**
+     * Read a JSON value into the ModelPhy value representation.
+     *
+     * Objects with a "variable" field become VariableReferences, objects with a
+     * "function" field become FunctionCalls, and other objects become Maps.
+     */
+    private Object readValue(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NUMBER_INT:
+                return parser.getNumberType() == JsonParser.NumberType.INT
+                    ? (Object) parser.getIntValue() : (Object) parser.getLongValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_STRING:
+                return parser.getText();
+            case START_ARRAY: {
+                List<Object> elements = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    elements.add(readValue(parser));
+                }
+                return new ArrayValue(elements);
+            }
+            case START_OBJECT: {
+                Map<String, Object> fields = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    fields.put(field, readValue(parser));
+                }
+                return toModelPhyObject(fields);
+            }
+            default:
+                throw new JsonParseException(parser, "Unexpected token: " + token);
+        }
+    }
+
+    private static Object toModelPhyObject(Map<String, Object> fields) {
+        if (fields.size() == 1 && fields.get("variable") instanceof String) {
+            return new VariableReference((String) fields.get("variable"));
+        }
+
+        if (fields.get("function") instanceof String) {
+            List<Argument> args = new ArrayList<>();
+            Object arguments = fields.get("arguments");
+            if (arguments instanceof Map) {
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) arguments).entrySet()) {
+                    args.add(new Argument((String) entry.getKey(), entry.getValue()));
+                }
+            }
+            return new FunctionCall((String) fields.get("function"), args);
+        }
+
+        return fields;
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws IOException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.modelphy.converter;
+
+import org.antlr.v4.runtime.Vocabulary;
+import org.modelphy.antlr.ModelPhyLexer;
+import org.modelphy.model.*;
+
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Writes a ModelPhy model as .mphy source text.
+ *
+ * Statements are emitted in model order: variable declarations and
+ * assignments first, then observations, then constraints.
+ *
+ * Only text the grammar reads back to the same model is written. Values
+ * ModelPhy has no syntax for, such as negative numbers, names that are not
+ * identifiers and strings holding a quote, are rejected with an
+ * IllegalArgumentException instead.
+ */
+public class ModelPhyWriter {
+    private static final Pattern IDENTIFIER = Pattern.compile("[a-zA-Z][a-zA-Z0-9_]*");
+    private static final Set<String> KEYWORDS = new HashSet<>();
+    private static final Set<String> BASIC_TYPES = new HashSet<>();
+
+    static {
+        // Words the lexer turns into keywords instead of identifiers
+        Vocabulary vocabulary = ModelPhyLexer.VOCABULARY;
+        for (int type = 1; type <= vocabulary.getMaxTokenType(); type++) {
+            String literal = vocabulary.getLiteralName(type);
+            if (literal != null && IDENTIFIER.matcher(literal.substring(1, literal.length() - 1)).matches()) {
+                String word = literal.substring(1, literal.length() - 1);
+                KEYWORDS.add(word);
+                if (type >= ModelPhyLexer.REAL && type <= ModelPhyLexer.TREE_NODE) {
+                    BASIC_TYPES.add(word);
+                }
+            }
+        }
+        KEYWORDS.add("true");
+        KEYWORDS.add("false");
+    }
+
+    private final ModelPhyModel model;
+
+    /**
+     * Create a new writer for the given model.
+     *
+     * @param model The model to write
+     */
+    public ModelPhyWriter(ModelPhyModel model) {
+        this.model = model;
+    }
+
+    /**
+     * Write the model as ModelPhy source.
+     *
+     * @return The ModelPhy source text
+     */
+    public String write() {
+        StringBuilder sb = new StringBuilder();
+
+        for (Variable var : model.getVariables()) {
+            writeVariable(sb, var);
+        }
+
+        List<Variable> observed = model.getObservedVariables();
+        if (!observed.isEmpty()) {
+            sb.append('\n');
+            for (Variable var : observed) {
+                writeObservation(sb, var.getObservation());
+            }
+        }
+
+        if (!model.getConstraints().isEmpty()) {
+            sb.append('\n');
+            int anonymous = 0;
+            for (Constraint constraint : model.getConstraints()) {
+                if (constraint.hasDistribution()) {
+                    sb.append(formatValue(constraint.getFunction()))
+                        .append(" ~ ").append(formatDistribution(constraint.getDistribution()));
+                } else {
+                    String name = constraint.getName() != null ? constraint.getName() : "constraint" + (++anonymous);
+                    sb.append("constraint ").append(identifier(name, "constraint name")).append(" = ").append(formatValue(constraint.getFunction()));
+                }
+                sb.append(";\n");
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private void writeVariable(StringBuilder sb, Variable var) {
+        sb.append(var.getType()).append(' ').append(identifier(var.getName(), "variable name"));
+
+        if (var instanceof StochasticVariable) {
+            sb.append(" ~ ").append(formatDistribution(((StochasticVariable) var).getDistribution()));
+        } else if (var instanceof DeterministicVariable) {
+            sb.append(" = ").append(formatValue(((DeterministicVariable) var).getExpression()));
+        } else if (var.getValue() != null) {
+            sb.append(" = ").append(formatValue(var.getValue()));
+        }
+
+        sb.append(";\n");
+    }
+
+    private void writeObservation(StringBuilder sb, Observation obs) {
+        sb.append(identifier(obs.getVariableName(), "observed variable")).append(" observe ");
+
+        if (obs.isFile()) {
+            sb.append("from ").append(quote(obs.getFilename()));
+        } else {
+            sb.append("[\n");
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : obs.getKeyValues().entrySet()) {
+                if (!first) {
+                    sb.append(",\n");
+                }
+                first = false;
+                sb.append("  ").append(identifier(entry.getKey(), "observation key")).append(" = ").append(formatValue(entry.getValue()));
+            }
+            sb.append("\n]");
+        }
+
+        sb.append(";\n");
+    }
+
+    private String formatDistribution(Distribution dist) {
+        String name = identifier(dist.getName(), "distribution");
+        if (dist.getArguments().isEmpty()) {
+            return name;
+        }
+        return name + formatArguments(dist.getArguments());
+    }
+
+    private String formatArguments(List<Argument> arguments) {
+        StringBuilder sb = new StringBuilder("(");
+        boolean first = true;
+        for (Argument arg : arguments) {
+            if (arg.getName() == null) {
+                continue;
+            }
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            // Argument names may also be type names, such as Tree
+            if (!BASIC_TYPES.contains(arg.getName())) {
+                identifier(arg.getName(), "argument name");
+            }
+            sb.append(arg.getName()).append('=').append(formatValue(arg.getValue()));
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Format a model value as a ModelPhy expression.
+     *
+     * @throws IllegalArgumentException If ModelPhy has no syntax for the value, such as a
+     *         CodePhy expression object or a negative or non-finite number
+     */
+    private String formatValue(Object value) {
+        if (value instanceof String) {
+            return quote((String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number) || number < 0) {
+                throw new IllegalArgumentException("ModelPhy has no literal for " + number);
+            }
+            // FLOAT_LITERAL has no exponent form, so always write plain decimal notation
+            String text = BigDecimal.valueOf(number).toPlainString();
+            return text.contains(".") ? text : text + ".0";
+        } else if (value instanceof ArrayValue) {
+            return formatElements(((ArrayValue) value).getElements());
+        } else if (value instanceof List) {
+            return formatElements((List<?>) value);
+        } else if (value instanceof FunctionCall) {
+            FunctionCall func = (FunctionCall) value;
+            return identifier(func.getName(), "function") + formatArguments(func.getArguments());
+        } else if (value instanceof Integer || value instanceof Long) {
+            // Literals are unsigned
+            if (((Number) value).longValue() < 0) {
+                throw new IllegalArgumentException("ModelPhy has no literal for " + value);
+            }
+            return String.valueOf(value);
+        } else if (value instanceof Boolean) {
+            return String.valueOf(value);
+        } else if (value instanceof VariableReference) {
+            return identifier(((VariableReference) value).getName(), "variable reference");
+        } else if (value instanceof Map) {
+            throw new IllegalArgumentException("Cannot write CodePhy object as a ModelPhy value: " + value);
+        }
+        throw new IllegalArgumentException("Cannot write " + (value == null ? "null" : value.getClass().getSimpleName())
+            + " as a ModelPhy value: " + value);
+    }
+
+    private String formatElements(List<?> elements) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < elements.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(formatValue(elements.get(i)));
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Check that a name lexes as a single identifier.
+     *
+     * @param what What the name is, for the error message
+     * @throws IllegalArgumentException If it is empty, has other characters or is a keyword
+     */
+    private static String identifier(String name, String what) {
+        if (name == null || !IDENTIFIER.matcher(name).matches() || KEYWORDS.contains(name)) {
+            throw new IllegalArgumentException("Cannot write " + what + " \"" + (name == null ? "" : name)
+                + "\": ModelPhy names start with a letter, hold only letters, digits and '_', and are not keywords");
+        }
+        return name;
+    }
+
+    /**
+     * Write a string literal. The lexer keeps a string's text as it is, so
+     * there is no escape for a quote, and a trailing backslash would escape
+     * the closing quote.
+     *
+     * @throws IllegalArgumentException If the string cannot be written as a literal
+     */
+    private static String quote(String s) {
+        if (s.indexOf('"') >= 0 || s.endsWith("\\")) {
+            throw new IllegalArgumentException("ModelPhy has no string literal for " + s
+                + ": strings cannot hold '\"' or end with '\\'");
+        }
+        return "\"" + s + "\"";
+    }
+}
@@ -0,0 +1,147 @@
+package org.modelphy.ir;
+
+import java.util.Locale;
+
+/**
+ * Interned distribution kinds, resolved once from the distribution name when a
+ * model is lowered so that emitters can switch on an enum instead of re-matching
+ * lower-cased strings.
+ */
+public enum DistributionKind {
+    LOGNORMAL("LogNormal", "REAL"),
+    NORMAL("Normal", "REAL"),
+    GAMMA("Gamma", "REAL"),
+    EXPONENTIAL("Exponential", "REAL"),
+    BETA("Beta", "REAL"),
+    DIRICHLET("Dirichlet", "REAL_VECTOR"),
+    UNIFORM("Uniform", "REAL"),
+    YULE("Yule", "TREE"),
+    BIRTH_DEATH("BirthDeath", "TREE"),
+    CALIBRATED_BIRTH_DEATH("ConstrainedYule", "TREE"),
+    PHYLO_CTMC("PhyloCTMC", "ALIGNMENT"),
+    OTHER(null, "REAL");
+
+    private final String codePhyType;
+    private final String generatesType;
+
+    DistributionKind(String codePhyType, String generatesType) {
+        this.codePhyType = codePhyType;
+        this.generatesType = generatesType;
+    }
+
+    /**
+     * Resolve the kind of a ModelPhy distribution name.
+     *
+     * @param name The distribution name as written in the model
+     * @return The matching kind, or OTHER if the distribution is not known
+     */
+    public static DistributionKind of(String name) {
+        if (name == null) {
+            return OTHER;
+        }
+        return switch (name.toLowerCase(Locale.ROOT)) {
+            case "lognormal" -> LOGNORMAL;
+            case "normal" -> NORMAL;
+            case "gamma" -> GAMMA;
+            case "exponential" -> EXPONENTIAL;
+            case "beta" -> BETA;
+            case "dirichlet" -> DIRICHLET;
+            case "uniform" -> UNIFORM;
+            case "yule" -> YULE;
+            case "birthdeath" -> BIRTH_DEATH;
+            case "calibrated_birthdeath" -> CALIBRATED_BIRTH_DEATH;
+            case "phyloctmc" -> PHYLO_CTMC;
+            default -> OTHER;
+        };
+    }
+
+    /**
+     * Get the CodePhy distribution type for this kind.
+     *
+     * @param name The original distribution name, used for OTHER
+     * @return The CodePhy type name
+     */
+    public String toCodePhyType(String name) {
+        return codePhyType != null ? codePhyType : name;
+    }
+
+    /**
+     * Get what this kind of distribution generates by default.
+     */
+    public String getGeneratesType() {
+        return generatesType;
+    }
+
+    /**
+     * Get the CodePhy "generates" kind of a variable drawn from this kind of distribution.
+     *
+     * @param modelPhyType The declared ModelPhy type of the variable
+     * @return The kind implied by the type, or this distribution's default if the type implies none
+     */
+    public String generates(String modelPhyType) {
+        return switch (modelPhyType.toLowerCase(Locale.ROOT)) {
+            case "real" -> "REAL";
+            case "integer" -> "INTEGER";
+            case "boolean" -> "BOOLEAN";
+            case "simplex", "vector" -> "REAL_VECTOR";
+            case "matrix" -> "REAL_MATRIX";
+            case "tree", "timetree" -> "TREE";
+            case "alignment" -> "ALIGNMENT";
+            default -> generatesType;
+        };
+    }
+
+    /**
+     * Get the CodePhy name of one of this kind of distribution's parameters.
+     *
+     * Exponential(mean=x) is written with the reciprocal value, as rate.
+     *
+     * @param name The parameter name as written in the model
+     * @return The CodePhy name, which is the same name unless CodePhy renames it,
+     *         or null if CodePhy has no such parameter and it is left out
+     */
+    public String toCodePhyParameter(String name) {
+        switch (this) {
+            case LOGNORMAL:
+                return switch (name) {
+                    case "mean" -> "meanlog";
+                    case "sigma" -> "sdlog";
+                    default -> name;
+                };
+            case NORMAL:
+                return name.equals("sigma") ? "sd" : name;
+            case EXPONENTIAL:
+                return name.equals("mean") ? "rate" : name;
+            case UNIFORM:
+                return switch (name) {
+                    case "min" -> "lower";
+                    case "max" -> "upper";
+                    default -> name;
+                };
+            case DIRICHLET:
+                return name.equals("alpha") ? name : null;
+            case YULE:
+                return switch (name) {
+                    case "birthrate" -> "birthRate";
+                    case "n" -> null;
+                    default -> name;
+                };
+            case BIRTH_DEATH:
+                return switch (name) {
+                    case "birthrate" -> "birthRate";
+                    case "deathrate" -> "deathRate";
+                    case "n" -> null;
+                    default -> name;
+                };
+            case PHYLO_CTMC:
+                return switch (name) {
+                    case "substmodel" -> "Q";
+                    case "siterates" -> "siteRates";
+                    case "branchrates" -> "branchRates";
+                    default -> name;
+                };
+            default:
+                return name;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package org.modelphy.ir;
+
+/**
+ * A lowered argument slot of a distribution or function call.
+ */
+public final class IRArgument {
+    private final String name;
+    private final IRValue value;
+
+    /**
+     * Create a new argument slot.
+     *
+     * @param name The argument name, or null for positional arguments
+     * @param value The lowered argument value
+     */
+    public IRArgument(String name, IRValue value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    /**
+     * Get the argument name.
+     *
+     * @return The argument name, or null if this is a positional argument
+     */
+    public String getName() {
+        return name;
+    }
+
+    public IRValue getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return name != null ? name + "=" + value : value.toString();
+    }
+}
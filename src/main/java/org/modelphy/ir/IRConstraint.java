@@ -0,0 +1,54 @@
+package org.modelphy.ir;
+
+/**
+ * A lowered constraint.
+ */
+public final class IRConstraint {
+    private final String name;
+    private final IRValue function;
+    private final IRDistribution distribution;
+    private final int[] dependencies;
+
+    IRConstraint(String name, IRValue function, IRDistribution distribution, int[] dependencies) {
+        this.name = name;
+        this.function = function;
+        this.distribution = distribution;
+        this.dependencies = dependencies;
+    }
+
+    /**
+     * Get the constraint name.
+     *
+     * @return The name, or null for anonymous constraints
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the CALL value defining the constraint.
+     */
+    public IRValue getFunction() {
+        return function;
+    }
+
+    public boolean hasDistribution() {
+        return distribution != null;
+    }
+
+    /**
+     * Get the distribution of a stochastic constraint.
+     *
+     * @return The distribution, or null
+     */
+    public IRDistribution getDistribution() {
+        return distribution;
+    }
+
+    /**
+     * Get the IDs of the declared variables this constraint depends on.
+     */
+    public int[] getDependencies() {
+        return dependencies.clone();
+    }
+}
@@ -0,0 +1,41 @@
+package org.modelphy.ir;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A lowered distribution with its kind interned and its arguments lowered.
+ */
+public final class IRDistribution {
+    private final String name;
+    private final DistributionKind kind;
+    private final List<IRArgument> arguments;
+
+    public IRDistribution(String name, DistributionKind kind, List<IRArgument> arguments) {
+        this.name = name;
+        this.kind = kind;
+        this.arguments = Collections.unmodifiableList(arguments);
+    }
+
+    /**
+     * Get the distribution name as written in the model.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public DistributionKind getKind() {
+        return kind;
+    }
+
+    public List<IRArgument> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * Get the CodePhy distribution type.
+     */
+    public String getCodePhyType() {
+        return kind.toCodePhyType(name);
+    }
+}
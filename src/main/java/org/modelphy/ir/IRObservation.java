@@ -0,0 +1,48 @@
+package org.modelphy.ir;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A lowered observation: either a file reference or inline key-value data.
+ */
+public final class IRObservation {
+    private final String filename;
+    private final Map<String, IRValue> keyValues;
+
+    private IRObservation(String filename, Map<String, IRValue> keyValues) {
+        this.filename = filename;
+        this.keyValues = keyValues;
+    }
+
+    public static IRObservation ofFile(String filename) {
+        return new IRObservation(filename, Collections.emptyMap());
+    }
+
+    public static IRObservation ofInline(Map<String, IRValue> keyValues) {
+        return new IRObservation(null, Collections.unmodifiableMap(keyValues));
+    }
+
+    /**
+     * Check if the data is loaded from a file.
+     */
+    public boolean isFile() {
+        return filename != null;
+    }
+
+    /**
+     * Get the filename of a file observation.
+     *
+     * @return The filename, or null for inline observations
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Get the key-value pairs of an inline observation.
+     */
+    public Map<String, IRValue> getKeyValues() {
+        return keyValues;
+    }
+}
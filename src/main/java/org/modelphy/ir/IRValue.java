@@ -0,0 +1,206 @@
+package org.modelphy.ir;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A lowered model value.
+ *
+ * Each value carries its kind, so emitters switch once on {@link Kind} instead of
+ * walking an instanceof chain over the raw model objects. Variable references
+ * are resolved to dense variable IDs when the model is lowered.
+ */
+public final class IRValue {
+
+    /**
+     * The kind of value held in this slot.
+     */
+    public enum Kind {
+        NULL, INTEGER, REAL, BOOLEAN, STRING, REFERENCE, ARRAY, CALL, MAP
+    }
+
+    /**
+     * The shared null value.
+     */
+    public static final IRValue NULL = new IRValue(Kind.NULL, null, 0, 0.0, null, -1, null, null);
+
+    private final Kind kind;
+    private final String text;
+    private final long integer;
+    private final double real;
+    private final List<IRValue> elements;
+    private final int variableId;
+    private final List<IRArgument> arguments;
+    private final Map<String, IRValue> entries;
+
+    private IRValue(Kind kind, String text, long integer, double real, List<IRValue> elements,
+                    int variableId, List<IRArgument> arguments, Map<String, IRValue> entries) {
+        this.kind = kind;
+        this.text = text;
+        this.integer = integer;
+        this.real = real;
+        this.elements = elements;
+        this.variableId = variableId;
+        this.arguments = arguments;
+        this.entries = entries;
+    }
+
+    public static IRValue ofInteger(long value) {
+        return new IRValue(Kind.INTEGER, null, value, 0.0, null, -1, null, null);
+    }
+
+    public static IRValue ofReal(double value) {
+        return new IRValue(Kind.REAL, null, 0, value, null, -1, null, null);
+    }
+
+    public static IRValue ofBoolean(boolean value) {
+        return new IRValue(Kind.BOOLEAN, null, value ? 1 : 0, 0.0, null, -1, null, null);
+    }
+
+    /**
+     * Create a string value. Values of unknown model types are also lowered to
+     * strings, matching how they were always written out.
+     */
+    public static IRValue ofString(String value) {
+        return new IRValue(Kind.STRING, value, 0, 0.0, null, -1, null, null);
+    }
+
+    /**
+     * Create a variable reference.
+     *
+     * @param name The referenced variable name
+     * @param variableId The dense ID of the referenced variable, or -1 if it is not declared
+     */
+    public static IRValue ofReference(String name, int variableId) {
+        return new IRValue(Kind.REFERENCE, name, 0, 0.0, null, variableId, null, null);
+    }
+
+    public static IRValue ofArray(List<IRValue> elements) {
+        return new IRValue(Kind.ARRAY, null, 0, 0.0, Collections.unmodifiableList(elements), -1, null, null);
+    }
+
+    public static IRValue ofCall(String function, List<IRArgument> arguments) {
+        return new IRValue(Kind.CALL, function, 0, 0.0, null, -1, Collections.unmodifiableList(arguments), null);
+    }
+
+    public static IRValue ofMap(Map<String, IRValue> entries) {
+        return new IRValue(Kind.MAP, null, 0, 0.0, null, -1, null, Collections.unmodifiableMap(entries));
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public long asInteger() {
+        return integer;
+    }
+
+    public double asReal() {
+        return real;
+    }
+
+    public boolean asBoolean() {
+        return integer != 0;
+    }
+
+    /**
+     * Get the text of a STRING value.
+     */
+    public String asString() {
+        return text;
+    }
+
+    /**
+     * Get the variable name of a REFERENCE value.
+     */
+    public String getReferenceName() {
+        return text;
+    }
+
+    /**
+     * Get the dense ID of the variable a REFERENCE value points to.
+     *
+     * @return The variable ID, or -1 if the reference is unresolved
+     */
+    public int getVariableId() {
+        return variableId;
+    }
+
+    /**
+     * Get the elements of an ARRAY value.
+     */
+    public List<IRValue> getElements() {
+        return elements;
+    }
+
+    /**
+     * Get the function name of a CALL value.
+     */
+    public String getFunction() {
+        return text;
+    }
+
+    /**
+     * Get the arguments of a CALL value.
+     */
+    public List<IRArgument> getArguments() {
+        return arguments;
+    }
+
+    /**
+     * Get an argument of a CALL value by name.
+     *
+     * @return The argument, or null if there is none with that name
+     */
+    public IRArgument getArgument(String name) {
+        for (IRArgument arg : arguments) {
+            if (name.equals(arg.getName())) {
+                return arg;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the entries of a MAP value, in their original iteration order.
+     */
+    public Map<String, IRValue> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Check whether this value is numeric.
+     */
+    public boolean isNumber() {
+        return kind == Kind.INTEGER || kind == Kind.REAL;
+    }
+
+    /**
+     * Returns the same text as the model object this value was lowered from.
+     */
+    @Override
+    public String toString() {
+        switch (kind) {
+            case NULL:
+                return "null";
+            case INTEGER:
+                return Long.toString(integer);
+            case REAL:
+                return Double.toString(real);
+            case BOOLEAN:
+                return Boolean.toString(asBoolean());
+            case STRING:
+            case REFERENCE:
+                return text;
+            case ARRAY:
+                return "[" + elements.stream().map(IRValue::toString).collect(Collectors.joining(", ")) + "]";
+            case CALL:
+                return text + "(" + arguments.stream().map(IRArgument::toString).collect(Collectors.joining(", ")) + ")";
+            case MAP:
+            default:
+                return entries.toString();
+        }
+    }
+}
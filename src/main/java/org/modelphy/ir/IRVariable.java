@@ -0,0 +1,90 @@
+package org.modelphy.ir;
+
+/**
+ * A lowered variable, identified by a dense ID that indexes {@link ModelIR#getVariables()}.
+ */
+public final class IRVariable {
+
+    /**
+     * How the variable is defined.
+     */
+    public enum Kind {
+        DECLARED, STOCHASTIC, DETERMINISTIC
+    }
+
+    private final int id;
+    private final String name;
+    private final String type;
+    private final Kind kind;
+    private final IRDistribution distribution;
+    private final IRValue expression;
+    private final IRObservation observation;
+    private final int[] dependencies;
+
+    IRVariable(int id, String name, String type, Kind kind, IRDistribution distribution,
+               IRValue expression, IRObservation observation, int[] dependencies) {
+        this.id = id;
+        this.name = name;
+        this.type = type;
+        this.kind = kind;
+        this.distribution = distribution;
+        this.expression = expression;
+        this.observation = observation;
+        this.dependencies = dependencies;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the distribution of a STOCHASTIC variable.
+     *
+     * @return The distribution, or null for other kinds
+     */
+    public IRDistribution getDistribution() {
+        return distribution;
+    }
+
+    /**
+     * Get the defining expression of a DETERMINISTIC variable, or the value of a
+     * DECLARED variable.
+     *
+     * @return The expression, or null if there is none
+     */
+    public IRValue getExpression() {
+        return expression;
+    }
+
+    /**
+     * Get the observation attached to this variable.
+     *
+     * @return The observation, or null if the variable is not observed
+     */
+    public IRObservation getObservation() {
+        return observation;
+    }
+
+    public boolean isObserved() {
+        return observation != null;
+    }
+
+    /**
+     * Get the IDs of the declared variables this variable depends on.
+     */
+    public int[] getDependencies() {
+        return dependencies.clone();
+    }
+}
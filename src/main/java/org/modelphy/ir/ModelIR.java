@@ -0,0 +1,226 @@
+package org.modelphy.ir;
+
+import org.modelphy.model.*;
+
+import java.util.*;
+
+/**
+ * A compiled, resolved form of a {@link ModelPhyModel} shared by all emitters.
+ *
+ * Lowering assigns every variable a dense ID, resolves variable references to
+ * those IDs, interns distribution kinds and turns argument values into typed
+ * {@link IRValue} slots. It is done once per model; CodePhyConverter and any
+ * other back-end then emit from the IR without repeating that work.
+ */
+public final class ModelIR {
+    private final List<IRVariable> variables;
+    private final Map<String, Integer> variableIds;
+    private final List<IRVariable> stochasticVariables;
+    private final List<IRVariable> deterministicVariables;
+    private final List<IRConstraint> constraints;
+
+    private ModelIR(List<IRVariable> variables, Map<String, Integer> variableIds, List<IRConstraint> constraints) {
+        this.variables = Collections.unmodifiableList(variables);
+        this.variableIds = Collections.unmodifiableMap(variableIds);
+        this.constraints = Collections.unmodifiableList(constraints);
+
+        List<IRVariable> stochastic = new ArrayList<>();
+        List<IRVariable> deterministic = new ArrayList<>();
+        for (IRVariable var : variables) {
+            if (var.getKind() == IRVariable.Kind.STOCHASTIC) {
+                stochastic.add(var);
+            } else if (var.getKind() == IRVariable.Kind.DETERMINISTIC) {
+                deterministic.add(var);
+            }
+        }
+        this.stochasticVariables = Collections.unmodifiableList(stochastic);
+        this.deterministicVariables = Collections.unmodifiableList(deterministic);
+    }
+
+    /**
+     * Lower a model to its IR.
+     *
+     * @param model The parsed model
+     * @return The lowered model
+     */
+    public static ModelIR lower(ModelPhyModel model) {
+        List<Variable> source = model.getVariables();
+
+        // Assign IDs first so that forward references resolve; a redeclared name refers to its last declaration
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < source.size(); i++) {
+            ids.put(source.get(i).getName(), i);
+        }
+
+        Lowering lowering = new Lowering(ids);
+
+        List<IRVariable> variables = new ArrayList<>(source.size());
+        for (int i = 0; i < source.size(); i++) {
+            variables.add(lowering.lowerVariable(i, source.get(i)));
+        }
+
+        List<IRConstraint> constraints = new ArrayList<>();
+        for (Constraint constraint : model.getConstraints()) {
+            constraints.add(lowering.lowerConstraint(constraint));
+        }
+
+        return new ModelIR(variables, ids, constraints);
+    }
+
+    /**
+     * Get all variables, indexed by ID.
+     */
+    public List<IRVariable> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Get a variable by ID.
+     */
+    public IRVariable getVariable(int id) {
+        return variables.get(id);
+    }
+
+    /**
+     * Get the ID of a variable.
+     *
+     * @return The variable ID, or -1 if no variable has that name
+     */
+    public int getVariableId(String name) {
+        Integer id = variableIds.get(name);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Get the stochastic variables in model order.
+     */
+    public List<IRVariable> getStochasticVariables() {
+        return stochasticVariables;
+    }
+
+    /**
+     * Get the deterministic variables in model order.
+     */
+    public List<IRVariable> getDeterministicVariables() {
+        return deterministicVariables;
+    }
+
+    public List<IRConstraint> getConstraints() {
+        return constraints;
+    }
+
+    /**
+     * Lowers model objects against a fixed name-to-ID table.
+     */
+    private static class Lowering {
+        private final Map<String, Integer> ids;
+
+        Lowering(Map<String, Integer> ids) {
+            this.ids = ids;
+        }
+
+        IRVariable lowerVariable(int id, Variable var) {
+            IRVariable.Kind kind;
+            IRDistribution distribution = null;
+            IRValue expression = null;
+
+            if (var instanceof StochasticVariable) {
+                kind = IRVariable.Kind.STOCHASTIC;
+                distribution = lowerDistribution(((StochasticVariable) var).getDistribution());
+            } else if (var instanceof DeterministicVariable) {
+                kind = IRVariable.Kind.DETERMINISTIC;
+                expression = lowerValue(((DeterministicVariable) var).getExpression());
+            } else {
+                kind = IRVariable.Kind.DECLARED;
+                expression = var.getValue() != null ? lowerValue(var.getValue()) : null;
+            }
+
+            IRObservation observation = null;
+            if (var.isObserved()) {
+                Observation obs = var.getObservation();
+                if (obs.getType() == ObservationType.FILE) {
+                    observation = IRObservation.ofFile(obs.getFilename());
+                } else {
+                    Map<String, IRValue> keyValues = new LinkedHashMap<>();
+                    for (Map.Entry<String, Object> entry : obs.getKeyValues().entrySet()) {
+                        keyValues.put(entry.getKey(), lowerValue(entry.getValue()));
+                    }
+                    observation = IRObservation.ofInline(keyValues);
+                }
+            }
+
+            return new IRVariable(id, var.getName(), var.getType(), kind, distribution, expression,
+                observation, resolve(var.getDependencies()));
+        }
+
+        IRConstraint lowerConstraint(Constraint constraint) {
+            IRDistribution distribution = constraint.hasDistribution()
+                ? lowerDistribution(constraint.getDistribution()) : null;
+            return new IRConstraint(constraint.getName(), lowerValue(constraint.getFunction()),
+                distribution, resolve(constraint.getDependencies()));
+        }
+
+        IRDistribution lowerDistribution(Distribution dist) {
+            return new IRDistribution(dist.getName(), DistributionKind.of(dist.getName()),
+                lowerArguments(dist.getArguments()));
+        }
+
+        List<IRArgument> lowerArguments(List<Argument> arguments) {
+            List<IRArgument> lowered = new ArrayList<>(arguments.size());
+            for (Argument arg : arguments) {
+                lowered.add(new IRArgument(arg.getName(), lowerValue(arg.getValue())));
+            }
+            return lowered;
+        }
+
+        IRValue lowerValue(Object value) {
+            if (value == null) {
+                return IRValue.NULL;
+            } else if (value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte) {
+                return IRValue.ofInteger(((Number) value).longValue());
+            } else if (value instanceof Number) {
+                return IRValue.ofReal(((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                return IRValue.ofBoolean((Boolean) value);
+            } else if (value instanceof String) {
+                return IRValue.ofString((String) value);
+            } else if (value instanceof VariableReference) {
+                String name = ((VariableReference) value).getName();
+                return IRValue.ofReference(name, ids.getOrDefault(name, -1));
+            } else if (value instanceof ArrayValue) {
+                List<IRValue> elements = new ArrayList<>();
+                for (Object element : ((ArrayValue) value).getElements()) {
+                    elements.add(lowerValue(element));
+                }
+                return IRValue.ofArray(elements);
+            } else if (value instanceof FunctionCall) {
+                FunctionCall func = (FunctionCall) value;
+                return IRValue.ofCall(func.getName(), lowerArguments(func.getArguments()));
+            } else if (value instanceof Map) {
+                Map<String, IRValue> entries = new LinkedHashMap<>();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    if (entry.getKey() instanceof String) {
+                        entries.put((String) entry.getKey(), lowerValue(entry.getValue()));
+                    }
+                }
+                return IRValue.ofMap(entries);
+            }
+
+            // Unknown values are carried as their string representation
+            return IRValue.ofString(value.toString());
+        }
+
+        int[] resolve(List<String> names) {
+            int[] resolved = new int[names.size()];
+            int count = 0;
+            for (String name : names) {
+                Integer id = ids.get(name);
+                if (id != null) {
+                    resolved[count++] = id;
+                }
+            }
+            return Arrays.copyOf(resolved, count);
+        }
+    }
+}
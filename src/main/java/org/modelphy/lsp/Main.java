@@ -2,43 +2,52 @@ package org.modelphy.lsp;
 
 import org.eclipse.lsp4j.jsonrpc.Launcher;
 import org.eclipse.lsp4j.launch.LSPLauncher;
-import org.eclipse.lsp4j.services.LanguageClient;
+import org.modelphy.lsp.benchmark.SessionRecorder;
 
+import java.nio.file.Paths;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
 public class Main {
     public static void main(String[] args) {
-        System.out.println("ModelPhy Language Server starting...");
+        // Standard output carries the JSON-RPC stream, so everything else is logged to standard error
+        System.err.println("ModelPhy Language Server starting...");
         
         try {
             // Create the language server instance
             ModelPhyLanguageServer server = new ModelPhyLanguageServer();
-            System.out.println("Server instance created");
+            server.getStats().registerMBean();
+            System.err.println("Server instance created");
+            
+            // Record the session for the benchmark if asked to with -Dmodelphy.recordSession=<file>
+            String recordSession = System.getProperty("modelphy.recordSession");
+            SessionRecorder recorder = recordSession != null ? new SessionRecorder(Paths.get(recordSession)) : null;
             
             // Create the JSON RPC launcher for the language server
-            Launcher<LanguageClient> launcher = LSPLauncher.createServerLauncher(
-                server, 
-                System.in, 
-                System.out
-            );
-            System.out.println("Launcher created");
+            Launcher<ModelPhyLanguageClient> launcher = new LSPLauncher.Builder<ModelPhyLanguageClient>()
+                .setLocalService(server)
+                .setRemoteInterface(ModelPhyLanguageClient.class)
+                .setInput(System.in)
+                .setOutput(System.out)
+                .wrapMessages(recorder != null ? recorder::wrap : null)
+                .create();
+            System.err.println("Launcher created");
             
             // Get the client proxy
-            LanguageClient client = launcher.getRemoteProxy();
-            System.out.println("Client proxy obtained");
+            ModelPhyLanguageClient client = launcher.getRemoteProxy();
+            System.err.println("Client proxy obtained");
             
             // Connect the server to the client
             server.connect(client);
-            System.out.println("Server connected to client");
+            System.err.println("Server connected to client");
             
             // Start listening for client messages
             Future<?> startListening = launcher.startListening();
-            System.out.println("Started listening for client messages");
+            System.err.println("Started listening for client messages");
             
             // Wait until the communication is shut down
             startListening.get();
-            System.out.println("Communication shutdown received");
+            System.err.println("Communication shutdown received");
         } catch (InterruptedException | ExecutionException e) {
             System.err.println("Fatal error in language server: " + e.getMessage());
             e.printStackTrace(System.err);
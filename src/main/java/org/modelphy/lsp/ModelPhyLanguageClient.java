@@ -0,0 +1,18 @@
+package org.modelphy.lsp;
+
+import org.eclipse.lsp4j.jsonrpc.services.JsonNotification;
+import org.eclipse.lsp4j.services.LanguageClient;
+import org.modelphy.lsp.features.graph.ModelGraphDelta;
+
+/**
+ * The notifications the server sends beyond the standard protocol.
+ */
+public interface ModelPhyLanguageClient extends LanguageClient {
+
+    /**
+     * Report the changes to a document's dependency graph since the last graph
+     * sent, once the client has asked for it with modelphy/modelGraph.
+     */
+    @JsonNotification("modelphy/modelGraphChanged")
+    void modelGraphChanged(ModelGraphDelta delta);
+}
@@ -4,23 +4,63 @@ import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.services.*;
 import org.eclipse.lsp4j.SetTraceParams;
 import org.eclipse.lsp4j.WorkDoneProgressCancelParams;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.eclipse.lsp4j.jsonrpc.services.JsonRequest;
+import org.modelphy.lsp.features.graph.ModelGraphParams;
+import org.modelphy.lsp.features.graph.ModelGraphResult;
+import org.modelphy.lsp.features.semantic.SemanticTokensProvider;
+import org.modelphy.lsp.scheduling.RequestScheduler;
+import org.modelphy.lsp.telemetry.ServerLog;
+import org.modelphy.lsp.telemetry.ServerStats;
 import java.util.concurrent.CompletableFuture;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
 
 public class ModelPhyLanguageServer implements LanguageServer {
+    private final ServerStats stats = new ServerStats();
+    private final ServerLog log = new ServerLog();
+    private final RequestScheduler scheduler;
     private final TextDocumentService textDocumentService;
     private final WorkspaceService workspaceService;
-    private LanguageClient client;
-    private int shutdown = 0;
+    private volatile LanguageClient client;
+    private volatile int shutdown = 0;
+    private boolean dynamicFileWatching;
 
     public ModelPhyLanguageServer() {
+        // All request and background work shares one pool, serialized per document
+        this.scheduler = new RequestScheduler(Math.max(2, Runtime.getRuntime().availableProcessors()), log);
+        stats.setQueueDepths(scheduler::getQueueDepths);
         this.textDocumentService = new ModelPhyTextDocumentService(this);
         this.workspaceService = new ModelPhyWorkspaceService(this);
     }
     
     @Override
     public CompletableFuture<InitializeResult> initialize(InitializeParams params) {
-        System.out.println("Language server initializing...");
+        log.setTrace(params.getTrace());
+        log.log("Language server initializing...");
+        
+        // Remember the workspace folders so they can be indexed once the client is ready
+        ModelPhyWorkspaceService workspace = (ModelPhyWorkspaceService) workspaceService;
+        if (params.getWorkspaceFolders() != null) {
+            workspace.setWorkspaceFolders(params.getWorkspaceFolders());
+        } else if (params.getRootUri() != null) {
+            workspace.setWorkspaceFolders(Collections.singletonList(new WorkspaceFolder(params.getRootUri())));
+        }
+        WorkspaceClientCapabilities workspaceCapabilities =
+            params.getCapabilities() != null ? params.getCapabilities().getWorkspace() : null;
+        dynamicFileWatching = workspaceCapabilities != null && workspaceCapabilities.getDidChangeWatchedFiles() != null
+            && Boolean.TRUE.equals(workspaceCapabilities.getDidChangeWatchedFiles().getDynamicRegistration());
+        TextDocumentClientCapabilities documentCapabilities =
+            params.getCapabilities() != null ? params.getCapabilities().getTextDocument() : null;
+        boolean pullDiagnostics = documentCapabilities != null && documentCapabilities.getDiagnostic() != null;
+        ((ModelPhyTextDocumentService) textDocumentService).setPullDiagnostics(pullDiagnostics);
+        ((ModelPhyTextDocumentService) textDocumentService).setDefinitionLinks(documentCapabilities != null
+            && documentCapabilities.getDefinition() != null
+            && Boolean.TRUE.equals(documentCapabilities.getDefinition().getLinkSupport()));
+        workspace.setDiagnosticsRefresh(pullDiagnostics && workspaceCapabilities != null
+            && workspaceCapabilities.getDiagnostics() != null
+            && Boolean.TRUE.equals(workspaceCapabilities.getDiagnostics().getRefreshSupport()));
         
         // Configure server capabilities
         ServerCapabilities capabilities = new ServerCapabilities();
@@ -36,17 +76,65 @@ public class ModelPhyLanguageServer implements LanguageServer {
         // Hover support
         capabilities.setHoverProvider(true);
         
-        // Document formatting
+        // Formatting of the whole document, a range, or the statement just ended with ';'
         capabilities.setDocumentFormattingProvider(true);
+        capabilities.setDocumentRangeFormattingProvider(true);
+        capabilities.setDocumentOnTypeFormattingProvider(new DocumentOnTypeFormattingOptions(";"));
+        
+        // Semantic highlighting, with deltas against the last result sent
+        SemanticTokensWithRegistrationOptions semanticTokens = new SemanticTokensWithRegistrationOptions(
+            SemanticTokensProvider.getLegend(), new SemanticTokensServerFull(true), false);
+        capabilities.setSemanticTokensProvider(semanticTokens);
+        
+        // CodePhy parameter names and "generates" kinds next to distributions
+        capabilities.setInlayHintProvider(true);
+        
+        // Outline, folding and navigation, from the symbol table of each version
+        capabilities.setDocumentSymbolProvider(true);
+        capabilities.setFoldingRangeProvider(true);
+        capabilities.setDefinitionProvider(true);
+        capabilities.setReferencesProvider(true);
+        
+        // Symbol search across the indexed workspace
+        capabilities.setWorkspaceSymbolProvider(true);
         
-        // Diagnostics implicitly supported
+        // Workspace folders are indexed, and changes to them reported
+        WorkspaceFoldersOptions foldersOptions = new WorkspaceFoldersOptions();
+        foldersOptions.setSupported(true);
+        foldersOptions.setChangeNotifications(true);
+        capabilities.setWorkspace(new WorkspaceServerCapabilities(foldersOptions));
+        
+        // Diagnostics are pulled by clients that can, for open documents and the whole workspace,
+        // and pushed to the others
+        if (pullDiagnostics) {
+            DiagnosticRegistrationOptions diagnosticOptions = new DiagnosticRegistrationOptions(false, true);
+            diagnosticOptions.setIdentifier("modelphy");
+            capabilities.setDiagnosticProvider(diagnosticOptions);
+        }
         
         InitializeResult result = new InitializeResult(capabilities);
         return CompletableFuture.completedFuture(result);
     }
 
+    @Override
+    public void initialized(InitializedParams params) {
+        // Ask the client to report changes to model files on disk
+        if (dynamicFileWatching && client != null) {
+            FileSystemWatcher watcher = new FileSystemWatcher(Either.forLeft("**/*.mphy"));
+            // A deleted folder is reported by its own path, which the first pattern does not match
+            FileSystemWatcher deletions = new FileSystemWatcher(Either.forLeft("**/*"), WatchKind.Delete);
+            Registration registration = new Registration("modelphy-watched-files", "workspace/didChangeWatchedFiles",
+                new DidChangeWatchedFilesRegistrationOptions(Arrays.asList(watcher, deletions)));
+            client.registerCapability(new RegistrationParams(Collections.singletonList(registration)));
+        }
+        
+        // Build the workspace index in the background
+        ((ModelPhyWorkspaceService) workspaceService).refreshWorkspaceIndex();
+    }
+
     public void connect(LanguageClient client) {
         this.client = client;
+        log.connect(client);
     }
 
     // Getter for client
@@ -54,17 +142,78 @@ public class ModelPhyLanguageServer implements LanguageServer {
         return this.client;
     }
     
+    /**
+     * Get the scheduler that runs requests and background work.
+     */
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+    
+    /**
+     * Get the server's performance counters.
+     */
+    public ServerStats getStats() {
+        return stats;
+    }
+    
+    /**
+     * Get the log, which also feeds $/logTrace.
+     */
+    public ServerLog getLog() {
+        return log;
+    }
+    
+    /**
+     * Record how long a request takes to answer, and trace it if the client asked for traces.
+     * Cancelled requests are not recorded.
+     *
+     * @param method The LSP method
+     * @param uri The document the request is about, or null
+     * @param start When the request arrived, from {@link System#nanoTime()}
+     * @param answer The answer to the request
+     * @return The same answer
+     */
+    <T> CompletableFuture<T> measure(String method, String uri, long start, CompletableFuture<T> answer) {
+        answer.whenComplete((result, error) -> {
+            long elapsed = System.nanoTime() - start;
+            if (answer.isCancelled()) {
+                log.trace(method + " cancelled", uri);
+                return;
+            }
+            stats.requestTimes(method).record(elapsed);
+            if (log.isTracing()) {
+                log.trace(String.format("%s took %.2f ms", method, elapsed / 1e6), uri);
+            }
+        });
+        return answer;
+    }
+    
     /**
      * Sets the trace notification level.
      * 
      * @param params The trace notification parameters
      */
+    @Override
     public void setTrace(SetTraceParams params) {
-        // Just log that we received the notification
-        System.out.println("Trace level set to: " + params.getValue());
-        
-        // In a more complete implementation, you might use this to adjust 
-        // your debug logging level
+        log.setTrace(params.getValue());
+        log.log("Trace level set to: " + params.getValue());
+    }
+    
+    /**
+     * Report request latencies, queue depths, cache hit rates and parse times.
+     */
+    @JsonRequest("modelphy/stats")
+    public CompletableFuture<Map<String, Object>> stats() {
+        return CompletableFuture.completedFuture(stats.report());
+    }
+    
+    /**
+     * Get the dependency graph of an open document. Changes to it are then
+     * sent with modelphy/modelGraphChanged until the document is closed.
+     */
+    @JsonRequest("modelphy/modelGraph")
+    public CompletableFuture<ModelGraphResult> modelGraph(ModelGraphParams params) {
+        return ((ModelPhyTextDocumentService) textDocumentService).modelGraph(params);
     }
 
     @Override
@@ -80,12 +229,19 @@ public class ModelPhyLanguageServer implements LanguageServer {
     @Override
     public void cancelProgress(WorkDoneProgressCancelParams params) {
         // Log cancellation
-        System.out.println("Progress cancelled: " + params.getToken());
+        log.log("Progress cancelled: " + params.getToken());
     } 
 
     @Override
     public CompletableFuture<Object> shutdown() {
         shutdown = 1;
+        if (textDocumentService instanceof ModelPhyTextDocumentService) {
+            ((ModelPhyTextDocumentService) textDocumentService).shutdown();
+        }
+        if (workspaceService instanceof ModelPhyWorkspaceService) {
+            ((ModelPhyWorkspaceService) workspaceService).shutdown();
+        }
+        scheduler.shutdown();
         return CompletableFuture.completedFuture(null);
     }
 
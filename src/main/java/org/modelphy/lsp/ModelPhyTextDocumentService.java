@@ -3,69 +3,189 @@ package org.modelphy.lsp;
 import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.services.TextDocumentService;
 import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseError;
+import org.eclipse.lsp4j.jsonrpc.messages.ResponseErrorCode;
+import org.modelphy.lsp.analysis.AnalysisCache;
+import org.modelphy.lsp.analysis.DocumentAnalysis;
+import org.modelphy.lsp.document.DocumentStore;
+import org.modelphy.lsp.document.TextDocument;
 import org.modelphy.lsp.features.completion.CompletionProvider;
 import org.modelphy.lsp.features.diagnostics.DiagnosticProvider;
+import org.modelphy.lsp.features.diagnostics.DiagnosticResults;
+import org.modelphy.lsp.features.diagnostics.DiagnosticsScheduler;
+import org.modelphy.lsp.features.formatting.FormattingProvider;
+import org.modelphy.lsp.features.graph.ModelGraphDelta;
+import org.modelphy.lsp.features.graph.ModelGraphParams;
+import org.modelphy.lsp.features.graph.ModelGraphProvider;
+import org.modelphy.lsp.features.graph.ModelGraphResult;
+import org.modelphy.lsp.features.graph.ModelGraphUpdates;
 import org.modelphy.lsp.features.hover.HoverProvider;
+import org.modelphy.lsp.features.inlay.InlayHintProvider;
+import org.modelphy.lsp.features.navigation.NavigationProvider;
+import org.modelphy.lsp.features.semantic.SemanticTokensProvider;
+import org.modelphy.lsp.scheduling.RequestScheduler;
+import org.modelphy.lsp.telemetry.ServerStats;
 import org.modelphy.model.*;
 import org.modelphy.parser.ModelPhyParserWrapper;
+import org.modelphy.parser.ParseResult;
 import java.util.ArrayList;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ConcurrentHashMap;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
 
 public class ModelPhyTextDocumentService implements TextDocumentService {
     private final ModelPhyLanguageServer server;
-    private final Map<String, String> documents = new HashMap<>();
+    private final RequestScheduler scheduler;
+    private final DocumentStore documents = new DocumentStore();
+    private final AnalysisCache analyses;
     private final DiagnosticProvider diagnosticProvider;
     private final CompletionProvider completionProvider;
     private final HoverProvider hoverProvider;
-    // to track active requests
-    private final ConcurrentHashMap<String, CompletableFuture<?>> activeRequests = new ConcurrentHashMap<>();
+    private final InlayHintProvider inlayHintProvider;
+    private final NavigationProvider navigationProvider;
+    private final SemanticTokensProvider semanticTokensProvider;
+    private final FormattingProvider formattingProvider;
+    private final ModelGraphProvider modelGraphProvider;
+    private final ModelGraphUpdates modelGraphUpdates;
+    private final DiagnosticsScheduler diagnosticsScheduler;
+    private final DiagnosticResults diagnosticResults;
+    // The version whose diagnostics were last pushed, per document
+    private final ConcurrentHashMap<String, Integer> publishedVersions = new ConcurrentHashMap<>();
+    // Whether the client pulls diagnostics, in which case none are pushed
+    private volatile boolean pullDiagnostics;
+    // Whether the client accepts location links for definitions
+    private volatile boolean definitionLinks;
+    private volatile ModelPhyWorkspaceService.ModelPhySettings settings = new ModelPhyWorkspaceService.ModelPhySettings();
+    // The newest pending request per method and document, cancelled when a newer one arrives
+    private final ConcurrentHashMap<String, CompletableFuture<?>> latestRequests = new ConcurrentHashMap<>();
 
 
     public ModelPhyTextDocumentService(ModelPhyLanguageServer server) {
         this.server = server;
+        this.scheduler = server.getScheduler();
+        this.analyses = new AnalysisCache(server.getStats());
         this.diagnosticProvider = new DiagnosticProvider();
         this.completionProvider = new CompletionProvider();
         this.hoverProvider = new HoverProvider();
+        this.inlayHintProvider = new InlayHintProvider();
+        this.navigationProvider = new NavigationProvider();
+        this.semanticTokensProvider = new SemanticTokensProvider();
+        this.formattingProvider = new FormattingProvider();
+        this.diagnosticsScheduler = new DiagnosticsScheduler(
+            diagnosticProvider, this::parse, documents::get, this::publishDiagnostics, scheduler,
+            server.getStats(), server.getLog(), settings.getDiagnosticsDelay());
+        this.diagnosticResults = new DiagnosticResults(diagnosticProvider);
+        this.modelGraphProvider = new ModelGraphProvider();
+        this.modelGraphUpdates = new ModelGraphUpdates(modelGraphProvider, analyses, documents::get,
+            this::publishModelGraph, scheduler, server.getLog(), settings.getDiagnosticsDelay());
+    }
+
+    /**
+     * Switch between pushing diagnostics and answering the client's pulls.
+     */
+    public void setPullDiagnostics(boolean pullDiagnostics) {
+        this.pullDiagnostics = pullDiagnostics;
+    }
+
+    public boolean isPullDiagnostics() {
+        return pullDiagnostics;
+    }
+
+    /**
+     * Answer definition requests with links that carry the whole defining statement.
+     */
+    public void setDefinitionLinks(boolean definitionLinks) {
+        this.definitionLinks = definitionLinks;
+    }
+
+    /**
+     * Get the diagnostics of every open document, for a workspace pull.
+     *
+     * Each document is diagnosed as background work in its own queue, so
+     * documents are diagnosed in parallel.
+     *
+     * @return The results by URI
+     */
+    public Map<String, CompletableFuture<DiagnosticResults.Result>> pullOpenDocuments() {
+        Map<String, CompletableFuture<DiagnosticResults.Result>> results = new HashMap<>();
+        for (TextDocument.Snapshot snapshot : documents.snapshots()) {
+            results.put(snapshot.getUri(), scheduler.submit(snapshot.getUri(), RequestScheduler.Priority.BACKGROUND,
+                cancelChecker -> diagnosticResults.document(analyses.get(snapshot, cancelChecker), cancelChecker)));
+        }
+        return results;
+    }
+
+    /**
+     * Get the store of diagnostics results shared by document and workspace pulls.
+     */
+    public DiagnosticResults getDiagnosticResults() {
+        return diagnosticResults;
+    }
+
+    /**
+     * Apply new workspace settings to subsequent diagnostics runs.
+     */
+    public void applySettings(ModelPhyWorkspaceService.ModelPhySettings settings) {
+        this.settings = settings;
+        diagnosticsScheduler.setDebounceMillis(settings.getDiagnosticsDelay());
+        modelGraphUpdates.setDebounceMillis(settings.getDiagnosticsDelay());
+    }
+
+    /**
+     * Stop background work when the server shuts down.
+     */
+    public void shutdown() {
+        diagnosticsScheduler.shutdown();
+        modelGraphUpdates.shutdown();
     }
 
     @Override
     public void didOpen(DidOpenTextDocumentParams params) {
-        System.out.println("Document opened: " + params.getTextDocument().getUri());
         String uri = params.getTextDocument().getUri();
-        String text = params.getTextDocument().getText();
-        documents.put(uri, text);
+        TextDocument.Snapshot snapshot = documents.open(
+            uri, params.getTextDocument().getText(), params.getTextDocument().getVersion());
+        analyses.open(uri);
         
-        // Run diagnostics when a document is opened
-        reportDiagnostics(uri, text);
+        // Run diagnostics when a document is opened, unless the client pulls them
+        if (!pullDiagnostics) {
+            diagnosticsScheduler.scheduleNow(snapshot);
+        }
     }
     
     @Override
     public void didClose(DidCloseTextDocumentParams params) {
         // Remove document from our collection when closed
         String uri = params.getTextDocument().getUri();
-        documents.remove(uri);
+        documents.close(uri);
+        diagnosticsScheduler.cancel(uri);
+        analyses.close(uri);
+        semanticTokensProvider.forget(uri);
+        modelGraphUpdates.cancel(uri);
         
         // Clear diagnostics when document is closed
-        server.getClient().publishDiagnostics(
-            new PublishDiagnosticsParams(uri, new ArrayList<>())
-        );
+        if (!pullDiagnostics) {
+            publishDiagnostics(
+                new PublishDiagnosticsParams(uri, new ArrayList<>())
+            );
+        }
+        publishedVersions.remove(uri);
     }
     
     @Override
     public void didSave(DidSaveTextDocumentParams params) {
         // Handle document save event
         String uri = params.getTextDocument().getUri();
-        String content = documents.get(uri);
+        TextDocument.Snapshot snapshot = documents.get(uri);
         
         // Re-validate on save
-        if (content != null) {
-            reportDiagnostics(uri, content);
+        if (snapshot != null && settings.isValidateOnSave() && !pullDiagnostics) {
+            diagnosticsScheduler.scheduleNow(snapshot);
         }
     }
 
@@ -74,98 +194,334 @@ public class ModelPhyTextDocumentService implements TextDocumentService {
         String uri = params.getTextDocument().getUri();
         
         // Apply changes to the document
-        String content = documents.get(uri);
-        for (TextDocumentContentChangeEvent change : params.getContentChanges()) {
-            if (change.getRange() == null) {
-                content = change.getText();
-            } else {
-                content = applyChange(content, change);
-            }
+        TextDocument.Snapshot snapshot = documents.change(
+            uri, params.getContentChanges(), params.getTextDocument().getVersion());
+        if (snapshot == null) {
+            return;
         }
-        documents.put(uri, content);
         
-        // Re-run diagnostics on change
-        reportDiagnostics(uri, content);
+        // Re-run diagnostics once the burst of edits settles
+        if (settings.isValidateOnType() && !pullDiagnostics) {
+            diagnosticsScheduler.schedule(snapshot);
+        }
+        
+        // Send the changes to the dependency graph, if the client is showing it
+        modelGraphUpdates.schedule(uri);
     }
     
     /**
-     * Validates all open documents.
+     * Validates the open documents whose diagnostics are out of date.
      * Called when configuration changes to apply new settings.
+     *
+     * Diagnostics depend only on the text, so a document whose current
+     * version was already published is skipped, as are all documents when
+     * the client pulls diagnostics. The others are diagnosed in parallel.
      */
     public void validateAllDocuments() {
-        for (Map.Entry<String, String> entry : documents.entrySet()) {
-            reportDiagnostics(entry.getKey(), entry.getValue());
+        if (pullDiagnostics) {
+            return;
+        }
+        for (TextDocument.Snapshot snapshot : documents.snapshots()) {
+            Integer published = publishedVersions.get(snapshot.getUri());
+            if (published == null || published != snapshot.getVersion()) {
+                diagnosticsScheduler.scheduleNow(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Parse a document version through the shared analysis cache.
+     */
+    private ParseResult parse(TextDocument.Snapshot snapshot, CancelChecker cancelChecker) {
+        return analyses.get(snapshot, cancelChecker).getParseResult(cancelChecker);
+    }
+
+    private void publishDiagnostics(PublishDiagnosticsParams params) {
+        if (params.getVersion() != null) {
+            publishedVersions.put(params.getUri(), params.getVersion());
+        }
+        if (server.getClient() != null) {
+            server.getClient().publishDiagnostics(params);
         }
     }
 
-    private void reportDiagnostics(String uri, String content) {
-        System.out.println("Reporting diagnostics for: " + uri);
-        List<Diagnostic> diagnostics = diagnosticProvider.provideDiagnostics(content);
-        server.getClient().publishDiagnostics(new PublishDiagnosticsParams(uri, diagnostics));
+    private void publishModelGraph(ModelGraphDelta delta) {
+        if (server.getClient() instanceof ModelPhyLanguageClient) {
+            ((ModelPhyLanguageClient) server.getClient()).modelGraphChanged(delta);
+        }
     }
 
+    /**
+     * Run a request for a document on the scheduler.
+     *
+     * The document version is taken when the request arrives, so positions
+     * the client sent are resolved against the text they refer to. If the
+     * document has changed by the time the work runs, the request is answered
+     * with ContentModified and the client asks again.
+     *
+     * LSP4J cancels the returned future when the client sends $/cancelRequest,
+     * which cancels the work; it stops at its next cancellation check in the
+     * parser or provider.
+     *
+     * @param method The LSP method, used in logs and latency statistics
+     * @param supersedes The kind of request a newer one of which, for the same document, cancels this one;
+     *                   null if this request is always answered
+     * @param fallback The answer if the work fails
+     * @param work The work, given the document version the request refers to, or null if it is not open
+     */
+    private <T> CompletableFuture<T> request(String method, String uri, RequestScheduler.Priority priority,
+                                             String supersedes, T fallback,
+                                             BiFunction<TextDocument.Snapshot, CancelChecker, T> work) {
+        long start = System.nanoTime();
+        ServerStats stats = server.getStats();
+        TextDocument.Snapshot snapshot = documents.get(uri);
+        CompletableFuture<T> future = scheduler.submit(uri, priority, cancelChecker -> {
+            TextDocument.Snapshot current = documents.get(uri);
+            if (snapshot != null && (current == null || current.getVersion() != snapshot.getVersion())) {
+                throw new ResponseErrorException(new ResponseError(ResponseErrorCode.ContentModified,
+                    uri + " changed since version " + snapshot.getVersion(), null));
+            }
+            long allocated = ServerStats.allocatedBytes();
+            try {
+                return work.apply(snapshot, cancelChecker);
+            } finally {
+                if (allocated >= 0) {
+                    stats.recordAllocation(method, ServerStats.allocatedBytes() - allocated);
+                }
+            }
+        });
+        if (supersedes != null) {
+            // Only the answer to the newest hover, completion or token request is still wanted
+            String key = supersedes + " " + uri;
+            CompletableFuture<?> previous = latestRequests.put(key, future);
+            if (previous != null) {
+                previous.cancel(false);
+            }
+            future.whenComplete((result, error) -> latestRequests.remove(key, future));
+        }
+        return server.measure(method, uri, start, scheduler.respond(method, future, fallback));
+    }
+
+    @Override
+    public CompletableFuture<DocumentDiagnosticReport> diagnostic(DocumentDiagnosticParams params) {
+        String uri = params.getTextDocument().getUri();
+        
+        // Unchanged text is answered from the result store without parsing
+        return request("textDocument/diagnostic", uri, RequestScheduler.Priority.BACKGROUND, "diagnostic",
+                new DocumentDiagnosticReport(new RelatedFullDocumentDiagnosticReport(new ArrayList<>())),
+                (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return new DocumentDiagnosticReport(new RelatedFullDocumentDiagnosticReport(new ArrayList<>()));
+            }
+            DiagnosticResults.Result result =
+                diagnosticResults.document(analyses.get(snapshot, cancelChecker), cancelChecker);
+            if (result.isUnchanged(params.getPreviousResultId())) {
+                return new DocumentDiagnosticReport(new RelatedUnchangedDocumentDiagnosticReport(result.getResultId()));
+            }
+            RelatedFullDocumentDiagnosticReport report =
+                new RelatedFullDocumentDiagnosticReport(new ArrayList<>(result.getDiagnostics()));
+            report.setResultId(result.getResultId());
+            return new DocumentDiagnosticReport(report);
+        });
+    }
+    
     @Override
     public CompletableFuture<Either<List<CompletionItem>, CompletionList>> completion(CompletionParams params) {
-        CompletableFuture<Either<List<CompletionItem>, CompletionList>> result = new CompletableFuture<>();
+        String uri = params.getTextDocument().getUri();
+        Position position = params.getPosition();
+        
+        return request("textDocument/completion", uri, RequestScheduler.Priority.INTERACTIVE, "completion",
+                Either.forLeft(new ArrayList<>()), (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return Either.forLeft(new ArrayList<>());
+            }
+            
+            // Completion shares the analysis computed for diagnostics of the same version
+            DocumentAnalysis analysis = analyses.get(snapshot, cancelChecker);
+            return Either.forRight(completionProvider.provideCompletions(
+                analysis, position.getLine(), position.getCharacter(), cancelChecker));
+        });
+    }    
+    
+    @Override
+    public CompletableFuture<SemanticTokens> semanticTokensFull(SemanticTokensParams params) {
+        String uri = params.getTextDocument().getUri();
         
-        // Create a simple item
-        List<CompletionItem> items = new ArrayList<>();
-        items.add(new CompletionItem("Test"));
+        return request("textDocument/semanticTokens/full", uri, RequestScheduler.Priority.NORMAL, "semanticTokens",
+                new SemanticTokens(new ArrayList<>()), (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return new SemanticTokens(new ArrayList<>());
+            }
+            return semanticTokensProvider.provideFull(analyses.get(snapshot, cancelChecker), cancelChecker);
+        });
+    }
+    
+    @Override
+    public CompletableFuture<Either<SemanticTokens, SemanticTokensDelta>> semanticTokensFullDelta(
+            SemanticTokensDeltaParams params) {
+        String uri = params.getTextDocument().getUri();
         
-        // Complete the future immediately
-        result.complete(Either.forLeft(items));
+        // Only the run of tokens that changed since the client's result is sent back
+        return request("textDocument/semanticTokens/full/delta", uri, RequestScheduler.Priority.NORMAL,
+                "semanticTokens", Either.forLeft(new SemanticTokens(new ArrayList<>())), (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return Either.forLeft(new SemanticTokens(new ArrayList<>()));
+            }
+            return semanticTokensProvider.provideDelta(
+                analyses.get(snapshot, cancelChecker), params.getPreviousResultId(), cancelChecker);
+        });
+    }
+    
+    @Override
+    public CompletableFuture<List<? extends TextEdit>> formatting(DocumentFormattingParams params) {
+        String uri = params.getTextDocument().getUri();
         
-        return result.exceptionally(e -> {
-            System.err.println("Completion error: " + e.getMessage());
-            e.printStackTrace();
-            return Either.forLeft(new ArrayList<>());
+        // The whole document is formatted from its tokens; no analysis is needed
+        return request("textDocument/formatting", uri, RequestScheduler.Priority.INTERACTIVE, null,
+                new ArrayList<TextEdit>(), (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return new ArrayList<TextEdit>();
+            }
+            return formattingProvider.formatDocument(snapshot, params.getOptions(), cancelChecker);
         });
-    }    
+    }
+    
+    @Override
+    public CompletableFuture<List<? extends TextEdit>> rangeFormatting(DocumentRangeFormattingParams params) {
+        String uri = params.getTextDocument().getUri();
+        
+        return request("textDocument/rangeFormatting", uri, RequestScheduler.Priority.INTERACTIVE, null,
+                new ArrayList<TextEdit>(), (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return new ArrayList<TextEdit>();
+            }
+            return formattingProvider.formatRange(
+                analyses.get(snapshot, cancelChecker), params.getRange(), params.getOptions(), cancelChecker);
+        });
+    }
+    
+    @Override
+    public CompletableFuture<List<? extends TextEdit>> onTypeFormatting(DocumentOnTypeFormattingParams params) {
+        String uri = params.getTextDocument().getUri();
+        
+        // Only the statement just closed by ';' is touched
+        return request("textDocument/onTypeFormatting", uri, RequestScheduler.Priority.INTERACTIVE, null,
+                new ArrayList<TextEdit>(), (snapshot, cancelChecker) -> {
+            if (snapshot == null || !";".equals(params.getCh())) {
+                return new ArrayList<TextEdit>();
+            }
+            return formattingProvider.formatOnType(
+                analyses.get(snapshot, cancelChecker), params.getPosition(), params.getOptions(), cancelChecker);
+        });
+    }
     
     @Override
     public CompletableFuture<Hover> hover(HoverParams params) {
         String uri = params.getTextDocument().getUri();
-        String content = documents.get(uri);
         Position position = params.getPosition();
         
-        // Create a new future that can be canceled
-        final CompletableFuture<Hover> result = new CompletableFuture<>();
+        return request("textDocument/hover", uri, RequestScheduler.Priority.INTERACTIVE, "hover", null,
+                (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return new Hover(new MarkupContent(MarkupKind.PLAINTEXT, ""));
+            }
+            DocumentAnalysis analysis = analyses.get(snapshot, cancelChecker);
+            return hoverProvider.provideHover(analysis, position.getLine(), position.getCharacter(), cancelChecker);
+        });
+    }
+    
+    @Override
+    public CompletableFuture<List<InlayHint>> inlayHint(InlayHintParams params) {
+        String uri = params.getTextDocument().getUri();
+        
+        // Only the statements in the editor's viewport are visited
+        return request("textDocument/inlayHint", uri, RequestScheduler.Priority.NORMAL, "inlayHint",
+                new ArrayList<InlayHint>(), (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return new ArrayList<InlayHint>();
+            }
+            return inlayHintProvider.provideInlayHints(
+                analyses.get(snapshot, cancelChecker), params.getRange(), cancelChecker);
+        });
+    }
+    
+    @Override
+    public CompletableFuture<List<Either<SymbolInformation, DocumentSymbol>>> documentSymbol(
+            DocumentSymbolParams params) {
+        String uri = params.getTextDocument().getUri();
+        
+        return request("textDocument/documentSymbol", uri, RequestScheduler.Priority.NORMAL, "documentSymbol",
+                new ArrayList<Either<SymbolInformation, DocumentSymbol>>(), (snapshot, cancelChecker) -> {
+            List<Either<SymbolInformation, DocumentSymbol>> result = new ArrayList<>();
+            if (snapshot == null) {
+                return result;
+            }
+            for (DocumentSymbol symbol : navigationProvider.provideDocumentSymbols(
+                    analyses.get(snapshot, cancelChecker), cancelChecker)) {
+                result.add(Either.forRight(symbol));
+            }
+            return result;
+        });
+    }
+    
+    @Override
+    public CompletableFuture<List<FoldingRange>> foldingRange(FoldingRangeRequestParams params) {
+        String uri = params.getTextDocument().getUri();
         
-        // Register the request so it can be cancelled
-        String requestId = "hover-" + uri + "-" + System.currentTimeMillis();
-        activeRequests.put(requestId, result);
+        return request("textDocument/foldingRange", uri, RequestScheduler.Priority.NORMAL, "foldingRange",
+                new ArrayList<FoldingRange>(), (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return new ArrayList<FoldingRange>();
+            }
+            return navigationProvider.provideFoldingRanges(analyses.get(snapshot, cancelChecker), cancelChecker);
+        });
+    }
+    
+    @Override
+    public CompletableFuture<Either<List<? extends Location>, List<? extends LocationLink>>> definition(
+            DefinitionParams params) {
+        String uri = params.getTextDocument().getUri();
+        Position position = params.getPosition();
         
-        // Execute the hover operation asynchronously
-        CompletableFuture.supplyAsync(() -> {
-            try {
-                // Check for cancellation
-                if (result.isCancelled()) {
-                    throw new CancellationException("Hover request cancelled");
-                }
-                
-                // Process the hover request
-                return hoverProvider.provideHover(content, position.getLine(), position.getCharacter());
-            } finally {
-                // Remove the request when done
-                activeRequests.remove(requestId);
-            }
-        }).thenAccept(hover -> {
-            // Complete the future with the result
-            result.complete(hover);
-        }).exceptionally(e -> {
-            // Handle exceptions
-            if (!(e.getCause() instanceof CancellationException)) {
-                result.completeExceptionally(e);
-            }
-            return null;
+        return request("textDocument/definition", uri, RequestScheduler.Priority.INTERACTIVE, "definition",
+                Either.forLeft(new ArrayList<Location>()), (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return Either.forLeft(new ArrayList<Location>());
+            }
+            return navigationProvider.provideDefinition(
+                analyses.get(snapshot, cancelChecker), position, definitionLinks, cancelChecker);
         });
+    }
+    
+    @Override
+    public CompletableFuture<List<? extends Location>> references(ReferenceParams params) {
+        String uri = params.getTextDocument().getUri();
+        Position position = params.getPosition();
+        boolean includeDeclaration = params.getContext() == null || params.getContext().isIncludeDeclaration();
         
-        return result;
+        // The uses of a name are one lookup in the version's use index
+        return request("textDocument/references", uri, RequestScheduler.Priority.INTERACTIVE, "references",
+                new ArrayList<Location>(), (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return new ArrayList<Location>();
+            }
+            return navigationProvider.provideReferences(
+                analyses.get(snapshot, cancelChecker), position, includeDeclaration, cancelChecker);
+        });
     }
     
-    private String applyChange(String content, TextDocumentContentChangeEvent change) {
-        // Convert position to offset and apply the change
-        // Implementation omitted for brevity
-        return content;
+    /**
+     * Get the dependency graph of a document, the modelphy/modelGraph request.
+     */
+    public CompletableFuture<ModelGraphResult> modelGraph(ModelGraphParams params) {
+        String uri = params.getTextDocument().getUri();
+        
+        // The graph the answer holds is what later change notifications are computed against
+        return request("modelphy/modelGraph", uri, RequestScheduler.Priority.NORMAL, null, null, (snapshot, cancelChecker) -> {
+            if (snapshot == null) {
+                return null;
+            }
+            return modelGraphProvider.provideGraph(analyses.get(snapshot, cancelChecker), cancelChecker);
+        });
     }
-}
\ No newline at end of file
+}
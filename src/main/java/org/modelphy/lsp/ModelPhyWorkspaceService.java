@@ -1,19 +1,50 @@
 package org.modelphy.lsp;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 import org.eclipse.lsp4j.DidChangeConfigurationParams;
 import org.eclipse.lsp4j.DidChangeWatchedFilesParams;
 import org.eclipse.lsp4j.DidChangeWorkspaceFoldersParams;
 import org.eclipse.lsp4j.FileChangeType;
 import org.eclipse.lsp4j.FileEvent;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.PreviousResultId;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SymbolInformation;
+import org.eclipse.lsp4j.SymbolKind;
+import org.eclipse.lsp4j.WorkspaceDiagnosticParams;
+import org.eclipse.lsp4j.WorkspaceDiagnosticReport;
+import org.eclipse.lsp4j.WorkspaceDocumentDiagnosticReport;
 import org.eclipse.lsp4j.WorkspaceFolder;
+import org.eclipse.lsp4j.WorkspaceFullDocumentDiagnosticReport;
+import org.eclipse.lsp4j.WorkspaceUnchangedDocumentDiagnosticReport;
+import org.eclipse.lsp4j.WorkspaceSymbol;
+import org.eclipse.lsp4j.WorkspaceSymbolParams;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
 import org.eclipse.lsp4j.services.WorkspaceService;
+import org.modelphy.lsp.features.diagnostics.DiagnosticResults;
+import org.modelphy.lsp.scheduling.RequestScheduler;
+import org.modelphy.lsp.workspace.IndexedFile;
+import org.modelphy.lsp.workspace.IndexedSymbol;
+import org.modelphy.lsp.workspace.SymbolSearchIndex;
+import org.modelphy.lsp.workspace.WorkspaceIndex;
+import org.modelphy.model.SourceRange;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 
 /**
@@ -21,14 +52,55 @@ import java.util.concurrent.CompletableFuture;
  * Handles workspace-related events like configuration changes and file changes.
  */
 public class ModelPhyWorkspaceService implements WorkspaceService {
-    private final Set<WorkspaceFolder> workspaceFolders = new HashSet<>();
+    private static final int MAX_WORKSPACE_SYMBOLS = 256;
+    
+    private final Set<WorkspaceFolder> workspaceFolders = new LinkedHashSet<>();
     private ModelPhyLanguageServer server;
+    private final WorkspaceIndex workspaceIndex;
     
     // Configuration settings for ModelPhy
-    private ModelPhySettings settings = new ModelPhySettings();
+    private volatile ModelPhySettings settings = new ModelPhySettings();
+    // Whether the client asks to pull diagnostics again when told they may have changed
+    private volatile boolean diagnosticsRefresh;
     
     public ModelPhyWorkspaceService(ModelPhyLanguageServer server) {
         this.server = server;
+        
+        // The index cache lives outside the workspace; -Dmodelphy.indexCache=<dir> overrides the location
+        Path cacheDirectory = Paths.get(System.getProperty("modelphy.indexCache",
+            Paths.get(System.getProperty("user.home"), ".modelphy", "index").toString()));
+        // Files are parsed as the lowest-priority work, behind requests and diagnostics
+        this.workspaceIndex = new WorkspaceIndex(cacheDirectory,
+            server.getScheduler().executor(RequestScheduler.Priority.INDEXING), server.getLog());
+    }
+    
+    /**
+     * Set the workspace folders the client opened, before the index is first built.
+     */
+    public void setWorkspaceFolders(Collection<WorkspaceFolder> folders) {
+        workspaceFolders.clear();
+        workspaceFolders.addAll(folders);
+    }
+    
+    /**
+     * Ask the client to pull diagnostics again after files change on disk.
+     */
+    public void setDiagnosticsRefresh(boolean diagnosticsRefresh) {
+        this.diagnosticsRefresh = diagnosticsRefresh;
+    }
+    
+    /**
+     * Get the index of the ModelPhy files in the workspace folders.
+     */
+    public WorkspaceIndex getWorkspaceIndex() {
+        return workspaceIndex;
+    }
+    
+    /**
+     * Stop background indexing when the server shuts down.
+     */
+    public void shutdown() {
+        workspaceIndex.shutdown();
     }
     
     /**
@@ -40,12 +112,15 @@ public class ModelPhyWorkspaceService implements WorkspaceService {
         Object settingsObject = params.getSettings();
         if (settingsObject instanceof ModelPhySettings) {
             this.settings = (ModelPhySettings) settingsObject;
+        } else if (settingsObject instanceof JsonObject) {
+            this.settings = ModelPhySettings.fromJson((JsonObject) settingsObject);
         }
         
         // Re-validate all open documents with new settings
         if (server != null && server.getTextDocumentService() instanceof ModelPhyTextDocumentService) {
             ModelPhyTextDocumentService textDocumentService = 
                 (ModelPhyTextDocumentService) server.getTextDocumentService();
+            textDocumentService.applySettings(settings);
             textDocumentService.validateAllDocuments();
         }
     }
@@ -56,24 +131,182 @@ public class ModelPhyWorkspaceService implements WorkspaceService {
     @Override
     public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {
         // Process file change events
-        List<String> changedMphyFiles = new ArrayList<>();
+        List<Path> changedMphyFiles = new ArrayList<>();
+        List<Path> deletedMphyFiles = new ArrayList<>();
         
         for (FileEvent event : params.getChanges()) {
-            String uri = event.getUri();
-            if (uri.endsWith(".mphy")) {
-                if (event.getType() == FileChangeType.Created || 
-                    event.getType() == FileChangeType.Changed) {
-                    changedMphyFiles.add(uri);
-                }
+            Path path = toPath(event.getUri());
+            if (path == null) {
+                continue;
+            }
+            if (event.getType() == FileChangeType.Deleted) {
+                // May be a folder; the index drops every model file below it
+                deletedMphyFiles.add(path);
+            } else if (event.getUri().endsWith(".mphy")) {
+                changedMphyFiles.add(path);
             }
         }
         
-        // Update any internal caches or indexes based on file changes
-        if (!changedMphyFiles.isEmpty()) {
-            updateModelIndex(changedMphyFiles);
+        // Update the workspace index based on file changes
+        if (!changedMphyFiles.isEmpty() || !deletedMphyFiles.isEmpty()) {
+            updateModelIndex(changedMphyFiles, deletedMphyFiles);
         }
     }
     
+    /**
+     * Finds variables, constraints and distributions across the workspace by name.
+     * Results come from the in-memory symbol index, so saved files are searched
+     * without being read.
+     */
+    @Override
+    public CompletableFuture<Either<List<? extends SymbolInformation>, List<? extends WorkspaceSymbol>>> symbol(
+            WorkspaceSymbolParams params) {
+        long start = System.nanoTime();
+        String query = params.getQuery() != null ? params.getQuery() : "";
+        CompletableFuture<Either<List<? extends SymbolInformation>, List<? extends WorkspaceSymbol>>> result =
+                server.getScheduler().submit(null, RequestScheduler.Priority.INTERACTIVE, cancelChecker -> {
+            List<WorkspaceSymbol> symbols = new ArrayList<>();
+            for (SymbolSearchIndex.Match match : workspaceIndex.search(query, MAX_WORKSPACE_SYMBOLS)) {
+                IndexedSymbol symbol = match.getSymbol();
+                SourceRange range = symbol.getNameRange() != null ? symbol.getNameRange() : symbol.getRange();
+                Location location = new Location(match.getPath().toUri().toString(), toRange(range));
+                symbols.add(new WorkspaceSymbol(symbol.getName(), toSymbolKind(symbol.getKind()),
+                    Either.forLeft(location), symbol.getDetail()));
+            }
+            return Either.<List<? extends SymbolInformation>, List<? extends WorkspaceSymbol>>forRight(symbols);
+        });
+        return server.measure("workspace/symbol", null, start,
+            server.getScheduler().respond("Workspace symbol", result, Either.forRight(new ArrayList<>())));
+    }
+    
+    /**
+     * Report the diagnostics of every ModelPhy file in the workspace.
+     *
+     * Open documents are reported at their current version. Closed files are
+     * reported from the workspace index: a file whose content hash is the
+     * result the client already has is reported unchanged without being
+     * read, and the others are diagnosed in parallel as the lowest-priority
+     * work, reusing any earlier result for the same hash.
+     */
+    @Override
+    public CompletableFuture<WorkspaceDiagnosticReport> diagnostic(WorkspaceDiagnosticParams params) {
+        long start = System.nanoTime();
+        Map<String, String> previous = new HashMap<>();
+        if (params.getPreviousResultIds() != null) {
+            for (PreviousResultId id : params.getPreviousResultIds()) {
+                previous.put(id.getUri(), id.getValue());
+            }
+        }
+        
+        ModelPhyTextDocumentService documents = (ModelPhyTextDocumentService) server.getTextDocumentService();
+        DiagnosticResults results = documents.getDiagnosticResults();
+        List<CompletableFuture<DiagnosticResults.Result>> pending = new ArrayList<>();
+        List<CompletableFuture<WorkspaceDocumentDiagnosticReport>> reports = new ArrayList<>();
+        Set<String> known = new HashSet<>();
+        Set<Path> openPaths = new HashSet<>();
+        
+        for (Map.Entry<String, CompletableFuture<DiagnosticResults.Result>> entry
+                : documents.pullOpenDocuments().entrySet()) {
+            String uri = entry.getKey();
+            known.add(uri);
+            Path path = toPath(uri);
+            if (path != null) {
+                openPaths.add(path.toAbsolutePath().normalize());
+            }
+            pending.add(entry.getValue());
+            reports.add(entry.getValue().handle((result, error) -> toReport(uri, result, previous.get(uri))));
+        }
+        
+        for (IndexedFile file : workspaceIndex.getFiles()) {
+            if (openPaths.contains(file.getPath())) {
+                continue;
+            }
+            String uri = file.getUri();
+            known.add(uri);
+            if (file.getHash().equals(previous.get(uri))) {
+                reports.add(CompletableFuture.completedFuture(new WorkspaceDocumentDiagnosticReport(
+                    new WorkspaceUnchangedDocumentDiagnosticReport(file.getHash(), uri, null))));
+                continue;
+            }
+            CompletableFuture<DiagnosticResults.Result> result = server.getScheduler().submit(
+                uri, RequestScheduler.Priority.INDEXING, cancelChecker -> {
+                    try {
+                        return results.file(file, cancelChecker);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            pending.add(result);
+            reports.add(result.handle((report, error) -> {
+                if (error != null && !(error instanceof CancellationException)) {
+                    server.getLog().log("Diagnostics failed for " + uri + ": " + error.getMessage());
+                }
+                return toReport(uri, report, previous.get(uri));
+            }));
+        }
+        results.retain(known);
+        
+        CompletableFuture<WorkspaceDiagnosticReport> report = CompletableFuture
+            .allOf(reports.toArray(new CompletableFuture<?>[0]))
+            .thenApply(done -> {
+                List<WorkspaceDocumentDiagnosticReport> items = new ArrayList<>();
+                for (CompletableFuture<WorkspaceDocumentDiagnosticReport> item : reports) {
+                    if (item.join() != null) {
+                        items.add(item.join());
+                    }
+                }
+                return new WorkspaceDiagnosticReport(items);
+            });
+        report.whenComplete((result, error) -> {
+            if (report.isCancelled()) {
+                for (CompletableFuture<DiagnosticResults.Result> work : pending) {
+                    work.cancel(false);
+                }
+            }
+        });
+        return server.measure("workspace/diagnostic", null, start, server.getScheduler().respond(
+            "Workspace diagnostic", report, new WorkspaceDiagnosticReport(new ArrayList<>())));
+    }
+    
+    /**
+     * Turn one document's result into its part of a workspace report.
+     *
+     * @return The part, or null if the document could not be diagnosed
+     */
+    private static WorkspaceDocumentDiagnosticReport toReport(String uri, DiagnosticResults.Result result,
+                                                              String previousResultId) {
+        if (result == null) {
+            return null;
+        }
+        if (result.isUnchanged(previousResultId)) {
+            return new WorkspaceDocumentDiagnosticReport(
+                new WorkspaceUnchangedDocumentDiagnosticReport(result.getResultId(), uri, result.getVersion()));
+        }
+        WorkspaceFullDocumentDiagnosticReport report = new WorkspaceFullDocumentDiagnosticReport(
+            new ArrayList<>(result.getDiagnostics()), uri, result.getVersion());
+        report.setResultId(result.getResultId());
+        return new WorkspaceDocumentDiagnosticReport(report);
+    }
+    
+    private static SymbolKind toSymbolKind(IndexedSymbol.Kind kind) {
+        switch (kind) {
+            case CONSTRAINT:
+                return SymbolKind.Operator;
+            case DISTRIBUTION:
+                return SymbolKind.Function;
+            default:
+                return SymbolKind.Variable;
+        }
+    }
+    
+    private static Range toRange(SourceRange range) {
+        if (range == null) {
+            return new Range(new Position(0, 0), new Position(0, 0));
+        }
+        return new Range(new Position(range.getStartLine(), range.getStartColumn()),
+            new Position(range.getEndLine(), range.getEndColumn()));
+    }
+    
     /**
      * Handles changes to workspace folders.
      */
@@ -96,23 +329,48 @@ public class ModelPhyWorkspaceService implements WorkspaceService {
     /**
      * Updates the model index when files change.
      */
-    private void updateModelIndex(List<String> changedFiles) {
-        // This would be implemented to update any caches or indexes
-        // of ModelPhy models in the workspace
-        
-        // For now, just log the changes
-        System.out.println("Files changed: " + changedFiles);
+    private void updateModelIndex(List<Path> changedFiles, List<Path> deletedFiles) {
+        server.getLog().log("Files changed: " + changedFiles + ", deleted: " + deletedFiles);
+        workspaceIndex.update(changedFiles, deletedFiles).thenRun(() -> {
+            // Workspace diagnostics of closed files follow the index
+            if (diagnosticsRefresh && server.getClient() != null) {
+                server.getClient().refreshDiagnostics();
+            }
+        });
     }
     
     /**
-     * Refreshes the entire workspace index.
+     * Refreshes the entire workspace index in the background.
+     * Only files that changed since the index was last saved are parsed again.
      */
-    private void refreshWorkspaceIndex() {
-        // This would scan all workspace folders and rebuild indexes
-        // of ModelPhy models in the workspace
+    public CompletableFuture<Void> refreshWorkspaceIndex() {
+        server.getLog().log("Refreshing workspace index for folders: " + workspaceFolders);
         
-        // For now, just log the event
-        System.out.println("Refreshing workspace index for folders: " + workspaceFolders);
+        List<Path> roots = new ArrayList<>();
+        for (WorkspaceFolder folder : workspaceFolders) {
+            Path path = toPath(folder.getUri());
+            if (path != null) {
+                roots.add(path);
+            }
+        }
+        return workspaceIndex.setRoots(roots).exceptionally(e -> {
+            server.getLog().log("Error indexing workspace: " + e.getMessage());
+            return null;
+        });
+    }
+    
+    /**
+     * Convert a file URI from the client to a path.
+     *
+     * @return The path, or null if the URI does not name a local file
+     */
+    private static Path toPath(String uri) {
+        try {
+            URI parsed = URI.create(uri);
+            return "file".equals(parsed.getScheme()) ? Paths.get(parsed) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
     
     /**
@@ -130,6 +388,36 @@ public class ModelPhyWorkspaceService implements WorkspaceService {
         private boolean validateOnType = true;
         private int maxNumberOfProblems = 100;
         private String modelPhyPath = "";
+        private long diagnosticsDelay = 250;
+        
+        /**
+         * Read settings from the client's configuration object.
+         * Settings may be nested under a "modelphy" section; missing keys keep their defaults.
+         */
+        public static ModelPhySettings fromJson(JsonObject json) {
+            if (json.has("modelphy") && json.get("modelphy").isJsonObject()) {
+                json = json.getAsJsonObject("modelphy");
+            }
+            
+            ModelPhySettings settings = new ModelPhySettings();
+            JsonElement value;
+            if ((value = json.get("validateOnSave")) != null && value.isJsonPrimitive()) {
+                settings.setValidateOnSave(value.getAsBoolean());
+            }
+            if ((value = json.get("validateOnType")) != null && value.isJsonPrimitive()) {
+                settings.setValidateOnType(value.getAsBoolean());
+            }
+            if ((value = json.get("maxNumberOfProblems")) != null && value.isJsonPrimitive()) {
+                settings.setMaxNumberOfProblems(value.getAsInt());
+            }
+            if ((value = json.get("modelPhyPath")) != null && value.isJsonPrimitive()) {
+                settings.setModelPhyPath(value.getAsString());
+            }
+            if ((value = json.get("diagnosticsDelay")) != null && value.isJsonPrimitive()) {
+                settings.setDiagnosticsDelay(value.getAsLong());
+            }
+            return settings;
+        }
         
         public boolean isValidateOnSave() {
             return validateOnSave;
@@ -162,5 +450,16 @@ public class ModelPhyWorkspaceService implements WorkspaceService {
         public void setModelPhyPath(String modelPhyPath) {
             this.modelPhyPath = modelPhyPath;
         }
+        
+        /**
+         * Get the delay in milliseconds before diagnosing an edited document.
+         */
+        public long getDiagnosticsDelay() {
+            return diagnosticsDelay;
+        }
+        
+        public void setDiagnosticsDelay(long diagnosticsDelay) {
+            this.diagnosticsDelay = Math.max(0, diagnosticsDelay);
+        }
     }
 }
\ No newline at end of file
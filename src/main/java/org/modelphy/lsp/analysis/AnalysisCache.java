@@ -0,0 +1,104 @@
+package org.modelphy.lsp.analysis;
+
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.lsp.document.TextDocument;
+import org.modelphy.lsp.telemetry.ServerStats;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Versioned per-document cache of {@link DocumentAnalysis} results.
+ *
+ * Each open document has one incremental parser. The first request for a
+ * version brings it up to date and publishes the analysis; every later
+ * request for that version, from any feature, gets the same instance with a
+ * single volatile read. Publishing costs only the incremental reparse; the
+ * model is assembled when a feature first asks for it.
+ */
+public class AnalysisCache {
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ServerStats stats;
+
+    public AnalysisCache() {
+        this(new ServerStats());
+    }
+
+    /**
+     * @param stats Counts lookups and records parse and model build times
+     */
+    public AnalysisCache(ServerStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Start tracking a document, discarding anything cached for its URI.
+     */
+    public void open(String uri) {
+        entries.put(uri, new Entry());
+    }
+
+    /**
+     * Stop tracking a document.
+     */
+    public void close(String uri) {
+        entries.remove(uri);
+    }
+
+    /**
+     * Get the analysis of a document version, computing it if needed.
+     *
+     * @param snapshot The document version
+     * @param cancelChecker Checked while parsing
+     * @return The analysis
+     */
+    public DocumentAnalysis get(TextDocument.Snapshot snapshot, CancelChecker cancelChecker) {
+        Entry entry = entries.get(snapshot.getUri());
+        if (entry == null) {
+            // The document was closed; analyse this version without keeping any state
+            return new Entry().compute(snapshot, cancelChecker);
+        }
+
+        DocumentAnalysis latest = entry.latest;
+        if (latest != null && latest.getVersion() == snapshot.getVersion()) {
+            stats.analysisLookup(true);
+            return latest;
+        }
+        return entry.compute(snapshot, cancelChecker);
+    }
+
+    /**
+     * Get the most recent analysis of a document without computing anything.
+     *
+     * @return The analysis, which may be for an older version, or null if there is none
+     */
+    public DocumentAnalysis getLatest(String uri) {
+        Entry entry = entries.get(uri);
+        return entry != null ? entry.latest : null;
+    }
+
+    /**
+     * Cached state for one document.
+     */
+    private class Entry {
+        private final IncrementalParser parser = new IncrementalParser();
+        private volatile DocumentAnalysis latest;
+
+        synchronized DocumentAnalysis compute(TextDocument.Snapshot snapshot, CancelChecker cancelChecker) {
+            // Another request may have computed this version while we waited
+            DocumentAnalysis current = latest;
+            if (current != null && current.getVersion() == snapshot.getVersion()) {
+                stats.analysisLookup(true);
+                return current;
+            }
+
+            stats.analysisLookup(false);
+            long start = System.nanoTime();
+            StatementTable statements = parser.update(snapshot, cancelChecker);
+            stats.parseTimes().record(System.nanoTime() - start);
+            DocumentAnalysis analysis = new DocumentAnalysis(snapshot, statements,
+                current != null ? current.peekSymbols() : null, stats.modelBuildTimes());
+            latest = analysis;
+            return analysis;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.modelphy.lsp.analysis;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+
+/**
+ * Parse listener that aborts the parse once the request is cancelled.
+ *
+ * Tokens are lexed on demand by the parser, so this also interrupts lexing.
+ */
+public class CancellationListener implements ParseTreeListener {
+    private final CancelChecker cancelChecker;
+
+    public CancellationListener(CancelChecker cancelChecker) {
+        this.cancelChecker = cancelChecker;
+    }
+
+    @Override
+    public void enterEveryRule(ParserRuleContext ctx) {
+        cancelChecker.checkCanceled();
+    }
+
+    @Override
+    public void visitTerminal(TerminalNode node) {
+    }
+
+    @Override
+    public void visitErrorNode(ErrorNode node) {
+    }
+
+    @Override
+    public void exitEveryRule(ParserRuleContext ctx) {
+    }
+}
@@ -0,0 +1,130 @@
+package org.modelphy.lsp.analysis;
+
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.misc.Pair;
+import org.modelphy.lsp.workspace.IndexCache;
+import org.modelphy.parser.StringLiteralToken;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A string literal long enough to be treated as an opaque block of data,
+ * such as a sequence in an inline alignment.
+ *
+ * The incremental parser splices a data token back into a statement it
+ * re-lexes, at its new position, as long as no edit has touched its text, so
+ * only an edit inside the literal makes it lex the data again. Its line
+ * breaks are counted once, and its value and content hash are computed at
+ * most once; copies made when it moves share them.
+ */
+public final class DataToken extends CommonToken implements StringLiteralToken {
+    /** String literals at least this long are data. */
+    public static final int MIN_LENGTH = 4096;
+
+    private final Data data;
+
+    DataToken(Pair<TokenSource, CharStream> source, int type, int start, int stop, String text) {
+        super(source, type, DEFAULT_CHANNEL, start, stop);
+        setText(text);
+        this.data = new Data(text);
+    }
+
+    private DataToken(DataToken token, int start, int line, int charPositionInLine) {
+        super(token);
+        setStartIndex(start);
+        setStopIndex(start + token.length() - 1);
+        setLine(line);
+        setCharPositionInLine(charPositionInLine);
+        this.data = token.data;
+    }
+
+    /**
+     * Check whether a string literal can be a data token.
+     *
+     * A literal whose closing quote follows a backslash could lex differently
+     * if a quote were typed after it, so its extent would depend on text
+     * outside it; such literals are always lexed.
+     */
+    static boolean isData(String text) {
+        return text.length() >= MIN_LENGTH && text.charAt(text.length() - 2) != '\\';
+    }
+
+    /**
+     * Get a copy of this token at a new position.
+     *
+     * @param line The one-based line of the token's first character
+     */
+    DataToken moveTo(int start, int line, int charPositionInLine) {
+        return new DataToken(this, start, line, charPositionInLine);
+    }
+
+    /**
+     * Get the number of characters of the literal, including the quotes.
+     */
+    public int length() {
+        return getStopIndex() - getStartIndex() + 1;
+    }
+
+    /**
+     * Get the number of line breaks inside the literal.
+     */
+    int getLineBreaks() {
+        return data.lineBreaks;
+    }
+
+    /**
+     * Get the number of characters after the literal's last line break.
+     */
+    int getLastLineLength() {
+        return data.lastLineLength;
+    }
+
+    @Override
+    public String getValue() {
+        String value = data.value;
+        if (value == null) {
+            String text = getText();
+            value = text.substring(1, text.length() - 1);
+            data.value = value;
+        }
+        return value;
+    }
+
+    /**
+     * Get the SHA-256 hash of the literal's text, as raw bytes.
+     */
+    public byte[] getHash() {
+        byte[] hash = data.hash;
+        if (hash == null) {
+            hash = IndexCache.sha256Bytes(getText().getBytes(StandardCharsets.UTF_8));
+            data.hash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * What the copies of a data token share.
+     */
+    private static final class Data {
+        private final int lineBreaks;
+        private final int lastLineLength;
+        // Computed on first use; racing threads compute equal values
+        private volatile String value;
+        private volatile byte[] hash;
+
+        Data(String text) {
+            int breaks = 0;
+            int lastBreak = -1;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    breaks++;
+                    lastBreak = i;
+                }
+            }
+            this.lineBreaks = breaks;
+            this.lastLineLength = text.length() - lastBreak - 1;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package org.modelphy.lsp.analysis;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.lsp.document.Rope;
+import org.modelphy.lsp.document.TextDocument;
+import org.modelphy.lsp.telemetry.LatencyHistogram;
+import org.modelphy.lsp.workspace.IndexCache;
+import org.modelphy.model.ModelPhyModel;
+import org.modelphy.parser.ParseResult;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything known about one version of a document.
+ *
+ * An analysis is immutable and computed once per version by the
+ * {@link AnalysisCache}; diagnostics, hover and completion all read the same
+ * instance without locking.
+ *
+ * The statement table is ready as soon as the analysis exists, so position
+ * lookups cost only the incremental reparse. The model and symbol table are
+ * assembled from every statement and are built on first use.
+ */
+public final class DocumentAnalysis {
+    private static final CancelChecker NEVER_CANCELLED = () -> { };
+    /** How many versions an earlier version's symbols may lag the text and still be used. */
+    private static final int MAX_SYMBOL_AGE = 8;
+
+    private final TextDocument.Snapshot snapshot;
+    private final StatementTable statements;
+    private final VersionedSymbols previousSymbols;
+    private final LatencyHistogram buildTimes;
+    private volatile ParseResult parseResult;
+    private volatile SymbolTable symbols;
+    private volatile SymbolTable declaredSymbols;
+    private volatile List<Token> tokens;
+    private volatile String contentHash;
+
+    /**
+     * @param previousSymbols The newest symbols an earlier analysis had, or null if there are none
+     * @param buildTimes Records how long the model takes to build
+     */
+    DocumentAnalysis(TextDocument.Snapshot snapshot, StatementTable statements, VersionedSymbols previousSymbols,
+                     LatencyHistogram buildTimes) {
+        this.snapshot = snapshot;
+        this.statements = statements;
+        this.previousSymbols = previousSymbols;
+        this.buildTimes = buildTimes;
+    }
+
+    public String getUri() {
+        return snapshot.getUri();
+    }
+
+    public int getVersion() {
+        return snapshot.getVersion();
+    }
+
+    /**
+     * Get the document text this analysis was computed from.
+     */
+    public TextDocument.Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public StatementTable getStatements() {
+        return statements;
+    }
+
+    /**
+     * Get the model with its syntax and semantic problems.
+     */
+    public ParseResult getParseResult() {
+        return getParseResult(NEVER_CANCELLED);
+    }
+
+    /**
+     * Get the model, giving up if the request is cancelled while it is assembled.
+     *
+     * @param cancelChecker Checked before each statement is added to the model
+     */
+    public ParseResult getParseResult(CancelChecker cancelChecker) {
+        ParseResult result = parseResult;
+        if (result == null) {
+            result = buildModel(cancelChecker);
+        }
+        return result;
+    }
+
+    public ModelPhyModel getModel() {
+        return getParseResult().getModel();
+    }
+
+    public SymbolTable getSymbols() {
+        return getSymbols(NEVER_CANCELLED);
+    }
+
+    /**
+     * Get this version's symbols, giving up if the request is cancelled while the model is assembled.
+     *
+     * @param cancelChecker Checked before each statement is added to the model
+     */
+    public SymbolTable getSymbols(CancelChecker cancelChecker) {
+        SymbolTable result = symbols;
+        if (result == null) {
+            buildModel(cancelChecker);
+            result = symbols;
+        }
+        return result;
+    }
+
+    /**
+     * Get a symbol table without waiting for the model of this version.
+     *
+     * Hover and completion use this so they never pay for assembling the
+     * whole model. Without this version's symbols they get the newest ones an
+     * earlier version had, as long as those are at most {@value #MAX_SYMBOL_AGE}
+     * versions old; otherwise the symbols are read from the declarations of
+     * the statements (see {@link SymbolTable#declared}), which re-reads only
+     * statements that changed.
+     *
+     * @param cancelChecker Checked while the declarations are read
+     * @return This version's symbols if they are built, otherwise recent or declared symbols
+     */
+    public SymbolTable getAvailableSymbols(CancelChecker cancelChecker) {
+        SymbolTable result = symbols;
+        if (result != null) {
+            return result;
+        }
+        VersionedSymbols previous = previousSymbols;
+        if (previous != null && getVersion() - previous.getVersion() <= MAX_SYMBOL_AGE) {
+            return previous.getSymbols();
+        }
+        result = declaredSymbols;
+        if (result == null) {
+            result = SymbolTable.declared(statements, cancelChecker);
+            declaredSymbols = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get the newest symbols available without building anything: this
+     * version's, if built or declared, otherwise those it would fall back to.
+     */
+    VersionedSymbols peekSymbols() {
+        SymbolTable result = symbols;
+        if (result == null) {
+            result = declaredSymbols;
+        }
+        return result != null ? new VersionedSymbols(result, getVersion()) : previousSymbols;
+    }
+
+    private synchronized ParseResult buildModel(CancelChecker cancelChecker) {
+        if (parseResult == null) {
+            // A cancelled build leaves nothing behind; the next caller starts over
+            long start = System.nanoTime();
+            ParseResult result = statements.buildModel(cancelChecker);
+            symbols = SymbolTable.build(result.getModel());
+            parseResult = result;
+            buildTimes.record(System.nanoTime() - start);
+        }
+        return parseResult;
+    }
+
+    /**
+     * Get all tokens with positions in this version of the document.
+     * The list is built on first use and then shared.
+     */
+    public List<Token> getTokens() {
+        List<Token> result = tokens;
+        if (result == null) {
+            result = new ArrayList<>();
+            for (int i = 0; i < statements.size(); i++) {
+                for (Token token : statements.getFragment(i).getTokens()) {
+                    result.add(statements.toDocumentToken(i, token));
+                }
+            }
+            result = Collections.unmodifiableList(result);
+            tokens = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get the SHA-256 hash of this version's text, as lowercase hex.
+     *
+     * Each data token contributes the hash of its own text, which is computed
+     * once when it is first lexed, so large inline data is not read again for
+     * every version. For a document without data this is the hash of its text.
+     */
+    public String getContentHash() {
+        String result = contentHash;
+        if (result == null) {
+            MessageDigest digest = IndexCache.sha256Digest();
+            Rope rope = snapshot.getRope();
+            int position = 0;
+            for (int i = 0; i < statements.size(); i++) {
+                StatementTable.Fragment fragment = statements.getFragment(i);
+                if (!fragment.hasData()) {
+                    continue;
+                }
+                for (StatementTable.DataRegion region : fragment.getDataRegions()) {
+                    int start = statements.getStart(i) + region.getOffset();
+                    digest.update(rope.substring(position, start).getBytes(StandardCharsets.UTF_8));
+                    digest.update(region.getToken().getHash());
+                    position = start + region.getToken().length();
+                }
+            }
+            digest.update(rope.substring(position, rope.length()).getBytes(StandardCharsets.UTF_8));
+            result = IndexCache.toHex(digest.digest());
+            contentHash = result;
+        }
+        return result;
+    }
+
+    /**
+     * Find the token covering an offset.
+     *
+     * @see StatementTable#tokenAt
+     */
+    public Token tokenAt(int offset) {
+        return statements.tokenAt(offset);
+    }
+
+    /**
+     * Find the last token that ends at or before an offset.
+     *
+     * @see StatementTable#tokenBefore
+     */
+    public Token tokenBefore(int offset) {
+        return statements.tokenBefore(offset);
+    }
+
+    /**
+     * Find the innermost parse tree node containing the token at an offset.
+     *
+     * @see StatementTable#nodeAt
+     */
+    public ParserRuleContext nodeAt(int offset) {
+        return statements.nodeAt(offset);
+    }
+
+    /**
+     * A symbol table and the version it was made for.
+     */
+    static final class VersionedSymbols {
+        private final SymbolTable symbols;
+        private final int version;
+
+        VersionedSymbols(SymbolTable symbols, int version) {
+            this.symbols = symbols;
+            this.version = version;
+        }
+
+        SymbolTable getSymbols() {
+            return symbols;
+        }
+
+        int getVersion() {
+            return version;
+        }
+    }
+}
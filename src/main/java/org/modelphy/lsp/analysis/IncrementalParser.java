@@ -0,0 +1,386 @@
+package org.modelphy.lsp.analysis;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.antlr.ModelPhyLexer;
+import org.modelphy.antlr.ModelPhyParser;
+import org.modelphy.lsp.document.Rope;
+import org.modelphy.lsp.document.TextDocument;
+import org.modelphy.model.SourceRange;
+import org.modelphy.parser.ModelPhyParserWrapper;
+import org.modelphy.parser.ParseProblem;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Keeps a document's {@link StatementTable} up to date as it is edited.
+ *
+ * Top-level statements are ';'-terminated and independent in the grammar, and
+ * the lexer has no modes, so after an edit only the statements overlapping the
+ * changed text are re-lexed and re-parsed. Lexing starts at the beginning of
+ * the first damaged statement and stops at the first ';' that ends exactly where
+ * an undamaged statement begins; from there on the old fragments are reused.
+ * Work is therefore proportional to the size of the edit, except for edits such
+ * as opening a block comment that really do change how the rest of the file lexes.
+ *
+ * Large string literals, such as the sequences of an inline alignment, become
+ * {@link DataToken}s. When a statement holding them is re-lexed, the ones no
+ * edit touched are spliced back in at their new positions instead of being
+ * lexed again, so editing a taxon name or adding a taxon to a large alignment
+ * does not re-read the other sequences.
+ */
+public class IncrementalParser {
+    /** Token source for detached tokens; it has no input stream. */
+    private static final TokenSource NO_SOURCE = new ListTokenSource(Collections.emptyList());
+
+    /**
+     * Creates tokens that hold their own text instead of referring back to the
+     * character stream, so cached fragments do not keep old ropes alive.
+     */
+    private static final TokenFactory<CommonToken> DETACHED_TOKENS = new TokenFactory<CommonToken>() {
+        private final Pair<TokenSource, CharStream> source = new Pair<>(NO_SOURCE, null);
+
+        @Override
+        public CommonToken create(Pair<TokenSource, CharStream> input, int type, String text, int channel,
+                                  int start, int stop, int line, int charPositionInLine) {
+            if (text == null) {
+                text = input.b.getText(Interval.of(start, stop));
+            }
+            CommonToken token = type == ModelPhyLexer.STRING_LITERAL && DataToken.isData(text)
+                ? new DataToken(source, type, start, stop, text)
+                : new CommonToken(source, type, channel, start, stop);
+            token.setLine(line);
+            token.setCharPositionInLine(charPositionInLine);
+            token.setText(text);
+            return token;
+        }
+
+        @Override
+        public CommonToken create(int type, String text) {
+            return new CommonToken(type, text);
+        }
+    };
+
+    private StatementTable table;
+
+    /**
+     * Get the most recently computed table.
+     *
+     * @return The table, or null if the document has not been parsed yet
+     */
+    public synchronized StatementTable getTable() {
+        return table;
+    }
+
+    /**
+     * Bring the table up to date with a snapshot of the document.
+     *
+     * Edits since the last update are taken from the snapshot's history; if
+     * they are no longer available the whole document is parsed. If the update
+     * is cancelled, the statements parsed so far are kept for the next update.
+     *
+     * @param snapshot The document version to parse
+     * @param cancelChecker Checked between statements and at every parser rule
+     * @return The table for the snapshot's version
+     * @throws CancellationException If the update was cancelled or a newer version has already been parsed
+     */
+    public synchronized StatementTable update(TextDocument.Snapshot snapshot, CancelChecker cancelChecker) {
+        StatementTable current = table;
+        if (current != null && snapshot.getVersion() < current.getVersion()) {
+            throw new CancellationException("Version " + snapshot.getVersion() + " is older than the parsed version");
+        }
+
+        List<TextDocument.Edit> edits = current != null ? snapshot.editsSince(current.getVersion()) : null;
+        List<StatementTable.Fragment> fragments;
+        if (edits == null) {
+            fragments = new ArrayList<>();
+            fragments.add(StatementTable.Fragment.dirty(snapshot.length()));
+        } else if (edits.isEmpty() && current.isComplete()) {
+            return current;
+        } else {
+            fragments = current.fragmentList();
+            for (TextDocument.Edit edit : edits) {
+                applyEdit(fragments, edit);
+            }
+        }
+
+        try {
+            reparse(fragments, snapshot.getRope(), cancelChecker);
+        } finally {
+            // Keep whatever was reparsed before a cancellation; the rest stays dirty
+            table = new StatementTable(snapshot.getVersion(), fragments);
+        }
+        return table;
+    }
+
+    /**
+     * Replace the fragments touched by an edit with one dirty fragment, which
+     * keeps the data tokens whose text the edit left alone.
+     */
+    private static void applyEdit(List<StatementTable.Fragment> fragments, TextDocument.Edit edit) {
+        int[] starts = new int[fragments.size() + 1];
+        for (int i = 0; i < fragments.size(); i++) {
+            starts[i + 1] = starts[i] + fragments.get(i).getLength();
+        }
+
+        // Include the character before the edit so that a token ending there is re-lexed too
+        int first = StatementTable.indexOf(starts, fragments.size(), Math.max(0, edit.getStart() - 1));
+        int last = StatementTable.indexOf(starts, fragments.size(), edit.getEnd());
+
+        int length = starts[last + 1] - starts[first] + edit.getDelta();
+        List<StatementTable.DataRegion> untouched = new ArrayList<>();
+        for (int i = first; i <= last; i++) {
+            for (StatementTable.DataRegion region : fragments.get(i).getDataRegions()) {
+                if (starts[i] + region.getEnd() <= edit.getStart()) {
+                    untouched.add(region.shift(starts[i] - starts[first]));
+                } else if (starts[i] + region.getOffset() >= edit.getEnd()) {
+                    untouched.add(region.shift(starts[i] - starts[first] + edit.getDelta()));
+                }
+            }
+        }
+
+        List<StatementTable.Fragment> damaged = fragments.subList(first, last + 1);
+        damaged.clear();
+        damaged.add(StatementTable.Fragment.dirty(length, untouched));
+    }
+
+    /**
+     * Re-lex and re-parse every dirty fragment.
+     */
+    private static void reparse(List<StatementTable.Fragment> fragments, Rope rope, CancelChecker cancelChecker) {
+        int index = 0;
+        int start = 0;
+        while (index < fragments.size()) {
+            StatementTable.Fragment fragment = fragments.get(index);
+            if (!fragment.isDirty()) {
+                start += fragment.getLength();
+                index++;
+                continue;
+            }
+
+            cancelChecker.checkCanceled();
+            List<StatementTable.Fragment> parsed = new ArrayList<>();
+            int resume = relex(fragments, index, start, rope, parsed, cancelChecker);
+
+            List<StatementTable.Fragment> replaced = fragments.subList(index, resume);
+            replaced.clear();
+            replaced.addAll(parsed);
+            for (StatementTable.Fragment fresh : parsed) {
+                start += fresh.getLength();
+            }
+            index += parsed.size();
+        }
+
+        if (fragments.isEmpty()) {
+            // An empty document still has one (empty) fragment
+            fragments.add(parseFragment(rope, 0, 0, Collections.emptyList(), Collections.emptyList(), cancelChecker));
+        }
+    }
+
+    /**
+     * Lex from the start of a dirty fragment until the token stream is back in
+     * step with the old fragments.
+     *
+     * @return The index of the first old fragment that can be reused
+     */
+    private static int relex(List<StatementTable.Fragment> fragments, int index, int start, Rope rope,
+                             List<StatementTable.Fragment> parsed, CancelChecker cancelChecker) {
+        RopeCharStream input = new RopeCharStream(rope);
+        input.seek(start);
+        ModelPhyLexer lexer = new ModelPhyLexer(input);
+        lexer.setLine(rope.lineAt(start) + 1);
+        lexer.setCharPositionInLine(rope.characterAt(start));
+        lexer.setTokenFactory(DETACHED_TOKENS);
+
+        List<ParseProblem> lexerErrors = new ArrayList<>();
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
+                                    int line, int charPositionInLine, String msg, RecognitionException e) {
+                int offset = lexer._tokenStartCharIndex;
+                lexerErrors.add(new ParseProblem(ParseProblem.Kind.LEXER, msg,
+                    new SourceRange(offset, offset + 1, line - 1, charPositionInLine, line - 1, charPositionInLine + 1)));
+            }
+        });
+
+        // The next old fragment and where it starts in the new text
+        int next = index + 1;
+        int nextStart = start + fragments.get(index).getLength();
+
+        DataSplicer splicer = new DataSplicer(fragments, index, start);
+        int fragmentStart = start;
+        List<Token> tokens = new ArrayList<>();
+        while (true) {
+            Token token = splicer.nextToken(lexer, input);
+            if (token.getType() == Token.EOF) {
+                if (fragmentStart < rope.length() || !tokens.isEmpty()) {
+                    parsed.add(parseFragment(rope, fragmentStart, rope.length(), tokens, lexerErrors, cancelChecker));
+                }
+                return fragments.size();
+            }
+
+            if (token.getChannel() != Token.DEFAULT_CHANNEL) {
+                // Comments only matter to the formatter, which lexes for itself
+                continue;
+            }
+            tokens.add(token);
+            if (token.getType() == ModelPhyLexer.SEMICOLON) {
+                // Long runs of statements are lexed between parses; stop at a statement boundary
+                cancelChecker.checkCanceled();
+                int end = token.getStopIndex() + 1;
+                parsed.add(parseFragment(rope, fragmentStart, end, tokens, lexerErrors, cancelChecker));
+                fragmentStart = end;
+                tokens = new ArrayList<>();
+                lexerErrors.clear();
+
+                // Old fragments covered by the new statements are discarded
+                while (next < fragments.size() && nextStart < end) {
+                    nextStart += fragments.get(next).getLength();
+                    next++;
+                }
+                if (next < fragments.size() && nextStart == end && !fragments.get(next).isDirty()) {
+                    return next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Supplies the data tokens of old fragments in place of lexing them again.
+     *
+     * Data tokens are taken from the fragments being re-lexed in order, as the
+     * lexer reaches them. A data token's text is unchanged and a string
+     * literal's extent depends only on its own text, so if the lexer would
+     * start a token exactly where one begins, it would lex that same literal.
+     */
+    private static final class DataSplicer {
+        private final List<StatementTable.Fragment> fragments;
+        private final ArrayDeque<StatementTable.DataRegion> regions = new ArrayDeque<>();
+        // The next fragment whose data tokens have not been queued, and its start
+        private int fragment;
+        private int fragmentStart;
+
+        DataSplicer(List<StatementTable.Fragment> fragments, int index, int start) {
+            this.fragments = fragments;
+            this.fragment = index;
+            this.fragmentStart = start;
+        }
+
+        /**
+         * Get the next token, splicing in a data token if one starts after the
+         * whitespace at the lexer's position.
+         *
+         * @param input The lexer's input
+         */
+        Token nextToken(ModelPhyLexer lexer, RopeCharStream input) {
+            StatementTable.DataRegion region = regionFrom(input.index());
+            if (region == null) {
+                return lexer.nextToken();
+            }
+
+            // Skip whitespace as the lexer would, keeping its line and column up to date
+            int start = region.getOffset();
+            while (input.index() < start && isWhitespace(input.LA(1))) {
+                lexer.getInterpreter().consume(input);
+            }
+            if (input.index() != start) {
+                return lexer.nextToken();
+            }
+
+            regions.poll();
+            int line = lexer.getLine();
+            int column = lexer.getCharPositionInLine();
+            DataToken token = region.getToken().moveTo(start, line, column);
+            input.seek(start + token.length());
+            if (token.getLineBreaks() > 0) {
+                lexer.setLine(line + token.getLineBreaks());
+                lexer.setCharPositionInLine(token.getLastLineLength());
+            } else {
+                lexer.setCharPositionInLine(column + token.length());
+            }
+            return token;
+        }
+
+        /**
+         * Find the first queued data token at or after an offset, queueing
+         * those of the fragments up to the offset.
+         *
+         * @return The token with its document offset, or null if there is none
+         */
+        private StatementTable.DataRegion regionFrom(int offset) {
+            while (fragment < fragments.size() && fragmentStart <= offset) {
+                StatementTable.Fragment current = fragments.get(fragment);
+                if (current.hasData()) {
+                    for (StatementTable.DataRegion region : current.getDataRegions()) {
+                        regions.add(region.shift(fragmentStart));
+                    }
+                }
+                fragmentStart += current.getLength();
+                fragment++;
+            }
+            // Data the lexer has gone past, e.g. inside a newly opened comment, is lexed as text
+            while (!regions.isEmpty() && regions.peek().getOffset() < offset) {
+                regions.poll();
+            }
+            return regions.peek();
+        }
+
+        private static boolean isWhitespace(int c) {
+            return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+        }
+    }
+
+    /**
+     * Parse the tokens of one fragment as a single statement.
+     */
+    private static StatementTable.Fragment parseFragment(Rope rope, int start, int end, List<Token> tokens,
+                                                         List<ParseProblem> lexerErrors, CancelChecker cancelChecker) {
+        int startLine = rope.lineAt(start);
+        int endLine = rope.lineAt(end);
+        int lineBreaks = endLine - startLine;
+        int lastLineLength = lineBreaks > 0 ? end - rope.lineStart(endLine) : end - start;
+
+        List<ParseProblem> problems = new ArrayList<>(lexerErrors);
+        ModelPhyParser.StatementContext tree = null;
+        if (!tokens.isEmpty()) {
+            CommonTokenStream stream = new CommonTokenStream(new ListTokenSource(tokens));
+            ModelPhyParser parser = new ModelPhyParser(stream);
+            parser.removeErrorListeners();
+            parser.addErrorListener(new BaseErrorListener() {
+                @Override
+                public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
+                                        int line, int charPositionInLine, String msg, RecognitionException e) {
+                    problems.add(new ParseProblem(ParseProblem.Kind.SYNTAX, msg, rangeOf(offendingSymbol, line, charPositionInLine)));
+                }
+            });
+            parser.addParseListener(new CancellationListener(cancelChecker));
+
+            tree = parser.statement();
+
+            // Error recovery can stop short of the fragment's ';'
+            Token rest = stream.LT(1);
+            if (rest.getType() != Token.EOF) {
+                problems.add(new ParseProblem(ParseProblem.Kind.SYNTAX,
+                    "extraneous input '" + rest.getText() + "' expecting ';'", ModelPhyParserWrapper.rangeOf(rest, rest)));
+            }
+        }
+
+        return new StatementTable.Fragment(end - start, lineBreaks, lastLineLength, start, startLine,
+            rope.characterAt(start), Collections.unmodifiableList(tokens), tree, problems);
+    }
+
+    private static SourceRange rangeOf(Object offendingSymbol, int line, int charPositionInLine) {
+        if (offendingSymbol instanceof Token) {
+            Token token = (Token) offendingSymbol;
+            return ModelPhyParserWrapper.rangeOf(token, token);
+        }
+        return new SourceRange(-1, -1, line - 1, charPositionInLine, line - 1, charPositionInLine + 1);
+    }
+}
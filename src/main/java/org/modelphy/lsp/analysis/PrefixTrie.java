@@ -0,0 +1,131 @@
+package org.modelphy.lsp.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A case-insensitive prefix tree from names to values.
+ *
+ * Children are kept in sorted parallel arrays instead of maps, which keeps the
+ * tree compact for the tens of thousands of names in a large model. A trie is
+ * filled once and then only read, so it can be shared between threads once
+ * it has been published.
+ *
+ * @param <T> The type of the values
+ */
+public final class PrefixTrie<T> {
+    private final Node root = new Node();
+    private int size;
+
+    /**
+     * Add a value under a name. A name may be added more than once.
+     */
+    public void add(String key, T value) {
+        Node node = root;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.getOrAdd(Character.toLowerCase(key.charAt(i)));
+        }
+        if (node.keys == null) {
+            node.keys = new ArrayList<>(1);
+            node.values = new ArrayList<>(1);
+        }
+        node.keys.add(key);
+        node.values.add(value);
+        size++;
+    }
+
+    /**
+     * Get the number of values in the trie.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Visit the values whose names start with a prefix, ignoring case.
+     *
+     * Shorter names are visited first and names of equal length in order,
+     * so a visitor ranking by length can stop as soon as nothing later can
+     * rank higher.
+     *
+     * @param prefix The prefix; an empty prefix visits every value
+     * @param visitor Called with each name and value; returning false stops the walk
+     */
+    @SuppressWarnings("unchecked")
+    public void visitWithPrefix(String prefix, Visitor<? super T> visitor) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.get(Character.toLowerCase(prefix.charAt(i)));
+        }
+        if (node == null) {
+            return;
+        }
+
+        // Breadth first: each level holds the nodes for names one character longer
+        List<Node> level = Collections.singletonList(node);
+        while (!level.isEmpty()) {
+            List<Node> next = new ArrayList<>();
+            for (Node current : level) {
+                if (current.keys != null) {
+                    for (int i = 0; i < current.keys.size(); i++) {
+                        if (!visitor.visit(current.keys.get(i), (T) current.values.get(i))) {
+                            return;
+                        }
+                    }
+                }
+                next.addAll(Arrays.asList(current.children).subList(0, current.count));
+            }
+            level = next;
+        }
+    }
+
+    /**
+     * Receives the values found by {@link #visitWithPrefix}.
+     */
+    @FunctionalInterface
+    public interface Visitor<T> {
+        /**
+         * @return True to continue, false to stop
+         */
+        boolean visit(String key, T value);
+    }
+
+    private static final class Node {
+        private static final char[] NO_LABELS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private char[] labels = NO_LABELS;
+        private Node[] children = NO_CHILDREN;
+        private int count;
+        private List<String> keys;
+        private List<Object> values;
+
+        Node get(char label) {
+            int index = Arrays.binarySearch(labels, 0, count, label);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node getOrAdd(char label) {
+            int index = Arrays.binarySearch(labels, 0, count, label);
+            if (index >= 0) {
+                return children[index];
+            }
+
+            index = -index - 1;
+            if (count == labels.length) {
+                int capacity = Math.max(2, count * 2);
+                labels = Arrays.copyOf(labels, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            System.arraycopy(labels, index, labels, index + 1, count - index);
+            System.arraycopy(children, index, children, index + 1, count - index);
+            Node child = new Node();
+            labels[index] = label;
+            children[index] = child;
+            count++;
+            return child;
+        }
+    }
+}
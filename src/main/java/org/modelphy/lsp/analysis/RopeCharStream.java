@@ -0,0 +1,93 @@
+package org.modelphy.lsp.analysis;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+import org.modelphy.lsp.document.Rope;
+
+/**
+ * An ANTLR character stream reading directly from a {@link Rope}.
+ *
+ * The lexer can start at any offset without the document being flattened
+ * into a string. Characters are fetched a window at a time, so sequential
+ * lexing costs one rope lookup per window rather than per character. Indices
+ * are UTF-16 offsets, matching LSP positions.
+ */
+public class RopeCharStream implements CharStream {
+    private static final int WINDOW_SIZE = 4096;
+
+    private final Rope rope;
+    private final int size;
+    private int index;
+    private String window = "";
+    private int windowStart;
+
+    public RopeCharStream(Rope rope) {
+        this.rope = rope;
+        this.size = rope.length();
+    }
+
+    private int charAt(int offset) {
+        if (offset < windowStart || offset >= windowStart + window.length()) {
+            windowStart = offset;
+            window = rope.substring(offset, Math.min(size, offset + WINDOW_SIZE));
+        }
+        return window.charAt(offset - windowStart);
+    }
+
+    @Override
+    public void consume() {
+        if (index >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        index++;
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0) {
+            return 0;
+        }
+        int offset = i > 0 ? index + i - 1 : index + i;
+        if (offset < 0 || offset >= size) {
+            return IntStream.EOF;
+        }
+        return charAt(offset);
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return index;
+    }
+
+    @Override
+    public void seek(int index) {
+        this.index = Math.max(0, Math.min(index, size));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return IntStream.UNKNOWN_SOURCE_NAME;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.max(0, interval.a);
+        int end = Math.min(size, interval.b + 1);
+        return start < end ? rope.substring(start, end) : "";
+    }
+}
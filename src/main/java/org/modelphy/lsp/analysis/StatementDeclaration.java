@@ -0,0 +1,174 @@
+package org.modelphy.lsp.analysis;
+
+import org.modelphy.antlr.ModelPhyParser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * The variable one top-level statement defines or observes, read from its
+ * parse tree without building any values.
+ *
+ * The name, type, kind and dependencies are the ones the model would give
+ * the variable, so a symbol table assembled from these matches the one built
+ * from the model for hover and completion. Inline data is never visited.
+ */
+final class StatementDeclaration {
+    private static final StatementDeclaration NONE = new StatementDeclaration(null, null, null,
+        Collections.emptyList(), null, null);
+
+    private final String name;
+    private final String type;
+    private final SymbolTable.Kind kind;
+    private final List<String> dependencies;
+    private final String observed;
+    private final String observedFile;
+
+    private StatementDeclaration(String name, String type, SymbolTable.Kind kind, List<String> dependencies,
+                                 String observed, String observedFile) {
+        this.name = name;
+        this.type = type;
+        this.kind = kind;
+        this.dependencies = dependencies;
+        this.observed = observed;
+        this.observedFile = observedFile;
+    }
+
+    /**
+     * Read what a statement declares.
+     *
+     * @param tree The statement, or null for a fragment without one
+     */
+    static StatementDeclaration of(ModelPhyParser.StatementContext tree) {
+        if (tree == null) {
+            return NONE;
+        }
+        if (tree.declaration() != null && tree.declaration().identifier() != null) {
+            ModelPhyParser.DeclarationContext declaration = tree.declaration();
+            // An initial function call makes it deterministic, as in the model
+            ModelPhyParser.FunctionCallContext call = functionCallOf(declaration.expression());
+            return defined(declaration.identifier(), declaration.type(),
+                call != null ? SymbolTable.Kind.DETERMINISTIC : SymbolTable.Kind.DECLARED,
+                call != null ? argumentDependencies(call.namedArgumentList()) : Collections.emptyList());
+        }
+        if (tree.stochasticAssignment() != null && tree.stochasticAssignment().identifier() != null) {
+            ModelPhyParser.StochasticAssignmentContext assignment = tree.stochasticAssignment();
+            ModelPhyParser.DistributionContext distribution = assignment.distribution();
+            return defined(assignment.identifier(), assignment.type(), SymbolTable.Kind.STOCHASTIC,
+                argumentDependencies(distribution != null ? distribution.namedArgumentList() : null));
+        }
+        if (tree.deterministicAssignment() != null && tree.deterministicAssignment().identifier() != null) {
+            ModelPhyParser.DeterministicAssignmentContext assignment = tree.deterministicAssignment();
+            ModelPhyParser.FunctionCallContext call = functionCallOf(assignment.expression());
+            List<String> dependencies;
+            if (call != null) {
+                dependencies = argumentDependencies(call.namedArgumentList());
+            } else {
+                String reference = referenceOf(assignment.expression());
+                dependencies = reference != null ? Collections.singletonList(reference) : Collections.emptyList();
+            }
+            return defined(assignment.identifier(), assignment.type(), SymbolTable.Kind.DETERMINISTIC, dependencies);
+        }
+        if (tree.observationStatement() != null && tree.observationStatement().identifier() != null) {
+            ModelPhyParser.ObservationStatementContext observation = tree.observationStatement();
+            String file = observation.STRING_LITERAL() != null ? observation.STRING_LITERAL().getText() : null;
+            return new StatementDeclaration(null, null, null, Collections.emptyList(),
+                observation.identifier().getText(), file != null ? file.substring(1, file.length() - 1) : null);
+        }
+        return NONE;
+    }
+
+    private static StatementDeclaration defined(ModelPhyParser.IdentifierContext name, ModelPhyParser.TypeContext type,
+                                                SymbolTable.Kind kind, List<String> dependencies) {
+        // The model writes types without spaces, which is what the tree's text is
+        return new StatementDeclaration(name.getText(), type != null ? type.getText() : "Unknown", kind,
+            Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(dependencies))), null, null);
+    }
+
+    /**
+     * Get the variables named directly by arguments, or by elements of array arguments.
+     */
+    private static List<String> argumentDependencies(ModelPhyParser.NamedArgumentListContext arguments) {
+        if (arguments == null) {
+            return Collections.emptyList();
+        }
+        List<String> dependencies = new ArrayList<>();
+        for (ModelPhyParser.NamedArgumentContext argument : arguments.namedArgument()) {
+            ModelPhyParser.ExpressionContext value = unwrap(argument.value);
+            String reference = referenceOf(value);
+            if (reference != null) {
+                dependencies.add(reference);
+            } else if (value instanceof ModelPhyParser.ArrayExprContext) {
+                List<ModelPhyParser.ExpressionContext> elements =
+                    ((ModelPhyParser.ArrayExprContext) value).arrayLiteral().expression();
+                for (ModelPhyParser.ExpressionContext element : elements) {
+                    reference = referenceOf(element);
+                    if (reference != null) {
+                        dependencies.add(reference);
+                    }
+                }
+            }
+        }
+        return dependencies;
+    }
+
+    private static ModelPhyParser.FunctionCallContext functionCallOf(ModelPhyParser.ExpressionContext expression) {
+        expression = unwrap(expression);
+        return expression instanceof ModelPhyParser.FunctionCallExprContext
+            ? ((ModelPhyParser.FunctionCallExprContext) expression).functionCall() : null;
+    }
+
+    private static String referenceOf(ModelPhyParser.ExpressionContext expression) {
+        expression = unwrap(expression);
+        return expression instanceof ModelPhyParser.IdentifierExprContext
+            ? ((ModelPhyParser.IdentifierExprContext) expression).identifier().getText() : null;
+    }
+
+    private static ModelPhyParser.ExpressionContext unwrap(ModelPhyParser.ExpressionContext expression) {
+        while (expression instanceof ModelPhyParser.ParenExprContext) {
+            expression = ((ModelPhyParser.ParenExprContext) expression).expression();
+        }
+        return expression;
+    }
+
+    /**
+     * Get the name of the variable the statement defines.
+     *
+     * @return The name, or null if it defines none
+     */
+    String getName() {
+        return name;
+    }
+
+    String getType() {
+        return type;
+    }
+
+    SymbolTable.Kind getKind() {
+        return kind;
+    }
+
+    List<String> getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * Get the name of the variable the statement observes.
+     *
+     * @return The name, or null if it is not an observation
+     */
+    String getObserved() {
+        return observed;
+    }
+
+    /**
+     * Get the file an observation reads its data from.
+     *
+     * @return The file name, or null for inline data or if this is not an observation
+     */
+    String getObservedFile() {
+        return observedFile;
+    }
+}
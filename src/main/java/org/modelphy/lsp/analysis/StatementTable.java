@@ -0,0 +1,596 @@
+package org.modelphy.lsp.analysis;
+
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.antlr.ModelPhyParser;
+import org.modelphy.model.SourceRange;
+import org.modelphy.parser.ModelPhyParserWrapper;
+import org.modelphy.parser.ParseProblem;
+import org.modelphy.parser.ParseResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A document split into independently parsed top-level statements.
+ *
+ * The document is partitioned into fragments, each ending just after a
+ * statement's terminating ';' (the last fragment holds whatever follows the
+ * final statement). A fragment keeps the tokens, parse tree and syntax errors
+ * from when it was last lexed, with positions as they were at that time;
+ * {@link #toDocumentRange} shifts them to where the fragment is now. This lets
+ * unchanged fragments be reused as-is after an edit elsewhere in the document.
+ *
+ * Each fragment also keeps its token starts, ends and types in int arrays, so
+ * together with the table's fragment starts, the token or parse tree node at
+ * an offset is found with two binary searches. Only re-lexed fragments build
+ * new arrays; line starts come from the document's rope.
+ *
+ * Large string literals are kept as {@link DataToken}s. A fragment that is
+ * marked for re-lexing remembers the data tokens no edit touched, so that
+ * they are spliced back in rather than lexed again.
+ *
+ * Tables are immutable and can be shared between threads.
+ */
+public final class StatementTable {
+    private final int version;
+    private final Fragment[] fragments;
+    private final int[] starts;
+    private final int[] lines;
+    private final int[] columns;
+    private final boolean complete;
+
+    StatementTable(int version, List<Fragment> fragments) {
+        this.version = version;
+        this.fragments = fragments.toArray(new Fragment[0]);
+        int n = this.fragments.length;
+        this.starts = new int[n + 1];
+
+        boolean clean = true;
+        for (int i = 0; i < n; i++) {
+            starts[i + 1] = starts[i] + this.fragments[i].length;
+            clean &= !this.fragments[i].isDirty();
+        }
+        this.complete = clean;
+
+        // Line and column of each fragment start, derived from the line breaks inside the fragments
+        if (clean) {
+            this.lines = new int[n];
+            this.columns = new int[n];
+            for (int i = 1; i < n; i++) {
+                Fragment previous = this.fragments[i - 1];
+                if (previous.lineBreaks > 0) {
+                    lines[i] = lines[i - 1] + previous.lineBreaks;
+                    columns[i] = previous.lastLineLength;
+                } else {
+                    lines[i] = lines[i - 1];
+                    columns[i] = columns[i - 1] + previous.length;
+                }
+            }
+        } else {
+            this.lines = null;
+            this.columns = null;
+        }
+    }
+
+    /**
+     * Get the document version this table describes.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Check if every fragment has been parsed. A table is incomplete only
+     * while an update is in progress or after one was cancelled.
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Get the number of fragments.
+     */
+    public int size() {
+        return fragments.length;
+    }
+
+    public Fragment getFragment(int index) {
+        return fragments[index];
+    }
+
+    /**
+     * Get the current offset of the start of a fragment.
+     */
+    public int getStart(int index) {
+        return starts[index];
+    }
+
+    /**
+     * Get the current offset just past the end of a fragment.
+     */
+    public int getEnd(int index) {
+        return starts[index + 1];
+    }
+
+    /**
+     * Get the total length of the document.
+     */
+    public int length() {
+        return starts[fragments.length];
+    }
+
+    /**
+     * Find the fragment containing an offset.
+     *
+     * @param offset An offset in the document; the document end maps to the last fragment
+     * @return The fragment index
+     */
+    public int fragmentAt(int offset) {
+        return indexOf(starts, fragments.length, offset);
+    }
+
+    static int indexOf(int[] starts, int count, int offset) {
+        int index = Arrays.binarySearch(starts, 0, count, offset);
+        if (index < 0) {
+            index = -index - 2;
+        } else {
+            // Skip empty fragments that share this start
+            while (index + 1 < count && starts[index + 1] == offset) {
+                index++;
+            }
+        }
+        return Math.max(0, Math.min(index, count - 1));
+    }
+
+    /**
+     * Translate a range computed from a fragment's tokens to the current document.
+     *
+     * @param index The fragment the range belongs to
+     * @param range The range as it was when the fragment was lexed
+     * @return The range in the current document
+     */
+    public SourceRange toDocumentRange(int index, SourceRange range) {
+        Fragment fragment = fragments[index];
+        int offsetDelta = starts[index] - fragment.lexedStart;
+        int lineDelta = lines[index] - fragment.lexedLine;
+        int columnDelta = columns[index] - fragment.lexedColumn;
+        if (offsetDelta == 0 && lineDelta == 0 && columnDelta == 0) {
+            return range;
+        }
+
+        // Columns only move on the line the fragment starts on
+        int startColumn = range.getStartLine() == fragment.lexedLine
+            ? range.getStartColumn() + columnDelta : range.getStartColumn();
+        int endColumn = range.getEndLine() == fragment.lexedLine
+            ? range.getEndColumn() + columnDelta : range.getEndColumn();
+        return new SourceRange(
+            range.getStartOffset() < 0 ? -1 : range.getStartOffset() + offsetDelta,
+            range.getEndOffset() < 0 ? -1 : range.getEndOffset() + offsetDelta,
+            range.getStartLine() + lineDelta, startColumn,
+            range.getEndLine() + lineDelta, endColumn);
+    }
+
+    /**
+     * Translate one of a fragment's tokens to the current document.
+     *
+     * @param index The fragment the token belongs to
+     * @param token The token as it was when the fragment was lexed
+     * @return The token itself if the fragment has not moved, otherwise a copy with current positions
+     */
+    public Token toDocumentToken(int index, Token token) {
+        Fragment fragment = fragments[index];
+        int offsetDelta = starts[index] - fragment.lexedStart;
+        int lineDelta = lines[index] - fragment.lexedLine;
+        int columnDelta = columns[index] - fragment.lexedColumn;
+        if (offsetDelta == 0 && lineDelta == 0 && columnDelta == 0) {
+            return token;
+        }
+
+        CommonToken located = new CommonToken(token);
+        located.setStartIndex(token.getStartIndex() + offsetDelta);
+        located.setStopIndex(token.getStopIndex() + offsetDelta);
+        located.setLine(token.getLine() + lineDelta);
+        if (token.getLine() - 1 == fragment.lexedLine) {
+            located.setCharPositionInLine(token.getCharPositionInLine() + columnDelta);
+        }
+        return located;
+    }
+
+    /**
+     * Translate a zero-based line in a fragment, as it was when the fragment
+     * was lexed, to the current document. Unlike {@link #toDocumentToken}
+     * this allocates nothing, for callers that visit every token.
+     *
+     * @param index The fragment the line belongs to
+     * @param line The line as it was when the fragment was lexed
+     * @return The line in the current document
+     */
+    public int toDocumentLine(int index, int line) {
+        return line + lines[index] - fragments[index].lexedLine;
+    }
+
+    /**
+     * Translate a column in a fragment, as it was when the fragment was lexed,
+     * to the current document.
+     *
+     * @param index The fragment the position belongs to
+     * @param line The zero-based line of the position as it was when the fragment was lexed
+     * @param column The column as it was when the fragment was lexed
+     * @return The column in the current document
+     */
+    public int toDocumentColumn(int index, int line, int column) {
+        Fragment fragment = fragments[index];
+        return line == fragment.lexedLine ? column + columns[index] - fragment.lexedColumn : column;
+    }
+
+    /**
+     * Find the token covering an offset: a binary search over fragment starts,
+     * then over the containing fragment's token starts.
+     *
+     * A cursor just after a token still counts as being on it.
+     *
+     * @param offset The document offset
+     * @return The token with document positions, or null if the offset is in whitespace or a comment
+     */
+    public Token tokenAt(int offset) {
+        int index = fragmentWithTokenAt(offset);
+        if (index < 0) {
+            return null;
+        }
+        Fragment fragment = fragments[index];
+        return toDocumentToken(index, fragment.tokens.get(fragment.tokenIndexAt(offset - starts[index])));
+    }
+
+    /**
+     * Find the fragment holding the token at an offset.
+     *
+     * @return The fragment index, or -1 if there is no token at the offset
+     */
+    private int fragmentWithTokenAt(int offset) {
+        int index = fragmentAt(offset);
+        if (fragments[index].tokenIndexAt(offset - starts[index]) >= 0) {
+            return index;
+        }
+        // Just after the previous statement's ';'
+        if (index > 0 && offset == starts[index]
+                && fragments[index - 1].tokenIndexAt(offset - starts[index - 1]) >= 0) {
+            return index - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the last token that ends at or before an offset.
+     *
+     * @param offset The document offset
+     * @return The token with document positions, or null if there is none
+     */
+    public Token tokenBefore(int offset) {
+        for (int index = fragmentAt(offset); index >= 0; index--) {
+            Fragment fragment = fragments[index];
+            int token = fragment.tokenIndexBefore(offset - starts[index]);
+            if (token >= 0) {
+                return toDocumentToken(index, fragment.tokens.get(token));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the innermost parse tree node containing the token at an offset.
+     *
+     * @param offset The document offset
+     * @return The node, or null if there is no token at the offset
+     */
+    public ParserRuleContext nodeAt(int offset) {
+        int index = fragmentWithTokenAt(offset);
+        if (index < 0 || fragments[index].tree == null) {
+            return null;
+        }
+        int token = fragments[index].tokenIndexAt(offset - starts[index]);
+
+        // Token indexes in a fragment's tree are positions in its token list
+        ParserRuleContext node = fragments[index].tree;
+        descend:
+        while (true) {
+            for (int i = 0; i < node.getChildCount(); i++) {
+                ParseTree child = node.getChild(i);
+                if (child instanceof ParserRuleContext) {
+                    Interval interval = child.getSourceInterval();
+                    if (interval.a <= token && token <= interval.b) {
+                        node = (ParserRuleContext) child;
+                        continue descend;
+                    }
+                }
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Get the syntax errors of all fragments in document coordinates.
+     */
+    public List<ParseProblem> getSyntaxErrors() {
+        List<ParseProblem> problems = new ArrayList<>();
+        for (int i = 0; i < fragments.length; i++) {
+            for (ParseProblem problem : fragments[i].problems) {
+                problems.add(new ParseProblem(problem.getKind(), problem.getMessage(),
+                    toDocumentRange(i, problem.getRange())));
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Assemble the document model from the fragments' parse trees.
+     *
+     * No text is lexed or parsed again; the cached trees are visited in order
+     * so that cross-statement references resolve as in a whole-program parse.
+     *
+     * @param cancelChecker Checked before each statement is visited
+     * @return The model with syntax and semantic problems in document coordinates
+     */
+    public ParseResult buildModel(CancelChecker cancelChecker) {
+        if (!complete) {
+            throw new IllegalStateException("Statement table for version " + version + " is not fully parsed");
+        }
+
+        List<ModelPhyParser.StatementContext> statements = new ArrayList<>(fragments.length);
+        int[] owners = new int[fragments.length];
+        for (int i = 0; i < fragments.length; i++) {
+            if (fragments[i].tree != null) {
+                owners[statements.size()] = i;
+                statements.add(fragments[i].tree);
+            }
+        }
+
+        return new ModelPhyParserWrapper().buildModel(statements,
+            (statement, range) -> toDocumentRange(owners[statement], range), getSyntaxErrors(), cancelChecker);
+    }
+
+    List<Fragment> fragmentList() {
+        return new ArrayList<>(Arrays.asList(fragments));
+    }
+
+    /**
+     * One top-level statement and the text around it.
+     */
+    public static final class Fragment {
+        private final int length;
+        private final int lineBreaks;
+        private final int lastLineLength;
+        private final int lexedStart;
+        private final int lexedLine;
+        private final int lexedColumn;
+        private final List<Token> tokens;
+        private final ModelPhyParser.StatementContext tree;
+        private final List<ParseProblem> problems;
+        // Token starts, ends (exclusive) and types relative to lexedStart, for binary search
+        private final int[] tokenStarts;
+        private final int[] tokenEnds;
+        private final int[] tokenTypes;
+        // Indexes of the data tokens; for a dirty fragment, the data it held that no edit touched
+        private final int[] dataTokens;
+        private final List<DataRegion> untouched;
+        private volatile StatementDeclaration declaration;
+
+        Fragment(int length, int lineBreaks, int lastLineLength, int lexedStart, int lexedLine, int lexedColumn,
+                 List<Token> tokens, ModelPhyParser.StatementContext tree, List<ParseProblem> problems) {
+            this(length, lineBreaks, lastLineLength, lexedStart, lexedLine, lexedColumn, tokens, tree, problems,
+                Collections.emptyList());
+        }
+
+        private Fragment(int length, int lineBreaks, int lastLineLength, int lexedStart, int lexedLine,
+                         int lexedColumn, List<Token> tokens, ModelPhyParser.StatementContext tree,
+                         List<ParseProblem> problems, List<DataRegion> untouched) {
+            this.length = length;
+            this.lineBreaks = lineBreaks;
+            this.lastLineLength = lastLineLength;
+            this.lexedStart = lexedStart;
+            this.lexedLine = lexedLine;
+            this.lexedColumn = lexedColumn;
+            this.tokens = tokens;
+            this.tree = tree;
+            this.problems = problems;
+
+            this.untouched = untouched;
+
+            int count = tokens != null ? tokens.size() : 0;
+            this.tokenStarts = new int[count];
+            this.tokenEnds = new int[count];
+            this.tokenTypes = new int[count];
+            int data = 0;
+            for (int i = 0; i < count; i++) {
+                Token token = tokens.get(i);
+                tokenStarts[i] = token.getStartIndex() - lexedStart;
+                tokenEnds[i] = token.getStopIndex() + 1 - lexedStart;
+                tokenTypes[i] = token.getType();
+                if (token instanceof DataToken) {
+                    data++;
+                }
+            }
+            this.dataTokens = new int[data];
+            for (int i = 0, j = 0; j < data; i++) {
+                if (tokens.get(i) instanceof DataToken) {
+                    dataTokens[j++] = i;
+                }
+            }
+        }
+
+        /**
+         * Create a placeholder for text that has been edited and must be re-lexed.
+         */
+        static Fragment dirty(int length) {
+            return dirty(length, Collections.emptyList());
+        }
+
+        /**
+         * Create a placeholder for edited text that still holds data tokens no edit touched.
+         *
+         * @param untouched The data tokens, in order, at offsets relative to the placeholder's start
+         */
+        static Fragment dirty(int length, List<DataRegion> untouched) {
+            return new Fragment(length, -1, -1, -1, -1, -1, null, null, Collections.emptyList(), untouched);
+        }
+
+        /**
+         * Get the data tokens of the fragment, at offsets relative to its current start.
+         * For a dirty fragment these are the ones its text still holds unchanged.
+         */
+        List<DataRegion> getDataRegions() {
+            if (tokens == null) {
+                return untouched;
+            }
+            if (dataTokens.length == 0) {
+                return Collections.emptyList();
+            }
+            List<DataRegion> regions = new ArrayList<>(dataTokens.length);
+            for (int index : dataTokens) {
+                regions.add(new DataRegion(tokenStarts[index], (DataToken) tokens.get(index)));
+            }
+            return regions;
+        }
+
+        /**
+         * Check whether the fragment holds any data tokens.
+         */
+        boolean hasData() {
+            return tokens == null ? !untouched.isEmpty() : dataTokens.length > 0;
+        }
+
+        boolean isDirty() {
+            return tokens == null;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * Get the fragment's tokens, with positions as they were when it was lexed.
+         */
+        public List<Token> getTokens() {
+            return tokens;
+        }
+
+        /**
+         * Get the statement's parse tree.
+         *
+         * @return The tree, or null if the fragment holds no tokens
+         */
+        public ModelPhyParser.StatementContext getTree() {
+            return tree;
+        }
+
+        /**
+         * Get the variable the statement defines or observes.
+         * Read from the tree on first use; unchanged fragments keep it across versions.
+         */
+        StatementDeclaration getDeclaration() {
+            StatementDeclaration result = declaration;
+            if (result == null) {
+                result = StatementDeclaration.of(tree);
+                declaration = result;
+            }
+            return result;
+        }
+
+        /**
+         * Get the lexer and parser errors, with positions as they were when it was lexed.
+         */
+        public List<ParseProblem> getProblems() {
+            return problems;
+        }
+
+        /**
+         * Get the number of tokens in the fragment.
+         */
+        public int getTokenCount() {
+            return tokenTypes.length;
+        }
+
+        /**
+         * Get the type of one of the fragment's tokens.
+         */
+        public int getTokenType(int index) {
+            return tokenTypes[index];
+        }
+
+        /**
+         * Get the offset of a token's first character from the start of the fragment.
+         */
+        public int getTokenStart(int index) {
+            return tokenStarts[index];
+        }
+
+        /**
+         * Get the offset just past a token's last character from the start of the fragment.
+         */
+        public int getTokenEnd(int index) {
+            return tokenEnds[index];
+        }
+
+        /**
+         * Find the token covering an offset relative to the fragment start.
+         * A token that starts at the offset wins over one that ends there.
+         *
+         * @return The token index, or -1 if the offset is in whitespace or a comment
+         */
+        int tokenIndexAt(int offset) {
+            int index = Arrays.binarySearch(tokenStarts, offset);
+            if (index < 0) {
+                index = -index - 2;
+            }
+            return index >= 0 && offset <= tokenEnds[index] ? index : -1;
+        }
+
+        /**
+         * Find the last token that ends at or before an offset relative to the fragment start.
+         *
+         * @return The token index, or -1 if there is none
+         */
+        int tokenIndexBefore(int offset) {
+            int index = Arrays.binarySearch(tokenEnds, offset);
+            return index >= 0 ? index : -index - 2;
+        }
+    }
+
+    /**
+     * A data token and where it is relative to the start of a fragment.
+     */
+    static final class DataRegion {
+        private final int offset;
+        private final DataToken token;
+
+        DataRegion(int offset, DataToken token) {
+            this.offset = offset;
+            this.token = token;
+        }
+
+        int getOffset() {
+            return offset;
+        }
+
+        int getEnd() {
+            return offset + token.length();
+        }
+
+        DataToken getToken() {
+            return token;
+        }
+
+        /**
+         * Get the same token at an offset relative to another start.
+         */
+        DataRegion shift(int delta) {
+            return new DataRegion(offset + delta, token);
+        }
+    }
+}
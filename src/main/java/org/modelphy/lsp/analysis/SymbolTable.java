@@ -0,0 +1,229 @@
+package org.modelphy.lsp.analysis;
+
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.model.*;
+
+import java.util.*;
+
+/**
+ * The variables defined in a document and the dependency edges between them.
+ *
+ * Built once per analysed version from the model; lookups by name are
+ * constant time. A variable that is defined twice resolves to its last
+ * definition, as in the converter. The index of where each variable is used
+ * is built on first use, for navigation requests.
+ */
+public final class SymbolTable {
+
+    /**
+     * How a variable is defined.
+     */
+    public enum Kind {
+        /** Declared with a type and an optional constant value. */
+        DECLARED,
+        /** Drawn from a distribution with '~'. */
+        STOCHASTIC,
+        /** Computed from other variables with '='. */
+        DETERMINISTIC
+    }
+
+    /**
+     * A defined variable.
+     */
+    public static final class Symbol {
+        private final Variable variable;
+        private final Kind kind;
+        private final List<String> dependencies;
+
+        Symbol(Variable variable, Kind kind, List<String> dependencies) {
+            this.variable = variable;
+            this.kind = kind;
+            this.dependencies = dependencies;
+        }
+
+        public String getName() {
+            return variable.getName();
+        }
+
+        public String getType() {
+            return variable.getType();
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public Variable getVariable() {
+            return variable;
+        }
+
+        /**
+         * Get the range of the defining statement.
+         */
+        public SourceRange getRange() {
+            return variable.getSourceRange();
+        }
+
+        /**
+         * Get the range of the name in the defining statement.
+         */
+        public SourceRange getNameRange() {
+            return variable.getNameRange();
+        }
+
+        /**
+         * Get the names of the variables this one depends on, without duplicates.
+         */
+        public List<String> getDependencies() {
+            return dependencies;
+        }
+    }
+
+    private static final SymbolTable EMPTY =
+        new SymbolTable(new ModelPhyModel(), Collections.emptyMap(), Collections.emptyMap());
+
+    private final ModelPhyModel model;
+    private final Map<String, Symbol> symbols;
+    private final Map<String, List<String>> dependents;
+    private volatile PrefixTrie<Symbol> nameIndex;
+    private volatile UseIndex useIndex;
+
+    private SymbolTable(ModelPhyModel model, Map<String, Symbol> symbols, Map<String, List<String>> dependents) {
+        this.model = model;
+        this.symbols = symbols;
+        this.dependents = dependents;
+    }
+
+    public static SymbolTable empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Build the symbol table for a model.
+     *
+     * @param model The model
+     * @return The symbol table
+     */
+    public static SymbolTable build(ModelPhyModel model) {
+        Map<String, Symbol> symbols = new LinkedHashMap<>();
+        for (Variable var : model.getVariables()) {
+            Kind kind = var instanceof StochasticVariable ? Kind.STOCHASTIC
+                : var instanceof DeterministicVariable ? Kind.DETERMINISTIC : Kind.DECLARED;
+            List<String> dependencies = new ArrayList<>(new LinkedHashSet<>(var.getDependencies()));
+            symbols.remove(var.getName());
+            symbols.put(var.getName(), new Symbol(var, kind, Collections.unmodifiableList(dependencies)));
+        }
+
+        return new SymbolTable(model, Collections.unmodifiableMap(symbols), dependentsOf(symbols));
+    }
+
+    /**
+     * Build a symbol table from the declarations of a document's statements,
+     * without building the model.
+     *
+     * Names, types, kinds and dependencies are those {@link #build} gives. The
+     * variables carry no values, distributions or ranges, an observed variable
+     * has an observation without data, and there are no constraints or uses.
+     * Only statements re-lexed since an earlier version are read again.
+     *
+     * @param statements The document's statements
+     * @param cancelChecker Checked every few statements
+     */
+    static SymbolTable declared(StatementTable statements, CancelChecker cancelChecker) {
+        Map<String, Symbol> symbols = new LinkedHashMap<>();
+        for (int i = 0; i < statements.size(); i++) {
+            if ((i & 0xff) == 0) {
+                cancelChecker.checkCanceled();
+            }
+            StatementDeclaration declaration = statements.getFragment(i).getDeclaration();
+            if (declaration.getName() != null) {
+                Variable var = new Variable(declaration.getName(), declaration.getType());
+                symbols.remove(var.getName());
+                symbols.put(var.getName(), new Symbol(var, declaration.getKind(), declaration.getDependencies()));
+            } else if (declaration.getObserved() != null) {
+                // As in the model, only a variable defined earlier is observed
+                Symbol symbol = symbols.get(declaration.getObserved());
+                if (symbol != null) {
+                    String file = declaration.getObservedFile();
+                    symbol.getVariable().setObservation(file != null
+                        ? new Observation(symbol.getName(), ObservationType.FILE, file)
+                        : new Observation(symbol.getName(), ObservationType.INLINE));
+                }
+            }
+        }
+        return new SymbolTable(new ModelPhyModel(), Collections.unmodifiableMap(symbols), dependentsOf(symbols));
+    }
+
+    private static Map<String, List<String>> dependentsOf(Map<String, Symbol> symbols) {
+        Map<String, List<String>> dependents = new HashMap<>();
+        for (Symbol symbol : symbols.values()) {
+            for (String dependency : symbol.getDependencies()) {
+                dependents.computeIfAbsent(dependency, name -> new ArrayList<>()).add(symbol.getName());
+            }
+        }
+        return Collections.unmodifiableMap(dependents);
+    }
+
+    /**
+     * Look up a variable.
+     *
+     * @return The symbol, or null if no variable has that name
+     */
+    public Symbol get(String name) {
+        return symbols.get(name);
+    }
+
+    /**
+     * Get all symbols in the order their definitions appear.
+     */
+    public Collection<Symbol> getSymbols() {
+        return symbols.values();
+    }
+
+    public int size() {
+        return symbols.size();
+    }
+
+    /**
+     * Get the symbols indexed by name for prefix lookups.
+     * The index is built on first use and then shared.
+     */
+    public PrefixTrie<Symbol> getNameIndex() {
+        PrefixTrie<Symbol> result = nameIndex;
+        if (result == null) {
+            result = new PrefixTrie<>();
+            for (Symbol symbol : symbols.values()) {
+                result.add(symbol.getName(), symbol);
+            }
+            nameIndex = result;
+        }
+        return result;
+    }
+
+    /**
+     * Get the names of the variables that depend on a variable.
+     */
+    public List<String> getDependents(String name) {
+        return dependents.getOrDefault(name, Collections.emptyList());
+    }
+
+    /**
+     * Get the constraints of the model, in the order they appear.
+     */
+    public List<Constraint> getConstraints() {
+        return model.getConstraints();
+    }
+
+    /**
+     * Get the definitions and uses of the variables, by name and by position.
+     * The index is built on first use and then shared.
+     */
+    public UseIndex getUseIndex() {
+        UseIndex result = useIndex;
+        if (result == null) {
+            result = UseIndex.build(model);
+            useIndex = result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+package org.modelphy.lsp.analysis;
+
+import org.modelphy.model.*;
+
+import java.util.*;
+
+/**
+ * Where the variables of one document version are defined and used.
+ *
+ * Uses are grouped by name, so finding every use of a variable is a lookup
+ * however large the model is. Definitions and uses are also kept sorted by
+ * position, so the name at an offset is found by binary search.
+ */
+public final class UseIndex {
+
+    /**
+     * A variable name in the source: its definition or a use.
+     */
+    public static final class Reference {
+        private final String name;
+        private final SourceRange range;
+        private final boolean definition;
+
+        Reference(String name, SourceRange range, boolean definition) {
+            this.name = name;
+            this.range = range;
+            this.definition = definition;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Get the range of the name.
+         */
+        public SourceRange getRange() {
+            return range;
+        }
+
+        /**
+         * Check whether this is the name in a defining statement rather than a use.
+         */
+        public boolean isDefinition() {
+            return definition;
+        }
+    }
+
+    private final Map<String, List<SourceRange>> uses;
+    private final Reference[] references;
+
+    private UseIndex(Map<String, List<SourceRange>> uses, Reference[] references) {
+        this.uses = uses;
+        this.references = references;
+    }
+
+    /**
+     * Index the definitions and uses in a model.
+     *
+     * Uses are the variable references in distribution and function
+     * arguments, expressions, constraints and observed data, and the names of
+     * observed variables.
+     */
+    static UseIndex build(ModelPhyModel model) {
+        List<Reference> references = new ArrayList<>();
+        for (Variable variable : model.getVariables()) {
+            if (variable.getNameRange() != null) {
+                references.add(new Reference(variable.getName(), variable.getNameRange(), true));
+            }
+            if (variable instanceof StochasticVariable) {
+                addUses(((StochasticVariable) variable).getDistribution(), references);
+            } else if (variable instanceof DeterministicVariable) {
+                addUses(((DeterministicVariable) variable).getExpression(), references);
+            } else {
+                addUses(variable.getValue(), references);
+            }
+
+            Observation observation = variable.getObservation();
+            if (observation != null) {
+                if (observation.getNameRange() != null) {
+                    references.add(new Reference(variable.getName(), observation.getNameRange(), false));
+                }
+                for (Object value : observation.getKeyValues().values()) {
+                    addUses(value, references);
+                }
+            }
+        }
+        for (Constraint constraint : model.getConstraints()) {
+            addUses(constraint.getFunction(), references);
+            addUses(constraint.getDistribution(), references);
+        }
+
+        references.sort(Comparator.comparingInt(reference -> reference.getRange().getStartOffset()));
+        Map<String, List<SourceRange>> uses = new HashMap<>();
+        for (Reference reference : references) {
+            if (!reference.isDefinition()) {
+                uses.computeIfAbsent(reference.getName(), name -> new ArrayList<>()).add(reference.getRange());
+            }
+        }
+        return new UseIndex(uses, references.toArray(new Reference[0]));
+    }
+
+    private static void addUses(Object value, List<Reference> references) {
+        if (value instanceof VariableReference) {
+            VariableReference reference = (VariableReference) value;
+            if (reference.getSourceRange() != null) {
+                references.add(new Reference(reference.getName(), reference.getSourceRange(), false));
+            }
+        } else if (value instanceof ArrayValue) {
+            for (Object element : ((ArrayValue) value).getElements()) {
+                addUses(element, references);
+            }
+        } else if (value instanceof FunctionCall) {
+            for (Argument argument : ((FunctionCall) value).getArguments()) {
+                addUses(argument.getValue(), references);
+            }
+        } else if (value instanceof Distribution) {
+            for (Argument argument : ((Distribution) value).getArguments()) {
+                addUses(argument.getValue(), references);
+            }
+        }
+    }
+
+    /**
+     * Get the ranges of every use of a variable, in document order.
+     * Definitions are not included.
+     */
+    public List<SourceRange> getUses(String name) {
+        return uses.getOrDefault(name, Collections.emptyList());
+    }
+
+    /**
+     * Find the definition or use of a variable at an offset.
+     *
+     * @param offset An offset in the document, which may also be just after the name
+     * @return The reference, or null if there is no variable name at the offset
+     */
+    public Reference referenceAt(int offset) {
+        int low = 0;
+        int high = references.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (references[middle].getRange().getStartOffset() <= offset) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        // The last reference starting at or before the offset is the only one that can contain it
+        if (high >= 0 && references[high].getRange().contains(offset)) {
+            return references[high];
+        }
+        return null;
+    }
+}
@@ -0,0 +1,137 @@
+package org.modelphy.lsp.benchmark;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.services.ServiceEndpoints;
+import org.modelphy.lsp.ModelPhyLanguageServer;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A sequence of messages from an editor to the language server, each with
+ * the time it was sent, that can be replayed against a fresh server.
+ *
+ * Sessions are stored as JSON lines, one message per line:
+ * <pre>{"time": 1520, "message": {"jsonrpc": "2.0", "method": "textDocument/didChange", ...}}</pre>
+ * where {@code time} is in milliseconds since the session started and
+ * {@code message} is the JSON-RPC message as the client sent it.
+ */
+public class Session {
+
+    /**
+     * One message and when it was sent.
+     */
+    public static final class Event {
+        private final long time;
+        private final Message message;
+
+        public Event(long time, Message message) {
+            this.time = time;
+            this.message = message;
+        }
+
+        /**
+         * Get the milliseconds between the start of the session and this message.
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+    }
+
+    private final String name;
+    private final List<Event> events;
+
+    public Session(String name, List<Event> events) {
+        this.name = name;
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+    }
+
+    /**
+     * Get a description of where the session came from, for reports.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    /**
+     * Get the milliseconds between the first and the last message.
+     */
+    public long getDuration() {
+        return events.isEmpty() ? 0 : events.get(events.size() - 1).getTime();
+    }
+
+    /**
+     * Read a session from a JSON lines file.
+     *
+     * @param file The file, as written by {@link #write} or a {@link SessionRecorder}
+     * @return The session
+     */
+    public static Session read(Path file) throws IOException {
+        MessageJsonHandler jsonHandler = jsonHandler();
+        List<Event> events = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    JsonObject event = JsonParser.parseString(line).getAsJsonObject();
+                    Message message = jsonHandler.parseMessage(event.get("message").toString());
+                    events.add(new Event(event.get("time").getAsLong(), message));
+                } catch (RuntimeException e) {
+                    throw new IOException(file + ":" + number + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return new Session(file.toString(), events);
+    }
+
+    /**
+     * Write this session as a JSON lines file.
+     */
+    public void write(Path file) throws IOException {
+        MessageJsonHandler jsonHandler = jsonHandler();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Event event : events) {
+                writer.write(toLine(jsonHandler, event.getTime(), event.getMessage()));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Create a JSON handler that knows the parameter types of every method
+     * the server implements.
+     */
+    static MessageJsonHandler jsonHandler() {
+        return new MessageJsonHandler(ServiceEndpoints.getSupportedMethods(ModelPhyLanguageServer.class));
+    }
+
+    static String toLine(MessageJsonHandler jsonHandler, long time, Message message) {
+        JsonObject event = new JsonObject();
+        event.addProperty("time", time);
+        event.add("message", JsonParser.parseString(jsonHandler.serialize(message)));
+        return event.toString();
+    }
+}
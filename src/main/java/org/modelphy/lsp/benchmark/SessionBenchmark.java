@@ -0,0 +1,523 @@
+package org.modelphy.lsp.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.DidCloseTextDocumentParams;
+import org.eclipse.lsp4j.DidOpenTextDocumentParams;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.eclipse.lsp4j.jsonrpc.messages.CancelParams;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
+import org.eclipse.lsp4j.jsonrpc.services.GenericEndpoint;
+import org.eclipse.lsp4j.services.LanguageClient;
+import org.modelphy.lsp.ModelPhyLanguageServer;
+import org.modelphy.lsp.telemetry.LatencyHistogram;
+import org.modelphy.lsp.telemetry.LatencySummary;
+import org.modelphy.lsp.telemetry.ServerStats;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays an editing session against the language server in-process and
+ * reports how long each kind of request took and how much it allocated.
+ *
+ * Each iteration starts a fresh {@link ModelPhyLanguageServer} and sends it
+ * the session's messages through LSP4J's generic endpoint, with the timing
+ * they were recorded at, so debouncing and cancellation behave as they would
+ * in an editor. Requests are timed from the moment they are sent until they
+ * are answered; diagnostics from the first edit they cover until they are
+ * published. Allocation is measured on the server threads that did the work.
+ *
+ * Results can be written as JSON and compared with an earlier run, in which
+ * case the process exits with status 1 if any request got slower or
+ * allocates more than the tolerance allows.
+ */
+public class SessionBenchmark {
+    /** How long to wait for answers and diagnostics once the session has been sent. */
+    private static final long SETTLE_MILLIS = 30_000;
+    /** Differences below these are noise, whatever the tolerance. */
+    private static final double MIN_LATENCY_REGRESSION_MILLIS = 1.0;
+    private static final double MIN_ALLOCATION_REGRESSION_BYTES = 64 * 1024;
+
+    private final Session session;
+    private final double speed;
+    private final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> sent = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> cancelled = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LongAdder> failed = new ConcurrentHashMap<>();
+    private final Map<String, Long> allocatedBytes = new HashMap<>();
+    private long measuredNanos;
+    private long jvmAllocatedBytes;
+    private long gcCount;
+    private long gcMillis;
+    private int iterations;
+
+    /**
+     * @param session The session to replay
+     * @param speed How much faster than recorded to send the messages
+     */
+    public SessionBenchmark(Session session, double speed) {
+        this.session = session;
+        this.speed = speed;
+    }
+
+    public static void main(String[] args) {
+        Path sessionFile = null;
+        Path saveSession = null;
+        Path json = null;
+        Path baseline = null;
+        int lines = 20_000;
+        int edits = 2_000;
+        int dataBytes = 0;
+        long seed = 1;
+        double speed = 1.0;
+        int warmup = 1;
+        int iterations = 3;
+        double tolerance = 0.25;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--session") && i + 1 < args.length) {
+                    sessionFile = Paths.get(args[++i]);
+                } else if (arg.equals("--save-session") && i + 1 < args.length) {
+                    saveSession = Paths.get(args[++i]);
+                } else if (arg.equals("--lines") && i + 1 < args.length) {
+                    lines = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--data-bytes") && i + 1 < args.length) {
+                    dataBytes = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--edits") && i + 1 < args.length) {
+                    edits = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--seed") && i + 1 < args.length) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (arg.equals("--speed") && i + 1 < args.length) {
+                    speed = Double.parseDouble(args[++i]);
+                } else if (arg.equals("--warmup") && i + 1 < args.length) {
+                    warmup = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--iterations") && i + 1 < args.length) {
+                    iterations = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--json") && i + 1 < args.length) {
+                    json = Paths.get(args[++i]);
+                } else if (arg.equals("--baseline") && i + 1 < args.length) {
+                    baseline = Paths.get(args[++i]);
+                } else if (arg.equals("--tolerance") && i + 1 < args.length) {
+                    tolerance = Double.parseDouble(args[++i]);
+                } else {
+                    printUsage();
+                    System.exit(arg.equals("--help") ? 0 : 1);
+                }
+            }
+            if (speed <= 0 || iterations < 1 || warmup < 0) {
+                throw new IllegalArgumentException("Speed and iterations must be positive, warmup not negative");
+            }
+
+            Session session = sessionFile != null
+                ? Session.read(sessionFile)
+                : SyntheticSession.generate(lines, dataBytes, edits, seed);
+            if (saveSession != null) {
+                session.write(saveSession);
+            }
+
+            SessionBenchmark benchmark = new SessionBenchmark(session, speed);
+            benchmark.run(warmup, iterations);
+            Map<String, Object> report = benchmark.report();
+            benchmark.printReport(System.out);
+
+            ObjectMapper mapper = new ObjectMapper();
+            if (json != null) {
+                mapper.writerWithDefaultPrettyPrinter().writeValue(json.toFile(), report);
+            }
+            if (baseline != null) {
+                List<String> regressions = compare(mapper.valueToTree(report), mapper.readTree(baseline.toFile()),
+                    tolerance);
+                for (String regression : regressions) {
+                    System.out.println("REGRESSION: " + regression);
+                }
+                if (!regressions.isEmpty()) {
+                    System.exit(1);
+                }
+                System.out.println("No regressions against " + baseline);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+        // The servers' timer threads are daemons, but LSP4J may leave others behind
+        System.exit(0);
+    }
+
+    /**
+     * Replay the session, first for warm-up and then measured.
+     *
+     * @param warmup Iterations run before measuring, to let the JIT compile the server
+     * @param iterations Measured iterations
+     */
+    public void run(int warmup, int iterations) throws InterruptedException {
+        for (int i = 0; i < warmup; i++) {
+            System.err.println("Warm-up " + (i + 1) + "/" + warmup);
+            replay(false);
+        }
+        for (int i = 0; i < iterations; i++) {
+            System.err.println("Iteration " + (i + 1) + "/" + iterations);
+            replay(true);
+        }
+    }
+
+    /**
+     * Replay the session once against a new server.
+     *
+     * @param measure Whether to keep the results
+     */
+    private void replay(boolean measure) throws InterruptedException {
+        ModelPhyLanguageServer server = new ModelPhyLanguageServer();
+        Replay replay = new Replay(measure);
+        server.connect(replay.client());
+        GenericEndpoint endpoint = new GenericEndpoint(server);
+
+        Map<Long, Long> threadsBefore = threadAllocations();
+        long[] gcBefore = gcTotals();
+        long origin = System.nanoTime();
+        for (Session.Event event : session.getEvents()) {
+            long due = origin + (long) (event.getTime() * 1_000_000L / speed);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            replay.send(endpoint, event.getMessage());
+        }
+        replay.settle();
+        long elapsed = System.nanoTime() - origin;
+
+        if (measure) {
+            measuredNanos += elapsed;
+            jvmAllocatedBytes += allocatedSince(threadsBefore);
+            long[] gcAfter = gcTotals();
+            gcCount += gcAfter[0] - gcBefore[0];
+            gcMillis += gcAfter[1] - gcBefore[1];
+            for (Map.Entry<String, Long> entry : server.getStats().getRequestAllocations().entrySet()) {
+                allocatedBytes.merge(entry.getKey(), entry.getValue(), Long::sum);
+            }
+            iterations++;
+        }
+        try {
+            server.shutdown().get(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            System.err.println("Server did not shut down cleanly: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the results of the measured iterations.
+     */
+    public Map<String, Object> report() {
+        double seconds = measuredNanos / 1e9;
+        Map<String, Object> requests = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : sent.entrySet()) {
+            String method = entry.getKey();
+            LatencyHistogram histogram = latencies.get(method);
+            LatencySummary summary = histogram != null ? histogram.summarize() : new LatencyHistogram().summarize();
+            long count = entry.getValue().sum();
+            // The server reports a mean per iteration; the session is the same every time
+            long bytesPerRequest = allocatedBytes.getOrDefault(method, 0L) / Math.max(1, iterations);
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("count", count);
+            result.put("cancelled", sum(cancelled, method));
+            result.put("failed", sum(failed, method));
+            result.put("p50", summary.getP50());
+            result.put("p95", summary.getP95());
+            result.put("p99", summary.getP99());
+            result.put("max", summary.getMax());
+            result.put("mean", summary.getMean());
+            result.put("allocatedBytesPerRequest", bytesPerRequest);
+            result.put("allocationMBPerSecond", seconds > 0 ? bytesPerRequest * count / seconds / 1e6 : 0);
+            requests.put(method, result);
+        }
+
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("allocationMBPerSecond", seconds > 0 ? jvmAllocatedBytes / seconds / 1e6 : 0);
+        jvm.put("gcCount", gcCount);
+        jvm.put("gcMillis", gcMillis);
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("session", session.getName());
+        report.put("iterations", iterations);
+        report.put("speed", speed);
+        report.put("seconds", seconds);
+        report.put("requests", requests);
+        report.put("jvm", jvm);
+        return report;
+    }
+
+    /**
+     * Print the results as a table.
+     */
+    @SuppressWarnings("unchecked")
+    public void printReport(PrintStream out) {
+        Map<String, Object> report = report();
+        out.printf("Session: %s%n", report.get("session"));
+        out.printf("%d iteration(s), %.1f s measured, speed x%s%n%n", iterations, measuredNanos / 1e9, speed);
+        out.printf("%-46s %7s %6s %9s %9s %9s %9s %11s %9s%n",
+            "Request", "count", "cancel", "p50 ms", "p95 ms", "p99 ms", "max ms", "KB/request", "MB/s");
+        Map<String, Object> requests = (Map<String, Object>) report.get("requests");
+        for (Map.Entry<String, Object> entry : requests.entrySet()) {
+            Map<String, Object> result = (Map<String, Object>) entry.getValue();
+            out.printf("%-46s %7d %6d %9.2f %9.2f %9.2f %9.2f %11.1f %9.2f%n", entry.getKey(),
+                result.get("count"), result.get("cancelled"), result.get("p50"), result.get("p95"), result.get("p99"),
+                result.get("max"), ((Long) result.get("allocatedBytesPerRequest")) / 1024.0,
+                result.get("allocationMBPerSecond"));
+        }
+        Map<String, Object> jvm = (Map<String, Object>) report.get("jvm");
+        out.printf("%nJVM: %.1f MB/s allocated, %d GCs taking %d ms%n",
+            jvm.get("allocationMBPerSecond"), jvm.get("gcCount"), jvm.get("gcMillis"));
+    }
+
+    /**
+     * Compare a report with an earlier one.
+     *
+     * @param tolerance The relative increase in p95 latency or allocation per request that is accepted
+     * @return A description of each regression
+     */
+    static List<String> compare(JsonNode current, JsonNode baseline, double tolerance) {
+        List<String> regressions = new ArrayList<>();
+        JsonNode baselineRequests = baseline.path("requests");
+        current.path("requests").fields().forEachRemaining(entry -> {
+            JsonNode before = baselineRequests.path(entry.getKey());
+            if (before.isMissingNode()) {
+                return;
+            }
+            JsonNode after = entry.getValue();
+            double p95Before = before.path("p95").asDouble();
+            double p95After = after.path("p95").asDouble();
+            if (p95After > p95Before * (1 + tolerance) && p95After - p95Before > MIN_LATENCY_REGRESSION_MILLIS) {
+                regressions.add(String.format("%s p95 %.2f ms -> %.2f ms", entry.getKey(), p95Before, p95After));
+            }
+            double bytesBefore = before.path("allocatedBytesPerRequest").asDouble();
+            double bytesAfter = after.path("allocatedBytesPerRequest").asDouble();
+            if (bytesAfter > bytesBefore * (1 + tolerance)
+                    && bytesAfter - bytesBefore > MIN_ALLOCATION_REGRESSION_BYTES) {
+                regressions.add(String.format("%s allocation %.1f KB -> %.1f KB per request",
+                    entry.getKey(), bytesBefore / 1024, bytesAfter / 1024));
+            }
+        });
+        return regressions;
+    }
+
+    private static long sum(Map<String, LongAdder> counters, String method) {
+        LongAdder counter = counters.get(method);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    private static Map<Long, Long> threadAllocations() {
+        Map<Long, Long> allocations = new HashMap<>();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0) {
+                    allocations.put(ids[i], bytes[i]);
+                }
+            }
+        }
+        return allocations;
+    }
+
+    /**
+     * Get the bytes allocated by all live threads since an earlier reading.
+     * Threads that ended in between are not counted.
+     */
+    private static long allocatedSince(Map<Long, Long> before) {
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : threadAllocations().entrySet()) {
+            total += entry.getValue() - before.getOrDefault(entry.getKey(), 0L);
+        }
+        return total;
+    }
+
+    /**
+     * @return The number of collections and the milliseconds they took, over all collectors
+     */
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    private static void printUsage() {
+        System.out.println("ModelPhy language server session benchmark");
+        System.out.println();
+        System.out.println("Usage:");
+        System.out.println("  java -cp modelphy-lsp-server.jar org.modelphy.lsp.benchmark.SessionBenchmark [options]");
+        System.out.println();
+        System.out.println("Options:");
+        System.out.println("  --session <file>       Replay a recorded session (record one by starting the server");
+        System.out.println("                         with -Dmodelphy.recordSession=<file>)");
+        System.out.println("  --lines N              Lines of the large synthetic document (default: 20000)");
+        System.out.println("  --data-bytes N         End the large document with an inline alignment of N bytes (default: 0)");
+        System.out.println("  --edits N              didChange notifications in the synthetic session (default: 2000)");
+        System.out.println("  --seed N               Seed of the synthetic session (default: 1)");
+        System.out.println("  --save-session <file>  Write the session that is replayed to a file");
+        System.out.println("  --speed X              Send messages X times faster than recorded (default: 1)");
+        System.out.println("  --warmup N             Unmeasured iterations first (default: 1)");
+        System.out.println("  --iterations N         Measured iterations (default: 3)");
+        System.out.println("  --json <file>          Write the results as JSON");
+        System.out.println("  --baseline <file>      Compare with the JSON results of an earlier run; exit 1 on regression");
+        System.out.println("  --tolerance F          Accepted relative increase of p95 latency and allocation (default: 0.25)");
+    }
+
+    /**
+     * The client side of one iteration: sends messages, times the answers and
+     * watches for diagnostics.
+     */
+    private final class Replay {
+        private final boolean measure;
+        private final ConcurrentHashMap<String, CompletableFuture<?>> outstanding = new ConcurrentHashMap<>();
+        // When the oldest edit without published diagnostics was sent, per document
+        private final ConcurrentHashMap<String, Long> undiagnosed = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<String, Integer> versions = new ConcurrentHashMap<>();
+
+        Replay(boolean measure) {
+            this.measure = measure;
+        }
+
+        LanguageClient client() {
+            return (LanguageClient) Proxy.newProxyInstance(LanguageClient.class.getClassLoader(),
+                new Class<?>[] { LanguageClient.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("publishDiagnostics")) {
+                        published((PublishDiagnosticsParams) args[0]);
+                    }
+                    if (method.getReturnType() == CompletableFuture.class) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return null;
+                });
+        }
+
+        void send(GenericEndpoint endpoint, Message message) {
+            if (message instanceof RequestMessage) {
+                RequestMessage request = (RequestMessage) message;
+                if (request.getMethod().equals("shutdown")) {
+                    return;
+                }
+                String method = request.getMethod();
+                long start = System.nanoTime();
+                CompletableFuture<?> answer = endpoint.request(method, request.getParams());
+                count(sent, method);
+                outstanding.put(request.getId(), answer);
+                answer.whenComplete((result, error) -> {
+                    outstanding.remove(request.getId(), answer);
+                    if (answer.isCancelled()) {
+                        count(cancelled, method);
+                    } else if (error != null) {
+                        count(failed, method);
+                    } else if (measure) {
+                        latencies.computeIfAbsent(method, key -> new LatencyHistogram())
+                            .record(System.nanoTime() - start);
+                    }
+                });
+            } else if (message instanceof NotificationMessage) {
+                NotificationMessage notification = (NotificationMessage) message;
+                Object params = notification.getParams();
+                switch (notification.getMethod()) {
+                    case "exit":
+                        return;
+                    case "$/cancelRequest":
+                        CompletableFuture<?> answer = outstanding.get(((CancelParams) params).getId());
+                        if (answer != null) {
+                            answer.cancel(true);
+                        }
+                        return;
+                    case "textDocument/didOpen":
+                        edited(((DidOpenTextDocumentParams) params).getTextDocument().getUri(),
+                            ((DidOpenTextDocumentParams) params).getTextDocument().getVersion());
+                        break;
+                    case "textDocument/didChange":
+                        edited(((DidChangeTextDocumentParams) params).getTextDocument().getUri(),
+                            ((DidChangeTextDocumentParams) params).getTextDocument().getVersion());
+                        break;
+                    case "textDocument/didClose":
+                        String uri = ((DidCloseTextDocumentParams) params).getTextDocument().getUri();
+                        undiagnosed.remove(uri);
+                        versions.remove(uri);
+                        break;
+                    default:
+                        break;
+                }
+                endpoint.notify(notification.getMethod(), params);
+            }
+        }
+
+        private void edited(String uri, int version) {
+            if (undiagnosed.putIfAbsent(uri, System.nanoTime()) == null) {
+                count(sent, ServerStats.DIAGNOSTICS);
+            }
+            versions.put(uri, version);
+        }
+
+        private void published(PublishDiagnosticsParams params) {
+            Integer version = versions.get(params.getUri());
+            if (params.getVersion() == null || !params.getVersion().equals(version)) {
+                return;
+            }
+            Long since = undiagnosed.remove(params.getUri());
+            if (since != null && measure) {
+                latencies.computeIfAbsent(ServerStats.DIAGNOSTICS, key -> new LatencyHistogram())
+                    .record(System.nanoTime() - since);
+            }
+        }
+
+        /**
+         * Wait until every request is answered and every open document's diagnostics are published.
+         */
+        void settle() throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SETTLE_MILLIS);
+            try {
+                CompletableFuture.allOf(outstanding.values().toArray(new CompletableFuture<?>[0]))
+                    .exceptionally(error -> null)
+                    .get(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | java.util.concurrent.ExecutionException e) {
+                System.err.println("Requests still unanswered: " + outstanding.keySet());
+            }
+            while (!undiagnosed.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            if (!undiagnosed.isEmpty()) {
+                System.err.println("Diagnostics never published for: " + undiagnosed.keySet());
+            }
+        }
+
+        private void count(Map<String, LongAdder> counters, String method) {
+            if (measure) {
+                counters.computeIfAbsent(method, key -> new LongAdder()).increment();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.modelphy.lsp.benchmark;
+
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer;
+import org.eclipse.lsp4j.jsonrpc.RemoteEndpoint;
+import org.eclipse.lsp4j.jsonrpc.json.MessageJsonHandler;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Records the messages an editor sends to the language server as a
+ * {@link Session} file, for later replay by {@link SessionBenchmark}.
+ *
+ * The recorder is installed as a message wrapper on the server's launcher;
+ * it writes every request and notification arriving from the client and
+ * lets the server's own messages pass untouched.
+ */
+public class SessionRecorder implements Closeable {
+    private final MessageJsonHandler jsonHandler = Session.jsonHandler();
+    private final BufferedWriter writer;
+    private final long start = System.nanoTime();
+
+    public SessionRecorder(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Wrap a consumer of the launcher so that incoming messages are recorded.
+     *
+     * The launcher wraps both directions with the same function; only the
+     * remote endpoint consumes messages from the client.
+     */
+    public MessageConsumer wrap(MessageConsumer consumer) {
+        if (!(consumer instanceof RemoteEndpoint)) {
+            return consumer;
+        }
+        return message -> {
+            record(message);
+            consumer.consume(message);
+        };
+    }
+
+    private synchronized void record(Message message) {
+        if (!(message instanceof RequestMessage) && !(message instanceof NotificationMessage)) {
+            return;
+        }
+        long time = (System.nanoTime() - start) / 1_000_000L;
+        try {
+            writer.write(Session.toLine(jsonHandler, time, message));
+            writer.newLine();
+            // The server usually ends with the process, so every message is written out at once
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("Could not record message: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
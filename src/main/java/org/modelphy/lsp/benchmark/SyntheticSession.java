@@ -0,0 +1,264 @@
+package org.modelphy.lsp.benchmark;
+
+import org.eclipse.lsp4j.ClientCapabilities;
+import org.eclipse.lsp4j.CompletionContext;
+import org.eclipse.lsp4j.CompletionParams;
+import org.eclipse.lsp4j.CompletionTriggerKind;
+import org.eclipse.lsp4j.DidChangeTextDocumentParams;
+import org.eclipse.lsp4j.DidCloseTextDocumentParams;
+import org.eclipse.lsp4j.DidOpenTextDocumentParams;
+import org.eclipse.lsp4j.HoverParams;
+import org.eclipse.lsp4j.InitializeParams;
+import org.eclipse.lsp4j.InitializedParams;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+import org.eclipse.lsp4j.TextDocumentItem;
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier;
+import org.eclipse.lsp4j.jsonrpc.messages.Message;
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage;
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates an editing session: a small and a large document are opened,
+ * then statements are typed into them one character at a time, with the
+ * completions an editor asks for at trigger characters, the odd typo and
+ * its correction, and a hover after each statement. The large document can
+ * end with an inline alignment, which is never edited.
+ *
+ * The same seed always yields the same session, so runs can be compared.
+ */
+public class SyntheticSession {
+    /** Lines in the small document, about the size of the bundled examples. */
+    private static final int SMALL_LINES = 30;
+    /** Milliseconds between keystrokes. */
+    private static final int TYPING_INTERVAL = 60;
+    /** Milliseconds the user pauses after finishing a statement. */
+    private static final int STATEMENT_PAUSE = 400;
+    /** Chance that a keystroke is a typo, deleted by the next one. */
+    private static final double TYPO_RATE = 0.03;
+    /** Characters the server lists as completion triggers. */
+    private static final String TRIGGER_CHARACTERS = ".(=~ ";
+    /** Sites per taxon of the inline alignment. */
+    private static final int ALIGNMENT_SITES = 20_000;
+
+    private final Random random;
+    private final List<Session.Event> events = new ArrayList<>();
+    private final List<Document> documents = new ArrayList<>();
+    private long time;
+    private int nextId;
+    private int changes;
+
+    private SyntheticSession(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Generate a session.
+     *
+     * @param largeLines The number of lines of the large document
+     * @param edits The number of didChange notifications to send
+     * @param seed The random seed
+     * @return The session
+     */
+    public static Session generate(int largeLines, int edits, long seed) {
+        return generate(largeLines, 0, edits, seed);
+    }
+
+    /**
+     * Generate a session whose large document ends with an inline alignment.
+     *
+     * @param largeLines The number of lines of the large document, without the alignment
+     * @param dataBytes The approximate size of the alignment's sequences, or 0 for none
+     * @param edits The number of didChange notifications to send
+     * @param seed The random seed
+     * @return The session
+     */
+    public static Session generate(int largeLines, int dataBytes, int edits, long seed) {
+        SyntheticSession generator = new SyntheticSession(seed);
+        generator.run(largeLines, dataBytes, edits);
+        String data = dataBytes > 0 ? String.format(", %d bytes of data", dataBytes) : "";
+        return new Session(String.format("synthetic (%d lines%s, %d edits, seed %d)", largeLines, data, edits, seed),
+            generator.events);
+    }
+
+    private void run(int largeLines, int dataBytes, int edits) {
+        InitializeParams initialize = new InitializeParams();
+        initialize.setCapabilities(new ClientCapabilities());
+        request("initialize", initialize);
+        time += 20;
+        notify("initialized", new InitializedParams());
+
+        documents.add(new Document("file:///benchmark/small.mphy", SMALL_LINES, null));
+        documents.add(new Document("file:///benchmark/large.mphy", largeLines, alignment(dataBytes)));
+        for (Document document : documents) {
+            time += 50;
+            notify("textDocument/didOpen", new DidOpenTextDocumentParams(
+                new TextDocumentItem(document.uri, "modelphy", document.version, document.text)));
+        }
+
+        int statement = 0;
+        while (changes < edits) {
+            Document document = documents.get(random.nextInt(documents.size()));
+            typeStatement(document, statement++);
+        }
+
+        time += 1000;
+        for (Document document : documents) {
+            notify("textDocument/didClose", new DidCloseTextDocumentParams(new TextDocumentIdentifier(document.uri)));
+        }
+    }
+
+    /**
+     * Type a new statement on its own line somewhere in a document.
+     */
+    private void typeStatement(Document document, int index) {
+        int line = random.nextInt(document.lines + 1);
+        time += STATEMENT_PAUSE;
+        change(document, new Range(new Position(line, 0), new Position(line, 0)), "\n");
+        document.lines++;
+
+        String text = statement(index, random.nextInt(Math.max(1, document.blocks)));
+        for (int column = 0; column < text.length(); column++) {
+            if (random.nextDouble() < TYPO_RATE) {
+                time += TYPING_INTERVAL;
+                change(document, new Range(new Position(line, column), new Position(line, column)), "x");
+                time += TYPING_INTERVAL;
+                change(document, new Range(new Position(line, column), new Position(line, column + 1)), "");
+            }
+
+            char c = text.charAt(column);
+            time += TYPING_INTERVAL / 2 + random.nextInt(TYPING_INTERVAL);
+            change(document, new Range(new Position(line, column), new Position(line, column)), String.valueOf(c));
+            if (TRIGGER_CHARACTERS.indexOf(c) >= 0) {
+                CompletionParams completion = new CompletionParams(new TextDocumentIdentifier(document.uri),
+                    new Position(line, column + 1));
+                CompletionContext context = new CompletionContext(CompletionTriggerKind.TriggerCharacter);
+                context.setTriggerCharacter(String.valueOf(c));
+                completion.setContext(context);
+                request("textDocument/completion", completion);
+            }
+        }
+
+        // Look at the new statement's type, then at some other line
+        time += STATEMENT_PAUSE;
+        request("textDocument/hover", new HoverParams(new TextDocumentIdentifier(document.uri), new Position(line, 2)));
+        time += STATEMENT_PAUSE / 2;
+        request("textDocument/hover", new HoverParams(new TextDocumentIdentifier(document.uri),
+            new Position(random.nextInt(document.lines), 14)));
+    }
+
+    private void change(Document document, Range range, String text) {
+        document.version++;
+        changes++;
+        notify("textDocument/didChange", new DidChangeTextDocumentParams(
+            new VersionedTextDocumentIdentifier(document.uri, document.version),
+            Collections.singletonList(new TextDocumentContentChangeEvent(range, text))));
+    }
+
+    private void request(String method, Object params) {
+        RequestMessage message = new RequestMessage();
+        message.setJsonrpc("2.0");
+        message.setId(nextId++);
+        message.setMethod(method);
+        message.setParams(params);
+        add(message);
+    }
+
+    private void notify(String method, Object params) {
+        NotificationMessage message = new NotificationMessage();
+        message.setJsonrpc("2.0");
+        message.setMethod(method);
+        message.setParams(params);
+        add(message);
+    }
+
+    private void add(Message message) {
+        events.add(new Session.Event(time, message));
+    }
+
+    /**
+     * Get one of the statements typed during the session.
+     *
+     * @param index Makes the declared name unique
+     * @param block A block of the document whose variables the statement refers to
+     */
+    private static String statement(int index, int block) {
+        switch (index % 3) {
+            case 0:
+                return "PositiveReal rate" + index + " ~ Exponential(rate=10.0);";
+            case 1:
+                return "QMatrix model" + index + " = HKY(kappa=kappa" + block + ", baseFrequencies=freqs" + block + ");";
+            default:
+                return "Vector siteRates" + index + " = DiscreteGamma(shape=0.5, categories=4);";
+        }
+    }
+
+    /**
+     * Create an observe statement with sequences of random nucleotides.
+     *
+     * @param bytes The approximate total length of the sequences
+     * @return The statement, or null if bytes is 0
+     */
+    private String alignment(int bytes) {
+        if (bytes <= 0) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder("Alignment alignment;\nalignment observe [\n");
+        int taxa = Math.max(1, bytes / ALIGNMENT_SITES);
+        int sites = bytes / taxa;
+        for (int taxon = 0; taxon < taxa; taxon++) {
+            builder.append("  taxon").append(taxon).append(" = sequence(str=\"");
+            for (int site = 0; site < sites; site++) {
+                builder.append("ACGT".charAt(random.nextInt(4)));
+            }
+            builder.append(taxon + 1 < taxa ? "\"),\n" : "\")\n");
+        }
+        return builder.append("];\n").toString();
+    }
+
+    /**
+     * An open document and what the session has done to it so far.
+     */
+    private static final class Document {
+        private final String uri;
+        private final String text;
+        private final int blocks;
+        // Lines before the alignment, where statements are typed
+        private int lines;
+        private int version = 1;
+
+        /**
+         * @param alignment An observe statement to end the document with, or null
+         */
+        Document(String uri, int targetLines, String alignment) {
+            StringBuilder builder = new StringBuilder();
+            int block = 0;
+            int count = 0;
+            while (count < targetLines) {
+                builder.append("// Partition ").append(block).append('\n')
+                    .append("PositiveReal kappa").append(block).append(" ~ LogNormal(meanlog=1.0, sdlog=0.5);\n")
+                    .append("Simplex freqs").append(block).append(" ~ Dirichlet(alpha=[1.0, 1.0, 1.0, 1.0]);\n")
+                    .append("QMatrix q").append(block).append(" = HKY(kappa=kappa").append(block)
+                    .append(", baseFrequencies=freqs").append(block).append(");\n")
+                    .append("Vector rates").append(block).append(" = DiscreteGamma(shape=0.5, categories=4);\n")
+                    .append('\n');
+                block++;
+                count += 6;
+            }
+            if (alignment != null) {
+                builder.append(alignment);
+            }
+            this.uri = uri;
+            this.text = builder.toString();
+            this.blocks = block;
+            this.lines = count;
+        }
+    }
+}
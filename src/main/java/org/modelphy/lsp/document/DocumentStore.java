@@ -0,0 +1,63 @@
+package org.modelphy.lsp.document;
+
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe store of the documents open in the editor.
+ */
+public class DocumentStore {
+    private final ConcurrentHashMap<String, TextDocument> documents = new ConcurrentHashMap<>();
+
+    /**
+     * Open a document, replacing any previous document with the same URI.
+     *
+     * @return The initial snapshot
+     */
+    public TextDocument.Snapshot open(String uri, String text, int version) {
+        TextDocument document = new TextDocument(uri, text, version);
+        documents.put(uri, document);
+        return document.snapshot();
+    }
+
+    /**
+     * Apply changes to an open document.
+     *
+     * @return The new snapshot, or null if the document is not open
+     */
+    public TextDocument.Snapshot change(String uri, List<TextDocumentContentChangeEvent> changes, int version) {
+        TextDocument document = documents.get(uri);
+        return document != null ? document.apply(changes, version) : null;
+    }
+
+    /**
+     * Close a document.
+     */
+    public void close(String uri) {
+        documents.remove(uri);
+    }
+
+    /**
+     * Get the current snapshot of a document.
+     *
+     * @return The snapshot, or null if the document is not open
+     */
+    public TextDocument.Snapshot get(String uri) {
+        TextDocument document = documents.get(uri);
+        return document != null ? document.snapshot() : null;
+    }
+
+    /**
+     * Get the current snapshots of all open documents.
+     */
+    public List<TextDocument.Snapshot> snapshots() {
+        List<TextDocument.Snapshot> snapshots = new ArrayList<>();
+        for (TextDocument document : documents.values()) {
+            snapshots.add(document.snapshot());
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,391 @@
+package org.modelphy.lsp.document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable rope of text chunks with a line index.
+ *
+ * Every node records its length and the number of line breaks below it, so
+ * replacing a range and converting between offsets and line/character
+ * positions are O(log n) walks from the root. Ropes are persistent: an edit
+ * returns a new rope sharing all untouched chunks with the old one, which makes
+ * a rope safe to read from any thread while newer versions are being built.
+ *
+ * Offsets and characters are UTF-16 code units, as in Java strings and LSP positions.
+ */
+public abstract class Rope {
+    /** Target size of leaf chunks. */
+    static final int CHUNK_SIZE = 1024;
+    /** Leaves smaller than this are merged with their neighbours on concatenation. */
+    private static final int MERGE_SIZE = CHUNK_SIZE / 2;
+    /** Depth beyond which a rope is rebuilt as a balanced tree. */
+    private static final int MAX_DEPTH = 48;
+
+    private static final Rope EMPTY = new Leaf("");
+
+    /**
+     * Get the empty rope.
+     */
+    public static Rope empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Build a balanced rope from a string.
+     *
+     * @param text The text
+     * @return A rope containing the text
+     */
+    public static Rope of(String text) {
+        if (text.isEmpty()) {
+            return EMPTY;
+        }
+        List<Rope> leaves = new ArrayList<>(text.length() / CHUNK_SIZE + 1);
+        int start = 0;
+        while (start < text.length()) {
+            int end = Math.min(text.length(), start + CHUNK_SIZE);
+            // Never split a surrogate pair across leaves
+            if (end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+                end++;
+            }
+            leaves.add(new Leaf(text.substring(start, end)));
+            start = end;
+        }
+        return build(leaves, 0, leaves.size());
+    }
+
+    private static Rope build(List<Rope> leaves, int from, int to) {
+        if (to - from == 1) {
+            return leaves.get(from);
+        }
+        int mid = (from + to) >>> 1;
+        return new Node(build(leaves, from, mid), build(leaves, mid, to));
+    }
+
+    /**
+     * Get the number of UTF-16 code units in the rope.
+     */
+    public abstract int length();
+
+    /**
+     * Get the number of line breaks ('\n') in the rope.
+     */
+    public abstract int lineBreaks();
+
+    /**
+     * Get the number of lines, which is one more than the number of line breaks.
+     */
+    public int lineCount() {
+        return lineBreaks() + 1;
+    }
+
+    abstract int depth();
+
+    public abstract char charAt(int index);
+
+    /**
+     * Get the text between two offsets.
+     */
+    public String substring(int start, int end) {
+        checkRange(start, end);
+        StringBuilder sb = new StringBuilder(end - start);
+        appendTo(sb, start, end);
+        return sb.toString();
+    }
+
+    abstract void appendTo(StringBuilder sb, int start, int end);
+
+    abstract void collectLeaves(List<Rope> leaves);
+
+    /**
+     * Get the offset of the first character of a line.
+     *
+     * @param line A zero-based line number, clamped to the last line
+     * @return The offset of the line start
+     */
+    public int lineStart(int line) {
+        if (line <= 0) {
+            return 0;
+        }
+        if (line > lineBreaks()) {
+            line = lineBreaks();
+        }
+        // The line starts just after the line-th line break
+        return offsetAfterBreak(line);
+    }
+
+    /**
+     * Get the offset just after the n-th line break (1-based).
+     */
+    abstract int offsetAfterBreak(int n);
+
+    /**
+     * Get the number of line breaks before an offset.
+     */
+    abstract int breaksBefore(int offset);
+
+    /**
+     * Convert a line and character to an offset, clamping to the line's extent.
+     *
+     * @param line The zero-based line
+     * @param character The zero-based UTF-16 character within the line
+     * @return The offset
+     */
+    public int offsetAt(int line, int character) {
+        if (line > lineBreaks()) {
+            return length();
+        }
+        int start = lineStart(line);
+        int end = line < lineBreaks() ? lineStart(line + 1) - 1 : length();
+        return Math.min(start + Math.max(character, 0), end);
+    }
+
+    /**
+     * Get the zero-based line containing an offset.
+     */
+    public int lineAt(int offset) {
+        return breaksBefore(Math.max(0, Math.min(offset, length())));
+    }
+
+    /**
+     * Get the zero-based character of an offset within its line.
+     */
+    public int characterAt(int offset) {
+        offset = Math.max(0, Math.min(offset, length()));
+        return offset - lineStart(lineAt(offset));
+    }
+
+    /**
+     * Replace a range of text.
+     *
+     * @param start The start offset, inclusive
+     * @param end The end offset, exclusive
+     * @param text The replacement text
+     * @return The edited rope; this rope is unchanged
+     */
+    public Rope replace(int start, int end, String text) {
+        checkRange(start, end);
+        Rope left = slice(0, start);
+        Rope right = slice(end, length());
+        Rope result = concat(concat(left, of(text)), right);
+        return result.depth() > MAX_DEPTH ? result.rebalance() : result;
+    }
+
+    /**
+     * Get a rope holding a sub-range of this one, sharing whole chunks.
+     */
+    abstract Rope slice(int start, int end);
+
+    static Rope concat(Rope left, Rope right) {
+        if (left.length() == 0) {
+            return right;
+        }
+        if (right.length() == 0) {
+            return left;
+        }
+        if (left instanceof Leaf && right instanceof Leaf && left.length() + right.length() <= CHUNK_SIZE) {
+            return new Leaf(((Leaf) left).text + ((Leaf) right).text);
+        }
+        // Merge a small leaf into the adjacent small leaf of the other side
+        if (right instanceof Leaf && right.length() < MERGE_SIZE && left instanceof Node) {
+            Node node = (Node) left;
+            if (node.right instanceof Leaf && node.right.length() + right.length() <= CHUNK_SIZE) {
+                return new Node(node.left, new Leaf(((Leaf) node.right).text + ((Leaf) right).text));
+            }
+        }
+        if (left instanceof Leaf && left.length() < MERGE_SIZE && right instanceof Node) {
+            Node node = (Node) right;
+            if (node.left instanceof Leaf && node.left.length() + left.length() <= CHUNK_SIZE) {
+                return new Node(new Leaf(((Leaf) left).text + ((Leaf) node.left).text), node.right);
+            }
+        }
+        return new Node(left, right);
+    }
+
+    private Rope rebalance() {
+        List<Rope> leaves = new ArrayList<>();
+        collectLeaves(leaves);
+        return leaves.isEmpty() ? EMPTY : build(leaves, 0, leaves.size());
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") out of bounds for length " + length());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return substring(0, length());
+    }
+
+    /**
+     * A chunk of text.
+     */
+    private static final class Leaf extends Rope {
+        private final String text;
+        private final int lineBreaks;
+
+        Leaf(String text) {
+            this.text = text;
+            int count = 0;
+            for (int i = 0; i < text.length(); i++) {
+                if (text.charAt(i) == '\n') {
+                    count++;
+                }
+            }
+            this.lineBreaks = count;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public int lineBreaks() {
+            return lineBreaks;
+        }
+
+        @Override
+        int depth() {
+            return 0;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return text.charAt(index);
+        }
+
+        @Override
+        void appendTo(StringBuilder sb, int start, int end) {
+            sb.append(text, start, end);
+        }
+
+        @Override
+        void collectLeaves(List<Rope> leaves) {
+            if (!text.isEmpty()) {
+                leaves.add(this);
+            }
+        }
+
+        @Override
+        int offsetAfterBreak(int n) {
+            int index = -1;
+            for (int i = 0; i < n; i++) {
+                index = text.indexOf('\n', index + 1);
+            }
+            return index + 1;
+        }
+
+        @Override
+        int breaksBefore(int offset) {
+            int count = 0;
+            for (int i = 0; i < offset; i++) {
+                if (text.charAt(i) == '\n') {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        Rope slice(int start, int end) {
+            if (start == 0 && end == text.length()) {
+                return this;
+            }
+            return new Leaf(text.substring(start, end));
+        }
+    }
+
+    /**
+     * A concatenation of two ropes.
+     */
+    private static final class Node extends Rope {
+        private final Rope left;
+        private final Rope right;
+        private final int length;
+        private final int lineBreaks;
+        private final int depth;
+
+        Node(Rope left, Rope right) {
+            this.left = left;
+            this.right = right;
+            this.length = left.length() + right.length();
+            this.lineBreaks = left.lineBreaks() + right.lineBreaks();
+            this.depth = Math.max(left.depth(), right.depth()) + 1;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public int lineBreaks() {
+            return lineBreaks;
+        }
+
+        @Override
+        int depth() {
+            return depth;
+        }
+
+        @Override
+        public char charAt(int index) {
+            int leftLength = left.length();
+            return index < leftLength ? left.charAt(index) : right.charAt(index - leftLength);
+        }
+
+        @Override
+        void appendTo(StringBuilder sb, int start, int end) {
+            int leftLength = left.length();
+            if (start < leftLength) {
+                left.appendTo(sb, start, Math.min(end, leftLength));
+            }
+            if (end > leftLength) {
+                right.appendTo(sb, Math.max(start - leftLength, 0), end - leftLength);
+            }
+        }
+
+        @Override
+        void collectLeaves(List<Rope> leaves) {
+            left.collectLeaves(leaves);
+            right.collectLeaves(leaves);
+        }
+
+        @Override
+        int offsetAfterBreak(int n) {
+            int leftBreaks = left.lineBreaks();
+            if (n <= leftBreaks) {
+                return left.offsetAfterBreak(n);
+            }
+            return left.length() + right.offsetAfterBreak(n - leftBreaks);
+        }
+
+        @Override
+        int breaksBefore(int offset) {
+            int leftLength = left.length();
+            if (offset <= leftLength) {
+                return left.breaksBefore(offset);
+            }
+            return left.lineBreaks() + right.breaksBefore(offset - leftLength);
+        }
+
+        @Override
+        Rope slice(int start, int end) {
+            if (start == 0 && end == length) {
+                return this;
+            }
+            int leftLength = left.length();
+            if (end <= leftLength) {
+                return left.slice(start, end);
+            }
+            if (start >= leftLength) {
+                return right.slice(start - leftLength, end - leftLength);
+            }
+            return concat(left.slice(start, leftLength), right.slice(0, end - leftLength));
+        }
+    }
+}
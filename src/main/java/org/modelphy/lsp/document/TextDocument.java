@@ -0,0 +1,232 @@
+package org.modelphy.lsp.document;
+
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An open document backed by a {@link Rope}.
+ *
+ * Edits are serialised on the document, while readers take the current
+ * {@link Snapshot} without locking. Snapshots are immutable, so hover and
+ * completion can work on a consistent version while further edits are applied.
+ */
+public class TextDocument {
+    /** Number of versions whose edits are remembered for incremental analysis. */
+    private static final int MAX_HISTORY = 256;
+
+    private final String uri;
+    private volatile Snapshot snapshot;
+
+    /**
+     * Create a document with its initial content.
+     *
+     * @param uri The document URI
+     * @param text The initial text
+     * @param version The client's version number
+     */
+    public TextDocument(String uri, String text, int version) {
+        this.uri = uri;
+        this.snapshot = new Snapshot(uri, version, Rope.of(text), null);
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    /**
+     * Get the current immutable version of the document.
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Apply a batch of content changes from a didChange notification.
+     *
+     * Range changes are applied in order against the rope, each in O(log n);
+     * a change without a range replaces the whole content.
+     *
+     * @param changes The changes, in the order sent by the client
+     * @param version The document version after the changes
+     * @return The new snapshot
+     */
+    public synchronized Snapshot apply(List<TextDocumentContentChangeEvent> changes, int version) {
+        Snapshot previous = snapshot;
+        Rope rope = previous.getRope();
+        List<Edit> edits = new ArrayList<>(changes.size());
+        for (TextDocumentContentChangeEvent change : changes) {
+            if (change.getRange() == null) {
+                edits.add(new Edit(0, rope.length(), change.getText().length()));
+                rope = Rope.of(change.getText());
+            } else {
+                Range range = change.getRange();
+                int start = rope.offsetAt(range.getStart().getLine(), range.getStart().getCharacter());
+                int end = Math.max(start, rope.offsetAt(range.getEnd().getLine(), range.getEnd().getCharacter()));
+                edits.add(new Edit(start, end, change.getText().length()));
+                rope = rope.replace(start, end, change.getText());
+            }
+        }
+        snapshot = new Snapshot(uri, version, rope, new History(previous.version, edits, previous.history));
+        return snapshot;
+    }
+
+    /**
+     * A replacement of the range [start, end) of the previous text by newLength characters.
+     */
+    public static final class Edit {
+        private final int start;
+        private final int end;
+        private final int newLength;
+
+        Edit(int start, int end, int newLength) {
+            this.start = start;
+            this.end = end;
+            this.newLength = newLength;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public int getNewLength() {
+            return newLength;
+        }
+
+        /**
+         * Get the change in document length caused by this edit.
+         */
+        public int getDelta() {
+            return newLength - (end - start);
+        }
+    }
+
+    /**
+     * The edits that produced a version, linked to those of earlier versions.
+     * Only offsets are kept, so the history is small even for large documents.
+     */
+    private static final class History {
+        private final int fromVersion;
+        private final List<Edit> edits;
+        private final History previous;
+        private final int depth;
+
+        History(int fromVersion, List<Edit> edits, History previous) {
+            this.fromVersion = fromVersion;
+            this.edits = edits;
+            // Cut the chain once it is long enough that a full reparse is cheaper
+            if (previous != null && previous.depth < MAX_HISTORY) {
+                this.previous = previous;
+                this.depth = previous.depth + 1;
+            } else {
+                this.previous = null;
+                this.depth = 1;
+            }
+        }
+    }
+
+    /**
+     * An immutable version of a document.
+     */
+    public static final class Snapshot {
+        private final String uri;
+        private final int version;
+        private final Rope rope;
+        private final History history;
+        private volatile String text;
+
+        Snapshot(String uri, int version, Rope rope, History history) {
+            this.uri = uri;
+            this.version = version;
+            this.rope = rope;
+            this.history = history;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public Rope getRope() {
+            return rope;
+        }
+
+        /**
+         * Get the edits that turn an earlier version of the document into this one.
+         *
+         * @param version The earlier version
+         * @return The edits in the order they were applied, or null if that version is no longer remembered
+         */
+        public List<Edit> editsSince(int version) {
+            if (version == this.version) {
+                return Collections.emptyList();
+            }
+            List<History> steps = new ArrayList<>();
+            for (History h = history; h != null; h = h.previous) {
+                steps.add(h);
+                if (h.fromVersion == version) {
+                    List<Edit> edits = new ArrayList<>();
+                    for (int i = steps.size() - 1; i >= 0; i--) {
+                        edits.addAll(steps.get(i).edits);
+                    }
+                    return edits;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Get the full text, flattening the rope on first use.
+         */
+        public String getText() {
+            String result = text;
+            if (result == null) {
+                result = rope.toString();
+                text = result;
+            }
+            return result;
+        }
+
+        public int length() {
+            return rope.length();
+        }
+
+        /**
+         * Convert an LSP position to an offset.
+         */
+        public int offsetAt(Position position) {
+            return rope.offsetAt(position.getLine(), position.getCharacter());
+        }
+
+        /**
+         * Convert an offset to an LSP position.
+         */
+        public Position positionAt(int offset) {
+            int line = rope.lineAt(offset);
+            return new Position(line, Math.max(0, Math.min(offset, rope.length())) - rope.lineStart(line));
+        }
+
+        /**
+         * Get the text of a single line, without its line break.
+         */
+        public String getLine(int line) {
+            if (line < 0 || line > rope.lineBreaks()) {
+                return "";
+            }
+            int start = rope.lineStart(line);
+            int end = line < rope.lineBreaks() ? rope.lineStart(line + 1) - 1 : rope.length();
+            return rope.substring(start, end);
+        }
+    }
+}
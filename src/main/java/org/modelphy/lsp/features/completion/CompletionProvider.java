@@ -1,20 +1,51 @@
 package org.modelphy.lsp.features.completion;
 
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
 import org.eclipse.lsp4j.CompletionItem;
 import org.eclipse.lsp4j.CompletionItemKind;
+import org.eclipse.lsp4j.CompletionList;
 import org.eclipse.lsp4j.InsertTextFormat;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.antlr.ModelPhyLexer;
+import org.modelphy.antlr.ModelPhyParser;
+import org.modelphy.lsp.analysis.DocumentAnalysis;
+import org.modelphy.lsp.analysis.PrefixTrie;
+import org.modelphy.lsp.analysis.SymbolTable;
 
 import java.util.*;
+import java.util.function.Function;
 
 public class CompletionProvider {
+    // At most this many items are returned; the list is marked incomplete so the client asks again as the user types
+    private static final int MAX_ITEMS = 100;
+    
     // Predefined collections of completions
     private final List<CompletionItem> typeCompletions = new ArrayList<>();
     private final List<CompletionItem> distributionCompletions = new ArrayList<>();
     private final List<CompletionItem> functionCompletions = new ArrayList<>();
     private final List<CompletionItem> keywordCompletions = new ArrayList<>();
     
+    // The same collections indexed by label
+    private final PrefixTrie<CompletionItem> typeIndex;
+    private final PrefixTrie<CompletionItem> distributionIndex;
+    private final PrefixTrie<CompletionItem> functionIndex;
+    private final PrefixTrie<CompletionItem> keywordIndex;
+    
     public CompletionProvider() {
         initializeCompletions();
+        typeIndex = index(typeCompletions);
+        distributionIndex = index(distributionCompletions);
+        functionIndex = index(functionCompletions);
+        keywordIndex = index(keywordCompletions);
+    }
+    
+    private static PrefixTrie<CompletionItem> index(List<CompletionItem> items) {
+        PrefixTrie<CompletionItem> index = new PrefixTrie<>();
+        for (CompletionItem item : items) {
+            index.add(item.getLabel(), item);
+        }
+        return index;
     }
     
     private void initializeCompletions() {
@@ -96,99 +127,137 @@ public class CompletionProvider {
         keywordCompletions.add(item);
     }
     
-    public List<CompletionItem> provideCompletions(String content, int line, int character) {
-        System.out.println("Completion requested at line " + line + ", character " + character);
-        
+    /**
+     * Get the completions at a position.
+     *
+     * @param cancelChecker Checked while the document's symbols are read
+     */
+    public CompletionList provideCompletions(DocumentAnalysis analysis, int line, int character,
+                                             CancelChecker cancelChecker) {
         // Determine context based on the document content
-        CompletionContext context = determineContext(content, line, character);
+        CompletionContext context = determineContext(analysis, line, character);
         
-        List<CompletionItem> result = new ArrayList<>();
+        List<PrefixTrie<CompletionItem>> catalogue = new ArrayList<>();
+        boolean variables = false;
         
         switch (context.getType()) {
             case TYPE_DECLARATION:
-                result.addAll(typeCompletions);
+                catalogue.add(typeIndex);
                 break;
                 
             case DISTRIBUTION:
-                result.addAll(distributionCompletions);
+                catalogue.add(distributionIndex);
                 break;
                 
             case FUNCTION_CALL:
-                result.addAll(functionCompletions);
+                catalogue.add(functionIndex);
                 break;
                 
             case KEYWORD:
-                result.addAll(keywordCompletions);
+                catalogue.add(keywordIndex);
                 break;
                 
             case VARIABLE_REFERENCE:
-                result.addAll(context.getVariables());
+                variables = true;
                 break;
                 
             default:
-                // Add all possible completions for general context
-                result.addAll(typeCompletions);
-                result.addAll(distributionCompletions);
-                result.addAll(functionCompletions);
-                result.addAll(keywordCompletions);
-                result.addAll(context.getVariables());
+                // Offer all possible completions for general context
+                catalogue.add(typeIndex);
+                catalogue.add(distributionIndex);
+                catalogue.add(functionIndex);
+                catalogue.add(keywordIndex);
+                variables = true;
                 break;
         }
         
-        System.out.println("Returning " + result.size() + " completion items");
-        return result;
+        String prefix = context.getPrefix();
+        // Only contexts that offer variables read the document's symbols
+        PrefixTrie<SymbolTable.Symbol> symbols = variables
+            ? analysis.getAvailableSymbols(cancelChecker).getNameIndex() : null;
+        Ranking ranking = new Ranking(prefix, MAX_ITEMS);
+        
+        // Labels starting with the prefix first, shortest first, until no longer label can make the cut
+        for (PrefixTrie<CompletionItem> index : catalogue) {
+            index.visitWithPrefix(prefix, (label, item) -> ranking.offer(label, item, CompletionProvider::copyOf));
+        }
+        if (symbols != null) {
+            symbols.visitWithPrefix(prefix, (label, symbol) -> ranking.offer(label, symbol, CompletionProvider::variableItem));
+        }
+        
+        // Then scattered matches such as "bF" for "baseFrequencies", while there is still room for them
+        if (prefix.length() > 1 && !ranking.isIncomplete()) {
+            String first = prefix.substring(0, 1);
+            for (PrefixTrie<CompletionItem> index : catalogue) {
+                index.visitWithPrefix(first, (label, item) -> ranking.offerScattered(label, item, CompletionProvider::copyOf));
+            }
+            if (symbols != null) {
+                symbols.visitWithPrefix(first, (label, symbol) -> ranking.offerScattered(label, symbol, CompletionProvider::variableItem));
+            }
+        }
+        
+        return new CompletionList(ranking.isIncomplete(), ranking.getItems());
     }
     
-    private CompletionContext determineContext(String content, int line, int character) {
-        // For now, just a very basic context determination
-        String[] lines = content.split("\n");
-        
+    private CompletionContext determineContext(DocumentAnalysis analysis, int line, int character) {
         // Make sure the line is valid
-        if (line >= lines.length) {
-            return new CompletionContext(ContextType.GENERAL, new ArrayList<>());
+        if (line > analysis.getSnapshot().getRope().lineBreaks()) {
+            return new CompletionContext(ContextType.GENERAL, "");
         }
         
-        String currentLine = lines[line].substring(0, Math.min(character, lines[line].length()));
-        List<CompletionItem> variables = extractVariables(content);
-        
-        // Simple context detection
-        if (currentLine.trim().endsWith("~")) {
-            return new CompletionContext(ContextType.DISTRIBUTION, variables);
-        } else if (currentLine.contains("=") && !currentLine.contains(";")) {
-            if (currentLine.indexOf("=") == currentLine.length() - 1) {
-                return new CompletionContext(ContextType.FUNCTION_CALL, variables);
+        // The word being typed up to the cursor is the prefix; the context comes from the token before it
+        int offset = analysis.getSnapshot().getRope().offsetAt(line, character);
+        String prefix = "";
+        Token previous = analysis.tokenBefore(offset);
+        if (previous != null && previous.getStopIndex() + 1 == offset && isWord(previous)) {
+            prefix = previous.getText();
+            previous = analysis.tokenBefore(previous.getStartIndex());
+        } else {
+            Token current = analysis.tokenAt(offset);
+            if (current != null && current.getStartIndex() < offset && isWord(current)) {
+                prefix = current.getText().substring(0, offset - current.getStartIndex());
+                previous = analysis.tokenBefore(current.getStartIndex());
             }
-        } else if (currentLine.trim().isEmpty() || currentLine.trim().endsWith(";")) {
-            return new CompletionContext(ContextType.TYPE_DECLARATION, variables);
-        }
-        
-        return new CompletionContext(ContextType.GENERAL, variables);
-    }
-    
-    private List<CompletionItem> extractVariables(String content) {
-        // This is a placeholder - in a real implementation, you'd parse the document
-        // to extract variable names and types
-        List<CompletionItem> variables = new ArrayList<>();
-        
-        // Basic regex to find variable declarations
-        String[] lines = content.split("\n");
-        for (String line : lines) {
-            line = line.trim();
-            if (line.contains("=") && line.endsWith(";")) {
-                String[] parts = line.split("=")[0].trim().split("\\s+");
-                if (parts.length >= 2) {
-                    String varType = parts[0];
-                    String varName = parts[1];
-                    
-                    CompletionItem item = new CompletionItem(varName);
-                    item.setKind(CompletionItemKind.Variable);
-                    item.setDetail(varType);
-                    variables.add(item);
-                }
+        }
+        
+        if (previous == null || previous.getType() == ModelPhyLexer.SEMICOLON) {
+            return new CompletionContext(ContextType.TYPE_DECLARATION, prefix);
+        } else if (previous.getType() == ModelPhyLexer.TILDE) {
+            return new CompletionContext(ContextType.DISTRIBUTION, prefix);
+        } else if (previous.getType() == ModelPhyLexer.EQUALS) {
+            // Argument values are usually variables; a statement's right-hand side is usually a function
+            ParserRuleContext node = analysis.nodeAt(previous.getStartIndex());
+            if (node instanceof ModelPhyParser.NamedArgumentContext || node instanceof ModelPhyParser.KeyValueContext) {
+                return new CompletionContext(ContextType.VARIABLE_REFERENCE, prefix);
             }
+            return new CompletionContext(ContextType.FUNCTION_CALL, prefix);
         }
         
-        return variables;
+        return new CompletionContext(ContextType.GENERAL, prefix);
+    }
+    
+    private static boolean isWord(Token token) {
+        String text = token.getText();
+        return !text.isEmpty() && Character.isJavaIdentifierStart(text.charAt(0));
+    }
+    
+    private static CompletionItem variableItem(SymbolTable.Symbol symbol) {
+        // Variables come from the document's cached symbol table
+        CompletionItem item = new CompletionItem(symbol.getName());
+        item.setKind(CompletionItemKind.Variable);
+        item.setDetail(symbol.getType());
+        return item;
+    }
+    
+    private static CompletionItem copyOf(CompletionItem item) {
+        // Catalogue items are shared, so ranked results are copies
+        CompletionItem copy = new CompletionItem(item.getLabel());
+        copy.setKind(item.getKind());
+        copy.setDetail(item.getDetail());
+        copy.setDocumentation(item.getDocumentation());
+        copy.setInsertText(item.getInsertText());
+        copy.setInsertTextFormat(item.getInsertTextFormat());
+        return copy;
     }
     
     // Helper enum and class for completion context
@@ -198,19 +267,120 @@ public class CompletionProvider {
     
     private static class CompletionContext {
         private final ContextType type;
-        private final List<CompletionItem> variables;
+        private final String prefix;
         
-        public CompletionContext(ContextType type, List<CompletionItem> variables) {
+        public CompletionContext(ContextType type, String prefix) {
             this.type = type;
-            this.variables = variables;
+            this.prefix = prefix;
         }
         
         public ContextType getType() {
             return type;
         }
         
-        public List<CompletionItem> getVariables() {
-            return variables;
+        public String getPrefix() {
+            return prefix;
+        }
+    }
+    
+    /**
+     * Keeps the best-scoring matches in a bounded heap. Items are only
+     * created for the matches that are returned.
+     */
+    private static class Ranking {
+        // Worst candidate first; on equal scores, whichever was offered first wins
+        private static final Comparator<Candidate> WORST_FIRST = (a, b) -> a.score != b.score
+            ? Integer.compare(a.score, b.score) : Integer.compare(b.sequence, a.sequence);
+        
+        private final String prefix;
+        private final int limit;
+        private final PriorityQueue<Candidate> best;
+        private int sequence;
+        private boolean incomplete;
+        
+        Ranking(String prefix, int limit) {
+            this.prefix = prefix;
+            this.limit = limit;
+            this.best = new PriorityQueue<>(limit + 1, WORST_FIRST);
+        }
+        
+        /**
+         * Offer a label that starts with the prefix. Labels must be offered
+         * shortest first.
+         *
+         * @return False once no longer label can displace the current matches
+         */
+        <T> boolean offer(String label, T value, Function<T, CompletionItem> toItem) {
+            add(FuzzyMatcher.score(prefix, label), value, toItem);
+            if (best.size() == limit && best.peek().score >= FuzzyMatcher.bestPrefixScore(prefix, label.length())) {
+                // Anything left is no better; the client asks again as the user types
+                incomplete = true;
+                return false;
+            }
+            return true;
+        }
+        
+        /**
+         * Offer a label that was not already offered as a prefix match.
+         *
+         * @return Always true; scattered matches are not offered in score order
+         */
+        <T> boolean offerScattered(String label, T value, Function<T, CompletionItem> toItem) {
+            if (!label.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                add(FuzzyMatcher.score(prefix, label), value, toItem);
+            }
+            return true;
+        }
+        
+        private <T> void add(int score, T value, Function<T, CompletionItem> toItem) {
+            if (score == FuzzyMatcher.NO_MATCH) {
+                return;
+            }
+            if (best.size() == limit) {
+                incomplete = true;
+                if (score <= best.peek().score) {
+                    return;
+                }
+                best.poll();
+            }
+            best.add(new Candidate(score, sequence++, value, toItem));
+        }
+        
+        boolean isIncomplete() {
+            return incomplete;
+        }
+        
+        List<CompletionItem> getItems() {
+            List<Candidate> ranked = new ArrayList<>(best);
+            ranked.sort(WORST_FIRST.reversed());
+            
+            // Sort text keeps the ranking in clients that would otherwise sort by label
+            List<CompletionItem> items = new ArrayList<>(ranked.size());
+            for (int i = 0; i < ranked.size(); i++) {
+                CompletionItem item = ranked.get(i).toItem();
+                item.setSortText(String.format("%04d", i));
+                items.add(item);
+            }
+            return items;
+        }
+    }
+    
+    private static class Candidate {
+        private final int score;
+        private final int sequence;
+        private final Object value;
+        private final Function<Object, CompletionItem> toItem;
+        
+        @SuppressWarnings("unchecked")
+        <T> Candidate(int score, int sequence, T value, Function<T, CompletionItem> toItem) {
+            this.score = score;
+            this.sequence = sequence;
+            this.value = value;
+            this.toItem = (Function<Object, CompletionItem>) toItem;
+        }
+        
+        CompletionItem toItem() {
+            return toItem.apply(value);
         }
     }
 }
\ No newline at end of file
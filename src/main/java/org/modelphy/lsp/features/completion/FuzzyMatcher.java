@@ -0,0 +1,84 @@
+package org.modelphy.lsp.features.completion;
+
+/**
+ * Scores how well a typed pattern matches a completion label.
+ *
+ * The pattern matches if its characters appear in order in the label,
+ * ignoring case, starting with the label's first character. Prefix matches
+ * rank above scattered ones; matches at word boundaries ("bF" in
+ * "baseFrequencies", "r" in "birth_rate"), consecutive runs and matching
+ * case add to the score, and longer labels rank lower.
+ */
+final class FuzzyMatcher {
+    /** Returned when the pattern does not match. */
+    static final int NO_MATCH = Integer.MIN_VALUE;
+
+    private FuzzyMatcher() {
+    }
+
+    /**
+     * Score a label against a pattern.
+     *
+     * @param pattern The typed text; an empty pattern matches everything with score 0
+     * @param label The candidate label
+     * @return The score, higher is better, or {@link #NO_MATCH}
+     */
+    static int score(String pattern, String label) {
+        if (pattern.isEmpty()) {
+            return 0;
+        }
+        if (pattern.length() > label.length()
+                || Character.toLowerCase(pattern.charAt(0)) != Character.toLowerCase(label.charAt(0))) {
+            return NO_MATCH;
+        }
+
+        int score = 0;
+        int previous = -2;
+        int p = 0;
+        for (int i = 0; i < label.length() && p < pattern.length(); i++) {
+            char c = label.charAt(i);
+            char wanted = pattern.charAt(p);
+            if (Character.toLowerCase(c) != Character.toLowerCase(wanted)) {
+                continue;
+            }
+
+            score += 1;
+            if (c == wanted) {
+                score += 1;
+            }
+            if (i == previous + 1) {
+                score += 5;
+            }
+            if (i == 0 || isBoundary(label, i)) {
+                score += 8;
+            }
+            previous = i;
+            p++;
+        }
+        if (p < pattern.length()) {
+            return NO_MATCH;
+        }
+
+        if (label.regionMatches(true, 0, pattern, 0, pattern.length())) {
+            score += 50;
+            if (label.startsWith(pattern)) {
+                score += 10;
+            }
+        }
+        return score - (label.length() - pattern.length());
+    }
+
+    /**
+     * Get the highest score any label of a given length that starts with the
+     * pattern can have. Scores of prefix matches only fall as labels get longer.
+     */
+    static int bestPrefixScore(String pattern, int length) {
+        return pattern.isEmpty() ? 0 : score(pattern, pattern) - (length - pattern.length());
+    }
+
+    private static boolean isBoundary(String label, int index) {
+        char before = label.charAt(index - 1);
+        char c = label.charAt(index);
+        return before == '_' || before == '.' || (Character.isLowerCase(before) && Character.isUpperCase(c));
+    }
+}
@@ -1,97 +1,75 @@
 package org.modelphy.lsp.features.diagnostics;
 
-import org.antlr.v4.runtime.*;
-import org.antlr.v4.runtime.tree.ParseTree;
 import org.eclipse.lsp4j.Diagnostic;
 import org.eclipse.lsp4j.DiagnosticSeverity;
 import org.eclipse.lsp4j.Position;
 import org.eclipse.lsp4j.Range;
-import org.modelphy.antlr.ModelPhyLexer;
-import org.modelphy.antlr.ModelPhyParser;
-import org.modelphy.model.ModelPhyModel;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.lsp.analysis.CancellationListener;
+import org.modelphy.model.SourceRange;
 import org.modelphy.parser.ModelPhyParserWrapper;
+import org.modelphy.parser.ParseProblem;
+import org.modelphy.parser.ParseResult;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class DiagnosticProvider {
+    private static final CancelChecker NEVER_CANCELLED = () -> { };
+
     public List<Diagnostic> provideDiagnostics(String content) {
+        return provideDiagnostics(content, NEVER_CANCELLED);
+    }
+
+    /**
+     * Compute diagnostics, checking for cancellation as the parse proceeds.
+     *
+     * @param content The document text
+     * @param cancelChecker Checked at every parser rule; throws CancellationException once cancelled
+     * @return The diagnostics
+     */
+    public List<Diagnostic> provideDiagnostics(String content, CancelChecker cancelChecker) {
+        ParseResult result = new ModelPhyParserWrapper()
+            .parseDocument(content, new CancellationListener(cancelChecker));
+        cancelChecker.checkCanceled();
+        return provideDiagnostics(result);
+    }
+
+    /**
+     * Compute diagnostics from an existing parse of the document.
+     *
+     * Syntax and semantic errors both come from the one parse. Semantic errors
+     * are only reported for syntactically valid documents, since a broken
+     * statement would otherwise be reported twice.
+     *
+     * @param result The parse result
+     * @return The diagnostics
+     */
+    public List<Diagnostic> provideDiagnostics(ParseResult result) {
         List<Diagnostic> diagnostics = new ArrayList<>();
-        
-        // First: collect syntax errors
-        collectSyntaxErrors(content, diagnostics);
-        
-        // Second: collect semantic errors
+
+        // First: syntax errors
+        for (ParseProblem problem : result.getSyntaxErrors()) {
+            String prefix = problem.getKind() == ParseProblem.Kind.LEXER ? "Lexer error: " : "Syntax error: ";
+            diagnostics.add(createDiagnostic(problem.getRange(), prefix + problem.getMessage(), DiagnosticSeverity.Error));
+        }
+
+        // Second: semantic errors
         if (diagnostics.isEmpty()) {
-            collectSemanticErrors(content, diagnostics);
+            for (ParseProblem problem : result.getSemanticErrors()) {
+                diagnostics.add(createDiagnostic(problem.getRange(), problem.getMessage(), DiagnosticSeverity.Error));
+            }
         }
-        
+
         return diagnostics;
     }
-    
-    private void collectSyntaxErrors(String content, List<Diagnostic> diagnostics) {
-        CharStream input = CharStreams.fromString(content);
-        ModelPhyLexer lexer = new ModelPhyLexer(input);
-        
-        // Collect lexer errors
-        BaseErrorListener lexerErrorListener = new BaseErrorListener() {
-            @Override
-            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, 
-                                   int line, int charPositionInLine, String msg, RecognitionException e) {
-                Diagnostic diagnostic = createDiagnostic(
-                    line - 1, charPositionInLine, line - 1, charPositionInLine + 1,
-                    "Lexer error: " + msg, DiagnosticSeverity.Error
-                );
-                diagnostics.add(diagnostic);
-            }
-        };
-        lexer.removeErrorListeners();
-        lexer.addErrorListener(lexerErrorListener);
-        
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        ModelPhyParser parser = new ModelPhyParser(tokens);
-        
-        // Collect parser errors
-        BaseErrorListener parserErrorListener = new BaseErrorListener() {
-            @Override
-            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, 
-                                   int line, int charPositionInLine, String msg, RecognitionException e) {
-                Diagnostic diagnostic = createDiagnostic(
-                    line - 1, charPositionInLine, line - 1, charPositionInLine + 1,
-                    "Syntax error: " + msg, DiagnosticSeverity.Error
-                );
-                diagnostics.add(diagnostic);
-            }
-        };
-        parser.removeErrorListeners();
-        parser.addErrorListener(parserErrorListener);
-        
-        // Parse the content to trigger any syntax errors
-        parser.program();
+
+    private Diagnostic createDiagnostic(SourceRange range, String message, DiagnosticSeverity severity) {
+        return createDiagnostic(range.getStartLine(), range.getStartColumn(),
+            range.getEndLine(), range.getEndColumn(), message, severity);
     }
-    
-    private void collectSemanticErrors(String content, List<Diagnostic> diagnostics) {
-        // This is a placeholder for future semantic validation
-        // For now, we'll do minimal validation to get things working
-        try {
-            // Basic model parsing - just to check if it's valid
-            ModelPhyModel model = ModelPhyParserWrapper.parseModel(content);
-            
-            // In the future, we'll add proper semantic validation here
-            // For example, checking for undefined variables, type mismatches, etc.
-            
-        } catch (Exception e) {
-            // If parsing fails, report it as a diagnostic
-            Diagnostic diagnostic = createDiagnostic(
-                0, 0, 0, 1,
-                "Error validating model: " + e.getMessage(), 
-                DiagnosticSeverity.Error
-            );
-            diagnostics.add(diagnostic);
-        }
-    }    
-    
-    private Diagnostic createDiagnostic(int startLine, int startChar, int endLine, int endChar, 
+
+    private Diagnostic createDiagnostic(int startLine, int startChar, int endLine, int endChar,
                                        String message, DiagnosticSeverity severity) {
         Range range = new Range(
             new Position(startLine, startChar),
@@ -101,4 +79,4 @@ public class DiagnosticProvider {
         diagnostic.setSeverity(severity);
         return diagnostic;
     }
-}
\ No newline at end of file
+}
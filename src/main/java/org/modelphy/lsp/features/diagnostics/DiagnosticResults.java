@@ -0,0 +1,184 @@
+package org.modelphy.lsp.features.diagnostics;
+
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.lsp.analysis.DocumentAnalysis;
+import org.modelphy.lsp.workspace.IndexCache;
+import org.modelphy.lsp.workspace.IndexedFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The recent diagnostics computed for each document, for pull diagnostics.
+ *
+ * A result is identified by a SHA-256 hash of the text it was computed
+ * from: for a file on disk the hash the workspace index keeps, for an open
+ * document its analysis's content hash (see
+ * {@link DocumentAnalysis#getContentHash}), which hashes large inline data
+ * only when it is lexed. A client that sends back the identifier of its last
+ * result is told it is unchanged without the model being built. The last few
+ * results of each document are kept by hash, so a document whose recent edits
+ * were undone gets its earlier diagnostics back. Each analysis hashes its
+ * text only once, so checking the hash of a version already diagnosed is
+ * cheap.
+ */
+public class DiagnosticResults {
+
+    /**
+     * Diagnostics of one document text.
+     */
+    public static final class Result {
+        private final String resultId;
+        private final Integer version;
+        private final List<Diagnostic> diagnostics;
+
+        Result(String resultId, Integer version, List<Diagnostic> diagnostics) {
+            this.resultId = resultId;
+            this.version = version;
+            this.diagnostics = Collections.unmodifiableList(diagnostics);
+        }
+
+        /**
+         * Get the identifier sent to the client: the hash of the text.
+         */
+        public String getResultId() {
+            return resultId;
+        }
+
+        /**
+         * Get the version of the open document the result is for, or null for a file on disk.
+         */
+        public Integer getVersion() {
+            return version;
+        }
+
+        public List<Diagnostic> getDiagnostics() {
+            return diagnostics;
+        }
+
+        /**
+         * Check whether the client already has this result.
+         */
+        public boolean isUnchanged(String previousResultId) {
+            return resultId.equals(previousResultId);
+        }
+
+        Result withVersion(Integer version) {
+            return new Result(resultId, version, diagnostics);
+        }
+    }
+
+    /**
+     * The results of one document, most recently used last.
+     */
+    private static final class History {
+        private Result latest;
+        private final LinkedHashMap<String, Result> byHash = new LinkedHashMap<>(8, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Result> eldest) {
+                return size() > HISTORY_SIZE;
+            }
+        };
+
+        synchronized Result latest() {
+            return latest;
+        }
+
+        synchronized Result find(String hash) {
+            return byHash.get(hash);
+        }
+
+        synchronized void add(Result result) {
+            latest = result;
+            byHash.put(result.getResultId(), result);
+        }
+    }
+
+    /** How many distinct texts of a document keep their diagnostics. */
+    private static final int HISTORY_SIZE = 4;
+
+    private final DiagnosticProvider diagnosticProvider;
+    private final ConcurrentHashMap<String, History> results = new ConcurrentHashMap<>();
+
+    public DiagnosticResults(DiagnosticProvider diagnosticProvider) {
+        this.diagnosticProvider = diagnosticProvider;
+    }
+
+    /**
+     * Get the diagnostics of an open document version.
+     *
+     * @param analysis The analysis of the version; its model is built only if its text has not been diagnosed before
+     * @param cancelChecker Checked while the model is built
+     */
+    public Result document(DocumentAnalysis analysis, CancelChecker cancelChecker) {
+        History history = results.computeIfAbsent(analysis.getUri(), uri -> new History());
+        Result cached = history.latest();
+        Integer version = analysis.getVersion();
+        String hash = analysis.getContentHash();
+        // A document reopened with the same version may hold different text
+        if (cached != null && version.equals(cached.getVersion()) && cached.getResultId().equals(hash)) {
+            return cached;
+        }
+
+        Result earlier = history.find(hash);
+        Result result;
+        if (earlier != null) {
+            result = earlier.withVersion(version);
+        } else {
+            cancelChecker.checkCanceled();
+            result = new Result(hash, version,
+                diagnosticProvider.provideDiagnostics(analysis.getParseResult(cancelChecker)));
+        }
+        history.add(result);
+        return result;
+    }
+
+    /**
+     * Get the diagnostics of a file that is not open, reading it only if its
+     * indexed hash has not been diagnosed before.
+     *
+     * @param file The file's entry in the workspace index
+     * @param cancelChecker Checked while parsing
+     * @return The result, or null if the file no longer exists
+     */
+    public Result file(IndexedFile file, CancelChecker cancelChecker) throws IOException {
+        History history = results.computeIfAbsent(file.getUri(), uri -> new History());
+        Result earlier = history.find(file.getHash());
+        if (earlier != null) {
+            Result result = earlier.getVersion() == null ? earlier : earlier.withVersion(null);
+            history.add(result);
+            return result;
+        }
+
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.getPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        // The file may have changed since it was indexed; the result is for what was read
+        String hash = IndexCache.sha256(bytes);
+        Result result = new Result(hash, null, diagnosticProvider.provideDiagnostics(
+            new String(bytes, StandardCharsets.UTF_8), cancelChecker));
+        history.add(result);
+        return result;
+    }
+
+    /**
+     * Drop results for documents that are neither open nor in the workspace any more.
+     *
+     * @param uris The documents to keep
+     */
+    public void retain(Set<String> uris) {
+        results.keySet().retainAll(uris);
+    }
+}
@@ -0,0 +1,235 @@
+package org.modelphy.lsp.features.diagnostics;
+
+import org.eclipse.lsp4j.Diagnostic;
+import org.eclipse.lsp4j.PublishDiagnosticsParams;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.lsp.document.TextDocument;
+import org.modelphy.lsp.scheduling.RequestScheduler;
+import org.modelphy.lsp.telemetry.ServerLog;
+import org.modelphy.lsp.telemetry.ServerStats;
+import org.modelphy.parser.ParseResult;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Runs diagnostics off the LSP message thread.
+ *
+ * Requests are coalesced per URI: scheduling a document cancels its pending
+ * run and any run still in progress, then starts a new one after the debounce
+ * delay. Once the delay is over the run is handed to the
+ * {@link RequestScheduler} as background work for the document, so it never
+ * holds up interactive requests. Cancellation is cooperative and reaches into the ANTLR parse through
+ * the run's {@link CancelChecker}; only the statements touched since the
+ * last run are re-parsed. Results are only published if the document
+ * is still at the version that was diagnosed.
+ */
+public class DiagnosticsScheduler {
+
+    /**
+     * Parses a document version for diagnostics.
+     */
+    @FunctionalInterface
+    public interface Parser {
+        /**
+         * @param snapshot The document version
+         * @param cancelChecker Checked while parsing; throws CancellationException once cancelled
+         * @return The parse result
+         */
+        ParseResult parse(TextDocument.Snapshot snapshot, CancelChecker cancelChecker);
+    }
+
+    private final DiagnosticProvider diagnosticProvider;
+    private final Parser parser;
+    private final Function<String, TextDocument.Snapshot> currentSnapshot;
+    private final Consumer<PublishDiagnosticsParams> publisher;
+    private final RequestScheduler scheduler;
+    private final ServerStats stats;
+    private final ServerLog log;
+    private final ScheduledThreadPoolExecutor timer;
+    private final ConcurrentHashMap<String, Run> runs = new ConcurrentHashMap<>();
+    private volatile long debounceMillis;
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param diagnosticProvider The provider that computes diagnostics
+     * @param parser Parses a document version
+     * @param currentSnapshot Looks up the latest snapshot of a document, or null if it is closed
+     * @param publisher Sends diagnostics to the client
+     * @param scheduler Runs the diagnostics once the debounce delay is over
+     * @param stats Records the time from an edit to the diagnostics that reflect it, and what a run allocates
+     * @param log Where failed runs are reported
+     * @param debounceMillis The delay before diagnosing an edited document
+     */
+    public DiagnosticsScheduler(DiagnosticProvider diagnosticProvider,
+                                Parser parser,
+                                Function<String, TextDocument.Snapshot> currentSnapshot,
+                                Consumer<PublishDiagnosticsParams> publisher,
+                                RequestScheduler scheduler,
+                                ServerStats stats,
+                                ServerLog log,
+                                long debounceMillis) {
+        this.diagnosticProvider = diagnosticProvider;
+        this.parser = parser;
+        this.currentSnapshot = currentSnapshot;
+        this.publisher = publisher;
+        this.scheduler = scheduler;
+        this.stats = stats;
+        this.log = log;
+        this.debounceMillis = debounceMillis;
+
+        // The timer thread only waits out the delay; the work itself runs on the scheduler
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "modelphy-diagnostics-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Set the delay used to coalesce bursts of edits.
+     */
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = Math.max(0, debounceMillis);
+    }
+
+    /**
+     * Diagnose a document after the debounce delay.
+     */
+    public void schedule(TextDocument.Snapshot snapshot) {
+        schedule(snapshot, debounceMillis);
+    }
+
+    /**
+     * Diagnose a document without waiting, e.g. when it is opened or saved.
+     */
+    public void scheduleNow(TextDocument.Snapshot snapshot) {
+        schedule(snapshot, 0);
+    }
+
+    private void schedule(TextDocument.Snapshot snapshot, long delayMillis) {
+        Run run = new Run(snapshot);
+        Run previous = runs.put(snapshot.getUri(), run);
+        if (previous != null) {
+            previous.cancel();
+            // The edits the superseded run would have reported are still waiting
+            run.since = previous.since;
+        }
+        if (delayMillis == 0) {
+            submit(run);
+        } else {
+            run.delay = timer.schedule(() -> submit(run), delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void submit(Run run) {
+        run.future = scheduler.submit(run.snapshot.getUri(), RequestScheduler.Priority.BACKGROUND, cancelChecker -> {
+            execute(run);
+            return null;
+        });
+        if (run.cancelled) {
+            // Cancelled while being handed over
+            run.future.cancel(false);
+        }
+    }
+
+    /**
+     * Cancel any pending or running diagnostics for a document.
+     */
+    public void cancel(String uri) {
+        Run run = runs.remove(uri);
+        if (run != null) {
+            run.cancel();
+        }
+    }
+
+    /**
+     * Stop the timer thread and cancel all runs.
+     */
+    public void shutdown() {
+        for (Run run : runs.values()) {
+            run.cancel();
+        }
+        timer.shutdownNow();
+    }
+
+    private void execute(Run run) {
+        TextDocument.Snapshot snapshot = run.snapshot;
+        long allocated = ServerStats.allocatedBytes();
+        try {
+            run.checkCanceled();
+            ParseResult result = parser.parse(snapshot, run);
+            run.checkCanceled();
+            List<Diagnostic> diagnostics = diagnosticProvider.provideDiagnostics(result);
+            run.checkCanceled();
+
+            // Drop results for a version that has since been edited
+            TextDocument.Snapshot current = currentSnapshot.apply(snapshot.getUri());
+            if (current == null || current.getVersion() != snapshot.getVersion()) {
+                return;
+            }
+
+            publisher.accept(new PublishDiagnosticsParams(snapshot.getUri(), diagnostics, snapshot.getVersion()));
+            stats.requestTimes(ServerStats.DIAGNOSTICS).record(System.nanoTime() - run.since);
+        } catch (CancellationException e) {
+            // Superseded by a newer edit
+        } catch (RuntimeException e) {
+            log.log("Diagnostics failed for " + snapshot.getUri() + ": " + e.getMessage());
+        } finally {
+            runs.remove(snapshot.getUri(), run);
+            if (allocated >= 0) {
+                stats.recordAllocation(ServerStats.DIAGNOSTICS, ServerStats.allocatedBytes() - allocated);
+            }
+        }
+    }
+
+    /**
+     * One scheduled diagnostics run, doubling as its own cancellation token.
+     */
+    private static class Run implements CancelChecker {
+        private final TextDocument.Snapshot snapshot;
+        // When the oldest edit not yet covered by published diagnostics arrived
+        private volatile long since = System.nanoTime();
+        private volatile boolean cancelled;
+        private volatile ScheduledFuture<?> delay;
+        private volatile CompletableFuture<?> future;
+
+        Run(TextDocument.Snapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        void cancel() {
+            cancelled = true;
+            ScheduledFuture<?> waiting = delay;
+            if (waiting != null) {
+                waiting.cancel(false);
+            }
+            CompletableFuture<?> pending = future;
+            if (pending != null) {
+                // A queued run is dropped; a running parse notices the flag at its next rule
+                pending.cancel(false);
+            }
+        }
+
+        @Override
+        public void checkCanceled() {
+            if (cancelled) {
+                throw new CancellationException("Diagnostics superseded for " + snapshot.getUri());
+            }
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return cancelled;
+        }
+    }
+}
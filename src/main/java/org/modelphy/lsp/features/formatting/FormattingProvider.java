@@ -0,0 +1,304 @@
+package org.modelphy.lsp.features.formatting;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.Token;
+import org.eclipse.lsp4j.FormattingOptions;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.TextEdit;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.antlr.ModelPhyLexer;
+import org.modelphy.lsp.analysis.DocumentAnalysis;
+import org.modelphy.lsp.analysis.RopeCharStream;
+import org.modelphy.lsp.analysis.StatementTable;
+import org.modelphy.lsp.document.Rope;
+import org.modelphy.lsp.document.TextDocument;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Formats ModelPhy documents straight from the token stream, without a parse
+ * tree.
+ *
+ * Only the whitespace between tokens is rewritten: comments, which the lexer
+ * keeps on the hidden channel, stay where they are, and gaps holding text the
+ * lexer rejected are left alone. Each gap that differs from the expected
+ * layout becomes one small TextEdit, so an already formatted document yields
+ * no edits at all.
+ *
+ * Range and on-type formatting use the statement table only to find where
+ * the covered statements start and end, then lex just that part of the
+ * document.
+ */
+public class FormattingProvider {
+    /** Blank lines kept between statements or inside one. */
+    private static final int MAX_BLANK_LINES = 1;
+
+    /** Type of the imaginary token before the start of the document. */
+    private static final int NONE = Token.INVALID_TYPE;
+
+    /**
+     * Format a whole document.
+     */
+    public List<TextEdit> formatDocument(TextDocument.Snapshot snapshot, FormattingOptions options,
+                                         CancelChecker cancelChecker) {
+        Rope rope = snapshot.getRope();
+        return format(rope, 0, rope.length(), options, cancelChecker);
+    }
+
+    /**
+     * Format the statements that overlap a range.
+     */
+    public List<TextEdit> formatRange(DocumentAnalysis analysis, Range range, FormattingOptions options,
+                                      CancelChecker cancelChecker) {
+        Rope rope = analysis.getSnapshot().getRope();
+        StatementTable statements = analysis.getStatements();
+        int start = rope.offsetAt(range.getStart().getLine(), range.getStart().getCharacter());
+        int end = rope.offsetAt(range.getEnd().getLine(), range.getEnd().getCharacter());
+
+        int first = statements.fragmentAt(start);
+        int last = statements.fragmentAt(Math.max(start, end - 1));
+        return format(rope, statements.getStart(first), statements.getEnd(last), options, cancelChecker);
+    }
+
+    /**
+     * Format the statement closed by a ';' that was just typed.
+     *
+     * @param position The position just after the typed character
+     */
+    public List<TextEdit> formatOnType(DocumentAnalysis analysis, Position position, FormattingOptions options,
+                                       CancelChecker cancelChecker) {
+        Rope rope = analysis.getSnapshot().getRope();
+        StatementTable statements = analysis.getStatements();
+        int offset = rope.offsetAt(position.getLine(), position.getCharacter());
+        if (offset == 0) {
+            return Collections.emptyList();
+        }
+
+        // A ';' inside a comment or string does not end a statement
+        int index = statements.fragmentAt(offset - 1);
+        if (statements.getEnd(index) != offset || rope.charAt(offset - 1) != ';') {
+            return Collections.emptyList();
+        }
+        return format(rope, statements.getStart(index), offset, options, cancelChecker);
+    }
+
+    /**
+     * Lay out the tokens of part of a document.
+     *
+     * @param start Where to start lexing: the document start or just past a ';'
+     * @param end Where to stop; the gap after the last token is only touched at the document end
+     * @param cancelChecker Checked at the end of every statement
+     */
+    private static List<TextEdit> format(Rope rope, int start, int end, FormattingOptions options,
+                                         CancelChecker cancelChecker) {
+        RopeCharStream input = new RopeCharStream(rope);
+        input.seek(start);
+        ModelPhyLexer lexer = new ModelPhyLexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new BaseErrorListener());
+
+        Layout layout = new Layout(rope, options);
+        List<TextEdit> edits = new ArrayList<>();
+        int gapStart = start;
+        int previous = start > 0 ? ModelPhyLexer.SEMICOLON : NONE;
+        int lastCode = previous;
+        Deque<Integer> brackets = new ArrayDeque<>();
+
+        while (true) {
+            Token token = lexer.nextToken();
+            if (token.getType() == Token.EOF) {
+                if (end == rope.length()) {
+                    String gap = rope.substring(gapStart, end);
+                    if (isWhitespace(gap)) {
+                        boolean finalNewline = previous != NONE
+                            && (countBreaks(gap) > 0 || options.isInsertFinalNewline());
+                        layout.replace(gapStart, end, gap, finalNewline ? layout.newline : "", edits);
+                    }
+                }
+                return edits;
+            }
+            if (token.getStartIndex() >= end) {
+                return edits;
+            }
+
+            int type = token.getType();
+            boolean code = token.getChannel() == Token.DEFAULT_CHANNEL;
+            if (type == ModelPhyLexer.SEMICOLON) {
+                cancelChecker.checkCanceled();
+            }
+            if (isClosing(type) && !brackets.isEmpty()) {
+                brackets.pop();
+            }
+
+            String gap = gapStart == token.getStartIndex() ? "" : rope.substring(gapStart, token.getStartIndex());
+            if (isWhitespace(gap)) {
+                int breaks = countBreaks(gap);
+                int lines;
+                if (previous == NONE) {
+                    lines = 0;
+                } else if (previous == ModelPhyLexer.LINE_COMMENT) {
+                    lines = Math.max(1, breaks);
+                } else if (previous == ModelPhyLexer.SEMICOLON && code) {
+                    // One statement per line
+                    lines = Math.max(1, breaks);
+                } else {
+                    lines = breaks;
+                }
+                lines = Math.min(lines, MAX_BLANK_LINES + 1);
+
+                String wanted;
+                if (lines > 0) {
+                    boolean inStatement = lastCode != ModelPhyLexer.SEMICOLON && lastCode != NONE;
+                    int level = brackets.size();
+                    if (level == 0 && inStatement && !isClosing(type)) {
+                        // Continuation lines of a statement are indented once
+                        level = 1;
+                    }
+                    wanted = layout.lines(lines, level);
+                } else if (previous == NONE) {
+                    wanted = "";
+                } else if (!code || previous == ModelPhyLexer.BLOCK_COMMENT) {
+                    wanted = " ";
+                } else {
+                    wanted = spacing(previous, type, brackets.peek());
+                }
+                layout.replace(gapStart, token.getStartIndex(), gap, wanted, edits);
+            }
+
+            if (isOpening(type)) {
+                brackets.push(type);
+            }
+            gapStart = token.getStopIndex() + 1;
+            if (type == ModelPhyLexer.LINE_COMMENT) {
+                // Trailing blanks end up inside the comment token; treat them as part of the next gap
+                gapStart = token.getStartIndex() + stripTrailing(token.getText()).length();
+            }
+            previous = type;
+            if (code) {
+                lastCode = type;
+            }
+        }
+    }
+
+    /**
+     * Get the whitespace between two tokens on the same line.
+     *
+     * @param bracket The innermost open bracket, or null at the top level
+     */
+    private static String spacing(int previous, int next, Integer bracket) {
+        switch (next) {
+            case ModelPhyLexer.COMMA:
+            case ModelPhyLexer.SEMICOLON:
+            case ModelPhyLexer.RPAREN:
+            case ModelPhyLexer.RBRACKET:
+            case ModelPhyLexer.LT:
+            case ModelPhyLexer.GT:
+            case ModelPhyLexer.ARRAY_SUFFIX:
+                return "";
+            case ModelPhyLexer.LPAREN:
+                // Calls, including vectorised distributions such as Vector<Exponential>(...)
+                if (previous == ModelPhyLexer.IDENTIFIER || previous == ModelPhyLexer.GT) {
+                    return "";
+                }
+                break;
+            default:
+                break;
+        }
+        if (isOpening(previous)) {
+            return "";
+        }
+
+        // Named arguments are written name=value; other assignments get spaces
+        if (next == ModelPhyLexer.EQUALS || previous == ModelPhyLexer.EQUALS) {
+            return bracket != null && bracket == ModelPhyLexer.LPAREN ? "" : " ";
+        }
+        return " ";
+    }
+
+    private static boolean isOpening(int type) {
+        return type == ModelPhyLexer.LPAREN || type == ModelPhyLexer.LBRACKET || type == ModelPhyLexer.LT;
+    }
+
+    private static boolean isClosing(int type) {
+        return type == ModelPhyLexer.RPAREN || type == ModelPhyLexer.RBRACKET || type == ModelPhyLexer.GT;
+    }
+
+    private static boolean isWhitespace(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int countBreaks(String text) {
+        int breaks = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                breaks++;
+            }
+        }
+        return breaks;
+    }
+
+    private static String stripTrailing(String text) {
+        int end = text.length();
+        while (end > 0 && (text.charAt(end - 1) == ' ' || text.charAt(end - 1) == '\t')) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+
+    /**
+     * The line break and indentation of one document, and the edits that
+     * bring gaps in line with them.
+     */
+    private static final class Layout {
+        private final Rope rope;
+        private final String newline;
+        private final String indent;
+
+        Layout(Rope rope, FormattingOptions options) {
+            this.rope = rope;
+            int firstBreak = rope.lineBreaks() > 0 ? rope.lineStart(1) - 1 : 0;
+            this.newline = firstBreak > 0 && rope.charAt(firstBreak - 1) == '\r' ? "\r\n" : "\n";
+            this.indent = options.isInsertSpaces() ? " ".repeat(Math.max(0, options.getTabSize())) : "\t";
+        }
+
+        String lines(int count, int level) {
+            return newline.repeat(count) + indent.repeat(level);
+        }
+
+        /**
+         * Replace a gap with the wanted whitespace, editing only the part that differs.
+         */
+        void replace(int start, int end, String gap, String wanted, List<TextEdit> edits) {
+            if (gap.equals(wanted)) {
+                return;
+            }
+            int prefix = 0;
+            int max = Math.min(gap.length(), wanted.length());
+            while (prefix < max && gap.charAt(prefix) == wanted.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < max - prefix
+                    && gap.charAt(gap.length() - 1 - suffix) == wanted.charAt(wanted.length() - 1 - suffix)) {
+                suffix++;
+            }
+            Range range = new Range(positionAt(start + prefix), positionAt(end - suffix));
+            edits.add(new TextEdit(range, wanted.substring(prefix, wanted.length() - suffix)));
+        }
+
+        private Position positionAt(int offset) {
+            return new Position(rope.lineAt(offset), rope.characterAt(offset));
+        }
+    }
+}
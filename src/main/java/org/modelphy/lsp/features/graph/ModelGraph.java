@@ -0,0 +1,239 @@
+package org.modelphy.lsp.features.graph;
+
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.lsp.analysis.SymbolTable;
+import org.modelphy.model.Constraint;
+import org.modelphy.model.DeterministicVariable;
+import org.modelphy.model.FunctionCall;
+import org.modelphy.model.Observation;
+import org.modelphy.model.ObservationType;
+import org.modelphy.model.StochasticVariable;
+import org.modelphy.model.Variable;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The dependency graph of a document's model.
+ *
+ * Variables, the distributions and deterministic functions that define them,
+ * constraints and observations are nodes. Edges run from a variable to the
+ * distribution, function or constraint whose arguments refer to it, from a
+ * distribution or function to the variable it defines, and from an
+ * observation to the variable it observes. The references are the ones
+ * {@link Variable#getDependencies} and {@link Constraint#getDependencies}
+ * report; references to undefined variables have no edge.
+ *
+ * Node identifiers are made from names, not positions, so a node keeps its
+ * identifier while the statements around it are edited.
+ */
+public final class ModelGraph {
+
+    /** A variable, whatever way it is defined. */
+    public static final String VARIABLE = "variable";
+    /** The distribution a stochastic variable is drawn from. */
+    public static final String DISTRIBUTION = "distribution";
+    /** The function a deterministic variable is computed with. */
+    public static final String FUNCTION = "function";
+    /** A named or anonymous constraint. */
+    public static final String CONSTRAINT = "constraint";
+    /** The data observed for a variable. */
+    public static final String OBSERVATION = "observation";
+
+    /**
+     * A node of the graph.
+     */
+    public static final class Node {
+        private final String id;
+        private final String kind;
+        private final String label;
+        private final String type;
+
+        Node(String id, String kind, String label, String type) {
+            this.id = id;
+            this.kind = kind;
+            this.label = label;
+            this.type = type;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Get what the node stands for, one of the kind constants of {@link ModelGraph}.
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * Get the text to show: a variable, distribution, function or constraint name, or an observed file.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Get the declared type of a variable, or null for other nodes.
+         */
+        public String getType() {
+            return type;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Node)) {
+                return false;
+            }
+            Node other = (Node) obj;
+            return id.equals(other.id) && kind.equals(other.kind) && label.equals(other.label)
+                && Objects.equals(type, other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return id.hashCode();
+        }
+    }
+
+    /**
+     * An edge of the graph, in the direction values flow.
+     */
+    public static final class Edge {
+        private final String source;
+        private final String target;
+
+        Edge(String source, String target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Edge)) {
+                return false;
+            }
+            Edge other = (Edge) obj;
+            return source.equals(other.source) && target.equals(other.target);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * source.hashCode() + target.hashCode();
+        }
+    }
+
+    private final Map<String, Node> nodes;
+    private final Set<Edge> edges;
+
+    private ModelGraph(Map<String, Node> nodes, Set<Edge> edges) {
+        this.nodes = nodes;
+        this.edges = edges;
+    }
+
+    /**
+     * Build the graph of a model.
+     *
+     * @param symbols The model's variables; a variable defined twice is a single node for its last definition
+     * @param constraints The model's constraints
+     * @param cancelChecker Checked before each variable and constraint
+     */
+    public static ModelGraph build(SymbolTable symbols, List<Constraint> constraints, CancelChecker cancelChecker) {
+        Map<String, Node> nodes = new LinkedHashMap<>();
+        Set<Edge> edges = new LinkedHashSet<>();
+
+        // Variable nodes first, so edges can be checked against them
+        for (SymbolTable.Symbol symbol : symbols.getSymbols()) {
+            String id = variableId(symbol.getName());
+            nodes.put(id, new Node(id, VARIABLE, symbol.getName(), symbol.getType()));
+        }
+
+        for (SymbolTable.Symbol symbol : symbols.getSymbols()) {
+            cancelChecker.checkCanceled();
+            Variable variable = symbol.getVariable();
+            String variableId = variableId(symbol.getName());
+
+            // Dependencies feed the distribution or function, which defines the variable
+            String target = variableId;
+            if (variable instanceof StochasticVariable && ((StochasticVariable) variable).getDistribution() != null) {
+                target = DISTRIBUTION + ":" + symbol.getName();
+                String name = ((StochasticVariable) variable).getDistribution().getName();
+                nodes.put(target, new Node(target, DISTRIBUTION, name, null));
+                edges.add(new Edge(target, variableId));
+            } else if (variable instanceof DeterministicVariable
+                    && ((DeterministicVariable) variable).getExpression() instanceof FunctionCall) {
+                target = FUNCTION + ":" + symbol.getName();
+                String name = ((FunctionCall) ((DeterministicVariable) variable).getExpression()).getName();
+                nodes.put(target, new Node(target, FUNCTION, name, null));
+                edges.add(new Edge(target, variableId));
+            }
+            addDependencyEdges(symbol.getDependencies(), target, nodes, edges);
+
+            Observation observation = variable.getObservation();
+            if (observation != null) {
+                String id = OBSERVATION + ":" + symbol.getName();
+                String label = observation.getType() == ObservationType.FILE ? observation.getFilename() : "observe";
+                nodes.put(id, new Node(id, OBSERVATION, label, null));
+                edges.add(new Edge(id, variableId));
+            }
+        }
+
+        // Constraints are told apart by name, or by their text if anonymous, and by occurrence after that
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (Constraint constraint : constraints) {
+            cancelChecker.checkCanceled();
+            String key = constraint.getName() != null ? constraint.getName() : constraint.toString();
+            int occurrence = occurrences.merge(key, 1, Integer::sum);
+            String id = CONSTRAINT + ":" + key + (occurrence > 1 ? "#" + occurrence : "");
+            String label = constraint.getName() != null ? constraint.getName() : constraint.getFunction().getName();
+            if (constraint.hasDistribution()) {
+                label += " ~ " + constraint.getDistribution().getName();
+            }
+            nodes.put(id, new Node(id, CONSTRAINT, label, null));
+            addDependencyEdges(new LinkedHashSet<>(constraint.getDependencies()), id, nodes, edges);
+        }
+
+        return new ModelGraph(Collections.unmodifiableMap(nodes), Collections.unmodifiableSet(edges));
+    }
+
+    private static void addDependencyEdges(Collection<String> dependencies, String target,
+                                           Map<String, Node> nodes, Set<Edge> edges) {
+        for (String dependency : dependencies) {
+            String source = variableId(dependency);
+            if (nodes.containsKey(source)) {
+                edges.add(new Edge(source, target));
+            }
+        }
+    }
+
+    private static String variableId(String name) {
+        return VARIABLE + ":" + name;
+    }
+
+    /**
+     * Get the nodes by identifier, in the order their statements appear.
+     */
+    public Map<String, Node> getNodes() {
+        return nodes;
+    }
+
+    public Set<Edge> getEdges() {
+        return edges;
+    }
+}
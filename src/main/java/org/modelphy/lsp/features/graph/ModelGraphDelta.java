@@ -0,0 +1,115 @@
+package org.modelphy.lsp.features.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The changes to a document's dependency graph since the last graph sent,
+ * the parameters of a modelphy/modelGraphChanged notification.
+ *
+ * A client applies a delta only to the result named by
+ * {@link #getPreviousResultId}; if it holds another one it asks for the whole
+ * graph again.
+ */
+public class ModelGraphDelta {
+    private final String uri;
+    private final int version;
+    private final String previousResultId;
+    private final String resultId;
+    private final List<ModelGraph.Node> addedNodes = new ArrayList<>();
+    private final List<ModelGraph.Node> changedNodes = new ArrayList<>();
+    private final List<String> removedNodes = new ArrayList<>();
+    private final List<ModelGraph.Edge> addedEdges = new ArrayList<>();
+    private final List<ModelGraph.Edge> removedEdges = new ArrayList<>();
+
+    /**
+     * Compare two graphs of a document.
+     *
+     * @param previous The graph the client holds
+     * @param graph The graph of the new version
+     */
+    ModelGraphDelta(String uri, int version, String previousResultId, String resultId,
+                    ModelGraph previous, ModelGraph graph) {
+        this.uri = uri;
+        this.version = version;
+        this.previousResultId = previousResultId;
+        this.resultId = resultId;
+
+        Map<String, ModelGraph.Node> before = previous.getNodes();
+        Map<String, ModelGraph.Node> after = graph.getNodes();
+        for (ModelGraph.Node node : after.values()) {
+            ModelGraph.Node old = before.get(node.getId());
+            if (old == null) {
+                addedNodes.add(node);
+            } else if (!old.equals(node)) {
+                changedNodes.add(node);
+            }
+        }
+        for (String id : before.keySet()) {
+            if (!after.containsKey(id)) {
+                removedNodes.add(id);
+            }
+        }
+        for (ModelGraph.Edge edge : graph.getEdges()) {
+            if (!previous.getEdges().contains(edge)) {
+                addedEdges.add(edge);
+            }
+        }
+        for (ModelGraph.Edge edge : previous.getEdges()) {
+            if (!graph.getEdges().contains(edge)) {
+                removedEdges.add(edge);
+            }
+        }
+    }
+
+    /**
+     * Check whether the graph is the same as before.
+     */
+    public boolean isEmpty() {
+        return addedNodes.isEmpty() && changedNodes.isEmpty() && removedNodes.isEmpty()
+            && addedEdges.isEmpty() && removedEdges.isEmpty();
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public String getPreviousResultId() {
+        return previousResultId;
+    }
+
+    public String getResultId() {
+        return resultId;
+    }
+
+    public List<ModelGraph.Node> getAddedNodes() {
+        return addedNodes;
+    }
+
+    /**
+     * Get the nodes whose label or type changed, in full.
+     */
+    public List<ModelGraph.Node> getChangedNodes() {
+        return changedNodes;
+    }
+
+    /**
+     * Get the identifiers of the nodes removed; their edges are among the removed edges.
+     */
+    public List<String> getRemovedNodes() {
+        return removedNodes;
+    }
+
+    public List<ModelGraph.Edge> getAddedEdges() {
+        return addedEdges;
+    }
+
+    public List<ModelGraph.Edge> getRemovedEdges() {
+        return removedEdges;
+    }
+}
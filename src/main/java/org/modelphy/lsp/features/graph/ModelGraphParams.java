@@ -0,0 +1,25 @@
+package org.modelphy.lsp.features.graph;
+
+import org.eclipse.lsp4j.TextDocumentIdentifier;
+
+/**
+ * The parameters of a modelphy/modelGraph request.
+ */
+public class ModelGraphParams {
+    private TextDocumentIdentifier textDocument;
+
+    public ModelGraphParams() {
+    }
+
+    public ModelGraphParams(TextDocumentIdentifier textDocument) {
+        this.textDocument = textDocument;
+    }
+
+    public TextDocumentIdentifier getTextDocument() {
+        return textDocument;
+    }
+
+    public void setTextDocument(TextDocumentIdentifier textDocument) {
+        this.textDocument = textDocument;
+    }
+}
@@ -0,0 +1,93 @@
+package org.modelphy.lsp.features.graph;
+
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.lsp.analysis.DocumentAnalysis;
+import org.modelphy.parser.ParseResult;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Builds the dependency graphs of documents and the changes between them.
+ *
+ * The graph last sent for each document the client asked about is kept, so
+ * after an edit only the nodes and edges that differ are sent, and the
+ * client's visualisation keeps its layout for the rest. Documents the client
+ * never asked about cost nothing.
+ */
+public class ModelGraphProvider {
+    private final ConcurrentHashMap<String, Sent> sent = new ConcurrentHashMap<>();
+    private final AtomicLong nextResultId = new AtomicLong();
+
+    /**
+     * Get the whole graph of a document version and send changes to it from now on.
+     *
+     * @param cancelChecker Checked while the model is built
+     */
+    public ModelGraphResult provideGraph(DocumentAnalysis analysis, CancelChecker cancelChecker) {
+        ModelGraph graph = build(analysis, cancelChecker);
+        String id = String.valueOf(nextResultId.incrementAndGet());
+        sent.put(analysis.getUri(), new Sent(id, analysis.getVersion(), graph));
+        return new ModelGraphResult(analysis.getUri(), analysis.getVersion(), id, graph);
+    }
+
+    /**
+     * Check whether changes to a document's graph are wanted.
+     */
+    public boolean isWatched(String uri) {
+        return sent.containsKey(uri);
+    }
+
+    /**
+     * Get the changes to a document's graph since the last one sent.
+     *
+     * @param cancelChecker Checked while the model is built
+     * @return The changes, or null if the graph was never asked for, is already
+     *         up to date with this version, or did not change
+     */
+    public ModelGraphDelta provideDelta(DocumentAnalysis analysis, CancelChecker cancelChecker) {
+        Sent previous = sent.get(analysis.getUri());
+        if (previous == null || previous.version == analysis.getVersion()) {
+            return null;
+        }
+
+        ModelGraph graph = build(analysis, cancelChecker);
+        String id = String.valueOf(nextResultId.incrementAndGet());
+        ModelGraphDelta delta = new ModelGraphDelta(
+            analysis.getUri(), analysis.getVersion(), previous.id, id, previous.graph, graph);
+        if (delta.isEmpty()) {
+            // Most edits leave the graph alone; the client's result still stands
+            sent.replace(analysis.getUri(), previous, new Sent(previous.id, analysis.getVersion(), previous.graph));
+            return null;
+        }
+        // The document may have been closed meanwhile
+        return sent.replace(analysis.getUri(), previous, new Sent(id, analysis.getVersion(), graph)) ? delta : null;
+    }
+
+    /**
+     * Stop sending changes for a document, e.g. when it is closed.
+     */
+    public void forget(String uri) {
+        sent.remove(uri);
+    }
+
+    private static ModelGraph build(DocumentAnalysis analysis, CancelChecker cancelChecker) {
+        ParseResult result = analysis.getParseResult(cancelChecker);
+        return ModelGraph.build(analysis.getSymbols(cancelChecker), result.getModel().getConstraints(), cancelChecker);
+    }
+
+    /**
+     * The graph the client holds for a document.
+     */
+    private static final class Sent {
+        private final String id;
+        private final int version;
+        private final ModelGraph graph;
+
+        Sent(String id, int version, ModelGraph graph) {
+            this.id = id;
+            this.version = version;
+            this.graph = graph;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.modelphy.lsp.features.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The whole dependency graph of a document version, the answer to a
+ * modelphy/modelGraph request.
+ */
+public class ModelGraphResult {
+    private final String uri;
+    private final int version;
+    private final String resultId;
+    private final List<ModelGraph.Node> nodes;
+    private final List<ModelGraph.Edge> edges;
+
+    ModelGraphResult(String uri, int version, String resultId, ModelGraph graph) {
+        this.uri = uri;
+        this.version = version;
+        this.resultId = resultId;
+        this.nodes = new ArrayList<>(graph.getNodes().values());
+        this.edges = new ArrayList<>(graph.getEdges());
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the identifier the first change notification for the document refers back to.
+     */
+    public String getResultId() {
+        return resultId;
+    }
+
+    public List<ModelGraph.Node> getNodes() {
+        return nodes;
+    }
+
+    public List<ModelGraph.Edge> getEdges() {
+        return edges;
+    }
+}
@@ -0,0 +1,153 @@
+package org.modelphy.lsp.features.graph;
+
+import org.modelphy.lsp.analysis.AnalysisCache;
+import org.modelphy.lsp.document.TextDocument;
+import org.modelphy.lsp.scheduling.RequestScheduler;
+import org.modelphy.lsp.telemetry.ServerLog;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Sends the changes to a document's dependency graph once a burst of edits
+ * settles.
+ *
+ * Only documents whose graph the client has asked for are updated. Each
+ * edit restarts the delay and cancels an update still waiting or running for
+ * the document; the update then runs as background work for the document on
+ * the {@link RequestScheduler}, and reads the model from the same analysis
+ * diagnostics use.
+ */
+public class ModelGraphUpdates {
+    private final ModelGraphProvider provider;
+    private final AnalysisCache analyses;
+    private final Function<String, TextDocument.Snapshot> currentSnapshot;
+    private final Consumer<ModelGraphDelta> publisher;
+    private final RequestScheduler scheduler;
+    private final ServerLog log;
+    private final ScheduledThreadPoolExecutor timer;
+    private final ConcurrentHashMap<String, Update> pending = new ConcurrentHashMap<>();
+    private volatile long debounceMillis;
+
+    /**
+     * @param currentSnapshot Looks up the latest snapshot of a document, or null if it is closed
+     * @param publisher Sends a change notification to the client
+     * @param log Where failed updates are reported
+     * @param debounceMillis The delay before updating an edited document's graph
+     */
+    public ModelGraphUpdates(ModelGraphProvider provider,
+                             AnalysisCache analyses,
+                             Function<String, TextDocument.Snapshot> currentSnapshot,
+                             Consumer<ModelGraphDelta> publisher,
+                             RequestScheduler scheduler,
+                             ServerLog log,
+                             long debounceMillis) {
+        this.provider = provider;
+        this.analyses = analyses;
+        this.currentSnapshot = currentSnapshot;
+        this.publisher = publisher;
+        this.scheduler = scheduler;
+        this.log = log;
+        this.debounceMillis = debounceMillis;
+        this.timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "modelphy-graph-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Set the delay used to coalesce bursts of edits.
+     */
+    public void setDebounceMillis(long debounceMillis) {
+        this.debounceMillis = Math.max(0, debounceMillis);
+    }
+
+    /**
+     * Update a document's graph after the delay, if the client is watching it.
+     */
+    public void schedule(String uri) {
+        if (!provider.isWatched(uri)) {
+            return;
+        }
+        Update update = new Update();
+        Update previous = pending.put(uri, update);
+        if (previous != null) {
+            previous.cancel();
+        }
+        update.delay = timer.schedule(() -> submit(uri, update), debounceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void submit(String uri, Update update) {
+        update.future = scheduler.submit(uri, RequestScheduler.Priority.BACKGROUND, cancelChecker -> {
+            try {
+                TextDocument.Snapshot snapshot = currentSnapshot.apply(uri);
+                if (snapshot != null) {
+                    ModelGraphDelta delta = provider.provideDelta(analyses.get(snapshot, cancelChecker), cancelChecker);
+                    if (delta != null) {
+                        publisher.accept(delta);
+                    }
+                }
+            } catch (CancellationException e) {
+                // Superseded by a newer edit
+            } catch (RuntimeException e) {
+                log.log("Model graph update failed for " + uri + ": " + e.getMessage());
+            } finally {
+                pending.remove(uri, update);
+            }
+            return null;
+        });
+        if (update.cancelled) {
+            // Cancelled while being handed over
+            update.future.cancel(false);
+        }
+    }
+
+    /**
+     * Cancel any pending update for a document and stop watching it.
+     */
+    public void cancel(String uri) {
+        provider.forget(uri);
+        Update update = pending.remove(uri);
+        if (update != null) {
+            update.cancel();
+        }
+    }
+
+    /**
+     * Stop the timer thread and cancel all updates.
+     */
+    public void shutdown() {
+        for (Update update : pending.values()) {
+            update.cancel();
+        }
+        timer.shutdownNow();
+    }
+
+    /**
+     * One scheduled update: the delay, then the work on the scheduler.
+     */
+    private static class Update {
+        private volatile boolean cancelled;
+        private volatile Future<?> delay;
+        private volatile Future<?> future;
+
+        void cancel() {
+            cancelled = true;
+            Future<?> waiting = delay;
+            if (waiting != null) {
+                waiting.cancel(false);
+            }
+            Future<?> running = future;
+            if (running != null) {
+                running.cancel(false);
+            }
+        }
+    }
+}
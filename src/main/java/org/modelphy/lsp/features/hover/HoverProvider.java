@@ -1,10 +1,16 @@
 package org.modelphy.lsp.features.hover;
 
+import org.antlr.v4.runtime.Token;
 import org.eclipse.lsp4j.Hover;
 import org.eclipse.lsp4j.MarkupContent;
 import org.eclipse.lsp4j.MarkupKind;
 import org.eclipse.lsp4j.Range;
 import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.antlr.ModelPhyLexer;
+import org.modelphy.lsp.analysis.DocumentAnalysis;
+import org.modelphy.lsp.analysis.SymbolTable;
+import org.modelphy.lsp.document.TextDocument;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -36,16 +42,36 @@ public class HoverProvider {
         typeDocs.put("Tree", "**Tree Type**\n\nRepresents a phylogenetic tree structure");
     }
     
-    public Hover provideHover(String content, int line, int character) {
+    /**
+     * Describe the token at a position.
+     *
+     * @param cancelChecker Checked while the document's symbols are read
+     */
+    public Hover provideHover(DocumentAnalysis analysis, int line, int character, CancelChecker cancelChecker) {
         // Determine what the user is hovering over
-        TokenInfo tokenInfo = getTokenAtPosition(content, line, character);
+        TokenInfo tokenInfo = getTokenAtPosition(analysis, line, character, cancelChecker);
         
         if (tokenInfo != null) {
             String tokenText = tokenInfo.getText();
             String documentation = null;
             
             // Look up documentation for the token
-            // ... [existing code] ...
+            switch (tokenInfo.getType()) {
+                case DISTRIBUTION:
+                    documentation = distributionDocs.get(tokenText);
+                    break;
+                case FUNCTION:
+                    documentation = functionDocs.get(tokenText);
+                    break;
+                case TYPE:
+                    documentation = typeDocs.get(tokenText);
+                    break;
+                case VARIABLE:
+                    documentation = describeVariable(analysis.getAvailableSymbols(cancelChecker), tokenText);
+                    break;
+                default:
+                    break;
+            }
             
             if (documentation != null) {
                 // Create a proper MarkupContent
@@ -71,10 +97,68 @@ public class HoverProvider {
         return new Hover(new MarkupContent(MarkupKind.PLAINTEXT, ""));
     }
     
-    private TokenInfo getTokenAtPosition(String content, int line, int character) {
-        // In a real implementation, this would use the lexer to get the token at position
-        // This is a placeholder
-        return null;
+    private TokenInfo getTokenAtPosition(DocumentAnalysis analysis, int line, int character,
+                                         CancelChecker cancelChecker) {
+        TextDocument.Snapshot snapshot = analysis.getSnapshot();
+        Token token = analysis.tokenAt(snapshot.getRope().offsetAt(line, character));
+        if (token == null) {
+            return null;
+        }
+        
+        String text = token.getText();
+        TokenType type;
+        if (distributionDocs.containsKey(text)) {
+            type = TokenType.DISTRIBUTION;
+        } else if (functionDocs.containsKey(text)) {
+            type = TokenType.FUNCTION;
+        } else if (typeDocs.containsKey(text)) {
+            type = TokenType.TYPE;
+        } else if (token.getType() == ModelPhyLexer.IDENTIFIER && analysis.getAvailableSymbols(cancelChecker).get(text) != null) {
+            type = TokenType.VARIABLE;
+        } else if (token.getType() == ModelPhyLexer.CONSTRAINT || token.getType() == ModelPhyLexer.OBSERVE
+                || token.getType() == ModelPhyLexer.FROM) {
+            type = TokenType.KEYWORD;
+        } else {
+            type = TokenType.UNKNOWN;
+        }
+        
+        Position start = snapshot.positionAt(token.getStartIndex());
+        Position end = snapshot.positionAt(token.getStopIndex() + 1);
+        return new TokenInfo(text, type, start.getLine(), start.getCharacter(), end.getLine(), end.getCharacter());
+    }
+    
+    /**
+     * Describe a variable from the document's symbol table.
+     */
+    private String describeVariable(SymbolTable symbols, String name) {
+        SymbolTable.Symbol symbol = symbols.get(name);
+        if (symbol == null) {
+            return null;
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append("**").append(name).append("**: `").append(symbol.getType()).append("`\n\n");
+        switch (symbol.getKind()) {
+            case STOCHASTIC:
+                sb.append("Stochastic variable");
+                break;
+            case DETERMINISTIC:
+                sb.append("Deterministic variable");
+                break;
+            default:
+                sb.append("Variable");
+                break;
+        }
+        if (symbol.getVariable().isObserved()) {
+            sb.append(" (observed)");
+        }
+        if (!symbol.getDependencies().isEmpty()) {
+            sb.append("\n\nDepends on: ").append(String.join(", ", symbol.getDependencies()));
+        }
+        if (!symbols.getDependents(name).isEmpty()) {
+            sb.append("\n\nUsed by: ").append(String.join(", ", symbols.getDependents(name)));
+        }
+        return sb.toString();
     }
     
     // Helper class for token information
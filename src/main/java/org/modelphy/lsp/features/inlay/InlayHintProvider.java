@@ -0,0 +1,134 @@
+package org.modelphy.lsp.features.inlay;
+
+import org.antlr.v4.runtime.Token;
+import org.eclipse.lsp4j.InlayHint;
+import org.eclipse.lsp4j.InlayHintKind;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.modelphy.antlr.ModelPhyParser;
+import org.modelphy.ir.DistributionKind;
+import org.modelphy.lsp.analysis.DocumentAnalysis;
+import org.modelphy.lsp.analysis.StatementTable;
+import org.modelphy.lsp.document.Rope;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows how distributions are written to CodePhy: the CodePhy name of each
+ * parameter that is renamed or left out (mean→meanlog for LogNormal,
+ * substmodel→Q for PhyloCTMC) and the "generates" kind inferred from the
+ * declared type.
+ *
+ * Hints are computed from the parse trees of the statements overlapping the
+ * requested range only, so a large document costs no more than the part the
+ * editor shows. Neither the model nor the symbol table is needed.
+ */
+public class InlayHintProvider {
+
+    /**
+     * Get the hints inside a range of a document.
+     *
+     * @param range The range the editor shows
+     * @param cancelChecker Checked before each statement
+     */
+    public List<InlayHint> provideInlayHints(DocumentAnalysis analysis, Range range, CancelChecker cancelChecker) {
+        Rope rope = analysis.getSnapshot().getRope();
+        StatementTable statements = analysis.getStatements();
+        int start = rope.offsetAt(range.getStart().getLine(), range.getStart().getCharacter());
+        int end = rope.offsetAt(range.getEnd().getLine(), range.getEnd().getCharacter());
+
+        List<InlayHint> hints = new ArrayList<>();
+        int last = statements.fragmentAt(Math.max(start, end - 1));
+        for (int index = statements.fragmentAt(start); index <= last; index++) {
+            cancelChecker.checkCanceled();
+            ModelPhyParser.StatementContext tree = statements.getFragment(index).getTree();
+            if (tree != null && tree.stochasticAssignment() != null) {
+                addHints(statements, index, tree.stochasticAssignment(), range, hints);
+            }
+        }
+        return hints;
+    }
+
+    private static void addHints(StatementTable statements, int index, ModelPhyParser.StochasticAssignmentContext ctx,
+                                 Range range, List<InlayHint> hints) {
+        // MRCA constraints are not written with the distribution's CodePhy parameters
+        ModelPhyParser.DistributionContext distribution = ctx.distribution();
+        if (ctx.type() == null || distribution == null || distribution.identifier() == null) {
+            return;
+        }
+        String name = distribution.identifier().getText();
+        DistributionKind kind = DistributionKind.of(name);
+
+        if (distribution.namedArgumentList() != null) {
+            for (ModelPhyParser.NamedArgumentContext argument : distribution.namedArgumentList().namedArgument()) {
+                if (argument.name == null) {
+                    continue;
+                }
+                String parameter = argument.name.getText();
+                String codePhyName = kind.toCodePhyParameter(parameter);
+                if (parameter.equals(codePhyName)) {
+                    continue;
+                }
+
+                InlayHint hint = hintAfter(statements, index, argument.name.getStop(), range);
+                if (hint == null) {
+                    continue;
+                }
+                hint.setKind(InlayHintKind.Parameter);
+                if (codePhyName == null) {
+                    hint.setLabel("→(omitted)");
+                    hint.setTooltip(name + " has no CodePhy parameter " + parameter + "; it is left out");
+                } else if (kind == DistributionKind.EXPONENTIAL && parameter.equals("mean")) {
+                    hint.setLabel("→" + codePhyName);
+                    hint.setTooltip("Written to CodePhy as " + codePhyName + " = 1 / " + parameter);
+                } else {
+                    hint.setLabel("→" + codePhyName);
+                    hint.setTooltip("Written to CodePhy as " + codePhyName);
+                }
+                hints.add(hint);
+            }
+        }
+
+        InlayHint hint = hintAfter(statements, index, distribution.getStop(), range);
+        if (hint != null) {
+            hint.setKind(InlayHintKind.Type);
+            hint.setLabel("generates " + kind.generates(ctx.type().getText()));
+            hint.setTooltip("The CodePhy \"generates\" kind of " + ctx.identifier().getText());
+            hint.setPaddingLeft(true);
+            hints.add(hint);
+        }
+    }
+
+    /**
+     * Create a hint just after a token of a statement.
+     *
+     * @param token A token of the fragment's tree, with positions as they were when it was lexed
+     * @return The hint without a label, or null if the token was made up by error recovery
+     *         or the hint would fall outside the range
+     */
+    private static InlayHint hintAfter(StatementTable statements, int index, Token token, Range range) {
+        if (token == null || token.getStartIndex() < 0 || token.getType() == Token.EOF) {
+            return null;
+        }
+        int lexedLine = token.getLine() - 1;
+        int line = statements.toDocumentLine(index, lexedLine);
+        int character = statements.toDocumentColumn(index, lexedLine,
+            token.getCharPositionInLine() + token.getStopIndex() - token.getStartIndex() + 1);
+        Position position = new Position(line, character);
+        if (compare(position, range.getStart()) < 0 || compare(position, range.getEnd()) > 0) {
+            return null;
+        }
+
+        InlayHint hint = new InlayHint();
+        hint.setPosition(position);
+        return hint;
+    }
+
+    private static int compare(Position a, Position b) {
+        return a.getLine() != b.getLine()
+            ? Integer.compare(a.getLine(), b.getLine())
+            : Integer.compare(a.getCharacter(), b.getCharacter());
+    }
+}
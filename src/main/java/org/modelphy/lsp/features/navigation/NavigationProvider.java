@@ -0,0 +1,184 @@
+package org.modelphy.lsp.features.navigation;
+
+import org.eclipse.lsp4j.DocumentSymbol;
+import org.eclipse.lsp4j.FoldingRange;
+import org.eclipse.lsp4j.Location;
+import org.eclipse.lsp4j.LocationLink;
+import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.SymbolKind;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.modelphy.lsp.analysis.DocumentAnalysis;
+import org.modelphy.lsp.analysis.SymbolTable;
+import org.modelphy.lsp.analysis.UseIndex;
+import org.modelphy.model.Constraint;
+import org.modelphy.model.DeterministicVariable;
+import org.modelphy.model.FunctionCall;
+import org.modelphy.model.Observation;
+import org.modelphy.model.SourceRange;
+import org.modelphy.model.StochasticVariable;
+import org.modelphy.model.Variable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Answers outline, folding, go-to-definition and find-references requests.
+ *
+ * All four read the symbol table of the requested version, so they share one
+ * model build per version. Definitions and references look the name at the
+ * cursor up in the table's {@link UseIndex}, so finding the uses of a
+ * variable shared by thousands of statements does not scan the document.
+ */
+public class NavigationProvider {
+
+    /**
+     * Get the variables and constraints of a document, in the order they appear.
+     *
+     * @param cancelChecker Checked while the model is built
+     */
+    public List<DocumentSymbol> provideDocumentSymbols(DocumentAnalysis analysis, CancelChecker cancelChecker) {
+        SymbolTable symbols = symbolsOf(analysis, cancelChecker);
+        List<DocumentSymbol> result = new ArrayList<>();
+        for (SymbolTable.Symbol symbol : symbols.getSymbols()) {
+            if (symbol.getRange() == null) {
+                continue;
+            }
+            SourceRange nameRange = symbol.getNameRange() != null ? symbol.getNameRange() : symbol.getRange();
+            result.add(new DocumentSymbol(symbol.getName(), SymbolKind.Variable, toRange(symbol.getRange()),
+                toRange(nameRange), describe(symbol.getVariable())));
+        }
+        for (Constraint constraint : symbols.getConstraints()) {
+            if (constraint.getSourceRange() == null) {
+                continue;
+            }
+            String function = constraint.getFunction() != null ? constraint.getFunction().getName() : null;
+            String name = constraint.getName() != null ? constraint.getName() : function;
+            if (name == null) {
+                continue;
+            }
+            String detail = constraint.hasDistribution() ? "~ " + constraint.getDistribution().getName() : function;
+            Range range = toRange(constraint.getSourceRange());
+            result.add(new DocumentSymbol(name, SymbolKind.Operator, range, range, detail));
+        }
+        result.sort(Comparator.comparing((DocumentSymbol symbol) -> symbol.getRange().getStart().getLine())
+            .thenComparing(symbol -> symbol.getRange().getStart().getCharacter()));
+        return result;
+    }
+
+    /**
+     * Get a folding range for each statement that spans more than one line,
+     * such as inline observations.
+     *
+     * @param cancelChecker Checked while the model is built
+     */
+    public List<FoldingRange> provideFoldingRanges(DocumentAnalysis analysis, CancelChecker cancelChecker) {
+        SymbolTable symbols = symbolsOf(analysis, cancelChecker);
+        List<FoldingRange> result = new ArrayList<>();
+        for (SymbolTable.Symbol symbol : symbols.getSymbols()) {
+            addFoldingRange(symbol.getRange(), result);
+            Observation observation = symbol.getVariable().getObservation();
+            if (observation != null) {
+                addFoldingRange(observation.getSourceRange(), result);
+            }
+        }
+        for (Constraint constraint : symbols.getConstraints()) {
+            addFoldingRange(constraint.getSourceRange(), result);
+        }
+        result.sort(Comparator.comparingInt(FoldingRange::getStartLine));
+        return result;
+    }
+
+    private static void addFoldingRange(SourceRange range, List<FoldingRange> result) {
+        if (range != null && range.getEndLine() > range.getStartLine()) {
+            result.add(new FoldingRange(range.getStartLine(), range.getEndLine()));
+        }
+    }
+
+    /**
+     * Find the statement defining the variable at a position.
+     *
+     * @param linkSupport Whether the client accepts location links, which carry the whole statement
+     * @param cancelChecker Checked while the model is built
+     * @return The definition, or an empty list if there is no defined variable at the position
+     */
+    public Either<List<? extends Location>, List<? extends LocationLink>> provideDefinition(
+            DocumentAnalysis analysis, Position position, boolean linkSupport, CancelChecker cancelChecker) {
+        SymbolTable symbols = symbolsOf(analysis, cancelChecker);
+        UseIndex.Reference reference = referenceAt(analysis, symbols, position);
+        SymbolTable.Symbol symbol = reference != null ? symbols.get(reference.getName()) : null;
+        if (symbol == null || symbol.getRange() == null || symbol.getNameRange() == null) {
+            return linkSupport ? Either.forRight(Collections.emptyList()) : Either.forLeft(Collections.emptyList());
+        }
+
+        if (linkSupport) {
+            return Either.forRight(Collections.singletonList(new LocationLink(analysis.getUri(),
+                toRange(symbol.getRange()), toRange(symbol.getNameRange()), toRange(reference.getRange()))));
+        }
+        return Either.forLeft(Collections.singletonList(
+            new Location(analysis.getUri(), toRange(symbol.getNameRange()))));
+    }
+
+    /**
+     * Find every use of the variable at a position.
+     *
+     * @param includeDeclaration Whether the name in the defining statement is included
+     * @param cancelChecker Checked while the model is built
+     * @return The uses in document order, after the definition if it is included
+     */
+    public List<Location> provideReferences(DocumentAnalysis analysis, Position position, boolean includeDeclaration,
+                                            CancelChecker cancelChecker) {
+        SymbolTable symbols = symbolsOf(analysis, cancelChecker);
+        UseIndex.Reference reference = referenceAt(analysis, symbols, position);
+        if (reference == null) {
+            return new ArrayList<>();
+        }
+
+        String name = reference.getName();
+        List<SourceRange> uses = symbols.getUseIndex().getUses(name);
+        List<Location> result = new ArrayList<>(uses.size() + 1);
+        SymbolTable.Symbol symbol = symbols.get(name);
+        if (includeDeclaration && symbol != null && symbol.getNameRange() != null) {
+            result.add(new Location(analysis.getUri(), toRange(symbol.getNameRange())));
+        }
+        for (SourceRange use : uses) {
+            result.add(new Location(analysis.getUri(), toRange(use)));
+        }
+        return result;
+    }
+
+    /**
+     * Get the symbols of exactly the requested version; positions from an earlier one would be off.
+     */
+    private static SymbolTable symbolsOf(DocumentAnalysis analysis, CancelChecker cancelChecker) {
+        return analysis.getSymbols(cancelChecker);
+    }
+
+    private static UseIndex.Reference referenceAt(DocumentAnalysis analysis, SymbolTable symbols, Position position) {
+        int offset = analysis.getSnapshot().getRope().offsetAt(position.getLine(), position.getCharacter());
+        return symbols.getUseIndex().referenceAt(offset);
+    }
+
+    /**
+     * Describe how a variable is defined: its type, and its distribution or function.
+     */
+    private static String describe(Variable variable) {
+        if (variable instanceof StochasticVariable && ((StochasticVariable) variable).getDistribution() != null) {
+            return variable.getType() + " ~ " + ((StochasticVariable) variable).getDistribution().getName();
+        }
+        if (variable instanceof DeterministicVariable
+                && ((DeterministicVariable) variable).getExpression() instanceof FunctionCall) {
+            return variable.getType() + " = "
+                + ((FunctionCall) ((DeterministicVariable) variable).getExpression()).getName();
+        }
+        return variable.getType();
+    }
+
+    private static Range toRange(SourceRange range) {
+        return new Range(new Position(range.getStartLine(), range.getStartColumn()),
+            new Position(range.getEndLine(), range.getEndColumn()));
+    }
+}
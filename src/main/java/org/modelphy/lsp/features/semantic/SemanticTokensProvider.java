@@ -0,0 +1,561 @@
+package org.modelphy.lsp.features.semantic;
+
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
+import org.eclipse.lsp4j.SemanticTokens;
+import org.eclipse.lsp4j.SemanticTokensDelta;
+import org.eclipse.lsp4j.SemanticTokensEdit;
+import org.eclipse.lsp4j.SemanticTokensLegend;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.modelphy.antlr.ModelPhyLexer;
+import org.modelphy.antlr.ModelPhyParser;
+import org.modelphy.lsp.analysis.DocumentAnalysis;
+import org.modelphy.lsp.analysis.StatementTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classifies the names in a document for semantic highlighting.
+ *
+ * Types, distributions, deterministic functions, argument names, variables
+ * and constraints are told apart from the parse tree; variables carry
+ * modifiers for how they are defined (stochastic, deterministic) and whether
+ * they are observed. Literals, keywords and comments are left to the
+ * TextMate grammar.
+ *
+ * The latest result for each document is kept, both to answer a delta
+ * request with only the changed run of tokens and to encode the next version
+ * from: statements the incremental parser reused keep their classification,
+ * so an edit only classifies the statements it touched.
+ */
+public class SemanticTokensProvider {
+    private static final int TYPE = 0;
+    private static final int DISTRIBUTION = 1;
+    private static final int FUNCTION = 2;
+    private static final int VARIABLE = 3;
+    private static final int PARAMETER = 4;
+    private static final int CONSTRAINT = 5;
+
+    private static final int DECLARATION = 1;
+    private static final int STOCHASTIC = 1 << 1;
+    private static final int DETERMINISTIC = 1 << 2;
+    private static final int OBSERVED = 1 << 3;
+
+    private static final SemanticTokensLegend LEGEND = new SemanticTokensLegend(
+        Arrays.asList("type", "distribution", "function", "variable", "parameter", "constraint"),
+        Arrays.asList("declaration", "stochastic", "deterministic", "observed"));
+
+    private final ConcurrentHashMap<String, Result> results = new ConcurrentHashMap<>();
+    private final AtomicLong nextResultId = new AtomicLong();
+
+    /**
+     * Get the token types and modifiers the encoded data refers to.
+     */
+    public static SemanticTokensLegend getLegend() {
+        return LEGEND;
+    }
+
+    /**
+     * Classify every name in a document.
+     *
+     * @param cancelChecker Checked before encoding starts
+     */
+    public SemanticTokens provideFull(DocumentAnalysis analysis, CancelChecker cancelChecker) {
+        Result result = resultFor(analysis, cancelChecker);
+        return new SemanticTokens(result.id, toList(result.data, 0, result.data.length));
+    }
+
+    /**
+     * Classify every name in a document and describe the result as a change
+     * to an earlier one.
+     *
+     * @param previousResultId The result the client holds
+     * @param cancelChecker Checked before encoding starts
+     * @return The edit from that result, or the full tokens if it is not the latest one sent
+     */
+    public Either<SemanticTokens, SemanticTokensDelta> provideDelta(DocumentAnalysis analysis, String previousResultId,
+                                                                   CancelChecker cancelChecker) {
+        Result previous = results.get(analysis.getUri());
+        Result result = resultFor(analysis, cancelChecker);
+        if (previous == null || !previous.id.equals(previousResultId)) {
+            return Either.forLeft(new SemanticTokens(result.id, toList(result.data, 0, result.data.length)));
+        }
+        if (previous == result) {
+            return Either.forRight(new SemanticTokensDelta(Collections.emptyList(), result.id));
+        }
+
+        // Unchanged tokens before and after the edit encode to the same integers, since positions are relative
+        int[] before = previous.data;
+        int[] after = result.data;
+        int limit = Math.min(before.length, after.length);
+        int prefix = 0;
+        while (prefix < limit && before[prefix] == after[prefix]) {
+            prefix++;
+        }
+        prefix -= prefix % 5;
+        int suffix = 0;
+        while (suffix < limit - prefix && before[before.length - 1 - suffix] == after[after.length - 1 - suffix]) {
+            suffix++;
+        }
+        suffix -= suffix % 5;
+
+        List<SemanticTokensEdit> edits = new ArrayList<>(1);
+        if (prefix + suffix < before.length || prefix + suffix < after.length) {
+            edits.add(new SemanticTokensEdit(prefix, before.length - prefix - suffix,
+                toList(after, prefix, after.length - suffix)));
+        }
+        return Either.forRight(new SemanticTokensDelta(edits, result.id));
+    }
+
+    /**
+     * Drop the saved result for a closed document.
+     */
+    public void forget(String uri) {
+        results.remove(uri);
+    }
+
+    /**
+     * Get the encoded tokens for a document version, reusing the latest
+     * result if it is for the same version and building on it if it is for
+     * an earlier one.
+     */
+    private synchronized Result resultFor(DocumentAnalysis analysis, CancelChecker cancelChecker) {
+        Result latest = results.get(analysis.getUri());
+        if (latest != null && latest.version == analysis.getVersion()) {
+            return latest;
+        }
+
+        // Encoding updates the variable counts it takes over from the latest result, so it always runs to the end
+        cancelChecker.checkCanceled();
+        String id = Long.toString(nextResultId.incrementAndGet());
+        if (latest != null && latest.version > analysis.getVersion()) {
+            // A late request for an older version must not replace the newer result
+            return encode(id, analysis.getVersion(), analysis.getStatements(), null);
+        }
+        Result result = encode(id, analysis.getVersion(), analysis.getStatements(), latest);
+        results.put(analysis.getUri(), result);
+        return result;
+    }
+
+    /**
+     * Encode the tokens of a document as the protocol's relative five-integer groups.
+     *
+     * Fragments shared with the previous result at the start and end of the
+     * document keep their classification. If the statements in between did
+     * not change the modifiers of any variable, the integers for the shared
+     * fragments are copied from the previous result too: relative positions
+     * do not change when a run of tokens moves, so only the first token after
+     * the edit is encoded again.
+     *
+     * @param previous The result for an earlier version, or null to encode from scratch.
+     *                 Its variable counts are taken over by the new result.
+     */
+    Result encode(String id, int version, StatementTable table, Result previous) {
+        int n = table.size();
+        StatementTable.Fragment[] fragments = new StatementTable.Fragment[n];
+        for (int i = 0; i < n; i++) {
+            fragments[i] = table.getFragment(i);
+        }
+
+        int prefix = 0;
+        int suffix = 0;
+        if (previous != null) {
+            StatementTable.Fragment[] old = previous.fragments;
+            int limit = Math.min(n, old.length);
+            while (prefix < limit && old[prefix] == fragments[prefix]) {
+                prefix++;
+            }
+            while (suffix < limit - prefix && old[old.length - 1 - suffix] == fragments[n - 1 - suffix]) {
+                suffix++;
+            }
+        }
+
+        FragmentTokens[] tokens = new FragmentTokens[n];
+        Variables variables = previous != null ? previous.variables : new Variables();
+        Set<String> changed = new HashSet<>();
+        if (previous != null) {
+            System.arraycopy(previous.tokens, 0, tokens, 0, prefix);
+            System.arraycopy(previous.tokens, previous.tokens.length - suffix, tokens, n - suffix, suffix);
+            for (int i = prefix; i < previous.tokens.length - suffix; i++) {
+                variables.remove(previous.tokens[i], changed);
+            }
+        }
+        for (int i = prefix; i < n - suffix; i++) {
+            tokens[i] = classify(fragments[i]);
+            variables.add(tokens[i], changed);
+        }
+
+        int[] starts = new int[n + 1];
+        int[] data;
+        if (previous == null || !changed.isEmpty()) {
+            // Modifiers may have changed anywhere, so encode every token
+            for (int i = 0; i < n; i++) {
+                starts[i + 1] = starts[i] + tokens[i].size() * 5;
+            }
+            data = new int[starts[n]];
+            encode(table, tokens, variables, 0, n, data, starts);
+        } else {
+            int suffixFrom = previous.tokens.length - suffix;
+            System.arraycopy(previous.starts, 0, starts, 0, prefix + 1);
+            for (int i = prefix; i < n - suffix; i++) {
+                starts[i + 1] = starts[i] + tokens[i].size() * 5;
+            }
+            int shift = starts[n - suffix] - previous.starts[suffixFrom];
+            for (int i = n - suffix; i < n; i++) {
+                starts[i + 1] = previous.starts[suffixFrom + i - (n - suffix) + 1] + shift;
+            }
+
+            data = new int[starts[n]];
+            System.arraycopy(previous.data, 0, data, 0, starts[prefix]);
+            System.arraycopy(previous.data, previous.starts[suffixFrom], data, starts[n - suffix],
+                previous.data.length - previous.starts[suffixFrom]);
+            encode(table, tokens, variables, prefix, n - suffix, data, starts);
+
+            // The first token after the edit moves relative to the one before it
+            int first = n - suffix;
+            while (first < n && tokens[first].size() == 0) {
+                first++;
+            }
+            if (first < n) {
+                int[] position = position(table, first, tokens[first].tokens[0]);
+                int[] before = lastPosition(table, tokens, first);
+                data[starts[first]] = position[0] - before[0];
+                data[starts[first] + 1] = position[0] == before[0] ? position[1] - before[1] : position[1];
+            }
+        }
+        return new Result(id, version, fragments, tokens, starts, data, variables);
+    }
+
+    /**
+     * Encode the tokens of a range of fragments into their places in the data.
+     */
+    private static void encode(StatementTable table, FragmentTokens[] tokens, Variables variables,
+                               int from, int to, int[] data, int[] starts) {
+        int[] before = lastPosition(table, tokens, from);
+        int previousLine = before[0];
+        int previousColumn = before[1];
+        for (int i = from; i < to; i++) {
+            FragmentTokens fragment = tokens[i];
+            int n = starts[i];
+            for (int j = 0; j < fragment.size(); j++) {
+                Token token = fragment.tokens[j];
+                int[] position = position(table, i, token);
+                int modifiers = fragment.modifiers[j];
+                if (fragment.names[j] != null) {
+                    modifiers |= variables.get(fragment.names[j]);
+                }
+
+                data[n++] = position[0] - previousLine;
+                data[n++] = position[0] == previousLine ? position[1] - previousColumn : position[1];
+                data[n++] = token.getStopIndex() - token.getStartIndex() + 1;
+                data[n++] = fragment.types[j];
+                data[n++] = modifiers;
+                previousLine = position[0];
+                previousColumn = position[1];
+            }
+        }
+    }
+
+    /**
+     * Get the current line and column of one of a fragment's tokens.
+     */
+    private static int[] position(StatementTable table, int index, Token token) {
+        int lexedLine = token.getLine() - 1;
+        return new int[] {
+            table.toDocumentLine(index, lexedLine),
+            table.toDocumentColumn(index, lexedLine, token.getCharPositionInLine())
+        };
+    }
+
+    /**
+     * Get the position of the last token before a fragment, which the
+     * fragment's first token is encoded relative to; the document start if there is none.
+     */
+    private static int[] lastPosition(StatementTable table, FragmentTokens[] tokens, int index) {
+        for (int i = index - 1; i >= 0; i--) {
+            if (tokens[i].size() > 0) {
+                return position(table, i, tokens[i].tokens[tokens[i].size() - 1]);
+            }
+        }
+        return new int[] {0, 0};
+    }
+
+    private static FragmentTokens classify(StatementTable.Fragment fragment) {
+        FragmentTokens tokens = new FragmentTokens();
+        if (fragment.getTree() != null) {
+            tokens.statement(fragment.getTree());
+        }
+        tokens.trim();
+        return tokens;
+    }
+
+    private static List<Integer> toList(int[] data, int from, int to) {
+        List<Integer> list = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            list.add(data[i]);
+        }
+        return list;
+    }
+
+    /**
+     * An encoded result as last sent for a document, with what is needed to
+     * encode the next version from it.
+     */
+    static final class Result {
+        private final String id;
+        private final int version;
+        private final StatementTable.Fragment[] fragments;
+        private final FragmentTokens[] tokens;
+        // Index into data of each fragment's first token
+        private final int[] starts;
+        private final int[] data;
+        private final Variables variables;
+
+        Result(String id, int version, StatementTable.Fragment[] fragments, FragmentTokens[] tokens,
+               int[] starts, int[] data, Variables variables) {
+            this.id = id;
+            this.version = version;
+            this.fragments = fragments;
+            this.tokens = tokens;
+            this.starts = starts;
+            this.data = data;
+            this.variables = variables;
+        }
+    }
+
+    /**
+     * The modifiers of each variable, counted over the statements that give
+     * them so a statement can be taken away again.
+     */
+    static final class Variables {
+        private static final int[] BITS = {STOCHASTIC, DETERMINISTIC, OBSERVED};
+        private final Map<String, int[]> counts = new HashMap<>();
+
+        int get(String name) {
+            int[] count = counts.get(name);
+            int modifiers = 0;
+            if (count != null) {
+                for (int b = 0; b < BITS.length; b++) {
+                    if (count[b] > 0) {
+                        modifiers |= BITS[b];
+                    }
+                }
+            }
+            return modifiers;
+        }
+
+        void add(FragmentTokens fragment, Set<String> changed) {
+            update(fragment, 1, changed);
+        }
+
+        void remove(FragmentTokens fragment, Set<String> changed) {
+            update(fragment, -1, changed);
+        }
+
+        private void update(FragmentTokens fragment, int delta, Set<String> changed) {
+            for (Map.Entry<String, Integer> entry : fragment.described.entrySet()) {
+                int modifiers = entry.getValue();
+                if (modifiers == 0) {
+                    continue;
+                }
+                String name = entry.getKey();
+                int before = get(name);
+                int[] count = counts.computeIfAbsent(name, k -> new int[BITS.length]);
+                for (int b = 0; b < BITS.length; b++) {
+                    if ((modifiers & BITS[b]) != 0) {
+                        count[b] += delta;
+                    }
+                }
+                if (count[0] == 0 && count[1] == 0 && count[2] == 0) {
+                    counts.remove(name);
+                }
+                if (get(name) != before) {
+                    changed.add(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * The classified names of one statement, with positions as lexed.
+     *
+     * Variables keep their name so the modifiers that depend on other
+     * statements, such as being observed, are looked up for each version.
+     */
+    static final class FragmentTokens {
+        private Token[] tokens = new Token[8];
+        private int[] types = new int[8];
+        private int[] modifiers = new int[8];
+        private String[] names = new String[8];
+        private int size;
+        // Variables this statement defines or observes, with their modifiers
+        private final Map<String, Integer> described = new HashMap<>(2);
+
+        int size() {
+            return size;
+        }
+
+        void statement(ModelPhyParser.StatementContext statement) {
+            if (statement.declaration() != null) {
+                ModelPhyParser.DeclarationContext declaration = statement.declaration();
+                type(declaration.type());
+                // As in the model, a declaration whose value is a function call is deterministic
+                declare(declaration.identifier(),
+                    declaration.expression() instanceof ModelPhyParser.FunctionCallExprContext ? DETERMINISTIC : 0);
+                expression(declaration.expression());
+            } else if (statement.stochasticAssignment() != null) {
+                ModelPhyParser.StochasticAssignmentContext assignment = statement.stochasticAssignment();
+                type(assignment.type());
+                declare(assignment.identifier(), STOCHASTIC);
+                functionCall(assignment.functionCall());
+                distribution(assignment.distribution());
+            } else if (statement.deterministicAssignment() != null) {
+                ModelPhyParser.DeterministicAssignmentContext assignment = statement.deterministicAssignment();
+                type(assignment.type());
+                declare(assignment.identifier(), DETERMINISTIC);
+                expression(assignment.expression());
+            } else if (statement.observationStatement() != null) {
+                ModelPhyParser.ObservationStatementContext observation = statement.observationStatement();
+                Token name = identifier(observation.identifier());
+                if (name != null) {
+                    described.merge(name.getText(), OBSERVED, (a, b) -> a | b);
+                    add(name, VARIABLE, 0, name.getText());
+                }
+                if (observation.keyValueList() != null) {
+                    for (ModelPhyParser.KeyValueContext keyValue : observation.keyValueList().keyValue()) {
+                        add(identifier(keyValue.identifier()), PARAMETER, 0, null);
+                        expression(keyValue.value);
+                    }
+                }
+            } else if (statement.constraintStatement() != null) {
+                ModelPhyParser.ConstraintStatementContext constraint = statement.constraintStatement();
+                add(identifier(constraint.identifier()), CONSTRAINT, DECLARATION, null);
+                functionCall(constraint.functionCall());
+            }
+        }
+
+        private void declare(ModelPhyParser.IdentifierContext identifier, int kind) {
+            Token name = identifier(identifier);
+            if (name != null) {
+                described.merge(name.getText(), kind, (a, b) -> a | b);
+                add(name, VARIABLE, DECLARATION, name.getText());
+            }
+        }
+
+        private void type(ModelPhyParser.TypeContext type) {
+            if (type != null) {
+                typeNames(type);
+            }
+        }
+
+        private void typeNames(ParseTree tree) {
+            if (tree instanceof TerminalNode) {
+                int tokenType = ((TerminalNode) tree).getSymbol().getType();
+                if (tokenType != ModelPhyLexer.LT && tokenType != ModelPhyLexer.GT
+                    && tokenType != ModelPhyLexer.COMMA && tokenType != ModelPhyLexer.ARRAY_SUFFIX) {
+                    add(((TerminalNode) tree).getSymbol(), TYPE, 0, null);
+                }
+                return;
+            }
+            for (int i = 0; i < tree.getChildCount(); i++) {
+                typeNames(tree.getChild(i));
+            }
+        }
+
+        private void distribution(ModelPhyParser.DistributionContext distribution) {
+            if (distribution != null) {
+                add(identifier(distribution.identifier()), DISTRIBUTION, 0, null);
+                arguments(distribution.namedArgumentList());
+            }
+        }
+
+        private void functionCall(ModelPhyParser.FunctionCallContext call) {
+            if (call != null) {
+                add(identifier(call.identifier()), FUNCTION, 0, null);
+                arguments(call.namedArgumentList());
+            }
+        }
+
+        private void arguments(ModelPhyParser.NamedArgumentListContext arguments) {
+            if (arguments == null) {
+                return;
+            }
+            for (ModelPhyParser.NamedArgumentContext argument : arguments.namedArgument()) {
+                // The name is an identifier or a type keyword; error recovery may leave it empty
+                if (argument.name != null && argument.name.getChildCount() > 0) {
+                    add(argument.name.getStart(), PARAMETER, 0, null);
+                }
+                expression(argument.value);
+            }
+        }
+
+        private void expression(ModelPhyParser.ExpressionContext expression) {
+            if (expression instanceof ModelPhyParser.IdentifierExprContext) {
+                Token name = identifier(((ModelPhyParser.IdentifierExprContext) expression).identifier());
+                if (name != null) {
+                    add(name, VARIABLE, 0, name.getText());
+                }
+            } else if (expression instanceof ModelPhyParser.FunctionCallExprContext) {
+                functionCall(((ModelPhyParser.FunctionCallExprContext) expression).functionCall());
+            } else if (expression instanceof ModelPhyParser.ArrayExprContext) {
+                ModelPhyParser.ArrayLiteralContext array = ((ModelPhyParser.ArrayExprContext) expression).arrayLiteral();
+                if (array != null) {
+                    for (ModelPhyParser.ExpressionContext element : array.expression()) {
+                        expression(element);
+                    }
+                }
+            } else if (expression instanceof ModelPhyParser.ParenExprContext) {
+                expression(((ModelPhyParser.ParenExprContext) expression).expression());
+            }
+        }
+
+        /**
+         * Get the name token of an identifier, or null if the parser had to make one up.
+         */
+        private static Token identifier(ModelPhyParser.IdentifierContext identifier) {
+            TerminalNode name = identifier != null ? identifier.IDENTIFIER() : null;
+            return name != null ? name.getSymbol() : null;
+        }
+
+        private void add(Token token, int type, int flags, String name) {
+            // Tokens conjured by error recovery have no text in the document
+            if (token == null || token.getType() == Token.EOF || token.getStartIndex() < 0
+                || token.getStopIndex() < token.getStartIndex()) {
+                return;
+            }
+            // Keep tokens in document order; error recovery can revisit a token
+            if (size > 0 && token.getStartIndex() <= tokens[size - 1].getStartIndex()) {
+                return;
+            }
+            if (size == tokens.length) {
+                tokens = Arrays.copyOf(tokens, size * 2);
+                types = Arrays.copyOf(types, size * 2);
+                modifiers = Arrays.copyOf(modifiers, size * 2);
+                names = Arrays.copyOf(names, size * 2);
+            }
+            tokens[size] = token;
+            types[size] = type;
+            modifiers[size] = flags;
+            names[size] = name;
+            size++;
+        }
+
+        void trim() {
+            tokens = Arrays.copyOf(tokens, size);
+            types = Arrays.copyOf(types, size);
+            modifiers = Arrays.copyOf(modifiers, size);
+            names = Arrays.copyOf(names, size);
+        }
+    }
+}
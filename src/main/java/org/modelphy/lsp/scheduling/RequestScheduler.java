@@ -0,0 +1,376 @@
+package org.modelphy.lsp.scheduling;
+
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
+import org.eclipse.lsp4j.jsonrpc.ResponseErrorException;
+import org.modelphy.lsp.telemetry.ServerLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Runs the language server's work on a shared pool of threads, one logical
+ * serial queue per document.
+ *
+ * Work is submitted under a key, normally a document URI. Tasks with the
+ * same key run one at a time, so everything done for one document happens in
+ * a single order; tasks for different documents run in parallel. Within a
+ * key, and across keys, the task with the most urgent {@link Priority} runs
+ * first, and tasks of equal priority run in the order they were submitted.
+ *
+ * The one exception is interactive work: it does not wait for background
+ * work of its document that is already running, such as diagnostics, but
+ * runs alongside it. Both only read immutable analyses, and a hover should
+ * not wait seconds for a large document's diagnostics. Interactive tasks
+ * still run one at a time per key. Background work never takes the last
+ * thread, so an interactive request always finds one free.
+ *
+ * A task sees cancellation of its future through the {@link CancelChecker}
+ * it is given; a task cancelled before it starts is never run.
+ */
+public class RequestScheduler {
+
+    /**
+     * How urgent a task is. Earlier constants run first.
+     */
+    public enum Priority {
+        /** Requests the user is waiting on, such as hover, completion and formatting. */
+        INTERACTIVE,
+        /** Requests the editor makes on its own, such as semantic tokens. */
+        NORMAL,
+        /** Diagnostics of open documents. */
+        BACKGROUND,
+        /** Workspace indexing. */
+        INDEXING;
+
+        boolean isBackground() {
+            return compareTo(BACKGROUND) >= 0;
+        }
+    }
+
+    private final ServerLog log;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Map<String, Lane> lanes = new HashMap<>();
+    private final TreeSet<Lane> ready = new TreeSet<>((a, b) -> a.tasks.peek().compareTo(b.tasks.peek()));
+    private final List<Thread> threads = new ArrayList<>();
+    private final int backgroundLimit;
+    private final int[] queued = new int[Priority.values().length];
+    private long sequence;
+    private int backgroundRunning;
+    private boolean stopped;
+
+    /**
+     * Create a scheduler and start its threads.
+     *
+     * @param threadCount The number of worker threads; at least 2, so one is kept for interactive work
+     * @param log Where failed requests are reported
+     */
+    public RequestScheduler(int threadCount, ServerLog log) {
+        if (threadCount < 2) {
+            throw new IllegalArgumentException("Thread count must be at least 2: " + threadCount);
+        }
+        this.log = log;
+        this.backgroundLimit = threadCount - 1;
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread(this::work, "modelphy-worker-" + (i + 1));
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Run work after every earlier task with the same key and at least the same priority.
+     *
+     * @param key The document the work belongs to, or null for work that needs no ordering
+     * @param priority How urgent the work is
+     * @param work The work; checks the given CancelChecker to notice cancellation
+     * @return The result; cancelling it cancels the work
+     */
+    public <T> CompletableFuture<T> submit(String key, Priority priority, Function<CancelChecker, T> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Task task = new Task(priority, future, () -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(work.apply(() -> {
+                    if (future.isCancelled()) {
+                        throw new CancellationException();
+                    }
+                }));
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        lock.lock();
+        try {
+            if (stopped) {
+                future.cancel(false);
+                return future;
+            }
+            task.sequence = sequence++;
+            Lane lane = key != null ? lanes.computeIfAbsent(key, Lane::new) : new Lane(null);
+            if (lane.queued) {
+                // The lane's place in the ready set depends on its first task
+                ready.remove(lane);
+                lane.queued = false;
+            }
+            lane.tasks.add(task);
+            queued[priority.ordinal()]++;
+            if (offer(lane)) {
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Turn submitted work into the answer to an LSP request.
+     *
+     * Cancelling the answer, as LSP4J does when the client sends
+     * $/cancelRequest, cancels the work. Cancelled work is answered as
+     * cancelled and a ResponseErrorException is sent to the client as it is;
+     * any other failure is logged and answered with the fallback.
+     *
+     * @param method The request name for the log
+     * @param work The submitted work
+     * @param fallback The answer if the work fails
+     */
+    public <T> CompletableFuture<T> respond(String method, CompletableFuture<T> work, T fallback) {
+        CompletableFuture<T> answer = work.handle((result, error) -> {
+            if (error == null) {
+                return result;
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof CancellationException) {
+                throw (CancellationException) cause;
+            }
+            if (cause instanceof ResponseErrorException) {
+                // An error meant for the client, such as ContentModified
+                throw (ResponseErrorException) cause;
+            }
+            log.log(method + " error: " + cause.getMessage());
+            return fallback;
+        });
+        answer.whenComplete((result, error) -> {
+            if (answer.isCancelled()) {
+                work.cancel(false);
+            }
+        });
+        return answer;
+    }
+
+    /**
+     * Get an executor that runs each task on its own, at the given priority.
+     */
+    public Executor executor(Priority priority) {
+        return command -> submit(null, priority, cancelChecker -> {
+            command.run();
+            return null;
+        });
+    }
+
+    /**
+     * Get the number of tasks waiting to run, by priority, and of background tasks running.
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new LinkedHashMap<>();
+        lock.lock();
+        try {
+            for (Priority priority : Priority.values()) {
+                depths.put(priority.name().toLowerCase(), queued[priority.ordinal()]);
+            }
+            depths.put("backgroundRunning", backgroundRunning);
+        } finally {
+            lock.unlock();
+        }
+        return depths;
+    }
+
+    /**
+     * Stop the threads. Queued tasks are cancelled; running ones finish on their own.
+     */
+    public void shutdown() {
+        List<Task> dropped = new ArrayList<>();
+        lock.lock();
+        try {
+            stopped = true;
+            for (Lane lane : ready) {
+                dropped.addAll(lane.tasks);
+            }
+            for (Lane lane : lanes.values()) {
+                if (!lane.queued) {
+                    dropped.addAll(lane.tasks);
+                }
+            }
+            lanes.clear();
+            ready.clear();
+            Arrays.fill(queued, 0);
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        // Outside the lock, since cancelling runs the futures' dependent actions
+        for (Task task : dropped) {
+            task.future.cancel(false);
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            lock.lock();
+            try {
+                while ((task = next()) == null) {
+                    if (stopped) {
+                        return;
+                    }
+                    available.awaitUninterruptibly();
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                task.work.run();
+            } finally {
+                finish(task);
+            }
+        }
+    }
+
+    /**
+     * Take the most urgent task that may run now. Called with the lock held.
+     *
+     * @return The task, or null if there is none
+     */
+    private Task next() {
+        if (stopped || ready.isEmpty()) {
+            return null;
+        }
+        Lane lane = ready.first();
+        Task task = lane.tasks.peek();
+        if (task.priority.isBackground() && backgroundRunning >= backgroundLimit) {
+            // Everything still waiting is background work too
+            return null;
+        }
+
+        ready.pollFirst();
+        lane.queued = false;
+        lane.tasks.poll();
+        queued[task.priority.ordinal()]--;
+        task.lane = lane;
+        if (lane.running != null) {
+            // Interactive work overtaking the lane's running background task
+            lane.overtaking = task;
+        } else {
+            lane.running = task;
+            // Interactive work queued behind it may still start
+            offer(lane);
+        }
+        if (task.priority.isBackground()) {
+            backgroundRunning++;
+        }
+        return task;
+    }
+
+    /**
+     * Put a lane in the ready set if its first task may start now. Called
+     * with the lock held and the lane not in the ready set.
+     *
+     * @return Whether the lane was added
+     */
+    private boolean offer(Lane lane) {
+        Task first = lane.tasks.peek();
+        boolean startable = first != null && !stopped && (lane.running == null
+            || lane.running.priority.isBackground() && lane.overtaking == null
+                && first.priority == Priority.INTERACTIVE);
+        if (startable) {
+            ready.add(lane);
+            lane.queued = true;
+        }
+        return startable;
+    }
+
+    private void finish(Task task) {
+        lock.lock();
+        try {
+            Lane lane = task.lane;
+            if (lane.overtaking == task) {
+                lane.overtaking = null;
+            } else {
+                // An interactive task that overtook this one now holds the lane
+                lane.running = lane.overtaking;
+                lane.overtaking = null;
+            }
+            if (task.priority.isBackground()) {
+                backgroundRunning--;
+            }
+            if (lane.queued) {
+                // Its place in the ready set may change with what is running
+                ready.remove(lane);
+                lane.queued = false;
+            }
+            if (!offer(lane) && lane.key != null && lane.tasks.isEmpty()
+                    && lane.running == null && lane.overtaking == null) {
+                lanes.remove(lane.key, lane);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The queue of one key. At most one of its tasks runs at a time, plus an
+     * interactive one while that task is background work.
+     */
+    private static final class Lane {
+        private final String key;
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+        private Task running;
+        private Task overtaking;
+        private boolean queued;
+
+        Lane(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final class Task implements Comparable<Task> {
+        private final Priority priority;
+        private final CompletableFuture<?> future;
+        private final Runnable work;
+        private long sequence;
+        private Lane lane;
+
+        Task(Priority priority, CompletableFuture<?> future, Runnable work) {
+            this.priority = priority;
+            this.future = future;
+            this.work = work;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int result = priority.compareTo(other.priority);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.modelphy.lsp.telemetry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations.
+ *
+ * Durations are counted in microsecond buckets that grow exponentially, with
+ * eight buckets per power of two, so a percentile is reported within about
+ * 12% of the true value. Recording is a few atomic increments and never
+ * allocates, so it is cheap enough for every request.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Record one duration.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucketOf(micros));
+        total.increment();
+        sumMicros.add(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        sumMicros.reset();
+        maxMicros.set(0);
+    }
+
+    /**
+     * Summarize the durations recorded so far.
+     *
+     * Recording may continue meanwhile; the summary is then approximate but
+     * never inconsistent enough to fail.
+     */
+    public LatencySummary summarize() {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return new LatencySummary(0, 0, 0, 0, 0, 0);
+        }
+        // A bucket's middle can lie past the largest duration in it
+        double max = maxMicros.get() / 1000.0;
+        return new LatencySummary(count,
+            sumMicros.sum() / 1000.0 / Math.max(1, total.sum()),
+            Math.min(max, percentile(snapshot, count, 0.50)),
+            Math.min(max, percentile(snapshot, count, 0.95)),
+            Math.min(max, percentile(snapshot, count, 0.99)),
+            max);
+    }
+
+    /**
+     * @return The percentile in milliseconds, taken as the middle of its bucket
+     */
+    private static double percentile(long[] snapshot, long count, double quantile) {
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return (lowerBound(i) + lowerBound(i + 1) - 1) / 2.0 / 1000.0;
+            }
+        }
+        return lowerBound(BUCKETS - 1) / 1000.0;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+}
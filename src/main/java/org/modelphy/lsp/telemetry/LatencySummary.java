@@ -0,0 +1,54 @@
+package org.modelphy.lsp.telemetry;
+
+/**
+ * Percentiles of a {@link LatencyHistogram} at one moment, in milliseconds.
+ *
+ * The getters make this an open type for JMX; the fields are what
+ * {@code modelphy/stats} sends to the client.
+ */
+public final class LatencySummary {
+    private final long count;
+    private final double mean;
+    private final double p50;
+    private final double p95;
+    private final double p99;
+    private final double max;
+
+    public LatencySummary(long count, double mean, double p50, double p95, double p99, double max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getP50() {
+        return p50;
+    }
+
+    public double getP95() {
+        return p95;
+    }
+
+    public double getP99() {
+        return p99;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms", count, mean, p50, p95, p99, max);
+    }
+}
@@ -0,0 +1,62 @@
+package org.modelphy.lsp.telemetry;
+
+import org.eclipse.lsp4j.LogTraceParams;
+import org.eclipse.lsp4j.TraceValue;
+import org.eclipse.lsp4j.services.LanguageClient;
+
+/**
+ * The language server's log.
+ *
+ * Messages go to stderr, since stdout carries the JSON-RPC stream, and to
+ * the client as $/logTrace notifications when the client has turned tracing
+ * on with {@code $/setTrace}. Verbose details are only sent at the
+ * {@code verbose} level.
+ */
+public class ServerLog {
+    private volatile LanguageClient client;
+    private volatile String trace = TraceValue.Off;
+
+    public void connect(LanguageClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Set the trace level: {@code off}, {@code messages} or {@code verbose}.
+     */
+    public void setTrace(String trace) {
+        this.trace = trace != null ? trace : TraceValue.Off;
+    }
+
+    public String getTrace() {
+        return trace;
+    }
+
+    /**
+     * Check if the client wants trace messages, so callers can skip building them.
+     */
+    public boolean isTracing() {
+        return !TraceValue.Off.equals(trace) && client != null;
+    }
+
+    /**
+     * Log a message to stderr and, if tracing, to the client.
+     */
+    public void log(String message) {
+        System.err.println(message);
+        trace(message, null);
+    }
+
+    /**
+     * Send a message to the client only, if it is tracing.
+     *
+     * @param verbose Details sent only at the verbose level; may be null
+     */
+    public void trace(String message, String verbose) {
+        LanguageClient target = client;
+        String level = trace;
+        if (target == null || TraceValue.Off.equals(level)) {
+            return;
+        }
+        target.logTrace(new LogTraceParams(message, TraceValue.Verbose.equals(level) ? verbose : null));
+    }
+}
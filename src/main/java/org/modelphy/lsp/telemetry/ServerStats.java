@@ -0,0 +1,212 @@
+package org.modelphy.lsp.telemetry;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Performance counters of one language server.
+ *
+ * The same numbers are reported through JMX, through the
+ * {@code modelphy/stats} request and, per request, through $/logTrace.
+ */
+public class ServerStats implements ServerStatsMXBean {
+    /** The histogram of the time from an edit to the diagnostics that reflect it. */
+    public static final String DIAGNOSTICS = "textDocument/didChange -> publishDiagnostics";
+
+    private static final String OBJECT_NAME = "org.modelphy:type=LanguageServer";
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private final long startNanos = System.nanoTime();
+    private final ConcurrentHashMap<String, LatencyHistogram> requests = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Allocation> allocations = new ConcurrentHashMap<>();
+    private final LatencyHistogram parseTimes = new LatencyHistogram();
+    private final LatencyHistogram modelBuildTimes = new LatencyHistogram();
+    private final LongAdder analysisHits = new LongAdder();
+    private final LongAdder analysisMisses = new LongAdder();
+    private volatile Supplier<Map<String, Integer>> queueDepths = Collections::emptyMap;
+
+    /**
+     * Get the latency histogram of a request method, creating it on first use.
+     */
+    public LatencyHistogram requestTimes(String method) {
+        return requests.computeIfAbsent(method, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Get the bytes the current thread has allocated so far.
+     *
+     * @return The byte count, or -1 if the JVM does not count allocations
+     */
+    public static long allocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    /**
+     * Count the bytes one request allocated on its worker thread.
+     *
+     * @param bytes The difference between two {@link #allocatedBytes()} readings; ignored if negative
+     */
+    public void recordAllocation(String method, long bytes) {
+        if (bytes < 0) {
+            return;
+        }
+        Allocation allocation = allocations.computeIfAbsent(method, key -> new Allocation());
+        allocation.bytes.add(bytes);
+        allocation.count.increment();
+    }
+
+    public LatencyHistogram parseTimes() {
+        return parseTimes;
+    }
+
+    public LatencyHistogram modelBuildTimes() {
+        return modelBuildTimes;
+    }
+
+    /**
+     * Count an analysis lookup.
+     *
+     * @param hit Whether the version was already analysed
+     */
+    public void analysisLookup(boolean hit) {
+        (hit ? analysisHits : analysisMisses).increment();
+    }
+
+    /**
+     * Set where queue depths are read from.
+     */
+    public void setQueueDepths(Supplier<Map<String, Integer>> queueDepths) {
+        this.queueDepths = queueDepths;
+    }
+
+    /**
+     * Register these counters with the platform MBean server.
+     *
+     * A second server in the same JVM keeps its counters to itself.
+     */
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            System.err.println("Could not register " + OBJECT_NAME + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get all counters as the body of a {@code modelphy/stats} response.
+     */
+    public Map<String, Object> report() {
+        Map<String, Object> analysisCache = new LinkedHashMap<>();
+        analysisCache.put("hits", getAnalysisCacheHits());
+        analysisCache.put("misses", getAnalysisCacheMisses());
+        analysisCache.put("hitRate", getAnalysisCacheHitRate());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("uptimeSeconds", getUptimeSeconds());
+        report.put("requests", getRequestLatencies());
+        report.put("allocatedBytesPerRequest", getRequestAllocations());
+        report.put("queueDepths", getQueueDepths());
+        report.put("analysisCache", analysisCache);
+        report.put("parse", getParseTimes());
+        report.put("modelBuild", getModelBuildTimes());
+        return report;
+    }
+
+    @Override
+    public long getUptimeSeconds() {
+        return (System.nanoTime() - startNanos) / 1_000_000_000L;
+    }
+
+    @Override
+    public Map<String, LatencySummary> getRequestLatencies() {
+        Map<String, LatencySummary> latencies = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : requests.entrySet()) {
+            latencies.put(entry.getKey(), entry.getValue().summarize());
+        }
+        return latencies;
+    }
+
+    @Override
+    public Map<String, Long> getRequestAllocations() {
+        Map<String, Long> perRequest = new TreeMap<>();
+        for (Map.Entry<String, Allocation> entry : allocations.entrySet()) {
+            long count = entry.getValue().count.sum();
+            if (count > 0) {
+                perRequest.put(entry.getKey(), entry.getValue().bytes.sum() / count);
+            }
+        }
+        return perRequest;
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        return queueDepths.get();
+    }
+
+    @Override
+    public long getAnalysisCacheHits() {
+        return analysisHits.sum();
+    }
+
+    @Override
+    public long getAnalysisCacheMisses() {
+        return analysisMisses.sum();
+    }
+
+    @Override
+    public double getAnalysisCacheHitRate() {
+        long hits = analysisHits.sum();
+        long lookups = hits + analysisMisses.sum();
+        return lookups > 0 ? (double) hits / lookups : 0;
+    }
+
+    @Override
+    public LatencySummary getParseTimes() {
+        return parseTimes.summarize();
+    }
+
+    @Override
+    public LatencySummary getModelBuildTimes() {
+        return modelBuildTimes.summarize();
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : requests.values()) {
+            histogram.reset();
+        }
+        allocations.clear();
+        parseTimes.reset();
+        modelBuildTimes.reset();
+        analysisHits.reset();
+        analysisMisses.reset();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (counter.isThreadAllocatedMemorySupported() && counter.isThreadAllocatedMemoryEnabled()) {
+                return counter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bytes allocated by the requests of one method.
+     */
+    private static final class Allocation {
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder count = new LongAdder();
+    }
+}
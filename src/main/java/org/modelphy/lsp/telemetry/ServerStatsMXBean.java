@@ -0,0 +1,54 @@
+package org.modelphy.lsp.telemetry;
+
+import java.util.Map;
+
+/**
+ * The language server's performance counters as seen through JMX.
+ */
+public interface ServerStatsMXBean {
+
+    /**
+     * Get the seconds since the server started.
+     */
+    long getUptimeSeconds();
+
+    /**
+     * Get the latency of each request method, from arrival to answer.
+     * Diagnostics are measured from the first edit they cover to publication.
+     */
+    Map<String, LatencySummary> getRequestLatencies();
+
+    /**
+     * Get the mean bytes allocated by one request of each method, on the thread that ran it.
+     */
+    Map<String, Long> getRequestAllocations();
+
+    /**
+     * Get the number of tasks waiting in the scheduler, by priority.
+     */
+    Map<String, Integer> getQueueDepths();
+
+    long getAnalysisCacheHits();
+
+    long getAnalysisCacheMisses();
+
+    /**
+     * Get the share of analysis lookups answered without reparsing.
+     */
+    double getAnalysisCacheHitRate();
+
+    /**
+     * Get the time taken by incremental reparses.
+     */
+    LatencySummary getParseTimes();
+
+    /**
+     * Get the time taken to assemble document models from parsed statements.
+     */
+    LatencySummary getModelBuildTimes();
+
+    /**
+     * Clear all counters and histograms.
+     */
+    void reset();
+}
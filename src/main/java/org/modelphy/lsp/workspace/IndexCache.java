@@ -0,0 +1,188 @@
+package org.modelphy.lsp.workspace;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.modelphy.lsp.telemetry.ServerLog;
+import org.modelphy.model.SourceRange;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the on-disk index of one workspace folder.
+ *
+ * Each folder is saved as a JSON file in the cache directory, named after a
+ * hash of the folder's path. File paths are stored relative to the folder.
+ * A cache written by a different format version, or for a different folder,
+ * is ignored.
+ */
+public class IndexCache {
+    private static final int FORMAT_VERSION = 2;
+
+    private final Path directory;
+    private final ObjectMapper mapper;
+    private final ServerLog log;
+
+    /**
+     * @param log Where unusable and unwritable caches are reported
+     */
+    public IndexCache(Path directory, ObjectMapper mapper, ServerLog log) {
+        this.directory = directory;
+        this.mapper = mapper;
+        this.log = log;
+    }
+
+    /**
+     * Load the saved index of a workspace folder.
+     *
+     * @param root The workspace folder
+     * @return The saved files by absolute path; empty if there is no usable cache
+     */
+    public Map<Path, IndexedFile> load(Path root) {
+        Map<Path, IndexedFile> files = new HashMap<>();
+        Path file = cacheFile(root);
+        if (!Files.isRegularFile(file)) {
+            return files;
+        }
+
+        try {
+            JsonNode json = mapper.readTree(file.toFile());
+            if (json.path("version").asInt() != FORMAT_VERSION || !root.toString().equals(json.path("root").asText())) {
+                return files;
+            }
+            for (JsonNode entry : json.path("files")) {
+                Path path = root.resolve(entry.get("path").asText()).normalize();
+                List<IndexedSymbol> symbols = new ArrayList<>();
+                for (JsonNode symbol : entry.path("symbols")) {
+                    symbols.add(new IndexedSymbol(
+                        symbol.get("name").asText(),
+                        IndexedSymbol.Kind.valueOf(symbol.get("kind").asText()),
+                        symbol.path("detail").asText(null),
+                        readRange(symbol.get("range")),
+                        readRange(symbol.get("nameRange"))));
+                }
+                files.put(path, new IndexedFile(path, entry.get("size").asLong(), entry.get("modified").asLong(),
+                    entry.get("hash").asText(), symbols));
+            }
+        } catch (IOException | RuntimeException e) {
+            // A damaged cache only costs a full re-index
+            log.log("Ignoring workspace index cache " + file + ": " + e.getMessage());
+            files.clear();
+        }
+        return files;
+    }
+
+    /**
+     * Save the index of a workspace folder, replacing any earlier cache.
+     *
+     * @param root The workspace folder
+     * @param files The indexed files in the folder
+     */
+    public void save(Path root, Collection<IndexedFile> files) {
+        ObjectNode json = mapper.createObjectNode();
+        json.put("version", FORMAT_VERSION);
+        json.put("root", root.toString());
+        ArrayNode entries = json.putArray("files");
+        for (IndexedFile indexed : files) {
+            ObjectNode entry = entries.addObject();
+            entry.put("path", root.relativize(indexed.getPath()).toString());
+            entry.put("size", indexed.getSize());
+            entry.put("modified", indexed.getModified());
+            entry.put("hash", indexed.getHash());
+            ArrayNode symbols = entry.putArray("symbols");
+            for (IndexedSymbol symbol : indexed.getSymbols()) {
+                ObjectNode node = symbols.addObject();
+                node.put("name", symbol.getName());
+                node.put("kind", symbol.getKind().name());
+                node.put("detail", symbol.getDetail());
+                writeRange(node.putArray("range"), symbol.getRange());
+                writeRange(node.putArray("nameRange"), symbol.getNameRange());
+            }
+        }
+
+        // Write to a temporary file first so a crash never leaves a truncated cache
+        Path file = cacheFile(root);
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                mapper.writeValue(temp.toFile(), json);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            log.log("Error saving workspace index cache " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Path cacheFile(Path root) {
+        return directory.resolve(sha256(root.toString().getBytes(StandardCharsets.UTF_8)).substring(0, 16) + ".json");
+    }
+
+    private static void writeRange(ArrayNode node, SourceRange range) {
+        if (range != null) {
+            node.add(range.getStartOffset()).add(range.getEndOffset())
+                .add(range.getStartLine()).add(range.getStartColumn())
+                .add(range.getEndLine()).add(range.getEndColumn());
+        }
+    }
+
+    private static SourceRange readRange(JsonNode node) {
+        if (node == null || node.size() != 6) {
+            return null;
+        }
+        return new SourceRange(node.get(0).asInt(), node.get(1).asInt(), node.get(2).asInt(),
+            node.get(3).asInt(), node.get(4).asInt(), node.get(5).asInt());
+    }
+
+    /**
+     * Hash bytes with SHA-256.
+     *
+     * @return The hash as lowercase hex
+     */
+    public static String sha256(byte[] bytes) {
+        return toHex(sha256Bytes(bytes));
+    }
+
+    /**
+     * Compute the SHA-256 hash of some bytes, as raw bytes.
+     */
+    public static byte[] sha256Bytes(byte[] bytes) {
+        return sha256Digest().digest(bytes);
+    }
+
+    /**
+     * Create a SHA-256 digest, for hashing content given in pieces.
+     */
+    public static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Format a hash as lowercase hex.
+     */
+    public static String toHex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package org.modelphy.lsp.workspace;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The indexed contents of one workspace file.
+ *
+ * Size and modification time let an unchanged file be recognised without
+ * reading it; the content hash lets a touched but unchanged file be
+ * recognised without parsing it.
+ */
+public final class IndexedFile {
+    private final Path path;
+    private final long size;
+    private final long modified;
+    private final String hash;
+    private final List<IndexedSymbol> symbols;
+
+    public IndexedFile(Path path, long size, long modified, String hash, List<IndexedSymbol> symbols) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+        this.hash = hash;
+        this.symbols = symbols;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Get the file's URI in the form the client uses.
+     */
+    public String getUri() {
+        return path.toUri().toString();
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Get the modification time in milliseconds since the epoch.
+     */
+    public long getModified() {
+        return modified;
+    }
+
+    /**
+     * Get the SHA-256 hash of the file's contents as hex.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public List<IndexedSymbol> getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Create a copy with new file attributes for a file whose contents are unchanged.
+     */
+    IndexedFile withAttributes(long size, long modified) {
+        return new IndexedFile(path, size, modified, hash, symbols);
+    }
+}
@@ -0,0 +1,67 @@
+package org.modelphy.lsp.workspace;
+
+import org.modelphy.model.SourceRange;
+
+/**
+ * A name defined or used in a workspace file: a variable, a constraint or a
+ * distribution that something is drawn from.
+ */
+public final class IndexedSymbol {
+
+    /**
+     * What a symbol names.
+     */
+    public enum Kind {
+        /** A variable; the detail is its type. */
+        VARIABLE,
+        /** A constraint, named after its function if it has no name; the detail is its function. */
+        CONSTRAINT,
+        /** A distribution; the detail is the variable or constraint drawn from it. */
+        DISTRIBUTION
+    }
+
+    private final String name;
+    private final Kind kind;
+    private final String detail;
+    private final SourceRange range;
+    private final SourceRange nameRange;
+
+    public IndexedSymbol(String name, Kind kind, String detail, SourceRange range, SourceRange nameRange) {
+        this.name = name;
+        this.kind = kind;
+        this.detail = detail;
+        this.range = range;
+        this.nameRange = nameRange;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Get the type, function or owner shown next to the name.
+     */
+    public String getDetail() {
+        return detail;
+    }
+
+    /**
+     * Get the range of the statement that defines or uses the symbol.
+     */
+    public SourceRange getRange() {
+        return range;
+    }
+
+    /**
+     * Get the range of the name itself.
+     *
+     * @return The range, or null if only the statement range is known
+     */
+    public SourceRange getNameRange() {
+        return nameRange;
+    }
+}
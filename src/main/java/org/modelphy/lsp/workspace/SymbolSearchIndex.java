@@ -0,0 +1,551 @@
+package org.modelphy.lsp.workspace;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A trigram index over the names of the symbols in the workspace, for
+ * workspace symbol search.
+ *
+ * Each distinct name, ignoring case, gets an id, and every three-character
+ * substring of a name maps to a sorted list of the ids of the names that
+ * contain it. A query of three or more characters intersects the lists for its
+ * own trigrams, shortest first, and checks only the names that survive.
+ * Shorter queries use lists keyed by the first one or two characters of each
+ * word in a name, since matches at the start of a word outrank all others;
+ * only when those cannot fill the results are all names checked. File
+ * contents are never read.
+ *
+ * The index is updated a file at a time as the workspace index changes. The
+ * ids of names that disappear stay in the lists and are skipped; the lists
+ * are rebuilt once more than half of the ids are unused.
+ */
+public class SymbolSearchIndex {
+    private static final int MIN_COMPACT_IDS = 1024;
+    /** Names at least this long share the last length bucket when ranking. */
+    private static final int LENGTH_BUCKETS = 64;
+
+    /** Ranks a name by how the query matches it, then by length, then alphabetically. */
+    private static final Comparator<Candidate> BEST_FIRST = Comparator
+        .comparingInt((Candidate c) -> c.rank)
+        .thenComparingInt(c -> c.name.key.length())
+        .thenComparing(c -> c.name.key);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Name> names = new HashMap<>();
+    private final Map<Path, List<IndexedSymbol>> files = new HashMap<>();
+    private final GramTable grams = new GramTable();
+    private Name[] byId = new Name[64];
+    private int nextId;
+
+    /**
+     * A symbol found by a search.
+     */
+    public static final class Match {
+        private final Path path;
+        private final IndexedSymbol symbol;
+
+        Match(Path path, IndexedSymbol symbol) {
+            this.path = path;
+            this.symbol = symbol;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public IndexedSymbol getSymbol() {
+            return symbol;
+        }
+    }
+
+    /**
+     * Replace the symbols of a file.
+     *
+     * @param path The file
+     * @param symbols Its symbols
+     */
+    public void put(Path path, List<IndexedSymbol> symbols) {
+        lock.writeLock().lock();
+        try {
+            if (files.get(path) == symbols) {
+                return;
+            }
+            removeLocked(path);
+            files.put(path, symbols);
+            for (IndexedSymbol symbol : symbols) {
+                Name name = names.get(key(symbol.getName()));
+                if (name == null) {
+                    name = addName(symbol.getName());
+                }
+                name.add(path, symbol);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the symbols of a file.
+     */
+    public void remove(Path path) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(path);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Find the symbols whose names contain a query, ignoring case.
+     *
+     * Exact matches come first, then names that start with the query, then
+     * names with the query at a word boundary, then any other names that
+     * contain it; within each group shorter names come first. The symbols
+     * sharing a name are ordered by file.
+     *
+     * @param query The query; an empty query lists names in the order they were indexed
+     * @param limit The maximum number of symbols to return
+     * @return The matching symbols, best first
+     */
+    public List<Match> search(String query, int limit) {
+        String key = key(query);
+        lock.readLock().lock();
+        try {
+            List<Name> candidates;
+            if (key.isEmpty()) {
+                candidates = new ArrayList<>();
+                for (int id = 0; id < nextId && candidates.size() < limit; id++) {
+                    if (byId[id] != null) {
+                        candidates.add(byId[id]);
+                    }
+                }
+            } else if (key.length() >= 3) {
+                candidates = named(candidates(key));
+            } else {
+                Postings postings = grams.get(wordStart(key, 0, key.length()));
+                candidates = named(postings != null ? Arrays.copyOf(postings.ids, postings.size) : new int[0]);
+                if (candidates.size() < limit) {
+                    candidates = new ArrayList<>(names.values());
+                }
+            }
+
+            List<Match> matches = new ArrayList<>();
+            for (Name name : best(candidates, key, limit)) {
+                name.addMatches(matches, limit);
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the number of distinct names, ignoring case.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return names.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Pick the best names containing a query.
+     *
+     * Each name falls into a bucket by match rank and length. A histogram of
+     * the buckets gives the worst bucket still needed to fill the limit, so
+     * only the names up to that bucket are sorted, however many names match.
+     *
+     * @return Up to limit names, best first
+     */
+    private static List<Name> best(List<Name> candidates, String key, int limit) {
+        int[] buckets = new int[candidates.size()];
+        int[] histogram = new int[4 * LENGTH_BUCKETS];
+        for (int i = 0; i < buckets.length; i++) {
+            Name name = candidates.get(i);
+            int rank = rank(name, key);
+            buckets[i] = rank < 0 ? -1 : rank * LENGTH_BUCKETS + Math.min(name.key.length(), LENGTH_BUCKETS - 1);
+            if (rank >= 0) {
+                histogram[buckets[i]]++;
+            }
+        }
+
+        int cutoff = 0;
+        for (int total = 0; cutoff < histogram.length - 1; cutoff++) {
+            total += histogram[cutoff];
+            if (total >= limit) {
+                break;
+            }
+        }
+
+        List<Candidate> kept = new ArrayList<>();
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] >= 0 && buckets[i] <= cutoff) {
+                kept.add(new Candidate(candidates.get(i), buckets[i] / LENGTH_BUCKETS));
+            }
+        }
+        kept.sort(BEST_FIRST);
+
+        List<Name> result = new ArrayList<>(Math.min(limit, kept.size()));
+        for (int i = 0; i < kept.size() && i < limit; i++) {
+            result.add(kept.get(i).name);
+        }
+        return result;
+    }
+
+    private List<Name> named(int[] ids) {
+        List<Name> result = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            if (byId[id] != null) {
+                result.add(byId[id]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rank how a query matches a name.
+     *
+     * @return 0 for an exact match, 1 for a prefix, 2 for a word boundary,
+     *         3 for any other substring, or -1 if the name does not contain the query
+     */
+    private static int rank(Name name, String key) {
+        int index = name.key.indexOf(key);
+        if (index < 0) {
+            return -1;
+        }
+        if (index == 0) {
+            return name.key.length() == key.length() ? 0 : 1;
+        }
+
+        // A later occurrence may start a word even if the first does not
+        for (; index >= 0; index = name.key.indexOf(key, index + 1)) {
+            if (isWordStart(name, index)) {
+                return 2;
+            }
+        }
+        return 3;
+    }
+
+    /**
+     * Check whether a word starts at a position in a name: after a character
+     * that is not a letter or digit, at an upper case letter in camel case,
+     * or where letters change to digits or back.
+     */
+    private static boolean isWordStart(Name name, int index) {
+        if (index == 0) {
+            return true;
+        }
+        // Lowercasing changed the length, so positions in the name cannot be compared
+        String display = name.display;
+        if (display.length() != name.key.length()) {
+            return false;
+        }
+        char previous = display.charAt(index - 1);
+        char first = display.charAt(index);
+        return !Character.isLetterOrDigit(previous)
+            || Character.isUpperCase(first) && !Character.isUpperCase(previous)
+            || Character.isDigit(first) != Character.isDigit(previous);
+    }
+
+    /**
+     * Intersect the posting lists of a query's trigrams.
+     *
+     * @return The ids of the names containing every trigram, possibly including unused ids
+     */
+    private int[] candidates(String key) {
+        List<Postings> lists = new ArrayList<>();
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            Postings postings = grams.get(trigram(key, i));
+            if (postings == null) {
+                return new int[0];
+            }
+            lists.add(postings);
+        }
+        lists.sort(Comparator.comparingInt(postings -> postings.size));
+
+        int[] result = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+        int count = result.length;
+        for (int l = 1; l < lists.size() && count > 0; l++) {
+            Postings other = lists.get(l);
+            int kept = 0;
+            int j = 0;
+            for (int i = 0; i < count; i++) {
+                int id = result[i];
+                while (j < other.size && other.ids[j] < id) {
+                    j++;
+                }
+                if (j < other.size && other.ids[j] == id) {
+                    result[kept++] = id;
+                }
+            }
+            count = kept;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private void removeLocked(Path path) {
+        List<IndexedSymbol> symbols = files.remove(path);
+        if (symbols == null) {
+            return;
+        }
+        for (IndexedSymbol symbol : symbols) {
+            Name name = names.get(key(symbol.getName()));
+            if (name != null && name.remove(path) && name.isEmpty()) {
+                names.remove(name.key);
+                byId[name.id] = null;
+            }
+        }
+        if (nextId >= MIN_COMPACT_IDS && names.size() * 2 < nextId) {
+            compact();
+        }
+    }
+
+    private Name addName(String display) {
+        if (nextId == byId.length) {
+            byId = Arrays.copyOf(byId, byId.length * 2);
+        }
+        Name name = new Name(nextId++, key(display), display);
+        byId[name.id] = name;
+        names.put(name.key, name);
+        addGrams(name);
+        return name;
+    }
+
+    private void addGrams(Name name) {
+        String key = name.key;
+        for (int i = 0; i < key.length(); i++) {
+            if (i + 3 <= key.length()) {
+                addGram(trigram(key, i), name);
+            }
+            if (isWordStart(name, i)) {
+                addGram(wordStart(key, i, 1), name);
+                if (i + 2 <= key.length()) {
+                    addGram(wordStart(key, i, 2), name);
+                }
+            }
+        }
+    }
+
+    private void addGram(long gram, Name name) {
+        grams.getOrAdd(gram).add(name.id);
+    }
+
+    /**
+     * Renumber the names densely and rebuild the posting lists.
+     */
+    private void compact() {
+        Name[] live = new Name[Math.max(64, names.size() * 2)];
+        int count = 0;
+        for (int id = 0; id < nextId; id++) {
+            if (byId[id] != null) {
+                Name name = byId[id];
+                name.id = count;
+                live[count++] = name;
+            }
+        }
+        byId = live;
+        nextId = count;
+        grams.clear();
+        for (int id = 0; id < count; id++) {
+            addGrams(byId[id]);
+        }
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static long trigram(String key, int index) {
+        return (long) key.charAt(index) << 32 | (long) key.charAt(index + 1) << 16 | key.charAt(index + 2);
+    }
+
+    /**
+     * Key the first one or two characters of a word, apart from the trigrams.
+     */
+    private static long wordStart(String key, int index, int length) {
+        long gram = length == 1 ? key.charAt(index) : (long) key.charAt(index) << 16 | key.charAt(index + 1);
+        return (long) length << 48 | gram;
+    }
+
+    /**
+     * A distinct name and its symbols by file. Most names occur in one place,
+     * so the first symbol is held directly and a map is only made for more.
+     */
+    private static final class Name {
+        private int id;
+        private final String key;
+        private final String display;
+        private Path path;
+        private IndexedSymbol symbol;
+        private TreeMap<Path, List<IndexedSymbol>> more;
+
+        Name(int id, String key, String display) {
+            this.id = id;
+            this.key = key;
+            this.display = display;
+        }
+
+        void add(Path path, IndexedSymbol symbol) {
+            if (this.path == null && more == null) {
+                this.path = path;
+                this.symbol = symbol;
+                return;
+            }
+            if (more == null) {
+                more = new TreeMap<>();
+                more.computeIfAbsent(this.path, p -> new ArrayList<>(1)).add(this.symbol);
+                this.path = null;
+                this.symbol = null;
+            }
+            more.computeIfAbsent(path, p -> new ArrayList<>(1)).add(symbol);
+        }
+
+        /**
+         * Drop the symbols from a file.
+         *
+         * @return Whether there were any
+         */
+        boolean remove(Path path) {
+            if (more != null) {
+                return more.remove(path) != null;
+            }
+            if (path.equals(this.path)) {
+                this.path = null;
+                this.symbol = null;
+                return true;
+            }
+            return false;
+        }
+
+        boolean isEmpty() {
+            return more != null ? more.isEmpty() : path == null;
+        }
+
+        /**
+         * Add matches for the symbols in file order, up to a limit.
+         */
+        void addMatches(List<Match> matches, int limit) {
+            if (more == null) {
+                if (path != null && matches.size() < limit) {
+                    matches.add(new Match(path, symbol));
+                }
+                return;
+            }
+            for (Map.Entry<Path, List<IndexedSymbol>> entry : more.entrySet()) {
+                for (IndexedSymbol indexed : entry.getValue()) {
+                    if (matches.size() == limit) {
+                        return;
+                    }
+                    matches.add(new Match(entry.getKey(), indexed));
+                }
+            }
+        }
+    }
+
+    private static final class Candidate {
+        private final Name name;
+        private final int rank;
+
+        Candidate(Name name, int rank) {
+            this.name = name;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * An open-addressing map from gram keys to posting lists, which avoids
+     * boxing a key for each of the many lookups made while indexing. No key
+     * is ever 0, so 0 marks an empty slot.
+     */
+    private static final class GramTable {
+        private long[] keys = new long[1024];
+        private Postings[] values = new Postings[1024];
+        private int size;
+
+        Postings get(long key) {
+            for (int slot = slot(key, keys.length); keys[slot] != 0; slot = (slot + 1) & (keys.length - 1)) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return null;
+        }
+
+        Postings getOrAdd(long key) {
+            int slot = slot(key, keys.length);
+            for (; keys[slot] != 0; slot = (slot + 1) & (keys.length - 1)) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            Postings postings = new Postings();
+            keys[slot] = key;
+            values[slot] = postings;
+            if (++size * 2 > keys.length) {
+                resize();
+            }
+            return postings;
+        }
+
+        void clear() {
+            Arrays.fill(keys, 0);
+            Arrays.fill(values, null);
+            size = 0;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Postings[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = slot(oldKeys[i], keys.length);
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & (keys.length - 1);
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+
+        private static int slot(long key, int capacity) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 40) & (capacity - 1);
+        }
+    }
+
+    /**
+     * A growable list of ids in increasing order. Names are added with
+     * increasing ids, so a repeated key of one name is always the last id.
+     */
+    private static final class Postings {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
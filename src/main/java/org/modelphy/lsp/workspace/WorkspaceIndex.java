@@ -0,0 +1,387 @@
+package org.modelphy.lsp.workspace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.modelphy.lsp.analysis.SymbolTable;
+import org.modelphy.lsp.telemetry.ServerLog;
+import org.modelphy.model.Constraint;
+import org.modelphy.model.Distribution;
+import org.modelphy.model.ModelPhyModel;
+import org.modelphy.model.StochasticVariable;
+import org.modelphy.parser.ModelPhyParserWrapper;
+import org.modelphy.parser.ParseResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The symbols of every ModelPhy file in the workspace folders.
+ *
+ * Index operations run one at a time on a coordinator thread, so a rescan and
+ * a file change never race; the files of one operation are parsed in parallel
+ * on the executor given to the index. After each operation the affected folders
+ * are saved through an {@link IndexCache}. On the next start a file whose size
+ * and modification time match the cache is taken from it without being read,
+ * and one whose content hash matches is taken from it without being parsed.
+ *
+ * Lookups read a concurrent map and never wait for indexing. Symbol search
+ * goes through a {@link SymbolSearchIndex} that is updated along with it.
+ */
+public class WorkspaceIndex {
+    private static final String MODELPHY_EXTENSION = ".mphy";
+
+    private final ServerLog log;
+    private final IndexCache cache;
+    private final ExecutorService coordinator;
+    private final Executor workers;
+    private final ThreadLocal<ModelPhyParserWrapper> parsers = ThreadLocal.withInitial(ModelPhyParserWrapper::new);
+    private final ConcurrentHashMap<Path, IndexedFile> files = new ConcurrentHashMap<>();
+    private final SymbolSearchIndex search = new SymbolSearchIndex();
+    private final Set<Path> roots = new LinkedHashSet<>();
+
+    /**
+     * Create an index.
+     *
+     * @param cacheDirectory The directory for the on-disk cache
+     * @param workers Parses files; may run several at once
+     * @param log Where indexing progress and errors are reported
+     */
+    public WorkspaceIndex(Path cacheDirectory, Executor workers, ServerLog log) {
+        this.log = log;
+        this.cache = new IndexCache(cacheDirectory, new ObjectMapper(), log);
+        this.coordinator = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "modelphy-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers = workers;
+    }
+
+    /**
+     * Set the workspace folders and bring the index up to date with them.
+     *
+     * Files in folders that are no longer part of the workspace are dropped;
+     * every folder is rescanned, starting from its saved cache if the folder
+     * has not been indexed in this session yet.
+     *
+     * @param folders The workspace folders
+     * @return Completes when the index and its cache are up to date
+     */
+    public CompletableFuture<Void> setRoots(Collection<Path> folders) {
+        List<Path> normalized = new ArrayList<>();
+        for (Path folder : folders) {
+            normalized.add(folder.toAbsolutePath().normalize());
+        }
+        return CompletableFuture.runAsync(() -> {
+            long start = System.currentTimeMillis();
+            Set<Path> previous = new HashSet<>(roots);
+            roots.clear();
+            roots.addAll(normalized);
+            for (Path path : new ArrayList<>(files.keySet())) {
+                if (rootOf(path) == null) {
+                    remove(path);
+                }
+            }
+
+            int parsed = 0;
+            for (Path root : roots) {
+                parsed += scan(root, previous.contains(root));
+            }
+            log.log("Indexed " + files.size() + " ModelPhy files (" + parsed + " parsed) in "
+                + (System.currentTimeMillis() - start) + " ms");
+        }, coordinator);
+    }
+
+    /**
+     * Re-index changed files and drop deleted ones.
+     *
+     * @param changed Files that were created or modified
+     * @param deleted Files or directories that were deleted; a directory drops every file below it
+     * @return Completes when the index and its cache are up to date
+     */
+    public CompletableFuture<Void> update(Collection<Path> changed, Collection<Path> deleted) {
+        return CompletableFuture.runAsync(() -> {
+            Set<Path> touchedRoots = new LinkedHashSet<>();
+            for (Path path : deleted) {
+                path = path.toAbsolutePath().normalize();
+                // Clients report a deleted folder once, not each file in it
+                for (Path file : new ArrayList<>(files.keySet())) {
+                    if (file.startsWith(path) && remove(file)) {
+                        touchedRoots.add(rootOf(file));
+                    }
+                }
+            }
+
+            List<Path> toIndex = new ArrayList<>();
+            for (Path path : changed) {
+                path = path.toAbsolutePath().normalize();
+                Path root = rootOf(path);
+                if (root != null && path.getFileName().toString().endsWith(MODELPHY_EXTENSION)) {
+                    toIndex.add(path);
+                    touchedRoots.add(root);
+                }
+            }
+            indexAll(toIndex, files);
+
+            for (Path root : touchedRoots) {
+                cache.save(root, filesUnder(root));
+            }
+        }, coordinator);
+    }
+
+    /**
+     * Get the index entry for a file.
+     *
+     * @return The entry, or null if the file is not indexed
+     */
+    public IndexedFile get(Path path) {
+        return files.get(path.toAbsolutePath().normalize());
+    }
+
+    /**
+     * Get all indexed files.
+     */
+    public Collection<IndexedFile> getFiles() {
+        return Collections.unmodifiableCollection(files.values());
+    }
+
+    public int size() {
+        return files.size();
+    }
+
+    /**
+     * Find the symbols whose names contain a query, ignoring case.
+     *
+     * @param query The query
+     * @param limit The maximum number of symbols to return
+     * @return The matching symbols, best first
+     * @see SymbolSearchIndex#search
+     */
+    public List<SymbolSearchIndex.Match> search(String query, int limit) {
+        return search.search(query, limit);
+    }
+
+    /**
+     * Stop indexing. Work in progress is abandoned; the cache keeps the last completed state.
+     */
+    public void shutdown() {
+        coordinator.shutdownNow();
+    }
+
+    /**
+     * Rescan one workspace folder.
+     *
+     * @param known Whether the folder was already indexed in this session
+     * @return The number of files that had to be parsed
+     */
+    private int scan(Path root, boolean known) {
+        List<Path> found;
+        try {
+            found = listModelFiles(root);
+        } catch (IOException e) {
+            log.log("Error scanning workspace folder " + root + ": " + e.getMessage());
+            return 0;
+        }
+
+        // Start from what is already in memory, or else from the saved cache
+        Map<Path, IndexedFile> previous = known ? new HashMap<>(filesUnder(root, files)) : cache.load(root);
+        Set<Path> present = new HashSet<>(found);
+        for (Path path : new ArrayList<>(files.keySet())) {
+            if (root.equals(rootOf(path)) && !present.contains(path)) {
+                remove(path);
+            }
+        }
+
+        int parsed = indexAll(found, previous);
+
+        // Only rewrite the cache if an entry was added, dropped or refreshed
+        boolean changed = previous.size() != found.size();
+        for (int i = 0; i < found.size() && !changed; i++) {
+            changed = files.get(found.get(i)) != previous.get(found.get(i));
+        }
+        if (changed) {
+            cache.save(root, filesUnder(root));
+        }
+        return parsed;
+    }
+
+    /**
+     * Index files on the worker pool.
+     *
+     * @param paths The files to index
+     * @param previous Earlier entries to reuse where the file has not changed
+     * @return The number of files that had to be parsed
+     */
+    private int indexAll(List<Path> paths, Map<Path, IndexedFile> previous) {
+        AtomicInteger parsed = new AtomicInteger();
+        List<Future<IndexedFile>> futures = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            FutureTask<IndexedFile> task = new FutureTask<>(() -> index(path, previous.get(path), parsed));
+            workers.execute(task);
+            futures.add(task);
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                IndexedFile indexed = futures.get(i).get();
+                if (indexed != null) {
+                    put(indexed);
+                } else {
+                    remove(paths.get(i));
+                }
+            } catch (ExecutionException e) {
+                log.log("Error indexing " + paths.get(i) + ": " + e.getCause());
+                remove(paths.get(i));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return parsed.get();
+    }
+
+    private void put(IndexedFile indexed) {
+        files.put(indexed.getPath(), indexed);
+        search.put(indexed.getPath(), indexed.getSymbols());
+    }
+
+    /**
+     * Drop a file from the index.
+     *
+     * @return Whether the file was indexed
+     */
+    private boolean remove(Path path) {
+        search.remove(path);
+        return files.remove(path) != null;
+    }
+
+    /**
+     * Index one file.
+     *
+     * @return The entry, or null if the file no longer exists
+     */
+    private IndexedFile index(Path path, IndexedFile previous, AtomicInteger parsed) throws IOException {
+        BasicFileAttributes attributes;
+        byte[] bytes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis();
+            if (previous != null && previous.getSize() == size && previous.getModified() == modified) {
+                return previous;
+            }
+            bytes = Files.readAllBytes(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        String hash = IndexCache.sha256(bytes);
+        if (previous != null && previous.getHash().equals(hash)) {
+            return previous.withAttributes(size, modified);
+        }
+
+        parsed.incrementAndGet();
+        ParseResult result = parsers.get().parseDocument(new String(bytes, StandardCharsets.UTF_8), null);
+        return new IndexedFile(path, size, modified, hash, symbolsOf(result.getModel()));
+    }
+
+    /**
+     * Collect the variables, constraints and distributions of a model.
+     */
+    private static List<IndexedSymbol> symbolsOf(ModelPhyModel model) {
+        List<IndexedSymbol> symbols = new ArrayList<>();
+        for (SymbolTable.Symbol symbol : SymbolTable.build(model).getSymbols()) {
+            symbols.add(new IndexedSymbol(symbol.getName(), IndexedSymbol.Kind.VARIABLE, symbol.getType(),
+                symbol.getRange(), symbol.getNameRange()));
+        }
+        for (StochasticVariable variable : model.getStochasticVariables()) {
+            Distribution distribution = variable.getDistribution();
+            if (distribution != null && distribution.getName() != null) {
+                symbols.add(new IndexedSymbol(distribution.getName(), IndexedSymbol.Kind.DISTRIBUTION,
+                    variable.getName(), variable.getSourceRange(), null));
+            }
+        }
+        for (Constraint constraint : model.getConstraints()) {
+            String function = constraint.getFunction() != null ? constraint.getFunction().getName() : null;
+            String name = constraint.getName() != null ? constraint.getName() : function;
+            if (name != null) {
+                symbols.add(new IndexedSymbol(name, IndexedSymbol.Kind.CONSTRAINT, function,
+                    constraint.getSourceRange(), null));
+            }
+            if (constraint.hasDistribution() && constraint.getDistribution().getName() != null) {
+                symbols.add(new IndexedSymbol(constraint.getDistribution().getName(),
+                    IndexedSymbol.Kind.DISTRIBUTION, name, constraint.getSourceRange(), null));
+            }
+        }
+        return Collections.unmodifiableList(symbols);
+    }
+
+    private Path rootOf(Path path) {
+        for (Path root : roots) {
+            if (path.startsWith(root)) {
+                return root;
+            }
+        }
+        return null;
+    }
+
+    private List<IndexedFile> filesUnder(Path root) {
+        return new ArrayList<>(filesUnder(root, files).values());
+    }
+
+    private Map<Path, IndexedFile> filesUnder(Path root, Map<Path, IndexedFile> source) {
+        Map<Path, IndexedFile> result = new TreeMap<>();
+        for (Map.Entry<Path, IndexedFile> entry : source.entrySet()) {
+            if (root.equals(rootOf(entry.getKey()))) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the ModelPhy files in a folder, skipping hidden directories such as .git.
+     */
+    private static List<Path> listModelFiles(Path root) throws IOException {
+        List<Path> found = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                return !dir.equals(root) && dir.getFileName().toString().startsWith(".")
+                    ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && file.getFileName().toString().endsWith(MODELPHY_EXTENSION)) {
+                    found.add(file.toAbsolutePath().normalize());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(found);
+        return found;
+    }
+}
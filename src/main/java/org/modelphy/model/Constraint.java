@@ -10,6 +10,7 @@ public class Constraint {
     private final String name;  // Can be null for anonymous constraints
     private final FunctionCall function;
     private Distribution distribution;  // Stochastic constraint (can be null)
+    private SourceRange sourceRange;
     
     /**
      * Create a named constraint with a function.
@@ -91,6 +92,22 @@ public class Constraint {
         this.distribution = distribution;
     }
     
+    /**
+     * Get the source range of the statement that defined this constraint.
+     *
+     * @return The range, or null if the constraint was not parsed from source
+     */
+    public SourceRange getSourceRange() {
+        return sourceRange;
+    }
+    
+    /**
+     * Set the source range of the statement that defined this constraint.
+     */
+    public void setSourceRange(SourceRange sourceRange) {
+        this.sourceRange = sourceRange;
+    }
+    
     /**
      * Get all variables that this constraint depends on.
      * 
@@ -56,41 +56,6 @@ public class Distribution {
             .anyMatch(arg -> name.equals(arg.getName()));
     }
     
-    /**
-     * Map this ModelPhy distribution to the equivalent CodePhy distribution type.
-     */
-    public String toCodePhyType() {
-        return switch (name.toLowerCase()) {
-            case "lognormal" -> "LogNormal";
-            case "normal" -> "Normal";
-            case "gamma" -> "Gamma";
-            case "exponential" -> "Exponential";
-            case "beta" -> "Beta";
-            case "dirichlet" -> "Dirichlet";
-            case "uniform" -> "Uniform";
-            case "yule" -> "Yule";
-            case "birthdeath" -> "BirthDeath";
-            case "calibrated_birthdeath" -> "ConstrainedYule";
-            case "phyloctmc" -> "PhyloCTMC";
-            // Add more mappings as needed
-            default -> name; // Use original name if no mapping exists
-        };
-    }
-    
-    /**
-     * Get what type this distribution generates based on its name.
-     */
-    public String getGeneratesType() {
-        return switch (name.toLowerCase()) {
-            case "lognormal", "normal", "gamma", "exponential", "beta", "uniform" -> "REAL";
-            case "dirichlet" -> "REAL_VECTOR";
-            case "yule", "birthdeath", "calibrated_birthdeath" -> "TREE";
-            case "phyloctmc" -> "ALIGNMENT";
-            // Add more mappings as needed
-            default -> "REAL"; // Default to REAL if unknown
-        };
-    }
-    
     /**
      * Returns a string representation of the distribution.
      */
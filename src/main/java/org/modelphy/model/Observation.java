@@ -11,6 +11,8 @@ public class Observation {
     private final ObservationType type;
     private final String filename;  // Only used for FILE type
     private final Map<String, Object> keyValues;  // Only used for INLINE type
+    private SourceRange sourceRange;
+    private SourceRange nameRange;
     
     /**
      * Create a new file-based observation.
@@ -39,6 +41,38 @@ public class Observation {
         this.keyValues = new HashMap<>();
     }
     
+    /**
+     * Get the source range of the statement of this observation.
+     *
+     * @return The range, or null if the observation was not parsed from source
+     */
+    public SourceRange getSourceRange() {
+        return sourceRange;
+    }
+    
+    /**
+     * Set the source range of the statement of this observation.
+     */
+    public void setSourceRange(SourceRange sourceRange) {
+        this.sourceRange = sourceRange;
+    }
+    
+    /**
+     * Get the source range of the observed variable's name in the statement.
+     *
+     * @return The range, or null if the observation was not parsed from source
+     */
+    public SourceRange getNameRange() {
+        return nameRange;
+    }
+    
+    /**
+     * Set the source range of the observed variable's name in the statement.
+     */
+    public void setNameRange(SourceRange nameRange) {
+        this.nameRange = nameRange;
+    }
+    
     /**
      * Get the name of the variable being observed.
      * 
@@ -0,0 +1,72 @@
+package org.modelphy.model;
+
+/**
+ * Represents the location of a model element in its source text.
+ *
+ * Lines and columns are zero-based; the end position is exclusive. Offsets
+ * index into the source text, so a range can be mapped back to the exact
+ * characters it covers.
+ */
+public final class SourceRange {
+    private final int startOffset;
+    private final int endOffset;
+    private final int startLine;
+    private final int startColumn;
+    private final int endLine;
+    private final int endColumn;
+
+    /**
+     * Create a new source range.
+     *
+     * @param startOffset The offset of the first character
+     * @param endOffset The offset just past the last character
+     * @param startLine The zero-based line of the first character
+     * @param startColumn The zero-based column of the first character
+     * @param endLine The zero-based line of the end position
+     * @param endColumn The zero-based column of the end position
+     */
+    public SourceRange(int startOffset, int endOffset, int startLine, int startColumn, int endLine, int endColumn) {
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.startLine = startLine;
+        this.startColumn = startColumn;
+        this.endLine = endLine;
+        this.endColumn = endColumn;
+    }
+
+    public int getStartOffset() {
+        return startOffset;
+    }
+
+    public int getEndOffset() {
+        return endOffset;
+    }
+
+    public int getStartLine() {
+        return startLine;
+    }
+
+    public int getStartColumn() {
+        return startColumn;
+    }
+
+    public int getEndLine() {
+        return endLine;
+    }
+
+    public int getEndColumn() {
+        return endColumn;
+    }
+
+    /**
+     * Check if an offset falls within this range.
+     */
+    public boolean contains(int offset) {
+        return offset >= startOffset && offset <= endOffset;
+    }
+
+    @Override
+    public String toString() {
+        return (startLine + 1) + ":" + startColumn + "-" + (endLine + 1) + ":" + endColumn;
+    }
+}
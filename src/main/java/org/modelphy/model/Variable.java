@@ -8,6 +8,8 @@ public class Variable {
     private final String type;
     private Object value;
     private Observation observation;
+    private SourceRange sourceRange;
+    private SourceRange nameRange;
     
     public Variable(String name, String type) {
         this.name = name;
@@ -72,6 +74,38 @@ public class Variable {
         this.observation = observation;
     }
     
+    /**
+     * Get the source range of the statement that defined this variable.
+     *
+     * @return The range, or null if the variable was not parsed from source
+     */
+    public SourceRange getSourceRange() {
+        return sourceRange;
+    }
+    
+    /**
+     * Set the source range of the statement that defined this variable.
+     */
+    public void setSourceRange(SourceRange sourceRange) {
+        this.sourceRange = sourceRange;
+    }
+    
+    /**
+     * Get the source range of the variable name in its definition.
+     *
+     * @return The range, or null if the variable was not parsed from source
+     */
+    public SourceRange getNameRange() {
+        return nameRange;
+    }
+    
+    /**
+     * Set the source range of the variable name in its definition.
+     */
+    public void setNameRange(SourceRange nameRange) {
+        this.nameRange = nameRange;
+    }
+    
     /**
      * Get variables that this variable depends on.
      */
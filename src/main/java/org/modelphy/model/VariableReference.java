@@ -5,6 +5,7 @@ package org.modelphy.model;
  */
 public class VariableReference {
     private final String name;
+    private final SourceRange sourceRange;
     
     /**
      * Create a new variable reference.
@@ -12,7 +13,18 @@ public class VariableReference {
      * @param name The name of the referenced variable
      */
     public VariableReference(String name) {
+        this(name, null);
+    }
+    
+    /**
+     * Create a new variable reference at a location in the source.
+     * 
+     * @param name The name of the referenced variable
+     * @param sourceRange Where the reference appears
+     */
+    public VariableReference(String name, SourceRange sourceRange) {
         this.name = name;
+        this.sourceRange = sourceRange;
     }
     
     /**
@@ -24,6 +36,15 @@ public class VariableReference {
         return name;
     }
     
+    /**
+     * Get where this reference appears in the source.
+     * 
+     * @return The range, or null if the reference was not parsed from source
+     */
+    public SourceRange getSourceRange() {
+        return sourceRange;
+    }
+    
     /**
      * Returns a string representation of the variable reference.
      */
@@ -2,6 +2,7 @@ package org.modelphy.parser;
 
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.*;
+import org.eclipse.lsp4j.jsonrpc.CancelChecker;
 import org.modelphy.antlr.*;
 import org.modelphy.model.*;
 
@@ -77,54 +78,190 @@ public class ModelPhyParserWrapper {
      * @return The parsed model
      */
     public ModelPhyModel parse(String input) {
-        try {
-            reset();
-            
-            // Set up the ANTLR lexer and parser
-            CharStream charStream = CharStreams.fromString(input);
-            ModelPhyLexer lexer = new ModelPhyLexer(charStream);
-            CommonTokenStream tokens = new CommonTokenStream(lexer);
-            ModelPhyParser parser = new ModelPhyParser(tokens);
-            
-            // Add error listener for better error reporting
-            parser.removeErrorListeners();
-            parser.addErrorListener(new BaseErrorListener() {
-                @Override
-                public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, 
-                                        int line, int charPositionInLine, String msg, RecognitionException e) {
-                    System.err.println("line " + line + ":" + charPositionInLine + " " + msg);
+        ParseResult result = parseDocument(input, null);
+        
+        for (ParseProblem problem : result.getSyntaxErrors()) {
+            System.err.println(problem);
+        }
+        if (!result.getSemanticErrors().isEmpty()) {
+            throw new RuntimeException("Error parsing ModelPhy code: " + result.getSemanticErrors().get(0).getMessage());
+        }
+        
+        return result.getModel();
+    }
+    
+    /**
+     * Parse ModelPhy content once, keeping the tokens, parse tree, model and
+     * any problems together. Unlike {@link #parse(String)}, problems are
+     * collected with their source ranges rather than printed or thrown.
+     * 
+     * @param input The ModelPhy content as a string
+     * @param parseListener An optional listener notified as the parser enters rules, e.g. to abort a stale parse
+     * @return The parse result
+     */
+    public ParseResult parseDocument(String input, ParseTreeListener parseListener) {
+        reset();
+        List<ParseProblem> syntaxErrors = new ArrayList<>();
+        
+        // Set up the ANTLR lexer and parser
+        CharStream charStream = CharStreams.fromString(input);
+        ModelPhyLexer lexer = new ModelPhyLexer(charStream);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, 
+                                    int line, int charPositionInLine, String msg, RecognitionException e) {
+                // Lexer errors are reported at the start of the text that matched no token
+                int offset = lexer._tokenStartCharIndex;
+                syntaxErrors.add(new ParseProblem(ParseProblem.Kind.LEXER, msg,
+                    new SourceRange(offset, offset + 1, line - 1, charPositionInLine, line - 1, charPositionInLine + 1)));
+            }
+        });
+        
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        ModelPhyParser parser = new ModelPhyParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, 
+                                    int line, int charPositionInLine, String msg, RecognitionException e) {
+                SourceRange range;
+                if (offendingSymbol instanceof Token) {
+                    range = rangeOf((Token) offendingSymbol, (Token) offendingSymbol);
+                } else {
+                    range = new SourceRange(-1, -1, line - 1, charPositionInLine, line - 1, charPositionInLine + 1);
                 }
-            });
-            
-            // Get the parse tree
-            ModelPhyParser.ProgramContext tree = parser.program();
-            
-            // Create a visitor to build our model
-            ModelBuilder visitor = new ModelBuilder();
-            visitor.visit(tree);
-            
-            return model;
-        } catch (Exception e) {
-            throw new RuntimeException("Error parsing ModelPhy code: " + e.getMessage(), e);
+                syntaxErrors.add(new ParseProblem(ParseProblem.Kind.SYNTAX, msg, range));
+            }
+        });
+        if (parseListener != null) {
+            parser.addParseListener(parseListener);
+        }
+        
+        // Get the parse tree
+        ModelPhyParser.ProgramContext tree = parser.program();
+        tokens.fill();
+        
+        // Build the model from the same tree
+        ModelBuilder visitor = new ModelBuilder(null, null);
+        visitor.visit(tree);
+        
+        return new ParseResult(tokens.getTokens(), tree, model, syntaxErrors, visitor.problems);
+    }
+    
+    /**
+     * Build a model from statements that were parsed separately.
+     * 
+     * The statements are visited in order exactly as for a whole program, so
+     * observations may refer to variables defined in earlier statements.
+     * 
+     * @param statements The statement trees, in document order
+     * @param locator Maps ranges in each statement to document ranges
+     * @param syntaxErrors Syntax errors already found in the statements, in document coordinates
+     * @param cancelChecker Checked before each statement is visited; throws CancellationException to give up
+     * @return The result; it has no token list or program tree
+     */
+    public ParseResult buildModel(List<ModelPhyParser.StatementContext> statements, StatementLocator locator,
+                                  List<ParseProblem> syntaxErrors, CancelChecker cancelChecker) {
+        reset();
+        ModelBuilder visitor = new ModelBuilder(locator, cancelChecker);
+        visitor.visitStatements(statements);
+        return new ParseResult(Collections.emptyList(), null, model, syntaxErrors, visitor.problems);
+    }
+    
+    /**
+     * Get the source range of a parse tree node.
+     */
+    public static SourceRange rangeOf(ParserRuleContext ctx) {
+        return rangeOf(ctx.getStart(), ctx.getStop());
+    }
+    
+    /**
+     * Get the source range spanning two tokens.
+     */
+    public static SourceRange rangeOf(Token start, Token stop) {
+        // Rules that matched nothing have their stop token before their start token
+        if (stop == null || stop.getTokenIndex() < start.getTokenIndex()) {
+            stop = start;
         }
+        
+        int endLine = stop.getLine() - 1;
+        int endColumn = stop.getCharPositionInLine();
+        int endOffset = stop.getStartIndex();
+        if (stop.getType() != Token.EOF) {
+            String text = stop.getText();
+            int lastBreak = text.lastIndexOf('\n');
+            if (lastBreak < 0) {
+                endColumn += text.length();
+            } else {
+                for (int i = 0; i < text.length(); i++) {
+                    if (text.charAt(i) == '\n') {
+                        endLine++;
+                    }
+                }
+                endColumn = text.length() - lastBreak - 1;
+            }
+            endOffset = stop.getStopIndex() + 1;
+        }
+        
+        return new SourceRange(start.getStartIndex(), endOffset, start.getLine() - 1,
+            start.getCharPositionInLine(), endLine, endColumn);
     }
     
     /**
      * Custom visitor that builds a model from the parse tree.
      */
     private class ModelBuilder extends ModelPhyBaseVisitor<Object> {
+        private final List<ParseProblem> problems = new ArrayList<>();
+        private final StatementLocator locator;
+        private final CancelChecker cancelChecker;
+        private int statementIndex;
+        
+        ModelBuilder(StatementLocator locator, CancelChecker cancelChecker) {
+            this.locator = locator;
+            this.cancelChecker = cancelChecker;
+        }
         
         @Override
         public Object visitProgram(ModelPhyParser.ProgramContext ctx) {
             if (debug) System.out.println("Visiting program");
             
-            // Visit all statements in the program
-            for (ModelPhyParser.StatementContext statement : ctx.statement()) {
-                visit(statement);
-            }
+            visitStatements(ctx.statement());
             return null;
         }
         
+        void visitStatements(List<ModelPhyParser.StatementContext> statements) {
+            // Visit all statements in the program; a broken statement must not lose the rest of the model
+            for (statementIndex = 0; statementIndex < statements.size(); statementIndex++) {
+                ModelPhyParser.StatementContext statement = statements.get(statementIndex);
+                if (cancelChecker != null) {
+                    cancelChecker.checkCanceled();
+                }
+                try {
+                    visit(statement);
+                } catch (RuntimeException e) {
+                    problems.add(new ParseProblem(ParseProblem.Kind.SEMANTIC,
+                        String.valueOf(e.getMessage()), range(statement)));
+                }
+            }
+        }
+        
+        /**
+         * Get the document range of a node in the statement being visited.
+         */
+        private SourceRange range(ParserRuleContext ctx) {
+            SourceRange range = rangeOf(ctx);
+            return locator != null ? locator.locate(statementIndex, range) : range;
+        }
+        
+        /**
+         * Record where a variable is defined.
+         */
+        private void locate(Variable var, ParserRuleContext statement, ModelPhyParser.IdentifierContext name) {
+            var.setSourceRange(range(statement));
+            var.setNameRange(range(name));
+        }
+        
         @Override
         public Object visitDeclaration(ModelPhyParser.DeclarationContext ctx) {
             if (debug) System.out.println("Visiting declaration: " + ctx.getText());
@@ -139,16 +276,19 @@ public class ModelPhyParserWrapper {
                 // Check if this is a deterministic assignment (function call)
                 if (value instanceof FunctionCall) {
                     DeterministicVariable var = new DeterministicVariable(id, type, (FunctionCall) value);
+                    locate(var, ctx, ctx.identifier());
                     variables.put(id, var);
                     model.addDeterministicVariable(var);
                 } else {
                     Variable var = new Variable(id, type);
                     var.setValue(value);
+                    locate(var, ctx, ctx.identifier());
                     variables.put(id, var);
                     model.addVariable(var);
                 }
             } else {
                 Variable var = new Variable(id, type);
+                locate(var, ctx, ctx.identifier());
                 variables.put(id, var);
                 model.addVariable(var);
             }
@@ -223,6 +363,7 @@ public class ModelPhyParserWrapper {
                 Distribution dist = (Distribution) visit(ctx.distribution());
                 
                 StochasticVariable var = new StochasticVariable(id, type, dist);
+                locate(var, ctx, ctx.identifier());
                 variables.put(id, var);
                 model.addStochasticVariable(var);
             } else {
@@ -231,6 +372,7 @@ public class ModelPhyParserWrapper {
                 Distribution dist = (Distribution) visit(ctx.distribution());
                 
                 Constraint constraint = new Constraint(func, dist);
+                constraint.setSourceRange(range(ctx));
                 constraints.put(func.getName(), constraint);
                 model.addConstraint(constraint);
             }
@@ -252,6 +394,7 @@ public class ModelPhyParserWrapper {
             } else {
                 var = new DeterministicVariable(id, type, expr);
             }
+            locate(var, ctx, ctx.identifier());
             
             variables.put(id, var);
             model.addDeterministicVariable(var);
@@ -267,8 +410,10 @@ public class ModelPhyParserWrapper {
             Variable var = variables.get(id);
             
             if (var == null) {
-                // Handle error - variable not found
-                throw new RuntimeException("Variable not found: " + id);
+                // Report the undefined variable and keep building the rest of the model
+                problems.add(new ParseProblem(ParseProblem.Kind.SEMANTIC,
+                    "Variable not found: " + id, range(ctx.identifier())));
+                return null;
             }
             
             if (ctx.STRING_LITERAL() != null) {
@@ -278,10 +423,14 @@ public class ModelPhyParserWrapper {
                 filename = filename.substring(1, filename.length() - 1);
                 
                 Observation obs = new Observation(id, ObservationType.FILE, filename);
+                obs.setSourceRange(range(ctx));
+                obs.setNameRange(range(ctx.identifier()));
                 var.setObservation(obs);
             } else {
                 // Observation with key-value list
                 Observation obs = new Observation(id, ObservationType.INLINE);
+                obs.setSourceRange(range(ctx));
+                obs.setNameRange(range(ctx.identifier()));
                 
                 // Process key-value pairs
                 for (ModelPhyParser.KeyValueContext keyValue : ctx.keyValueList().keyValue()) {
@@ -329,6 +478,7 @@ public class ModelPhyParserWrapper {
             FunctionCall func = (FunctionCall) visit(ctx.functionCall());
             
             Constraint constraint = new Constraint(id, func);
+            constraint.setSourceRange(range(ctx));
             constraints.put(id, constraint);
             model.addConstraint(constraint);
             
@@ -380,7 +530,7 @@ public class ModelPhyParserWrapper {
         @Override
         public Object visitIdentifierExpr(ModelPhyParser.IdentifierExprContext ctx) {
             if (debug) System.out.println("Visiting identifier expression: " + ctx.getText());
-            return new VariableReference(ctx.identifier().getText());
+            return new VariableReference(ctx.identifier().getText(), range(ctx));
         }
         
         @Override
@@ -425,7 +575,11 @@ public class ModelPhyParserWrapper {
             } else if (ctx.FLOAT_LITERAL() != null) {
                 return Double.parseDouble(ctx.FLOAT_LITERAL().getText());
             } else if (ctx.STRING_LITERAL() != null) {
-                String text = ctx.STRING_LITERAL().getText();
+                Token token = ctx.STRING_LITERAL().getSymbol();
+                if (token instanceof StringLiteralToken) {
+                    return ((StringLiteralToken) token).getValue();
+                }
+                String text = token.getText();
                 // Remove quotes
                 return text.substring(1, text.length() - 1);
             } else if (ctx.BOOLEAN_LITERAL() != null) {
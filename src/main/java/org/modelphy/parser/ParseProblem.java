@@ -0,0 +1,55 @@
+package org.modelphy.parser;
+
+import org.modelphy.model.SourceRange;
+
+/**
+ * A problem found while parsing ModelPhy source, with its location.
+ */
+public class ParseProblem {
+
+    /**
+     * The phase that reported a problem.
+     */
+    public enum Kind {
+        /** The text could not be split into tokens. */
+        LEXER,
+        /** The tokens do not match the grammar. */
+        SYNTAX,
+        /** The statements are well-formed but do not describe a valid model. */
+        SEMANTIC
+    }
+
+    private final Kind kind;
+    private final String message;
+    private final SourceRange range;
+
+    /**
+     * Create a new problem.
+     *
+     * @param kind The phase that reported the problem
+     * @param message A description of the problem
+     * @param range Where the problem occurs
+     */
+    public ParseProblem(Kind kind, String message, SourceRange range) {
+        this.kind = kind;
+        this.message = message;
+        this.range = range;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public SourceRange getRange() {
+        return range;
+    }
+
+    @Override
+    public String toString() {
+        return "line " + (range.getStartLine() + 1) + ":" + range.getStartColumn() + " " + message;
+    }
+}
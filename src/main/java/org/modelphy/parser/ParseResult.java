@@ -0,0 +1,86 @@
+package org.modelphy.parser;
+
+import org.antlr.v4.runtime.Token;
+import org.modelphy.antlr.ModelPhyParser;
+import org.modelphy.model.ModelPhyModel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything produced by a single parse of a ModelPhy document.
+ *
+ * The token list, parse tree and model all come from the same lex and parse,
+ * so consumers such as diagnostics, hover and completion can share one result
+ * instead of re-parsing the text. Model elements carry {@link org.modelphy.model.SourceRange}s
+ * pointing back into the source.
+ */
+public class ParseResult {
+    private final List<Token> tokens;
+    private final ModelPhyParser.ProgramContext tree;
+    private final ModelPhyModel model;
+    private final List<ParseProblem> syntaxErrors;
+    private final List<ParseProblem> semanticErrors;
+
+    ParseResult(List<Token> tokens, ModelPhyParser.ProgramContext tree, ModelPhyModel model,
+                List<ParseProblem> syntaxErrors, List<ParseProblem> semanticErrors) {
+        this.tokens = Collections.unmodifiableList(tokens);
+        this.tree = tree;
+        this.model = model;
+        this.syntaxErrors = Collections.unmodifiableList(syntaxErrors);
+        this.semanticErrors = Collections.unmodifiableList(semanticErrors);
+    }
+
+    /**
+     * Get all tokens, ending with EOF.
+     * Empty if the model was built from separately parsed statements.
+     */
+    public List<Token> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Get the parse tree.
+     *
+     * @return The program tree, or null if the model was built from separately parsed statements
+     */
+    public ModelPhyParser.ProgramContext getTree() {
+        return tree;
+    }
+
+    /**
+     * Get the model built from the statements that could be parsed.
+     */
+    public ModelPhyModel getModel() {
+        return model;
+    }
+
+    /**
+     * Get the lexer and parser errors, in source order.
+     */
+    public List<ParseProblem> getSyntaxErrors() {
+        return syntaxErrors;
+    }
+
+    /**
+     * Get the errors found while building the model.
+     */
+    public List<ParseProblem> getSemanticErrors() {
+        return semanticErrors;
+    }
+
+    public boolean hasSyntaxErrors() {
+        return !syntaxErrors.isEmpty();
+    }
+
+    /**
+     * Get all problems, syntax errors first.
+     */
+    public List<ParseProblem> getProblems() {
+        List<ParseProblem> problems = new ArrayList<>(syntaxErrors.size() + semanticErrors.size());
+        problems.addAll(syntaxErrors);
+        problems.addAll(semanticErrors);
+        return problems;
+    }
+}
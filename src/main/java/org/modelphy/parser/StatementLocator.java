@@ -0,0 +1,22 @@
+package org.modelphy.parser;
+
+import org.modelphy.model.SourceRange;
+
+/**
+ * Maps ranges in a separately parsed statement to ranges in the document.
+ *
+ * Used when statements are lexed and parsed on their own, e.g. by an
+ * incremental parser, so that their token positions are only correct relative
+ * to where the statement was when it was lexed.
+ */
+public interface StatementLocator {
+
+    /**
+     * Translate a range to document coordinates.
+     *
+     * @param statement The index of the statement the range belongs to
+     * @param range The range as computed from the statement's tokens
+     * @return The range in the current document
+     */
+    SourceRange locate(int statement, SourceRange range);
+}
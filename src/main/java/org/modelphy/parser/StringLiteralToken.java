@@ -0,0 +1,16 @@
+package org.modelphy.parser;
+
+/**
+ * A string literal token that keeps its value, so that building a model from
+ * cached parse trees does not copy the text of a large literal again.
+ *
+ * Token factories may create string literals implementing this; others are
+ * unquoted from their text.
+ */
+public interface StringLiteralToken {
+
+    /**
+     * Get the literal's text without the enclosing quotes.
+     */
+    String getValue();
+}